@@ -0,0 +1,581 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.EndpointManager;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+
+/**
+ * A client that polls many devices with GET requests. Unlike a
+ * {@link CoapClient}, which sends one request to one URI at a time, the bulk
+ * client pulls its targets from an iterator and keeps a window of requests
+ * in flight, limited globally and per peer. All requests go over the same
+ * endpoint and the targets carry pre-built options, so that no URI needs to
+ * be parsed per request.
+ * <p>
+ * The results are delivered to a {@link Callback} as they arrive. The
+ * {@link Session} returned by {@link #poll(Iterator, Callback)} can be used
+ * to wait for the end and reports the latency percentiles of all responses.
+ * <p>
+ * <pre>
+ * OptionSet template = new OptionSet().setUriPath("/3/0/1");
+ * List&lt;Target&gt; targets = new ArrayList&lt;Target&gt;();
+ * for (InetAddress device:devices)
+ *   targets.add(new Target(device, CoAP.DEFAULT_COAP_PORT, template));
+ * Session session = new CoapBulkClient().setMaxInFlight(512).poll(targets.iterator(), callback);
+ * session.await(10, TimeUnit.MINUTES);
+ * System.out.println(session.getStatistics());
+ * </pre>
+ */
+public class CoapBulkClient {
+
+	/**
+	 * The address, port, and options of a request to poll. The options are
+	 * used as template and copied for each request.
+	 */
+	public static class Target {
+
+		private final InetAddress address;
+		private final int port;
+		private final OptionSet options;
+
+		/**
+		 * Constructs a new target.
+		 * 
+		 * @param address the address of the device
+		 * @param port the port of the device
+		 * @param options the options of the request, e.g., the Uri-Path
+		 */
+		public Target(InetAddress address, int port, OptionSet options) {
+			if (address == null || options == null)
+				throw new NullPointerException();
+			this.address = address;
+			this.port = port;
+			this.options = options;
+		}
+
+		/**
+		 * Constructs a new target with the specified path.
+		 * 
+		 * @param address the address of the device
+		 * @param port the port of the device
+		 * @param path the path of the resource
+		 */
+		public Target(InetAddress address, int port, String path) {
+			this(address, port, new OptionSet().setUriPath(path));
+		}
+
+		public InetAddress getAddress() {
+			return address;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		public OptionSet getOptions() {
+			return options;
+		}
+
+		@Override
+		public String toString() {
+			return address.getHostAddress()+":"+port+"/"+options.getUriPathString();
+		}
+	}
+
+	/**
+	 * The callback for the results of a bulk poll. It is invoked on the
+	 * executor of the client if it has one or on the protocol stage
+	 * otherwise.
+	 */
+	public interface Callback {
+
+		/**
+		 * Invoked when a response has arrived (even if the response code is
+		 * not successful).
+		 * 
+		 * @param target the target
+		 * @param response the response
+		 */
+		public void onResponse(Target target, CoapResponse response);
+
+		/**
+		 * Invoked when a request has timed out or been rejected.
+		 * 
+		 * @param target the target
+		 * @param failure the reason
+		 */
+		public void onError(Target target, Throwable failure);
+	}
+
+	/** The endpoint or null for the default endpoint */
+	private Endpoint endpoint;
+
+	/** The executor for the callback or null */
+	private Executor executor;
+
+	/** The type used for requests */
+	private Type type = Type.CON;
+
+	/** The timeout in ms (0 for the default) */
+	private long timeout;
+
+	/** The maximum number of requests in flight */
+	private int maxInFlight = 256;
+
+	/** The maximum number of requests in flight per peer */
+	private int maxInFlightPerPeer = 1;
+
+	public Endpoint getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * Sets the endpoint for all requests. If none is set, the default
+	 * endpoint is used.
+	 * 
+	 * @param endpoint the endpoint
+	 * @return this client
+	 */
+	public CoapBulkClient setEndpoint(Endpoint endpoint) {
+		this.endpoint = endpoint;
+		return this;
+	}
+
+	/**
+	 * Sets the executor that invokes the callback.
+	 * 
+	 * @param executor the executor or null to use the protocol stage
+	 * @return this client
+	 */
+	public CoapBulkClient setExecutor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	/**
+	 * Lets the client send CON requests (default).
+	 * 
+	 * @return this client
+	 */
+	public CoapBulkClient useCONs() {
+		this.type = Type.CON;
+		return this;
+	}
+
+	/**
+	 * Lets the client send NON requests.
+	 * 
+	 * @return this client
+	 */
+	public CoapBulkClient useNONs() {
+		this.type = Type.NON;
+		return this;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Sets the time after which a request without response fails. By default,
+	 * CON requests fail when the reliability layer gives up on them and NON
+	 * requests after {@link NetworkConfig.Keys#MAX_TRANSMIT_WAIT} of the
+	 * endpoint. A timeout shorter than that cancels CON requests before all
+	 * retransmissions have been sent.
+	 * 
+	 * @param timeout the timeout in ms (0 for the default)
+	 * @return this client
+	 */
+	public CoapBulkClient setTimeout(long timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * Sets the maximum number of requests in flight over all peers.
+	 * 
+	 * @param maxInFlight the maximum
+	 * @return this client
+	 */
+	public CoapBulkClient setMaxInFlight(int maxInFlight) {
+		if (maxInFlight <= 0)
+			throw new IllegalArgumentException("Maximum must be positive: "+maxInFlight);
+		this.maxInFlight = maxInFlight;
+		return this;
+	}
+
+	public int getMaxInFlightPerPeer() {
+		return maxInFlightPerPeer;
+	}
+
+	/**
+	 * Sets the maximum number of requests in flight to the same peer. The
+	 * default of 1 complies with NSTART.
+	 * 
+	 * @param maxInFlightPerPeer the maximum
+	 * @return this client
+	 */
+	public CoapBulkClient setMaxInFlightPerPeer(int maxInFlightPerPeer) {
+		if (maxInFlightPerPeer <= 0)
+			throw new IllegalArgumentException("Maximum must be positive: "+maxInFlightPerPeer);
+		this.maxInFlightPerPeer = maxInFlightPerPeer;
+		return this;
+	}
+
+	/**
+	 * Starts polling the specified targets and returns immediately. The
+	 * iterator is advanced whenever there is room in the window, also from
+	 * the protocol stage, and thus must not block. The settings of the client
+	 * must not be changed while polling.
+	 * 
+	 * @param targets the targets
+	 * @param callback the callback for the results
+	 * @return the session
+	 */
+	public Session poll(Iterator<Target> targets, Callback callback) {
+		if (targets == null || callback == null)
+			throw new NullPointerException();
+		Endpoint outEndpoint = endpoint != null ? endpoint : EndpointManager.getEndpointManager().getDefaultEndpoint();
+		Session session = new Session(targets, callback, outEndpoint);
+		session.pump(null);
+		return session;
+	}
+
+	/**
+	 * A running bulk poll.
+	 */
+	public class Session {
+
+		private final Iterator<Target> targets;
+		private final Callback callback;
+		private final Endpoint endpoint;
+		private final long timeout;
+
+		/** The latencies of all responses */
+		private final Statistics statistics = new Statistics();
+
+		/** The number of requests in flight and waiting per peer, guarded by this */
+		private final Map<InetSocketAddress, Peer> peers = new HashMap<InetSocketAddress, Peer>();
+
+		/* guarded by this */
+		private int inFlight;
+		private int parked;
+		private boolean exhausted;
+		private boolean done;
+
+		private Session(Iterator<Target> targets, Callback callback, Endpoint endpoint) {
+			this.targets = targets;
+			this.callback = callback;
+			this.endpoint = endpoint;
+			if (CoapBulkClient.this.timeout > 0 || type == Type.CON) {
+				this.timeout = CoapBulkClient.this.timeout;
+			} else {
+				// NONs are not retransmitted and need a timeout to release the peer
+				this.timeout = endpoint.getConfig().getLong(NetworkConfig.Keys.MAX_TRANSMIT_WAIT);
+			}
+		}
+
+		/**
+		 * Checks if all targets have been polled.
+		 * 
+		 * @return true if done
+		 */
+		public synchronized boolean isDone() {
+			return done;
+		}
+
+		/**
+		 * Waits until all targets have been polled.
+		 * 
+		 * @param timeout the maximum time to wait
+		 * @param unit the unit of the timeout
+		 * @return true if done, false if the timeout elapsed
+		 * @throws InterruptedException if interrupted
+		 */
+		public synchronized boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+			long end = System.nanoTime() + unit.toNanos(timeout);
+			while (!done) {
+				long left = end - System.nanoTime();
+				if (left <= 0)
+					return false;
+				TimeUnit.NANOSECONDS.timedWait(this, left);
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the number of requests in flight.
+		 * 
+		 * @return the number of requests
+		 */
+		public synchronized int getInFlight() {
+			return inFlight;
+		}
+
+		/**
+		 * Returns the latency statistics of the responses so far.
+		 * 
+		 * @return the statistics
+		 */
+		public Statistics getStatistics() {
+			return statistics;
+		}
+
+		/*
+		 * Releases the slot of a completed request and sends as many requests
+		 * as the window allows. Requests are sent outside the lock.
+		 */
+		private void pump(Peer completed) {
+			List<Target> send = new ArrayList<Target>();
+			synchronized (this) {
+				if (completed != null) {
+					inFlight--;
+					completed.inFlight--;
+					// a peer whose targets are parked gets its slot back first
+					if (!completed.waiting.isEmpty()) {
+						Target next = completed.waiting.removeFirst();
+						parked--;
+						completed.inFlight++;
+						inFlight++;
+						send.add(next);
+					} else if (completed.inFlight == 0) {
+						peers.remove(completed.address);
+					}
+				}
+				while (inFlight < maxInFlight && !exhausted && parked < maxInFlight) {
+					if (!targets.hasNext()) {
+						exhausted = true;
+						break;
+					}
+					Target target = targets.next();
+					InetSocketAddress address = new InetSocketAddress(target.getAddress(), target.getPort());
+					Peer peer = peers.get(address);
+					if (peer == null) {
+						peer = new Peer(address);
+						peers.put(address, peer);
+					}
+					if (peer.inFlight < maxInFlightPerPeer) {
+						peer.inFlight++;
+						inFlight++;
+						send.add(target);
+					} else {
+						peer.waiting.add(target);
+						parked++;
+					}
+				}
+				if (exhausted && inFlight == 0 && parked == 0 && !done) {
+					done = true;
+					notifyAll();
+				}
+			}
+			for (Target target:send)
+				send(target);
+		}
+
+		private void send(final Target target) {
+			Request request = new Request(Code.GET);
+			request.setType(type);
+			request.setDestination(target.getAddress());
+			request.setDestinationPort(target.getPort());
+			request.setOptions(target.getOptions());
+
+			final long start = System.nanoTime();
+			CoapFuture future = new CoapFuture(request, executor);
+			future.addListener(new CoapFuture.Listener() {
+				public void onComplete(CoapFuture future) {
+					try {
+						CoapResponse response = future.getNow();
+						if (response != null) {
+							statistics.record(System.nanoTime() - start);
+							callback.onResponse(target, response);
+						} else {
+							statistics.fail();
+							callback.onError(target, future.getFailure());
+						}
+					} finally {
+						Peer peer;
+						synchronized (Session.this) {
+							peer = peers.get(new InetSocketAddress(target.getAddress(), target.getPort()));
+						}
+						pump(peer);
+					}
+				}
+			});
+			future.start();
+			future.setTimeout(timeout);
+			try {
+				endpoint.sendRequest(request);
+			} catch (RuntimeException e) {
+				future.fail(e);
+			}
+		}
+	}
+
+	/*
+	 * The requests in flight to a peer and the targets waiting for them.
+	 */
+	private static class Peer {
+
+		private final InetSocketAddress address;
+		private final LinkedList<Target> waiting = new LinkedList<Target>();
+		private int inFlight;
+
+		private Peer(InetSocketAddress address) {
+			this.address = address;
+		}
+	}
+
+	/**
+	 * The latency statistics of a bulk poll. Latencies are recorded in a
+	 * histogram with logarithmic buckets of 32 linear sub-buckets each, i.e.,
+	 * percentiles are accurate to about 3% with constant memory.
+	 */
+	public static class Statistics {
+
+		/** The number of linear sub-buckets per power of two */
+		private static final int SUB_BUCKETS = 32;
+
+		/** The number of buckets, enough for latencies of days */
+		private static final int BUCKETS = SUB_BUCKETS * 40;
+
+		/* guarded by this, latencies in microseconds */
+		private final long[] counts = new long[BUCKETS];
+		private long count;
+		private long errors;
+		private long sum;
+		private long min = Long.MAX_VALUE;
+		private long max;
+
+		private synchronized void record(long nanos) {
+			long micros = Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0);
+			counts[index(micros)]++;
+			count++;
+			sum += micros;
+			min = Math.min(min, micros);
+			max = Math.max(max, micros);
+		}
+
+		private synchronized void fail() {
+			errors++;
+		}
+
+		private static int index(long value) {
+			if (value < SUB_BUCKETS)
+				return (int) value;
+			int shift = 63 - Long.numberOfLeadingZeros(value) - 5;
+			return Math.min((shift + 1) * SUB_BUCKETS + (int) (value >> shift) - SUB_BUCKETS, BUCKETS - 1);
+		}
+
+		private static long upperBound(int index) {
+			if (index < SUB_BUCKETS)
+				return index;
+			int shift = index / SUB_BUCKETS - 1;
+			long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+			return ((sub + 1) << shift) - 1;
+		}
+
+		/**
+		 * Returns the number of responses.
+		 * 
+		 * @return the number of responses
+		 */
+		public synchronized long getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the number of requests that timed out or were rejected.
+		 * 
+		 * @return the number of errors
+		 */
+		public synchronized long getErrors() {
+			return errors;
+		}
+
+		/**
+		 * Returns the mean latency.
+		 * 
+		 * @param unit the unit of the result
+		 * @return the mean latency
+		 */
+		public synchronized long getMean(TimeUnit unit) {
+			return count == 0 ? 0 : unit.convert(sum / count, TimeUnit.MICROSECONDS);
+		}
+
+		/**
+		 * Returns the maximum latency.
+		 * 
+		 * @param unit the unit of the result
+		 * @return the maximum latency
+		 */
+		public synchronized long getMax(TimeUnit unit) {
+			return unit.convert(max, TimeUnit.MICROSECONDS);
+		}
+
+		/**
+		 * Returns the latency that the specified percentage of responses did
+		 * not exceed.
+		 * 
+		 * @param percentile the percentile between 0 and 100
+		 * @param unit the unit of the result
+		 * @return the latency
+		 */
+		public synchronized long getPercentile(double percentile, TimeUnit unit) {
+			if (percentile < 0 || percentile > 100)
+				throw new IllegalArgumentException("Percentile must be between 0 and 100: "+percentile);
+			if (count == 0)
+				return 0;
+			long rank = Math.max((long) Math.ceil(count * percentile / 100), 1);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank)
+					return unit.convert(Math.max(Math.min(upperBound(i), max), min), TimeUnit.MICROSECONDS);
+			}
+			return unit.convert(max, TimeUnit.MICROSECONDS);
+		}
+
+		@Override
+		public String toString() {
+			TimeUnit unit = TimeUnit.MICROSECONDS;
+			return String.format("%d responses, %d errors, latency [us] mean %d, p50 %d, p90 %d, p99 %d, p99.9 %d, max %d",
+					getCount(), getErrors(), getMean(unit), getPercentile(50, unit), getPercentile(90, unit),
+					getPercentile(99, unit), getPercentile(99.9, unit), getMax(unit));
+		}
+	}
+}
@@ -23,8 +23,10 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -65,6 +67,15 @@ public class CoapClient {
 	/** The endpoint. */
 	private Endpoint endpoint;
 	
+	/** The maximum number of requests of futures in flight (0 for no limit) */
+	private volatile int maxInFlight = 0;
+	
+	/** The number of requests of futures in flight */
+	private final AtomicInteger inFlight = new AtomicInteger();
+	
+	/** The futures waiting for their request to be sent */
+	private final ConcurrentLinkedQueue<CoapFuture> waiting = new ConcurrentLinkedQueue<CoapFuture>();
+	
 	/**
 	 * Constructs a new CoapClient that has no destination URI yet.
 	 */
@@ -663,6 +674,123 @@ public class CoapClient {
 		asynchronous(request, handler);
 	}
 	
+	// Future-based requests
+	
+	/**
+	 * Sends a GET request and returns a future for the response.
+	 * 
+	 * @return the future
+	 */
+	public CoapFuture getAsync() {
+		return submit(Request.newGet().setURI(uri));
+	}
+	
+	/**
+	 * Sends a GET request with the specified Accept option and returns a
+	 * future for the response.
+	 * 
+	 * @param accept the Accept option
+	 * @return the future
+	 */
+	public CoapFuture getAsync(int accept) {
+		return submit(accept(Request.newGet().setURI(uri), accept));
+	}
+	
+	/**
+	 * Sends a POST request with the specified payload and Content-Format and
+	 * returns a future for the response.
+	 * 
+	 * @param payload the payload
+	 * @param format the Content-Format
+	 * @return the future
+	 */
+	public CoapFuture postAsync(String payload, int format) {
+		return submit(format(Request.newPost().setURI(uri).setPayload(payload), format));
+	}
+	
+	/**
+	 * Sends a POST request with the specified payload and Content-Format and
+	 * returns a future for the response.
+	 * 
+	 * @param payload the payload
+	 * @param format the Content-Format
+	 * @return the future
+	 */
+	public CoapFuture postAsync(byte[] payload, int format) {
+		return submit(format(Request.newPost().setURI(uri).setPayload(payload), format));
+	}
+	
+	/**
+	 * Sends a PUT request with the specified payload and Content-Format and
+	 * returns a future for the response.
+	 * 
+	 * @param payload the payload
+	 * @param format the Content-Format
+	 * @return the future
+	 */
+	public CoapFuture putAsync(String payload, int format) {
+		return submit(format(Request.newPut().setURI(uri).setPayload(payload), format));
+	}
+	
+	/**
+	 * Sends a PUT request with the specified payload and Content-Format and
+	 * returns a future for the response.
+	 * 
+	 * @param payload the payload
+	 * @param format the Content-Format
+	 * @return the future
+	 */
+	public CoapFuture putAsync(byte[] payload, int format) {
+		return submit(format(Request.newPut().setURI(uri).setPayload(payload), format));
+	}
+	
+	/**
+	 * Sends a DELETE request and returns a future for the response.
+	 * 
+	 * @return the future
+	 */
+	public CoapFuture deleteAsync() {
+		return submit(Request.newDelete().setURI(uri));
+	}
+	
+	/**
+	 * Sends an advanced request that has to be configured by the developer
+	 * and returns a future for the response.
+	 * 
+	 * @param request the custom request
+	 * @return the future
+	 */
+	public CoapFuture advancedAsync(Request request) {
+		request.setURI(uri);
+		return submit(request);
+	}
+	
+	/**
+	 * Gets the maximum number of requests sent through futures that may be
+	 * in flight at the same time.
+	 * 
+	 * @return the maximum or 0 for no limit
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+	
+	/**
+	 * Limits the number of requests sent through futures that may be in
+	 * flight at the same time. Further requests are queued without blocking
+	 * the caller and sent when earlier futures complete.
+	 * 
+	 * @param maxInFlight the maximum or 0 for no limit
+	 * @return the CoAP client
+	 */
+	public CoapClient setMaxInFlight(int maxInFlight) {
+		if (maxInFlight < 0)
+			throw new IllegalArgumentException("Maximum must not be negative: "+maxInFlight);
+		this.maxInFlight = maxInFlight;
+		sendWaiting();
+		return this;
+	}
+	
 	// Synchronous observer
 	
 	/**
@@ -742,6 +870,71 @@ public class CoapClient {
 		send(request);
 	}
 	
+	/*
+	 * Creates a future for the specified request and sends the request
+	 * unless the maximum number of requests in flight has been reached.
+	 *
+	 * @param request the request
+	 * @return the future
+	 */
+	private CoapFuture submit(Request request) {
+		final CoapFuture future = new CoapFuture(request, executor);
+		future.addListener(new CoapFuture.Listener() {
+			public void onComplete(CoapFuture future) {
+				if (future.isStarted()) {
+					inFlight.decrementAndGet();
+					sendWaiting();
+				}
+			}
+		});
+		if (maxInFlight <= 0) {
+			inFlight.incrementAndGet();
+			start(future);
+		} else {
+			waiting.add(future);
+			sendWaiting();
+		}
+		return future;
+	}
+	
+	/*
+	 * Sends the requests of waiting futures while the maximum number of
+	 * requests in flight has not been reached.
+	 */
+	private void sendWaiting() {
+		while (!waiting.isEmpty()) {
+			int current = inFlight.get();
+			int max = maxInFlight;
+			if (max > 0 && current >= max)
+				return;
+			if (!inFlight.compareAndSet(current, current + 1))
+				continue;
+			CoapFuture future = waiting.poll();
+			if (future == null) {
+				inFlight.decrementAndGet();
+			} else {
+				start(future);
+			}
+		}
+	}
+	
+	/*
+	 * Sends the request of the specified future unless it has already been
+	 * canceled. The caller must have reserved a slot in flight.
+	 */
+	private void start(CoapFuture future) {
+		if (!future.start()) {
+			inFlight.decrementAndGet();
+			return;
+		}
+		future.setTimeout(getTimeout());
+		try {
+			send(future.getRequest());
+		} catch (RuntimeException e) {
+			future.fail(e);
+		}
+	}
+	
 	/*
 	 * Synchronously sends the specified request.
 	 *
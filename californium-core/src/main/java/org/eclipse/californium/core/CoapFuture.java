@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+
+/**
+ * A CoapFuture is the pending result of an asynchronous request of a
+ * {@link CoapClient}. Instead of blocking a thread until the response
+ * arrives, the caller can register listeners that are invoked when the
+ * future completes, e.g., to send a follow-up request. Listeners run on the
+ * executor of the client if it has one or on the thread that completes the
+ * future otherwise.
+ * <p>
+ * A future completes with a response (even if the response code is not
+ * successful), fails with an exception if the request times out or is
+ * rejected, or is canceled. The timeout of the client is enforced by a
+ * shared timer, so that no thread waits for it. Canceling a future cancels
+ * its request, which also releases the exchange.
+ * <p>
+ * The blocking methods of {@link Future} are available for callers that
+ * want to wait nonetheless.
+ */
+public class CoapFuture implements Future<CoapResponse> {
+
+	/**
+	 * A listener that is invoked when a future completes.
+	 */
+	public interface Listener {
+
+		/**
+		 * Invoked when the future has completed, failed, or been canceled.
+		 * 
+		 * @param future the future
+		 */
+		public void onComplete(CoapFuture future);
+	}
+
+	/** The logger. */
+	private static final Logger LOGGER = Logger.getLogger(CoapFuture.class.getCanonicalName());
+
+	/** The timer for the timeouts of all futures */
+	private static ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new Utils.DaemonThreadFactory());
+
+	/** The request */
+	private final Request request;
+
+	/** The executor for the listeners or null */
+	private final Executor executor;
+
+	/** The listeners to invoke on completion, guarded by this */
+	private List<Listener> listeners;
+
+	/** The state, guarded by this */
+	private boolean started;
+	private boolean done;
+	private boolean canceled;
+	private CoapResponse response;
+	private Throwable failure;
+	private ScheduledFuture<?> timer;
+
+	/**
+	 * Constructs a new future that completes with the response to the
+	 * specified request.
+	 * 
+	 * @param request the request
+	 * @param executor the executor for the listeners or null
+	 */
+	CoapFuture(Request request, Executor executor) {
+		if (request == null)
+			throw new NullPointerException();
+		this.request = request;
+		this.executor = executor;
+		request.addMessageObserver(new MessageObserverAdapter() {
+			@Override public void onResponse(Response response) {
+				complete(new CoapResponse(response));
+			}
+			
+			@Override public void onReject() {
+				fail(new IOException("Request has been rejected"));
+			}
+			
+			@Override public void onTimeout() {
+				fail(new TimeoutException("Request has timed out"));
+			}
+		});
+	}
+
+	/**
+	 * Returns the request of this future.
+	 * 
+	 * @return the request
+	 */
+	public Request getRequest() {
+		return request;
+	}
+
+	/**
+	 * Adds a listener that is invoked when this future completes. If the
+	 * future has already completed, the listener is invoked right away.
+	 * 
+	 * @param listener the listener
+	 * @return this future
+	 */
+	public CoapFuture addListener(Listener listener) {
+		if (listener == null)
+			throw new NullPointerException();
+		synchronized (this) {
+			if (!done) {
+				if (listeners == null)
+					listeners = new ArrayList<Listener>(2);
+				listeners.add(listener);
+				return this;
+			}
+		}
+		invoke(listener);
+		return this;
+	}
+
+	/**
+	 * Adds a handler that is invoked with the response when this future
+	 * completes or whose method {@link CoapHandler#onError()} is invoked if
+	 * the future fails. The handler is not invoked if the future is canceled.
+	 * 
+	 * @param handler the handler
+	 * @return this future
+	 */
+	public CoapFuture addHandler(final CoapHandler handler) {
+		if (handler == null)
+			throw new NullPointerException();
+		return addListener(new Listener() {
+			public void onComplete(CoapFuture future) {
+				if (future.isCancelled())
+					return;
+				CoapResponse response = future.getNow();
+				if (response != null)
+					handler.onLoad(response);
+				else
+					handler.onError();
+			}
+		});
+	}
+
+	/**
+	 * Returns the response if this future has completed with one.
+	 * 
+	 * @return the response or null
+	 */
+	public synchronized CoapResponse getNow() {
+		return response;
+	}
+
+	/**
+	 * Returns the reason why this future has failed, e.g., a
+	 * {@link TimeoutException}.
+	 * 
+	 * @return the exception or null
+	 */
+	public synchronized Throwable getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Marks this future as started, i.e., its request is about to be sent.
+	 * 
+	 * @return false if the future is already done
+	 */
+	synchronized boolean start() {
+		if (done)
+			return false;
+		started = true;
+		return true;
+	}
+
+	/**
+	 * Checks if the request of this future has been sent.
+	 * 
+	 * @return true if started
+	 */
+	synchronized boolean isStarted() {
+		return started;
+	}
+
+	/**
+	 * Fails this future with a {@link TimeoutException} and cancels the
+	 * request if no response has arrived after the specified time.
+	 * 
+	 * @param timeout the timeout in ms (0 for none)
+	 */
+	void setTimeout(final long timeout) {
+		if (timeout <= 0)
+			return;
+		ScheduledFuture<?> timer = scheduler.schedule(new Runnable() {
+			public void run() {
+				finish(null, new TimeoutException("No response after "+timeout+" ms"), false, true);
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+		synchronized (this) {
+			if (!done) {
+				this.timer = timer;
+				return;
+			}
+		}
+		timer.cancel(false);
+	}
+
+	/**
+	 * Completes this future with the specified response.
+	 * 
+	 * @param response the response
+	 * @return true if this call completed the future
+	 */
+	boolean complete(CoapResponse response) {
+		return finish(response, null, false, false);
+	}
+
+	/**
+	 * Fails this future with the specified exception.
+	 * 
+	 * @param failure the reason
+	 * @return true if this call completed the future
+	 */
+	boolean fail(Throwable failure) {
+		return finish(null, failure, false, false);
+	}
+
+	/**
+	 * Cancels this future and its request. The request is canceled even if it
+	 * has not been sent yet, so that it is never sent.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return finish(null, null, true, true);
+	}
+
+	/*
+	 * Completes this future unless it is already done. The request is
+	 * canceled before waiting threads are woken up.
+	 */
+	private boolean finish(CoapResponse response, Throwable failure, boolean canceled, boolean cancelRequest) {
+		List<Listener> listeners;
+		ScheduledFuture<?> timer;
+		synchronized (this) {
+			if (done)
+				return false;
+			this.done = true;
+			this.response = response;
+			this.failure = failure;
+			this.canceled = canceled;
+			listeners = this.listeners;
+			this.listeners = null;
+			timer = this.timer;
+			this.timer = null;
+			if (cancelRequest)
+				request.cancel();
+			notifyAll();
+		}
+		if (timer != null)
+			timer.cancel(false);
+		if (listeners != null)
+			for (Listener listener:listeners)
+				invoke(listener);
+		return true;
+	}
+
+	private void invoke(final Listener listener) {
+		if (executor == null) {
+			run(listener);
+		} else {
+			executor.execute(new Runnable() {
+				public void run() {
+					CoapFuture.this.run(listener);
+				}
+			});
+		}
+	}
+
+	private void run(Listener listener) {
+		try {
+			listener.onComplete(this);
+		} catch (Throwable t) {
+			LOGGER.log(Level.WARNING, "Exception while handling future", t);
+		}
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return canceled;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	@Override
+	public synchronized CoapResponse get() throws InterruptedException, ExecutionException {
+		while (!done)
+			wait();
+		return result();
+	}
+
+	@Override
+	public synchronized CoapResponse get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		long end = System.nanoTime() + unit.toNanos(timeout);
+		while (!done) {
+			long left = end - System.nanoTime();
+			if (left <= 0)
+				throw new TimeoutException();
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+		return result();
+	}
+
+	private CoapResponse result() throws ExecutionException {
+		if (canceled)
+			throw new CancellationException();
+		if (failure != null)
+			throw new ExecutionException(failure);
+		return response;
+	}
+}
@@ -22,7 +22,9 @@ package org.eclipse.californium.core;
 import java.net.URI;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
@@ -37,6 +39,8 @@ import org.eclipse.californium.core.coap.CoAP.Type;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.Endpoint;
 import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.observe.NotificationScheduler;
+import org.eclipse.californium.core.observe.NotificationTemplate;
 import org.eclipse.californium.core.observe.ObserveNotificationOrderer;
 import org.eclipse.californium.core.observe.ObserveRelation;
 import org.eclipse.californium.core.observe.ObserveRelationContainer;
@@ -151,6 +155,22 @@ public  class CoapResource implements Resource {
 	/* The type used for notifications (no change when set to null) */
 	private Type observeType = null;
 	
+	/* Indicates whether notifications are rendered once for all relations. */
+	private boolean sharedNotifications;
+	
+	/* The scheduler that coalesces changes or null to notify at once. */
+	private volatile NotificationScheduler notificationScheduler;
+	
+	/* Runs postponed notifications on the protocol stage instead of the timer
+	 * of the scheduler, unless this resource dispatches them to its executor. */
+	private final Executor notificationExecutor = new Executor() {
+		public void execute(Runnable command) {
+			Executor executor = getExecutor() == null ? getProtocolStage() : null;
+			if (executor == null) command.run();
+			else executor.execute(command);
+		}
+	};
+	
 	/* The list of observers (not CoAP observer). */
 	private List<ResourceObserver> observers;
 
@@ -425,26 +445,27 @@ public  class CoapResource implements Resource {
 	 */
 	@Override
 	public synchronized boolean remove(Resource child) {
-		Resource removed = remove(child.getName());
-		if (removed == child) {
-			child.setParent(null);
-			child.setPath(null);
-			for (ResourceObserver obs : observers)
-				obs.removedChild(child);
-			return true;
-		}
-		return false;
+		return remove(child.getName()) == child;
 	}
 	
 	/**
 	 * Removes the child with the specified name and returns it. If no child
-	 * with the specified name is found, the return value is null.
+	 * with the specified name is found, the return value is null. The removed
+	 * child is detached from this resource and the resource observers are
+	 * notified like for {@link #remove(Resource)}.
 	 * 
 	 * @param name the name
 	 * @return the removed resource or null
 	 */
 	public synchronized Resource remove(String name) {
-		return children.remove(name);
+		Resource removed = children.remove(name);
+		if (removed != null) {
+			removed.setParent(null);
+			removed.setPath(null);
+			for (ResourceObserver obs : observers)
+				obs.removedChild(removed);
+		}
+		return removed;
 	}
 	
 	/**
@@ -460,6 +481,11 @@ public  class CoapResource implements Resource {
 		if (isObservable()) {
 			clearAndNotifyObserveRelations(ResponseCode.NOT_FOUND);
 		}
+		
+		NotificationScheduler scheduler = notificationScheduler;
+		if (scheduler != null) {
+			scheduler.cancel();
+		}
 	}
 	
 	/**
@@ -663,6 +689,63 @@ public  class CoapResource implements Resource {
 		if (type == Type.ACK || type == Type.RST) throw new IllegalArgumentException("Only CON and NON notifications are allowed or null for no changes by the framework");
 		this.observeType = type;
 	}
+	
+	/**
+	 * Makes {@link #changed()} render the representation only once for all
+	 * observe relations with the same variant, i.e., the same Accept option
+	 * and query, instead of processing the request of each relation again. The
+	 * other relations receive a copy of this notification, whose options and
+	 * payload are encoded only once (see {@link NotificationTemplate}). Only
+	 * enable this if the handler responds before it returns and if its
+	 * response does not depend on the observing client. Otherwise, the
+	 * requests are processed for each relation as before.
+	 *
+	 * @param shared true to share notifications among relations
+	 */
+	public void setSharedNotifications(boolean shared) {
+		this.sharedNotifications = shared;
+	}
+	
+	/**
+	 * Returns true if notifications are rendered once for all observe
+	 * relations with the same variant.
+	 *
+	 * @return true if notifications are shared among relations
+	 */
+	public boolean isSharedNotifications() {
+		return sharedNotifications;
+	}
+	
+	/**
+	 * Sets the minimum and maximum period between notifications, similar to
+	 * the pmin and pmax attributes of CoRE Interfaces. Calls of
+	 * {@link #changed()} within the minimum period after a notification are
+	 * coalesced into a single notification at the end of the period, so that
+	 * a resource that changes very often does not overload its observers. If
+	 * the resource has not changed for the maximum period, the observers are
+	 * notified anyway. A notification postponed under the former periods is
+	 * dropped. Set both to 0 (default) to notify at each change.
+	 *
+	 * @param minPeriod the minimum period in ms
+	 * @param maxPeriod the maximum period in ms or 0 for none
+	 * @throws IllegalArgumentException if a period is negative or the maximum
+	 *             is shorter than the minimum period
+	 */
+	public void setNotificationPeriods(long minPeriod, long maxPeriod) {
+		NotificationScheduler scheduler = null;
+		if (minPeriod > 0 || maxPeriod > 0) {
+			scheduler = new NotificationScheduler(new Runnable() {
+				public void run() {
+					dispatchNotifications();
+				}
+			}, notificationExecutor, minPeriod, maxPeriod);
+		}
+		NotificationScheduler previous = notificationScheduler;
+		notificationScheduler = scheduler;
+		if (previous != null) {
+			previous.cancel();
+		}
+	}
 
 	/* (non-Javadoc)
 	 * @see org.eclipse.californium.core.server.resources.Resource#addObserveRelation(org.eclipse.californium.core.observe.ObserveRelation)
@@ -704,9 +787,33 @@ public  class CoapResource implements Resource {
 	 * request that has established the relation. The notification is done by
 	 * the executor of this resource or on the executor of its parent or
 	 * transitively ancestor. If no ancestor defines its own executor, the
-	 * thread that has called this method performs the notification.
+	 * thread that has called this method performs the notification. If
+	 * notification periods are set, the notification might be postponed and
+	 * coalesced with further changes (see
+	 * {@link #setNotificationPeriods(long, long)}).
 	 */
 	public void changed() {
+		NotificationScheduler scheduler = notificationScheduler;
+		if (scheduler != null) scheduler.changed();
+		else dispatchNotifications();
+	}
+	
+	/*
+	 * Returns the executor of the first endpoint of this resource or null if
+	 * it has none.
+	 */
+	private Executor getProtocolStage() {
+		for (Endpoint endpoint:getEndpoints()) {
+			Executor executor = endpoint.getExecutor();
+			if (executor != null) return executor;
+		}
+		return null;
+	}
+
+	/*
+	 * Notifies the observe relations on the executor of this resource.
+	 */
+	private void dispatchNotifications() {
 		Executor executor = getExecutor();
 		// use thread from the protocol stage
 		if (executor == null) notifyObserverRelations();
@@ -724,10 +831,50 @@ public  class CoapResource implements Resource {
 	 */
 	protected void notifyObserverRelations() {
 		notificationOrderer.getNextObserveNumber();
+		if (sharedNotifications) {
+			notifySharedNotifications();
+			return;
+		}
 		for (ObserveRelation relation:observeRelations) {
 			relation.notifyObservers();
 		}
 	}
+	
+	/*
+	 * Processes the request of the first relation of each variant and sends
+	 * copies of its response to the other relations with the same variant. If
+	 * the handler has not responded successfully before it returned, the
+	 * requests of the variant are processed for each relation.
+	 */
+	private void notifySharedNotifications() {
+		Map<String, NotificationTemplate> templates = new HashMap<String, NotificationTemplate>();
+		for (ObserveRelation relation:observeRelations) {
+			Exchange exchange = relation.getExchange();
+			String variant = NotificationTemplate.getVariant(exchange.getRequest());
+			NotificationTemplate template = templates.get(variant);
+			if (template != null) {
+				if (relation.isEstablished()) {
+					Response notification = template.newNotification();
+					if (observeType != null)
+						notification.setType(observeType);
+					exchange.sendResponse(notification);
+				}
+			} else if (templates.containsKey(variant)) {
+				relation.notifyObservers();
+			} else {
+				Response previous = exchange.getResponse();
+				relation.notifyObservers();
+				Response response = exchange.getResponse();
+				if (response != previous && response != null
+						&& CoAP.ResponseCode.isSuccess(response.getCode())
+						&& response.getOptions().hasObserve()) {
+					templates.put(variant, new NotificationTemplate(response));
+				} else {
+					templates.put(variant, null);
+				}
+			}
+		}
+	}
 
 	/* (non-Javadoc)
 	 * @see org.eclipse.californium.core.server.resources.Resource#getChildren()
@@ -32,6 +32,7 @@ import java.util.logging.Logger;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.network.CoAPEndpoint;
 import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.StripedExecutor;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.core.server.MessageDeliverer;
 import org.eclipse.californium.core.server.ServerInterface;
@@ -154,7 +155,11 @@ public class CoapServer implements ServerInterface {
 		// endpoints
 		this.endpoints = new ArrayList<Endpoint>();
 		// sets the central thread pool for the protocol stage over all endpoints
-		this.executor = Executors.newScheduledThreadPool( config.getInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT) );
+		int threads = this.config.getInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT);
+		if (this.config.getBoolean(NetworkConfig.Keys.USE_STRIPED_PROTOCOL_STAGE))
+			this.executor = new StripedExecutor(threads);
+		else
+			this.executor = Executors.newScheduledThreadPool(threads);
 		// create endpoint for each port
 		for (int port:ports)
 			addEndpoint(new CoAPEndpoint(port, this.config));
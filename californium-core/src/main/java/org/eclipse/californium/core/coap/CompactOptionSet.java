@@ -0,0 +1,449 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.coap;
+
+import java.util.Arrays;
+
+/**
+ * A compact representation of the options of a message. All option values
+ * are stored back to back in a single byte buffer and a single int array
+ * holds the number, the offset into the buffer, and the length of each
+ * option, sorted by option number. Repeated options keep the order in which
+ * they were added.
+ * <p>
+ * Unlike {@link OptionSet}, the compact set does not decode values when
+ * options are added. Strings such as the Uri-Path segments are only decoded
+ * when they are requested and can be compared against raw UTF-8 bytes
+ * without decoding at all (see {@link #equals(int, byte[], int, int)}).
+ * Adding options in ascending order, as the parser and
+ * {@link OptionSet#toCompact()} do, appends in constant time.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class CompactOptionSet {
+
+	/** The number of ints per entry: number, offset, length */
+	private static final int STRIDE = 3;
+
+	/** The sorted entries */
+	private int[] entries;
+
+	/** The option values */
+	private byte[] buffer;
+
+	/** The number of options */
+	private int size;
+
+	/** The number of used bytes of the buffer */
+	private int used;
+
+	/**
+	 * Instantiates a new, empty compact option set.
+	 */
+	public CompactOptionSet() {
+		this(8, 64);
+	}
+
+	/**
+	 * Instantiates a new, empty compact option set with the specified initial
+	 * capacity.
+	 *
+	 * @param options the expected number of options
+	 * @param bytes the expected number of bytes of all option values
+	 */
+	public CompactOptionSet(int options, int bytes) {
+		this.entries = new int[Math.max(options, 1) * STRIDE];
+		this.buffer = new byte[Math.max(bytes, 0)];
+	}
+
+	/**
+	 * Removes all options. The allocated arrays are kept for reuse.
+	 */
+	public void clear() {
+		size = 0;
+		used = 0;
+	}
+
+	/**
+	 * Returns the number of options.
+	 *
+	 * @return the number of options
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of bytes of all option values.
+	 *
+	 * @return the number of bytes
+	 */
+	public int getValueBytes() {
+		return used;
+	}
+
+	/**
+	 * Adds an option whose value is given as a slice of a byte array. The
+	 * value is copied into the buffer of this set.
+	 *
+	 * @param number the option number
+	 * @param bytes the array containing the option value
+	 * @param offset the offset of the value in the array
+	 * @param length the length of the value
+	 * @return this set
+	 */
+	public CompactOptionSet add(int number, byte[] bytes, int offset, int length) {
+		int position = reserve(number, length);
+		System.arraycopy(bytes, offset, buffer, position, length);
+		return this;
+	}
+
+	/**
+	 * Adds an option with an opaque value.
+	 *
+	 * @param number the option number
+	 * @param value the value
+	 * @return this set
+	 */
+	public CompactOptionSet add(int number, byte[] value) {
+		return add(number, value, 0, value.length);
+	}
+
+	/**
+	 * Adds an option with an empty value.
+	 *
+	 * @param number the option number
+	 * @return this set
+	 */
+	public CompactOptionSet add(int number) {
+		reserve(number, 0);
+		return this;
+	}
+
+	/**
+	 * Adds an option with an integer value in the shortest encoding like
+	 * {@link Option#setIntegerValue(int)} does.
+	 *
+	 * @param number the option number
+	 * @param value the value
+	 * @return this set
+	 */
+	public CompactOptionSet add(int number, int value) {
+		int length = 0;
+		for (int i=0;i<4;i++)
+			if (value >= 1<<(i*8) || value < 0) length++;
+			else break;
+		int position = reserve(number, length);
+		for (int i=0;i<length;i++)
+			buffer[position + length - i - 1] = (byte) (value >> i*8);
+		return this;
+	}
+
+	/**
+	 * Adds an option with a long value in the shortest encoding like
+	 * {@link Option#setLongValue(long)} does.
+	 *
+	 * @param number the option number
+	 * @param value the value
+	 * @return this set
+	 */
+	public CompactOptionSet add(int number, long value) {
+		int length = 0;
+		for (int i=0;i<8;i++)
+			if (value >= 1L<<(i*8) || value < 0) length++;
+			else break;
+		int position = reserve(number, length);
+		for (int i=0;i<length;i++)
+			buffer[position + length - i - 1] = (byte) (value >> i*8);
+		return this;
+	}
+
+	/**
+	 * Adds an option with a string value. ASCII strings are written to the
+	 * buffer directly, other strings are UTF-8 encoded first.
+	 *
+	 * @param number the option number
+	 * @param value the value
+	 * @return this set
+	 */
+	public CompactOptionSet add(int number, String value) {
+		int length = value.length();
+		for (int i=0;i<length;i++) {
+			if (value.charAt(i) >= 0x80)
+				return add(number, value.getBytes(CoAP.UTF8_CHARSET));
+		}
+		int position = reserve(number, length);
+		for (int i=0;i<length;i++)
+			buffer[position + i] = (byte) value.charAt(i);
+		return this;
+	}
+
+	/**
+	 * Inserts a new entry after all entries with a number less or equal to the
+	 * specified one and reserves space for its value.
+	 *
+	 * @return the position of the value in the buffer
+	 */
+	private int reserve(int number, int length) {
+		if (number < 0)
+			throw new IllegalArgumentException("Option number must not be negative: "+number);
+		if (used + length > buffer.length)
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, used + length));
+		if ((size + 1) * STRIDE > entries.length)
+			entries = Arrays.copyOf(entries, entries.length * 2);
+
+		int index = size;
+		while (index > 0 && entries[(index - 1) * STRIDE] > number)
+			index--;
+		if (index < size)
+			System.arraycopy(entries, index * STRIDE, entries, (index + 1) * STRIDE, (size - index) * STRIDE);
+
+		int position = used;
+		entries[index * STRIDE] = number;
+		entries[index * STRIDE + 1] = position;
+		entries[index * STRIDE + 2] = length;
+		used += length;
+		size++;
+		return position;
+	}
+
+	/**
+	 * Returns the number of the option at the specified index.
+	 *
+	 * @param index the index between 0 and {@link #size()}
+	 * @return the option number
+	 */
+	public int getNumber(int index) {
+		return entries[check(index) * STRIDE];
+	}
+
+	/**
+	 * Returns the offset of the value of the option at the specified index in
+	 * the buffer.
+	 *
+	 * @param index the index between 0 and {@link #size()}
+	 * @return the offset
+	 * @see #getBuffer()
+	 */
+	public int getOffset(int index) {
+		return entries[check(index) * STRIDE + 1];
+	}
+
+	/**
+	 * Returns the length of the value of the option at the specified index.
+	 *
+	 * @param index the index between 0 and {@link #size()}
+	 * @return the length of the value
+	 */
+	public int getLength(int index) {
+		return entries[check(index) * STRIDE + 2];
+	}
+
+	/**
+	 * Returns the buffer with the option values. The buffer is not copied and
+	 * must not be modified.
+	 *
+	 * @return the buffer
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Returns the index of the first option with the specified number.
+	 *
+	 * @param number the option number
+	 * @return the index or -1 if there is no such option
+	 */
+	public int indexOf(int number) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (entries[middle * STRIDE] < number)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low < size && entries[low * STRIDE] == number ? low : -1;
+	}
+
+	/**
+	 * Checks if an option with the specified number is present.
+	 *
+	 * @param number the option number
+	 * @return true if present
+	 */
+	public boolean hasOption(int number) {
+		return indexOf(number) >= 0;
+	}
+
+	/**
+	 * Returns the number of options with the specified number.
+	 *
+	 * @param number the option number
+	 * @return the count
+	 */
+	public int getCount(int number) {
+		int index = indexOf(number);
+		if (index < 0)
+			return 0;
+		int end = index + 1;
+		while (end < size && entries[end * STRIDE] == number)
+			end++;
+		return end - index;
+	}
+
+	/**
+	 * Returns a copy of the value of the option at the specified index.
+	 *
+	 * @param index the index between 0 and {@link #size()}
+	 * @return the value
+	 */
+	public byte[] getValue(int index) {
+		int offset = getOffset(index);
+		return Arrays.copyOfRange(buffer, offset, offset + getLength(index));
+	}
+
+	/**
+	 * Decodes the value of the option at the specified index as unsigned
+	 * integer like {@link Option#getIntegerValue()} does.
+	 *
+	 * @param index the index between 0 and {@link #size()}
+	 * @return the integer value
+	 */
+	public int getIntegerValue(int index) {
+		int offset = getOffset(index);
+		int length = getLength(index);
+		int ret = 0;
+		for (int i=0;i<length;i++)
+			ret = (ret << 8) | (buffer[offset + i] & 0xFF);
+		return ret;
+	}
+
+	/**
+	 * Decodes the value of the option at the specified index as unsigned long
+	 * like {@link Option#getLongValue()} does.
+	 *
+	 * @param index the index between 0 and {@link #size()}
+	 * @return the long value
+	 */
+	public long getLongValue(int index) {
+		int offset = getOffset(index);
+		int length = getLength(index);
+		long ret = 0;
+		for (int i=0;i<length;i++)
+			ret = (ret << 8) | (buffer[offset + i] & 0xFF);
+		return ret;
+	}
+
+	/**
+	 * Decodes the value of the option at the specified index as UTF-8 string.
+	 *
+	 * @param index the index between 0 and {@link #size()}
+	 * @return the string value
+	 */
+	public String getStringValue(int index) {
+		return new String(buffer, getOffset(index), getLength(index), CoAP.UTF8_CHARSET);
+	}
+
+	/**
+	 * Compares the value of the option at the specified index with a slice of
+	 * a byte array, e.g., a UTF-8 encoded path segment, without decoding it.
+	 *
+	 * @param index the index between 0 and {@link #size()}
+	 * @param bytes the array with the value to compare
+	 * @param offset the offset of the value in the array
+	 * @param length the length of the value
+	 * @return true if the values are equal
+	 */
+	public boolean equals(int index, byte[] bytes, int offset, int length) {
+		if (getLength(index) != length)
+			return false;
+		int position = getOffset(index);
+		for (int i=0;i<length;i++)
+			if (buffer[position + i] != bytes[offset + i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns the Uri-Path options as relative URI string like
+	 * {@link OptionSet#getUriPathString()} does. The segments are only decoded
+	 * when this method is called.
+	 *
+	 * @return the Uri-Path as string
+	 */
+	public String getUriPathString() {
+		return join(OptionNumberRegistry.URI_PATH, '/');
+	}
+
+	/**
+	 * Returns the Uri-Query options as &amp;-separated query string like
+	 * {@link OptionSet#getUriQueryString()} does. The arguments are only
+	 * decoded when this method is called.
+	 *
+	 * @return the Uri-Query as string
+	 */
+	public String getUriQueryString() {
+		return join(OptionNumberRegistry.URI_QUERY, '&');
+	}
+
+	private String join(int number, char separator) {
+		int index = indexOf(number);
+		if (index < 0)
+			return "";
+		int end = index + 1;
+		while (end < size && entries[end * STRIDE] == number)
+			end++;
+		if (end - index == 1)
+			return getStringValue(index);
+
+		StringBuilder builder = new StringBuilder();
+		for (int i=index;i<end;i++) {
+			if (i > index)
+				builder.append(separator);
+			builder.append(getStringValue(i));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Decodes all options into a new {@link OptionSet}.
+	 *
+	 * @return the option set
+	 */
+	public OptionSet toOptionSet() {
+		OptionSet options = new OptionSet();
+		for (int i=0;i<size;i++) {
+			int entry = i * STRIDE;
+			options.addOption(entries[entry], buffer, entries[entry + 1], entries[entry + 2]);
+		}
+		return options;
+	}
+
+	private int check(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index "+index+" for "+size+" options");
+		return index;
+	}
+
+	@Override
+	public String toString() {
+		return toOptionSet().toString();
+	}
+}
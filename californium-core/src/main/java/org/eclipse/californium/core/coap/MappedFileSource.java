@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.coap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A payload source that maps a file into memory. The blocks are read directly
+ * from the mapped pages, which the operating system loads on demand and
+ * shares among all clients that download the file through the same source.
+ * Resources should therefore keep one source per file instead of creating one
+ * per request. The file must not be modified while it is mapped.
+ */
+public class MappedFileSource implements PayloadSource {
+
+	/** The mapped content of the file */
+	private final ByteBuffer buffer;
+
+	/**
+	 * Maps the specified file.
+	 * 
+	 * @param file the file
+	 * @throws IOException if the file cannot be mapped
+	 * @throws IllegalArgumentException if the file is larger than 2 GB
+	 */
+	public MappedFileSource(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("File is too large: "+channel.size());
+			// the mapping stays valid after the channel is closed
+			this.buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Override
+	public int size() {
+		return buffer.capacity();
+	}
+
+	@Override
+	public byte[] read(int position, int length) {
+		// a duplicate has its own position, the content is shared
+		ByteBuffer window = buffer.duplicate();
+		window.position(position);
+		byte[] bytes = new byte[length];
+		window.get(bytes);
+		return bytes;
+	}
+}
@@ -78,6 +78,19 @@ public abstract class Message {
 	/** The payload of this message. */
 	private byte[] payload;
 	
+	/**
+	 * The datagram holding the not yet copied payload (see
+	 * setPayload(byte[], int, int)). Volatile, since the payload is published
+	 * to other threads by setting this field to null after the copy.
+	 */
+	private volatile byte[] payloadSource;
+	
+	/** The offset of the not yet copied payload in the datagram. */
+	private int payloadOffset;
+	
+	/** The length of the not yet copied payload. */
+	private int payloadLength;
+	
 	/** The destination address of this message. */
 	private InetAddress destination;
 	
@@ -279,15 +292,20 @@ public abstract class Message {
 	 * @return the payload size
 	 */
 	public int getPayloadSize() {
+		if (payloadSource != null)
+			return payloadLength;
 		return payload == null ? 0 : payload.length;
 	}
 	
 	/**
-	 * Gets the raw payload.
+	 * Gets the raw payload. If the payload has been set as a slice of a
+	 * datagram, it is copied out of the datagram on the first call.
 	 *
 	 * @return the payload
 	 */
 	public byte[] getPayload() {
+		if (payloadSource != null)
+			copyPayload();
 		return payload;
 	}
 	
@@ -298,12 +316,16 @@ public abstract class Message {
 	 * @return the payload as string
 	 */
 	public String getPayloadString() {
+		byte[] source = payloadSource;
+		if (source != null)
+			return new String(source, payloadOffset, payloadLength, CoAP.UTF8_CHARSET);
 		if (payload==null)
 			return "";
 		return new String(payload, CoAP.UTF8_CHARSET);
 	}
 	
 	public String getPayloadTracingString() {
+		byte[] payload = getPayload();
 		if (null == payload || 0 == payload.length)
 			return "no payload";
 		boolean text = true;
@@ -347,6 +369,7 @@ public abstract class Message {
 	public Message setPayload(String payload) {
 		if (payload == null) {
 			this.payload = null;
+			this.payloadSource = null;
 		} else {
 			setPayload(payload.getBytes(CoAP.UTF8_CHARSET));
 		}
@@ -362,8 +385,43 @@ public abstract class Message {
 	 */
 	public Message setPayload(byte[] payload) {
 		this.payload = payload;
+		this.payloadSource = null;
+		return this;
+	}
+	
+	/**
+	 * Sets the payload as a slice of the specified array, e.g., the received
+	 * datagram. The slice is not copied until {@link #getPayload()} is called
+	 * so that messages whose payload is never read, e.g., duplicates, do not
+	 * allocate a second array. The array must not be modified afterwards.
+	 * 
+	 * @param bytes the array containing the payload
+	 * @param offset the offset of the payload in the array
+	 * @param length the length of the payload
+	 * @return this Message
+	 */
+	public Message setPayload(byte[] bytes, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > bytes.length)
+			throw new IndexOutOfBoundsException();
+		this.payload = null;
+		this.payloadOffset = offset;
+		this.payloadLength = length;
+		this.payloadSource = bytes;
 		return this;
 	}
+	
+	/*
+	 * Copies the payload slice into its own array.
+	 */
+	private synchronized void copyPayload() {
+		byte[] source = payloadSource;
+		if (source != null) {
+			byte[] copy = new byte[payloadLength];
+			System.arraycopy(source, payloadOffset, copy, 0, payloadLength);
+			payload = copy;
+			payloadSource = null;
+		}
+	}
 
 	/**
 	 * Gets the destination address.
@@ -1252,7 +1252,37 @@ public class OptionSet {
 	 * @return true if present
 	 */
 	public boolean hasOption(int number) {
-		return Collections.binarySearch(asSortedList(), new Option(number)) >= 0;
+		switch (number) {
+			case OptionNumberRegistry.IF_MATCH:       return isPresent(if_match_list);
+			case OptionNumberRegistry.URI_HOST:       return hasUriHost();
+			case OptionNumberRegistry.ETAG:           return isPresent(etag_list);
+			case OptionNumberRegistry.IF_NONE_MATCH:  return hasIfNoneMatch();
+			case OptionNumberRegistry.URI_PORT:       return hasUriPort();
+			case OptionNumberRegistry.LOCATION_PATH:  return isPresent(location_path_list);
+			case OptionNumberRegistry.URI_PATH:       return isPresent(uri_path_list);
+			case OptionNumberRegistry.CONTENT_FORMAT: return hasContentFormat();
+			case OptionNumberRegistry.MAX_AGE:        return hasMaxAge();
+			case OptionNumberRegistry.URI_QUERY:      return isPresent(uri_query_list);
+			case OptionNumberRegistry.ACCEPT:         return hasAccept();
+			case OptionNumberRegistry.LOCATION_QUERY: return isPresent(location_query_list);
+			case OptionNumberRegistry.PROXY_URI:      return hasProxyUri();
+			case OptionNumberRegistry.PROXY_SCHEME:   return hasProxyScheme();
+			case OptionNumberRegistry.BLOCK1:         return hasBlock1();
+			case OptionNumberRegistry.BLOCK2:         return hasBlock2();
+			case OptionNumberRegistry.SIZE1:          return hasSize1();
+			case OptionNumberRegistry.SIZE2:          return hasSize2();
+			case OptionNumberRegistry.OBSERVE:        return hasObserve();
+			default:
+				if (others != null)
+					for (Option option:others)
+						if (option.getNumber() == number)
+							return true;
+				return false;
+		}
+	}
+	
+	private static boolean isPresent(List<?> list) {
+		return list != null && !list.isEmpty();
 	}
 	
 	private List<Option> getOthers() {
@@ -1320,6 +1350,63 @@ public class OptionSet {
 		return options;
 	}
 
+	/**
+	 * Returns all options in a {@link CompactOptionSet}. Unlike
+	 * {@link #asSortedList()}, this creates neither {@link Option} objects nor
+	 * a copy of each value. The known options are added in ascending order of
+	 * their option number, so that the compact set appends them without
+	 * sorting; only other options might need to be inserted.
+	 * The serializer uses this representation to encode the options.
+	 * @return the compact option set (a copy)
+	 */
+	public CompactOptionSet toCompact() {
+		CompactOptionSet options = new CompactOptionSet();
+		
+		if (if_match_list != null) for (byte[] value:if_match_list)
+			options.add(OptionNumberRegistry.IF_MATCH, value);
+		if (hasUriHost())
+			options.add(OptionNumberRegistry.URI_HOST, getUriHost());
+		if (etag_list != null) for (byte[] value:etag_list)
+			options.add(OptionNumberRegistry.ETAG, value);
+		if (hasIfNoneMatch())
+			options.add(OptionNumberRegistry.IF_NONE_MATCH);
+		if (hasObserve())
+			options.add(OptionNumberRegistry.OBSERVE, getObserve().intValue());
+		if (hasUriPort())
+			options.add(OptionNumberRegistry.URI_PORT, getUriPort().intValue());
+		if (location_path_list != null) for (String str:location_path_list)
+			options.add(OptionNumberRegistry.LOCATION_PATH, str);
+		if (uri_path_list != null) for (String str:uri_path_list)
+			options.add(OptionNumberRegistry.URI_PATH, str);
+		if (hasContentFormat())
+			options.add(OptionNumberRegistry.CONTENT_FORMAT, getContentFormat());
+		if (hasMaxAge())
+			options.add(OptionNumberRegistry.MAX_AGE, getMaxAge().longValue());
+		if (uri_query_list != null) for (String str:uri_query_list)
+			options.add(OptionNumberRegistry.URI_QUERY, str);
+		if (hasAccept())
+			options.add(OptionNumberRegistry.ACCEPT, getAccept());
+		if (location_query_list != null) for (String str:location_query_list)
+			options.add(OptionNumberRegistry.LOCATION_QUERY, str);
+		if (hasBlock2())
+			options.add(OptionNumberRegistry.BLOCK2, getBlock2().getValue());
+		if (hasBlock1())
+			options.add(OptionNumberRegistry.BLOCK1, getBlock1().getValue());
+		if (hasSize2())
+			options.add(OptionNumberRegistry.SIZE2, getSize2().intValue());
+		if (hasProxyUri())
+			options.add(OptionNumberRegistry.PROXY_URI, getProxyUri());
+		if (hasProxyScheme())
+			options.add(OptionNumberRegistry.PROXY_SCHEME, getProxyScheme());
+		if (hasSize1())
+			options.add(OptionNumberRegistry.SIZE1, getSize1().intValue());
+		
+		if (others != null) for (Option option:others)
+			options.add(option.getNumber(), option.getValue());
+		
+		return options;
+	}
+
 	/**
 	 * Allows adding arbitrary options. Known options are checked if they are repeatable.
 	 * @param option the Option object to add
@@ -1351,6 +1438,71 @@ public class OptionSet {
 		return this;
 	}
 	
+	/**
+	 * Adds an option whose value is given as a slice of a byte array, e.g.,
+	 * of a received datagram. Known options are decoded directly from the
+	 * slice without creating an intermediate {@link Option}; opaque values
+	 * are copied since the array might be reused.
+	 * @param number the option number
+	 * @param bytes the array containing the option value
+	 * @param offset the offset of the value in the array
+	 * @param length the length of the value
+	 * @return this OptionSet
+	 */
+	public OptionSet addOption(int number, byte[] bytes, int offset, int length) {
+		switch (number) {
+			case OptionNumberRegistry.IF_MATCH:       addIfMatch(copyOfRange(bytes, offset, length)); break;
+			case OptionNumberRegistry.URI_HOST:       setUriHost(new String(bytes, offset, length, CoAP.UTF8_CHARSET)); break;
+			case OptionNumberRegistry.ETAG:           addETag(copyOfRange(bytes, offset, length)); break;
+			case OptionNumberRegistry.IF_NONE_MATCH:  setIfNoneMatch(true); break;
+			case OptionNumberRegistry.URI_PORT:       setUriPort(decodeInteger(bytes, offset, length)); break;
+			case OptionNumberRegistry.LOCATION_PATH:  addLocationPath(new String(bytes, offset, length, CoAP.UTF8_CHARSET)); break;
+			case OptionNumberRegistry.URI_PATH:       addUriPath(new String(bytes, offset, length, CoAP.UTF8_CHARSET)); break;
+			case OptionNumberRegistry.CONTENT_FORMAT: setContentFormat(decodeInteger(bytes, offset, length)); break;
+			case OptionNumberRegistry.MAX_AGE:        setMaxAge(decodeLong(bytes, offset, length)); break;
+			case OptionNumberRegistry.URI_QUERY:      addUriQuery(new String(bytes, offset, length, CoAP.UTF8_CHARSET)); break;
+			case OptionNumberRegistry.ACCEPT:         setAccept(decodeInteger(bytes, offset, length)); break;
+			case OptionNumberRegistry.LOCATION_QUERY: addLocationQuery(new String(bytes, offset, length, CoAP.UTF8_CHARSET)); break;
+			case OptionNumberRegistry.PROXY_URI:      setProxyUri(new String(bytes, offset, length, CoAP.UTF8_CHARSET)); break;
+			case OptionNumberRegistry.PROXY_SCHEME:   setProxyScheme(new String(bytes, offset, length, CoAP.UTF8_CHARSET)); break;
+			case OptionNumberRegistry.BLOCK1:         setBlock1(copyOfRange(bytes, offset, length)); break;
+			case OptionNumberRegistry.BLOCK2:         setBlock2(copyOfRange(bytes, offset, length)); break;
+			case OptionNumberRegistry.SIZE1:          setSize1(decodeInteger(bytes, offset, length)); break;
+			case OptionNumberRegistry.SIZE2:          setSize2(decodeInteger(bytes, offset, length)); break;
+			case OptionNumberRegistry.OBSERVE:        setObserve(decodeInteger(bytes, offset, length)); break;
+			default: getOthers().add(new Option(number, copyOfRange(bytes, offset, length)));
+		}
+		return this;
+	}
+	
+	private static byte[] copyOfRange(byte[] bytes, int offset, int length) {
+		byte[] copy = new byte[length];
+		System.arraycopy(bytes, offset, copy, 0, length);
+		return copy;
+	}
+	
+	/*
+	 * Decodes an integer value like Option.getIntegerValue() does.
+	 */
+	private static int decodeInteger(byte[] bytes, int offset, int length) {
+		int ret = 0;
+		for (int i=0;i<length;i++) {
+			ret += (bytes[offset + length - i - 1] & 0xFF) << (i*8);
+		}
+		return ret;
+	}
+	
+	/*
+	 * Decodes a long value like Option.getLongValue() does.
+	 */
+	private static long decodeLong(byte[] bytes, int offset, int length) {
+		long ret = 0;
+		for (int i=0;i<length;i++) {
+			ret += (bytes[offset + length - i - 1] & 0xFF) << (i*8);
+		}
+		return ret;
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
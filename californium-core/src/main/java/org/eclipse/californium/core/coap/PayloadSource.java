@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.coap;
+
+import java.io.IOException;
+
+/**
+ * A payload source provides the payload of a large response in windows, so
+ * that the representation does not have to be held in memory as a whole. The
+ * blockwise layer reads only the bytes of the block that has been requested
+ * with the Block2 option. A source can be backed by a file (see
+ * {@link MappedFileSource}) or generate its content on the fly.
+ * <p>
+ * A source may be read concurrently for different clients and must therefore
+ * be thread-safe. Its content must not change while it is being served.
+ * 
+ * @see Response#setPayloadSource(PayloadSource)
+ */
+public interface PayloadSource {
+
+	/**
+	 * Returns the size of the payload in bytes.
+	 * 
+	 * @return the size
+	 */
+	public int size();
+
+	/**
+	 * Reads the specified window of the payload.
+	 * 
+	 * @param position the offset of the first byte
+	 * @param length the number of bytes to read
+	 * @return the bytes
+	 * @throws IOException if the payload cannot be read
+	 */
+	public byte[] read(int position, int length) throws IOException;
+}
@@ -41,6 +41,12 @@ public class Response extends Message {
 
 	private boolean last = true;
 	
+	/** The encoded options and payload shared with other notifications */
+	private byte[] encodedBody;
+	
+	/** The source of a large body that is sent blockwise, unlike the payload */
+	private PayloadSource bodySource;
+	
 	/**
 	 * Instantiates a new response with the specified response code.
 	 *
@@ -128,4 +134,50 @@ public class Response extends Message {
 	public void setRTT(long rtt) {
 		this.rtt = rtt;
 	}
+	
+	/**
+	 * Gets the encoded options and payload that this response shares with
+	 * other notifications of the same representation.
+	 * 
+	 * @return the encoded options and payload or null
+	 */
+	public byte[] getEncodedBody() {
+		return encodedBody;
+	}
+	
+	/**
+	 * Sets the encoded options and payload of this response. The serializer
+	 * then only encodes the header and the token and appends the specified
+	 * bytes. The options and the payload of the response must no longer be
+	 * changed.
+	 * 
+	 * @param encodedBody the encoded options and payload
+	 * @see org.eclipse.californium.core.observe.NotificationTemplate
+	 */
+	public void setEncodedBody(byte[] encodedBody) {
+		this.encodedBody = encodedBody;
+	}
+	
+	/**
+	 * Gets the source of the body that is sent blockwise.
+	 * 
+	 * @return the body source or null
+	 */
+	public PayloadSource getBodySource() {
+		return bodySource;
+	}
+	
+	/**
+	 * Sets a source from which the blockwise layer reads the payload instead
+	 * of taking it from this response. Each Block2 response then only
+	 * contains the window that has been requested, and the representation is
+	 * never copied into memory as a whole. The payload of this response itself
+	 * remains empty. A representation that fits into a single message is read
+	 * completely.
+	 * 
+	 * @param bodySource the body source
+	 */
+	public void setBodySource(PayloadSource bodySource) {
+		this.bodySource = bodySource;
+	}
 }
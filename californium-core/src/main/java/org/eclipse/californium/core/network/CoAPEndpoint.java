@@ -22,11 +22,15 @@
 package org.eclipse.californium.core.network;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -139,11 +143,20 @@ public class CoAPEndpoint implements Endpoint {
 	private List<MessageInterceptor> interceptors = new ArrayList<MessageInterceptor>(0);
 
 	/** The matcher which matches incoming responses, akcs and rsts an exchange */
-	private Matcher matcher;
+	private ExchangeMatcher matcher;
 	
 	/** The serializer to serialize messages to bytes */
 	private Serializer serializer;
 	
+	/** The channel through which the connector forwards received data */
+	private final InboxImpl inbox;
+	
+	/** The maximum number of datagrams processed by one task */
+	private final int batchSize;
+	
+	/** The queues of received datagrams if batching is enabled */
+	private volatile ReceiveQueue[] receiveQueues;
+	
 	/**
 	 * Instantiates a new endpoint with an ephemeral port.
 	 */
@@ -204,9 +217,26 @@ public class CoAPEndpoint implements Endpoint {
 		this.config = config;
 		this.connector = connector;
 		this.serializer = new Serializer();
-		this.matcher = new Matcher(config);		
+		this.matcher = createMatcher(config);
 		this.coapstack = new CoapStack(config, new OutboxImpl());
-		this.connector.setRawDataReceiver(new InboxImpl());
+		this.batchSize = config.getInt(NetworkConfig.Keys.PROTOCOL_STAGE_BATCH_SIZE);
+		this.inbox = new InboxImpl();
+		this.connector.setRawDataReceiver(inbox);
+	}
+	
+	/**
+	 * Creates the matcher. If more than one shard is configured, the exchanges
+	 * are partitioned by remote endpoint across a {@link ShardedMatcher}.
+	 *
+	 * @param config the configuration
+	 * @return the matcher
+	 */
+	private static ExchangeMatcher createMatcher(NetworkConfig config) {
+		int shards = config.getInt(NetworkConfig.Keys.MATCHER_SHARDS);
+		if (shards > 1)
+			return new ShardedMatcher(config, shards);
+		else
+			return new Matcher(config);
 	}
 	
 	/**
@@ -243,9 +273,12 @@ public class CoAPEndpoint implements Endpoint {
 			this.coapstack.setDeliverer(new ClientMessageDeliverer());
 		
 		if (this.executor == null) {
-			LOGGER.config("Endpoint "+toString()+" requires an executor to start. Using default single-threaded daemon executor.");
+			// the same protocol stage as a server, but with daemon threads
+			int threads = config.getBoolean(NetworkConfig.Keys.USE_STRIPED_PROTOCOL_STAGE)
+					? Math.max(config.getInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT), 1) : 1;
+			LOGGER.config("Endpoint "+toString()+" requires an executor to start. Using default striped daemon executor with "+threads+" thread(s).");
 			
-			final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new Utils.DaemonThreadFactory());
+			final ScheduledExecutorService executor = new StripedExecutor(threads, new Utils.DaemonThreadFactory());
 			setExecutor(executor);
 			addObserver(new EndpointObserver() {
 				public void started(Endpoint endpoint) { }
@@ -341,6 +374,40 @@ public class CoAPEndpoint implements Endpoint {
 		this.executor = executor;
 		this.coapstack.setExecutor(executor);
 		this.matcher.setExecutor(executor);
+		this.receiveQueues = createReceiveQueues(executor);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.californium.core.network.Endpoint#getExecutor()
+	 */
+	@Override
+	public synchronized ScheduledExecutorService getExecutor() {
+		return executor;
+	}
+	
+	/**
+	 * Creates the queues for batched processing of received datagrams if
+	 * {@link NetworkConfig.Keys#PROTOCOL_STAGE_BATCH_SIZE} is greater than
+	 * one. A {@link StripedExecutor} gets one queue per worker, so that the
+	 * datagrams of a remote endpoint remain on its thread. Otherwise, all
+	 * threads of the protocol stage drain a common queue.
+	 *
+	 * @param executor the executor
+	 * @return the queues or null if batching is disabled
+	 */
+	private ReceiveQueue[] createReceiveQueues(ScheduledExecutorService executor) {
+		if (batchSize <= 1 || executor == null)
+			return null;
+		LOGGER.config("Endpoint processes received datagrams in batches of up to "+batchSize);
+		if (executor instanceof StripedExecutor) {
+			ReceiveQueue[] queues = new ReceiveQueue[((StripedExecutor) executor).getThreadCount()];
+			for (int i = 0; i < queues.length; i++)
+				queues[i] = new ReceiveQueue(executor, i, 1);
+			return queues;
+		} else {
+			int threads = config.getInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT);
+			return new ReceiveQueue[] { new ReceiveQueue(executor, -1, Math.max(threads, 1)) };
+		}
 	}
 	
 	/* (non-Javadoc)
@@ -389,7 +456,7 @@ public class CoAPEndpoint implements Endpoint {
 	@Override
 	public void sendRequest(final Request request) {
 		// always use protocol stage executor
-		executor.execute(new Runnable() {
+		execute(request.getDestination(), request.getDestinationPort(), new Runnable() {
 			public void run() {
 				try {
 					coapstack.sendRequest(request);
@@ -407,7 +474,7 @@ public class CoAPEndpoint implements Endpoint {
 	public void sendResponse(final Exchange exchange, final Response response) {
 		if (exchange.hasCustomExecutor()) {
 			// handle sending by protocol stage instead of business logic stage
-			executor.execute(new Runnable() {
+			execute(response.getDestination(), response.getDestinationPort(), new Runnable() {
 				public void run() {
 					try {
 						coapstack.sendResponse(exchange, response);
@@ -552,13 +619,24 @@ public class CoAPEndpoint implements Endpoint {
 			if (raw.getPort() == 0)
 				throw new NullPointerException();
 			
+			ReceiveQueue[] queues = receiveQueues;
+			if (queues != null) {
+				// Queue the message for the next batch
+				int index = queues.length == 1 ? 0 : ((StripedExecutor) queues[0].executor).getWorkerIndex(raw.getAddress(), raw.getPort());
+				queues[index].offer(raw);
+				return;
+			}
+			
 			// Create a new task to process this message
-			Runnable task = new Runnable() {
+			execute(raw.getAddress(), raw.getPort(), new Runnable() {
 				public void run() {
-					receiveMessage(raw);
+					try {
+						receiveMessage(raw);
+					} catch (Throwable t) {
+						t.printStackTrace();
+					}
 				}
-			};
-			executeTask(task);
+			});
 		}
 		
 		/*
@@ -686,6 +764,89 @@ public class CoAPEndpoint implements Endpoint {
 
 	}
 	
+	/**
+	 * A queue of received datagrams that are processed in batches. Instead of
+	 * a task per datagram, a task processes up to {@link #batchSize} queued
+	 * datagrams and then yields to other tasks. At most the specified number
+	 * of tasks drain the queue concurrently, so that a burst of datagrams
+	 * costs only a few executor hand-offs.
+	 */
+	private class ReceiveQueue implements Runnable {
+		
+		private final Queue<RawData> queue = new ConcurrentLinkedQueue<RawData>();
+		
+		/** The number of tasks that drain the queue */
+		private final AtomicInteger active = new AtomicInteger();
+		
+		private final ScheduledExecutorService executor;
+		
+		/** The worker of a striped executor or -1 */
+		private final int index;
+		
+		private final int maxActive;
+		
+		private ReceiveQueue(ScheduledExecutorService executor, int index, int maxActive) {
+			this.executor = executor;
+			this.index = index;
+			this.maxActive = maxActive;
+		}
+		
+		private void offer(RawData raw) {
+			queue.offer(raw);
+			activate();
+		}
+		
+		/*
+		 * Starts a new task to drain the queue unless enough are active.
+		 */
+		private void activate() {
+			while (true) {
+				int current = active.get();
+				if (current >= maxActive)
+					return;
+				if (active.compareAndSet(current, current + 1)) {
+					submit();
+					return;
+				}
+			}
+		}
+		
+		private void submit() {
+			try {
+				if (index < 0)
+					executor.execute(this);
+				else
+					((StripedExecutor) executor).execute(index, this);
+			} catch (RejectedExecutionException e) {
+				active.decrementAndGet();
+				throw e;
+			}
+		}
+		
+		@Override
+		public void run() {
+			int count = 0;
+			RawData raw;
+			while (count < batchSize && (raw = queue.poll()) != null) {
+				count++;
+				try {
+					inbox.receiveMessage(raw);
+				} catch (Throwable t) {
+					t.printStackTrace();
+				}
+			}
+			if (count == batchSize && !queue.isEmpty()) {
+				// keep the slot but let other tasks run in between
+				submit();
+			} else {
+				active.decrementAndGet();
+				// a datagram might have been queued after the last poll
+				if (!queue.isEmpty())
+					activate();
+			}
+		}
+	}
+	
 	/**
 	 * Execute the specified task on the endpoint's executor.
 	 *
@@ -702,4 +863,20 @@ public class CoAPEndpoint implements Endpoint {
 			}
 		});
 	}
+	
+	/**
+	 * Execute the specified task for the specified remote endpoint. A
+	 * {@link StripedExecutor} always uses the same thread for the same remote
+	 * endpoint, so that its messages are processed in order.
+	 *
+	 * @param address the address of the remote endpoint
+	 * @param port the port of the remote endpoint
+	 * @param task the task
+	 */
+	private void execute(InetAddress address, int port, Runnable task) {
+		if (executor instanceof StripedExecutor)
+			((StripedExecutor) executor).execute(address, port, task);
+		else
+			executor.execute(task);
+	}
 }
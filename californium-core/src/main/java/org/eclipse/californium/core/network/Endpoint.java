@@ -79,6 +79,13 @@ public interface Endpoint {
 	 */
 	public void setExecutor(ScheduledExecutorService executor);
 
+	/**
+	 * Gets the executor of this endpoint, i.e., its protocol stage.
+	 *
+	 * @return the executor or null if the endpoint has none yet
+	 */
+	public ScheduledExecutorService getExecutor();
+
 	/**
 	 * Adds the observer to the list of observers. This has nothing to do with
 	 * CoAP observe relations.
@@ -19,9 +19,12 @@
  ******************************************************************************/
 package org.eclipse.californium.core.network;
 
+import java.net.Inet4Address;
+import java.net.InetAddress;
 import java.util.Arrays;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import org.eclipse.californium.core.Utils;
 import org.eclipse.californium.core.coap.BlockOption;
@@ -58,6 +61,9 @@ public class Exchange {
 	
 	private static final AtomicInteger INSTANCE_COUNTER = new AtomicInteger();
 	
+	private static final AtomicLongFieldUpdater<Exchange> RTT_TIMESTAMP =
+			AtomicLongFieldUpdater.newUpdater(Exchange.class, "rttTimestamp");
+	
 	/**
 	 * The origin of an exchange. If Cf receives a new request and creates a new
 	 * exchange the origin is REMOTE since the request has been initiated from a
@@ -137,6 +143,12 @@ public class Exchange {
 	// When the request is handled by an executor different than the protocol stage set to true.
 	// The endpoint will hand sending responses over to the protocol stage executor
 	private boolean customExecutor = false;
+	
+	// The congestion control state of the current transmission, see RemoteEndpoint.
+	// The timestamp is 0 while the exchange is not registered for an RTT measurement.
+	private volatile long rttTimestamp;
+	private volatile double rttVBF;
+	private volatile int rttEstimatorType;
 
 	/**
 	 * Constructs a new exchange with the specified request and origin. 
@@ -449,6 +461,43 @@ public class Exchange {
 	public void setCustomExecutor() {
 		this.customExecutor = true;
 	}
+	
+	/*
+	 * The RTT measurement state is managed by the RemoteEndpoint. Registering
+	 * and removing are atomic so that the response and the sweep task cannot
+	 * both release the NSTART slot.
+	 */
+	
+	boolean registerRTT(long timestamp, double vbf, int estimatorType) {
+		this.rttVBF = vbf;
+		this.rttEstimatorType = estimatorType;
+		return RTT_TIMESTAMP.getAndSet(this, timestamp) == 0;
+	}
+	
+	boolean removeRTT() {
+		long timestamp;
+		do {
+			timestamp = rttTimestamp;
+			if (timestamp == 0) return false;
+		} while (!RTT_TIMESTAMP.compareAndSet(this, timestamp, 0));
+		return true;
+	}
+	
+	long getRTTTimestamp() {
+		return rttTimestamp;
+	}
+	
+	double getRTTVBF() {
+		return rttVBF;
+	}
+	
+	int getRTTEstimatorType() {
+		return rttEstimatorType;
+	}
+	
+	void setRTTEstimatorType(int estimatorType) {
+		this.rttEstimatorType = estimatorType;
+	}
 
 	/**
 	 * This class is used by the matcher to remember a message by its MID and
@@ -485,6 +534,36 @@ public class Exchange {
 		public String toString() {
 			return "KeyMID["+MID+" for "+Utils.toHexString(address)+":"+port+"]";
 		}
+		
+		/**
+		 * Checks whether a MID from the specified address can be packed into
+		 * a primitive key with {@link #pack(int, InetAddress, int)}. This is
+		 * the case for the local namespace (null) and IPv4 addresses. IPv6
+		 * addresses do not fit and still require a KeyMID object.
+		 * 
+		 * @param address the address or null for the local namespace
+		 * @return true, if the MID can be packed
+		 */
+		public static boolean isPackable(InetAddress address) {
+			return address == null || address instanceof Inet4Address;
+		}
+		
+		/**
+		 * Packs the MID, IPv4 address and port into a long without allocating
+		 * any objects. The local namespace uses a null address and port 0. Use
+		 * the result as high part and 0 as low part of a key for a
+		 * {@link LongKeyExchangeMap}.
+		 * 
+		 * @param mid the MID
+		 * @param address the IPv4 address or null for the local namespace
+		 * @param port the port
+		 * @return the packed key
+		 */
+		public static long pack(int mid, InetAddress address, int port) {
+			// Inet4Address uses the address itself as hash code
+			long ip = address == null ? 0 : address.hashCode() & 0xFFFFFFFFL;
+			return (ip << 32) | ((port & 0xFFFFL) << 16) | (mid & 0xFFFFL);
+		}
 	}
 	
 	/**
@@ -520,6 +599,24 @@ public class Exchange {
 		public String toString() {
 			return "KeyToken["+Utils.toHexString(token)+"]";
 		}
+		
+		/**
+		 * Packs the up to 8 bytes of the token into a long without allocating
+		 * any objects. Use the result as high part and the token length as low
+		 * part of a key for a {@link LongKeyExchangeMap}, since tokens of
+		 * different length with leading zeros would collide otherwise.
+		 * 
+		 * @param token the token
+		 * @return the packed token bytes
+		 */
+		public static long pack(byte[] token) {
+			if (token.length > 8)
+				throw new IllegalArgumentException("Token must not be longer than 8 bytes but has "+token.length);
+			long packed = 0;
+			for (int i = 0; i < token.length; i++)
+				packed = (packed << 8) | (token[i] & 0xFF);
+			return packed;
+		}
 	}
 	
 	/**
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.eclipse.californium.core.coap.EmptyMessage;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+
+/**
+ * The exchange matcher of a {@link CoAPEndpoint}. It remembers the exchanges
+ * of outgoing messages and matches incoming messages to their exchanges. The
+ * {@link Matcher} keeps all exchanges in one set of tables, the
+ * {@link ShardedMatcher} partitions them across several matchers.
+ */
+public interface ExchangeMatcher {
+
+	/**
+	 * Starts the matcher. The executor must be set before.
+	 */
+	public void start();
+
+	/**
+	 * Stops the matcher and removes all exchanges.
+	 */
+	public void stop();
+
+	/**
+	 * Sets the executor to schedule the removal of exchanges.
+	 *
+	 * @param executor
+	 *            the executor
+	 */
+	public void setExecutor(ScheduledExecutorService executor);
+
+	/**
+	 * Remembers the exchange of an outgoing request. Assigns a MID to the
+	 * request if it has none.
+	 *
+	 * @param exchange
+	 *            the exchange
+	 * @param request
+	 *            the request
+	 */
+	public void sendRequest(Exchange exchange, Request request);
+
+	/**
+	 * Remembers the exchange of an outgoing response.
+	 *
+	 * @param exchange
+	 *            the exchange
+	 * @param response
+	 *            the response
+	 */
+	public void sendResponse(Exchange exchange, Response response);
+
+	/**
+	 * Remembers or completes the exchange of an outgoing empty message.
+	 *
+	 * @param exchange
+	 *            the exchange
+	 * @param message
+	 *            the empty message
+	 */
+	public void sendEmptyMessage(Exchange exchange, EmptyMessage message);
+
+	/**
+	 * Returns the exchange for an incoming request.
+	 *
+	 * @param request
+	 *            the request
+	 * @return the new or ongoing exchange, or the previous one if the
+	 *         request is a duplicate
+	 */
+	public Exchange receiveRequest(Request request);
+
+	/**
+	 * Returns the exchange for an incoming response.
+	 *
+	 * @param response
+	 *            the response
+	 * @return the exchange or null if the response matches none
+	 */
+	public Exchange receiveResponse(Response response);
+
+	/**
+	 * Returns the exchange for an incoming ACK or RST.
+	 *
+	 * @param message
+	 *            the empty message
+	 * @return the exchange or null if the message matches none
+	 */
+	public Exchange receiveEmptyMessage(EmptyMessage message);
+
+	/**
+	 * Removes all exchanges.
+	 */
+	public void clear();
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+/**
+ * A {@link LongKeyMap} from packed keys to exchanges. The timestamp of an
+ * entry is the creation time of its exchange, so that
+ * {@link #removeOlderThan(long)} removes the exchanges that have exceeded
+ * their lifetime.
+ */
+public class LongKeyExchangeMap extends LongKeyMap<Exchange> {
+
+	/**
+	 * Associates the specified key with the specified exchange.
+	 *
+	 * @param hi the high part of the key
+	 * @param lo the low part of the key
+	 * @param exchange the exchange
+	 * @return the exchange previously associated with the key or null
+	 */
+	public Exchange put(long hi, long lo, Exchange exchange) {
+		return put(hi, lo, exchange, exchange.getTimestamp());
+	}
+
+	/**
+	 * Associates the specified key with the specified exchange unless the key
+	 * is already associated with an exchange. The action is performed
+	 * atomically.
+	 *
+	 * @param hi the high part of the key
+	 * @param lo the low part of the key
+	 * @param exchange the exchange
+	 * @return the exchange already associated with the key or null
+	 */
+	public Exchange putIfAbsent(long hi, long lo, Exchange exchange) {
+		return putIfAbsent(hi, lo, exchange, exchange.getTimestamp());
+	}
+}
@@ -0,0 +1,362 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import java.util.Arrays;
+
+import org.eclipse.californium.core.network.Exchange.KeyMID;
+import org.eclipse.californium.core.network.Exchange.KeyToken;
+
+/**
+ * A thread-safe hash map from keys of two <code>long</code>s to values with
+ * a timestamp. Keys are packed with
+ * {@link KeyMID#pack(int, java.net.InetAddress, int)} or
+ * {@link KeyToken#pack(byte[])} and the like, so that lookup, insert and
+ * remove do not allocate any objects. The timestamp of an entry is set when
+ * the key is inserted and is used to remove old entries with
+ * {@link #removeOlderThan(long)}.
+ * <p>
+ * The map is split into segments with their own lock. Each segment is an
+ * open-addressing hash table with linear probing that stores the keys and
+ * timestamps in <code>long[]</code>s next to an array of the values. Removed
+ * entries are compacted by shifting the following entries of the probe
+ * sequence back, so that no tombstones remain.
+ *
+ * @param <V> the type of the values
+ */
+public class LongKeyMap<V> {
+
+	/** The number of segments (must be a power of two) */
+	private static final int SEGMENTS = 16;
+
+	/** The initial capacity of a segment (must be a power of two) */
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Segment[] segments;
+
+	/**
+	 * Instantiates a new empty map.
+	 */
+	public LongKeyMap() {
+		this.segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++)
+			segments[i] = new Segment();
+	}
+
+	/**
+	 * Returns the value for the specified key or null if there is none.
+	 *
+	 * @param hi the high part of the key
+	 * @param lo the low part of the key
+	 * @return the value or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long hi, long lo) {
+		int hash = hash(hi, lo);
+		return (V) segmentFor(hash).get(hi, lo, hash);
+	}
+
+	/**
+	 * Checks whether the map contains the specified key.
+	 *
+	 * @param hi the high part of the key
+	 * @param lo the low part of the key
+	 * @return true, if the map contains the key
+	 */
+	public boolean containsKey(long hi, long lo) {
+		return get(hi, lo) != null;
+	}
+
+	/**
+	 * Associates the specified key with the specified value and timestamp.
+	 *
+	 * @param hi the high part of the key
+	 * @param lo the low part of the key
+	 * @param value the value
+	 * @param timestamp the timestamp in milliseconds
+	 * @return the value previously associated with the key or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long hi, long lo, V value, long timestamp) {
+		if (value == null)
+			throw new NullPointerException();
+		int hash = hash(hi, lo);
+		return (V) segmentFor(hash).put(hi, lo, hash, value, timestamp, false);
+	}
+
+	/**
+	 * Associates the specified key with the specified value unless the key is
+	 * already associated with a value. The action is performed atomically.
+	 *
+	 * @param hi the high part of the key
+	 * @param lo the low part of the key
+	 * @param value the value
+	 * @param timestamp the timestamp of a new entry in milliseconds
+	 * @return the value already associated with the key or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V putIfAbsent(long hi, long lo, V value, long timestamp) {
+		if (value == null)
+			throw new NullPointerException();
+		int hash = hash(hi, lo);
+		return (V) segmentFor(hash).put(hi, lo, hash, value, timestamp, true);
+	}
+
+	/**
+	 * Replaces the value of the specified key only if it is associated with
+	 * the expected value. The entry keeps its timestamp.
+	 *
+	 * @param hi the high part of the key
+	 * @param lo the low part of the key
+	 * @param expected the value expected to be associated with the key
+	 * @param value the new value
+	 * @return true, if the value was replaced
+	 */
+	public boolean replace(long hi, long lo, V expected, V value) {
+		if (expected == null || value == null)
+			throw new NullPointerException();
+		int hash = hash(hi, lo);
+		return segmentFor(hash).replace(hi, lo, hash, expected, value);
+	}
+
+	/**
+	 * Removes the specified key from the map.
+	 *
+	 * @param hi the high part of the key
+	 * @param lo the low part of the key
+	 * @return the value that was associated with the key or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long hi, long lo) {
+		int hash = hash(hi, lo);
+		return (V) segmentFor(hash).remove(hi, lo, hash, null);
+	}
+
+	/**
+	 * Removes the specified key only if it is associated with the specified
+	 * value.
+	 *
+	 * @param hi the high part of the key
+	 * @param lo the low part of the key
+	 * @param value the value
+	 * @return true, if the entry was removed
+	 */
+	public boolean remove(long hi, long lo, V value) {
+		if (value == null)
+			throw new NullPointerException();
+		int hash = hash(hi, lo);
+		return segmentFor(hash).remove(hi, lo, hash, value) != null;
+	}
+
+	/**
+	 * Removes all entries with a timestamp older than the specified time.
+	 *
+	 * @param oldestAllowed the oldest timestamp to keep in milliseconds
+	 * @return the number of removed entries
+	 */
+	public int removeOlderThan(long oldestAllowed) {
+		int removed = 0;
+		for (Segment segment:segments)
+			removed += segment.removeOlderThan(oldestAllowed);
+		return removed;
+	}
+
+	/**
+	 * Returns the number of entries in the map.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment:segments)
+			size += segment.size();
+		return size;
+	}
+
+	/**
+	 * Removes all entries from the map.
+	 */
+	public void clear() {
+		for (Segment segment:segments)
+			segment.clear();
+	}
+
+	private Segment segmentFor(int hash) {
+		return segments[(hash >>> 24) & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Spreads the bits of the key (finalizer of MurmurHash3).
+	 */
+	private static int hash(long hi, long lo) {
+		long h = hi * 0x9E3779B97F4A7C15L + lo;
+		h ^= (h >>> 33);
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= (h >>> 33);
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= (h >>> 33);
+		return (int) h;
+	}
+
+	/**
+	 * An open-addressing hash table with linear probing. Slot i stores its key
+	 * in keys[2i] and keys[2i+1]. A slot is empty if its value is null.
+	 */
+	private static final class Segment {
+
+		private long[] keys;
+		private long[] timestamps;
+		private Object[] values;
+		private int size;
+
+		private Segment() {
+			allocate(INITIAL_CAPACITY);
+		}
+
+		private void allocate(int capacity) {
+			keys = new long[2 * capacity];
+			timestamps = new long[capacity];
+			values = new Object[capacity];
+		}
+
+		private synchronized Object get(long hi, long lo, int hash) {
+			int i = indexOf(hi, lo, hash);
+			return i < 0 ? null : values[i];
+		}
+
+		private synchronized Object put(long hi, long lo, int hash, Object value, long timestamp, boolean onlyIfAbsent) {
+			int i = indexOf(hi, lo, hash);
+			if (i >= 0) {
+				Object previous = values[i];
+				if (!onlyIfAbsent) {
+					timestamps[i] = timestamp;
+					values[i] = value;
+				}
+				return previous;
+			}
+			i = ~i;
+			keys[2*i] = hi;
+			keys[2*i+1] = lo;
+			timestamps[i] = timestamp;
+			values[i] = value;
+			if (++size > values.length * 3 / 4)
+				resize(values.length * 2);
+			return null;
+		}
+
+		private synchronized boolean replace(long hi, long lo, int hash, Object expected, Object value) {
+			int i = indexOf(hi, lo, hash);
+			if (i < 0 || values[i] != expected)
+				return false;
+			values[i] = value;
+			return true;
+		}
+
+		private synchronized Object remove(long hi, long lo, int hash, Object expected) {
+			int i = indexOf(hi, lo, hash);
+			if (i < 0 || (expected != null && values[i] != expected))
+				return null;
+			Object previous = values[i];
+			delete(i);
+			return previous;
+		}
+
+		private synchronized int removeOlderThan(long oldestAllowed) {
+			int removed = 0;
+			int i = 0;
+			while (i < values.length) {
+				if (values[i] != null && timestamps[i] < oldestAllowed) {
+					// the slot is refilled by shifting, so check it again
+					delete(i);
+					removed++;
+				} else {
+					i++;
+				}
+			}
+			return removed;
+		}
+
+		private synchronized int size() {
+			return size;
+		}
+
+		private synchronized void clear() {
+			Arrays.fill(values, null);
+			size = 0;
+		}
+
+		/**
+		 * Returns the slot of the key or, if the key is absent, the bitwise
+		 * complement of the empty slot where it belongs.
+		 */
+		private int indexOf(long hi, long lo, int hash) {
+			int mask = values.length - 1;
+			int i = hash & mask;
+			while (values[i] != null) {
+				if (keys[2*i] == hi && keys[2*i+1] == lo)
+					return i;
+				i = (i + 1) & mask;
+			}
+			return ~i;
+		}
+
+		/**
+		 * Empties the specified slot and shifts back the entries of the probe
+		 * sequence that follows.
+		 */
+		private void delete(int i) {
+			int mask = values.length - 1;
+			values[i] = null;
+			size--;
+			int j = i;
+			while (true) {
+				j = (j + 1) & mask;
+				if (values[j] == null)
+					return;
+				int home = hash(keys[2*j], keys[2*j+1]) & mask;
+				// move the entry unless its home slot lies cyclically in (i, j]
+				boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+				if (!stays) {
+					keys[2*i] = keys[2*j];
+					keys[2*i+1] = keys[2*j+1];
+					timestamps[i] = timestamps[j];
+					values[i] = values[j];
+					values[j] = null;
+					i = j;
+				}
+			}
+		}
+
+		private void resize(int capacity) {
+			long[] oldKeys = keys;
+			long[] oldTimestamps = timestamps;
+			Object[] oldValues = values;
+			allocate(capacity);
+			for (int j = 0; j < oldValues.length; j++) {
+				if (oldValues[j] != null) {
+					long hi = oldKeys[2*j];
+					long lo = oldKeys[2*j+1];
+					int i = ~indexOf(hi, lo, hash(hi, lo));
+					keys[2*i] = hi;
+					keys[2*i+1] = lo;
+					timestamps[i] = oldTimestamps[j];
+					values[i] = oldValues[j];
+				}
+			}
+		}
+	}
+}
@@ -19,7 +19,7 @@
  ******************************************************************************/
 package org.eclipse.californium.core.network;
 
-import java.util.Iterator;
+import java.net.InetAddress;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
@@ -38,11 +38,12 @@ import org.eclipse.californium.core.network.Exchange.KeyToken;
 import org.eclipse.californium.core.network.Exchange.KeyUri;
 import org.eclipse.californium.core.network.Exchange.Origin;
 import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.deduplication.AbstractDeduplicator;
 import org.eclipse.californium.core.network.deduplication.Deduplicator;
 import org.eclipse.californium.core.network.deduplication.DeduplicatorFactory;
 import org.eclipse.californium.core.observe.ObserveRelation;
 
-public class Matcher {
+public class Matcher implements ExchangeMatcher {
 
 	private final static Logger LOGGER = Logger.getLogger(Matcher.class.getCanonicalName());
 	
@@ -55,13 +56,16 @@ public class Matcher {
 	// TODO: Make per endpoint
 	private AtomicInteger currendMID; 
 	
-	private ConcurrentHashMap<KeyMID, Exchange> exchangesByMID; // for all
-	private ConcurrentHashMap<KeyToken, Exchange> exchangesByToken; // for outgoing
+	// keyed by packed local MID and packed token (see KeyMID.pack() and KeyToken.pack())
+	private LongKeyExchangeMap exchangesByMID; // for all
+	private LongKeyExchangeMap exchangesByToken; // for outgoing
 	private ConcurrentHashMap<KeyUri, Exchange> ongoingExchanges; // for blockwise
 	
 	// TODO: Multicast Exchanges: should not be removed from deduplicator
 	private Deduplicator deduplicator;
-	// Idea: Only store acks/rsts and not the whole exchange. Responses should be sent CON.
+	// the same deduplicator if it supports packed keys, otherwise null
+	private AbstractDeduplicator packedDeduplicator;
+	// The CompactDeduplicator only stores the serialized replies of completed exchanges
 	
 	/** Health status output */
 	private Level healthStatusLevel;
@@ -69,12 +73,14 @@ public class Matcher {
 	
 	public Matcher(NetworkConfig config) {
 		this.started = false;
-		this.exchangesByMID = new ConcurrentHashMap<KeyMID, Exchange>();
-		this.exchangesByToken = new ConcurrentHashMap<KeyToken, Exchange>();
+		this.exchangesByMID = new LongKeyExchangeMap();
+		this.exchangesByToken = new LongKeyExchangeMap();
 		this.ongoingExchanges = new ConcurrentHashMap<KeyUri, Exchange>();
 
 		DeduplicatorFactory factory = DeduplicatorFactory.getDeduplicatorFactory();
 		this.deduplicator = factory.createDeduplicator(config);
+		if (deduplicator instanceof AbstractDeduplicator)
+			this.packedDeduplicator = (AbstractDeduplicator) deduplicator;
 		
 		if (config.getBoolean(NetworkConfig.Keys.USE_RANDOM_MID_START)) {
 			currendMID = new AtomicInteger(new Random().nextInt(1<<16));
@@ -132,15 +138,14 @@ public class Matcher {
 		 */
 
 		// the MID is from the local namespace -- use blank address
-		KeyMID idByMID = new KeyMID(request.getMID(), null, 0);
-		KeyToken idByToken = new KeyToken(request.getToken());
+		byte[] token = request.getToken();
 		
 		exchange.setObserver(exchangeObserver);
 		
-		if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Stored open request by "+idByMID+", "+idByToken);
+		if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Stored open request by MID "+request.getMID()+", token "+request.getTokenString());
 		
-		exchangesByMID.put(idByMID, exchange);
-		exchangesByToken.put(idByToken, exchange);
+		exchangesByMID.put(KeyMID.pack(request.getMID(), null, 0), 0, exchange);
+		exchangesByToken.put(KeyToken.pack(token), token.length, exchange);
 	}
 
 	public void sendResponse(Exchange exchange, Response response) {
@@ -181,11 +186,24 @@ public class Matcher {
 			}
 		}
 		
+		// A reply resent from the deduplicator is not retransmitted and its
+		// ACK is not awaited, the exchange ends with the transmission
+		if (response.isDuplicate()) {
+			exchange.setComplete();
+			return;
+		}
+		
 		// Insert CON and NON to match ACKs and RSTs to the exchange.
 		// Do not insert ACKs and RSTs.
 		if (response.getType() == Type.CON || response.getType() == Type.NON) {
-			KeyMID idByMID = new KeyMID(response.getMID(), null, 0);
-			exchangesByMID.put(idByMID, exchange);
+			exchangesByMID.put(KeyMID.pack(response.getMID(), null, 0), 0, exchange);
+		}
+		
+		// Remember NON notifications to remove them again with the relation
+		if (response.getType() == Type.NON && exchange.getRelation() != null) {
+			Response eldest = exchange.getRelation().addNotification(response);
+			if (eldest != null)
+				exchangesByMID.remove(KeyMID.pack(eldest.getMID(), null, 0), 0);
 		}
 		
 		// Only CONs and Observe keep the exchange active
@@ -215,8 +233,6 @@ public class Matcher {
 		 * (Retransmission is supposed to be done by the retransm. layer)
 		 */
 		
-		KeyMID idByMID = new KeyMID(request.getMID(), request.getSource().getAddress(), request.getSourcePort());
-		
 		/*
 		 * The differentiation between the case where there is a Block1 or
 		 * Block2 option and the case where there is none has the advantage that
@@ -226,7 +242,7 @@ public class Matcher {
 		if (!request.getOptions().hasBlock1() && !request.getOptions().hasBlock2()) {
 
 			Exchange exchange = new Exchange(request, Origin.REMOTE);
-			Exchange previous = deduplicator.findPrevious(idByMID, exchange);
+			Exchange previous = findPrevious(request, exchange);
 			if (previous == null) {
 				exchange.setObserver(exchangeObserver);
 				return exchange;
@@ -234,6 +250,10 @@ public class Matcher {
 			} else {
 				LOGGER.info("Duplicate request: "+request);
 				request.setDuplicate(true);
+				if (previous == exchange) {
+					// the deduplicator only kept the reply of the completed exchange
+					exchange.setObserver(exchangeObserver);
+				}
 				return previous;
 			}
 			
@@ -246,7 +266,7 @@ public class Matcher {
 			Exchange ongoing = ongoingExchanges.get(idByUri);
 			if (ongoing != null) {
 				
-				Exchange prev = deduplicator.findPrevious(idByMID, ongoing);
+				Exchange prev = findPrevious(request, ongoing);
 				if (prev != null) {
 					LOGGER.info("Duplicate ongoing request: "+request);
 					request.setDuplicate(true);
@@ -264,7 +284,7 @@ public class Matcher {
 				 */
 				
 				Exchange exchange = new Exchange(request, Origin.REMOTE);
-				Exchange previous = deduplicator.findPrevious(idByMID, exchange);
+				Exchange previous = findPrevious(request, exchange);
 				LOGGER.fine("New ongoing exchange for remote Block1 request with key "+idByUri);
 				if (previous == null) {
 					exchange.setObserver(exchangeObserver);
@@ -273,6 +293,10 @@ public class Matcher {
 				} else {
 					LOGGER.info("Duplicate initial request: "+request);
 					request.setDuplicate(true);
+					if (previous == exchange) {
+						// the deduplicator only kept the reply of the completed exchange
+						exchange.setObserver(exchangeObserver);
+					}
 					return previous;
 				}
 			} // if ongoing
@@ -288,29 +312,19 @@ public class Matcher {
 		 * 		=> resend ACK
 		 */
 		
-		KeyMID idByMID;
-		if (response.getType() == Type.ACK) {
-			// own namespace
-			idByMID = new KeyMID(response.getMID(), null, 0);
-		} else {
-			// remote namespace
-			idByMID = new KeyMID(response.getMID(), response.getSource().getAddress(), response.getSourcePort());
-		}
-		
-		KeyToken idByToken = new KeyToken(response.getToken());
-		
-		Exchange exchange = exchangesByToken.get(idByToken);
+		byte[] token = response.getToken();
+		Exchange exchange = exchangesByToken.get(KeyToken.pack(token), token.length);
 		
 		if (exchange != null) {
 			// There is an exchange with the given token
-			Exchange prev = deduplicator.findPrevious(idByMID, exchange);
+			Exchange prev = findPrevious(response, exchange);
 			if (prev != null) { // (and thus it holds: prev == exchange)
 				LOGGER.info("Duplicate response for open exchange: "+response);
 				response.setDuplicate(true);
 			} else {
-				idByMID = new KeyMID(exchange.getCurrentRequest().getMID(), null, 0);
-				if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Exchange got response: Cleaning up "+idByMID);
-				exchangesByMID.remove(idByMID);
+				int mid = exchange.getCurrentRequest().getMID();
+				if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Exchange got response: Cleaning up MID "+mid);
+				exchangesByMID.remove(KeyMID.pack(mid, null, 0), 0);
 			}
 			
 			if (response.getType() == Type.ACK && exchange.getCurrentRequest().getMID() != response.getMID()) {
@@ -324,7 +338,7 @@ public class Matcher {
 			// There is no exchange with the given token.
 			if (response.getType() != Type.ACK) {
 				// only act upon separate responses
-				Exchange prev = deduplicator.find(idByMID);
+				Exchange prev = find(response);
 				if (prev != null) {
 					LOGGER.info("Duplicate response for completed exchange: "+response);
 					response.setDuplicate(true);
@@ -341,13 +355,12 @@ public class Matcher {
 	public Exchange receiveEmptyMessage(EmptyMessage message) {
 		
 		// local namespace
-		KeyMID idByMID = new KeyMID(message.getMID(), null, 0);
+		long idByMID = KeyMID.pack(message.getMID(), null, 0);
 		
-		Exchange exchange = exchangesByMID.get(idByMID);
+		Exchange exchange = exchangesByMID.remove(idByMID, 0);
 		
 		if (exchange != null) {
-			if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Exchange got reply: Cleaning up "+idByMID);
-			exchangesByMID.remove(idByMID);
+			if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Exchange got reply: Cleaning up MID "+message.getMID());
 			return exchange;
 		} else {
 			LOGGER.info("Ignoring unmatchable empty message: "+message);
@@ -355,6 +368,53 @@ public class Matcher {
 		}
 	}
 	
+	/**
+	 * Checks whether an exchange for an outgoing request with the specified
+	 * token is stored in this matcher.
+	 * 
+	 * @param token the token
+	 * @return true, if an exchange with the token is stored
+	 */
+	boolean hasExchange(byte[] token) {
+		return exchangesByToken.containsKey(KeyToken.pack(token), token.length);
+	}
+	
+	/**
+	 * Looks up the deduplicator for the MID of the specified incoming message
+	 * and otherwise stores the exchange. ACKs are in the local namespace. MIDs
+	 * from IPv4 addresses are looked up with packed keys that need no
+	 * allocation if the deduplicator is an {@link AbstractDeduplicator}.
+	 */
+	private Exchange findPrevious(Message message, Exchange exchange) {
+		int mid = message.getMID();
+		InetAddress source = message.getType() == Type.ACK ? null : message.getSource();
+		int port = source == null ? 0 : message.getSourcePort();
+		if (packedDeduplicator != null && KeyMID.isPackable(source))
+			return packedDeduplicator.findPrevious(KeyMID.pack(mid, source, port), exchange);
+		else
+			return deduplicator.findPrevious(newKeyMID(mid, source, port), exchange);
+	}
+	
+	/**
+	 * Looks up the deduplicator for the MID of the specified incoming message.
+	 */
+	private Exchange find(Message message) {
+		int mid = message.getMID();
+		InetAddress source = message.getType() == Type.ACK ? null : message.getSource();
+		int port = source == null ? 0 : message.getSourcePort();
+		if (packedDeduplicator != null && KeyMID.isPackable(source))
+			return packedDeduplicator.find(KeyMID.pack(mid, source, port));
+		else
+			return deduplicator.find(newKeyMID(mid, source, port));
+	}
+	
+	/*
+	 * Creates an unpacked key; ACKs are in the local namespace without source.
+	 */
+	private static KeyMID newKeyMID(int mid, InetAddress source, int port) {
+		return source == null ? new KeyMID(mid, null, 0) : new KeyMID(mid, source.getAddress(), port);
+	}
+	
 	public void clear() {
 		this.exchangesByMID.clear();
 		this.exchangesByToken.clear();
@@ -364,12 +424,10 @@ public class Matcher {
 	
 	private void removeNotificatoinsOf(ObserveRelation relation) {
 		LOGGER.fine("Remove all remaining NON-notifications of observe relation");
-		for (Iterator<Response> iterator = relation.getNotificationIterator(); iterator.hasNext();) {
-			Response previous = iterator.next();
+		Response previous;
+		while ((previous = relation.pollNotification()) != null) {
 			// notifications are local MID namespace
-			KeyMID idByMID = new KeyMID(previous.getMID(), null, 0);
-			exchangesByMID.remove(idByMID);
-			iterator.remove();
+			exchangesByMID.remove(KeyMID.pack(previous.getMID(), null, 0), 0);
 		}
 	}
 	
@@ -386,14 +444,14 @@ public class Matcher {
 			if (exchange.getOrigin() == Origin.LOCAL) {
 				// this endpoint created the Exchange by issuing a request
 				
-				KeyMID idByMID = new KeyMID(exchange.getCurrentRequest().getMID(), null, 0);
-				KeyToken idByToken = new KeyToken(exchange.getCurrentRequest().getToken());
+				Request request = exchange.getCurrentRequest();
+				byte[] token = request.getToken();
 				
-//				LOGGER.fine("Exchange completed: Cleaning up "+idByTok);
-				exchangesByToken.remove(idByToken);
+//				LOGGER.fine("Exchange completed: Cleaning up "+request.getTokenString());
+				exchangesByToken.remove(KeyToken.pack(token), token.length);
 				
 				// in case an empty ACK was lost
-				exchangesByMID.remove(idByMID);
+				exchangesByMID.remove(KeyMID.pack(request.getMID(), null, 0), 0);
 			
 			} else { // Origin.REMOTE
 				// this endpoint created the Exchange to respond to a request
@@ -409,9 +467,8 @@ public class Matcher {
 				Response response = exchange.getResponse();
 				if (response != null && response.getType() != Type.ACK) {
 					// only response MIDs are stored for ACK and RST, no reponse Tokens
-					KeyMID midKey = new KeyMID(response.getMID(), null, 0);
-//					LOGGER.fine("Remote ongoing completed, cleaning up "+midKey);
-					exchangesByMID.remove(midKey);
+//					LOGGER.fine("Remote ongoing completed, cleaning up MID "+response.getMID());
+					exchangesByMID.remove(KeyMID.pack(response.getMID(), null, 0), 0);
 				}
 				
 				// Remove all remaining NON-notifications if this exchange is an observe relation
@@ -419,6 +476,9 @@ public class Matcher {
 				if (relation != null) {
 					removeNotificatoinsOf(relation);
 				}
+				
+				if (packedDeduplicator != null)
+					packedDeduplicator.complete(exchange);
 			}
 		}
 		
@@ -18,9 +18,11 @@
 package org.eclipse.californium.core.network;
 
 import java.net.InetAddress;
-import java.util.LinkedList;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.californium.core.network.config.NetworkConfig;
 
@@ -30,20 +32,21 @@ public class RemoteEndpoint {
 	private InetAddress Address;
 	// The port number of the remote endpoint
 	private int Port;
-	// A concurrent Hash Map that contains timestamp information for the exchanges
-	private ConcurrentHashMap<Exchange, exchangeInfo> exchangeInfoMap;
+	// The timestamp, VBF, and estimator type of each registered exchange are kept in the exchange itself
 	
 	//Overall RTO, Strong RTO, Strong RTT, Strong RTTVAR, to be used to set the retransmission timeout.
 	private long[] overallRTO;
-	private long[] RTOupdateTimestamp;
 	
 	//Current RTO stores the latest updated value
 	private long currentRTO;
 	
 	private long meanOverallRTO;
-	private long[] xRTO;
-	private long[] xRTT;
-	private long[] xRTTVAR;
+	
+	// RTO, RTT, RTTVAR, and update timestamp of the overall, strong, and weak estimators in one array
+	private final long[] estimators = new long[3 * ESTIMATOR_FIELDS];
+	
+	// The last time the endpoint was looked up, maintained by the RemoteEndpointManager
+	private long lastAccess;
 
 	/* Linux algorithm variables FOR TESTING ONLY*/
 	public long SRTT;
@@ -73,7 +76,13 @@ public class RemoteEndpoint {
 	private boolean isBlindStrong; // As long as no weak RTT measurement has been carried out, the RTO timers are calculated differently
 	private boolean isBlindWeak; // As long as no weak RTT measurement has been carried out, the RTO timers are calculated differently
 	
-	private boolean processingNON;
+	// Set while the endpoint is served by the NON pacing loop of the congestion control layer
+	private final AtomicBoolean processingNON = new AtomicBoolean();
+	// The earliest time the next NON may be sent
+	private volatile long nextNonConfirmableTime;
+	
+	// The number of exchanges admitted by NSTART
+	private final AtomicInteger ongoingExchanges = new AtomicInteger();
 	
 	private final static int RTOARRAYSIZE 	= 1; 	// Amounts of elements in the RTO history length
 	
@@ -81,11 +90,21 @@ public class RemoteEndpoint {
 	private final static int WEAKRTOTYPE = 2;
 	private final static int NOESTIMATOR = 3;
 	
+	private final static int ESTIMATOR_FIELDS = 4;
+	private final static int X_RTO = 0;
+	private final static int X_RTT = 1;
+	private final static int X_RTTVAR = 2;
+	private final static int X_TIMESTAMP = 3;
+	
 	/* A queue for confirmable exchanges that need to be delayed due to the NSTART limitation*/
-	private Queue<Exchange> confirmableQueue; 
+	private final Queue<Exchange> confirmableQueue = new ConcurrentLinkedQueue<Exchange>(); 
+	private final AtomicInteger confirmableQueueSize = new AtomicInteger();
+	private final AtomicLong droppedConfirmables = new AtomicLong();
 	
 	/* A queue for non-confirmable exchanges that need to be rate-controlled */
-	private Queue<Exchange> nonConfirmableQueue; 
+	private final Queue<Exchange> nonConfirmableQueue = new ConcurrentLinkedQueue<Exchange>(); 
+	private final AtomicInteger nonConfirmableQueueSize = new AtomicInteger();
+	private final AtomicLong droppedNonConfirmables = new AtomicLong();
 	
 	public RemoteEndpoint(int remotePort, InetAddress remoteAddress, NetworkConfig config){
 		Address = remoteAddress;
@@ -98,11 +117,6 @@ public class RemoteEndpoint {
 		}
 		currentRTO =  config.getInt(NetworkConfig.Keys.ACK_TIMEOUT);
 
-		xRTO = new long[3];
-		xRTT = new long[3];
-		xRTTVAR = new long[3];
-		RTOupdateTimestamp = new long[3];	
-		
 		for(int i=0; i <= 2; i++){
 			setEstimatorValues(config.getInt(NetworkConfig.Keys.ACK_TIMEOUT), 0, 0, i);
 			setRTOtimestamp(System.currentTimeMillis(), i);
@@ -116,12 +130,6 @@ public class RemoteEndpoint {
 		isBlindStrong = true;
 		isBlindWeak = true;
 		
-		processingNON = false;
-		
-		exchangeInfoMap = new ConcurrentHashMap<Exchange, exchangeInfo>();
-
-		confirmableQueue = new LinkedList<Exchange>();
-	    nonConfirmableQueue = new LinkedList<Exchange>();
 	}
 
 	public int getRemotePort(){
@@ -145,23 +153,23 @@ public class RemoteEndpoint {
 	}
 	
 	public long getRTOtimestamp(int rtoType){
-		return RTOupdateTimestamp[rtoType];
+		return estimators[rtoType * ESTIMATOR_FIELDS + X_TIMESTAMP];
 	}
 	
 	public void setRTOtimestamp(long timestamp, int rtoType){
-		RTOupdateTimestamp[rtoType] = timestamp;
+		estimators[rtoType * ESTIMATOR_FIELDS + X_TIMESTAMP] = timestamp;
 	}
 	
 	public long getxRTO(int rtoType){
-		return xRTO[rtoType];
+		return estimators[rtoType * ESTIMATOR_FIELDS + X_RTO];
 	}
 	
 	public long getxRTT(int rttType){
-		return xRTT[rttType];
+		return estimators[rttType * ESTIMATOR_FIELDS + X_RTT];
 	}
 	
 	public long getxRTTVAR(int rttvarType){
-		return xRTTVAR[rttvarType];
+		return estimators[rttvarType * ESTIMATOR_FIELDS + X_RTTVAR];
 	}
 	
 	public void useBlindEstimator(){
@@ -185,21 +193,118 @@ public class RemoteEndpoint {
 	}
 	
 	public void setEstimatorValues(long rto, long rtt, long rttvar, int estimatorType){
-		xRTO[estimatorType] = rto;
-		xRTT[estimatorType] = rtt;
-		xRTTVAR[estimatorType] = rttvar;
+		int base = estimatorType * ESTIMATOR_FIELDS;
+		estimators[base + X_RTO] = rto;
+		estimators[base + X_RTT] = rtt;
+		estimators[base + X_RTTVAR] = rttvar;
 	}	
 	
+	/**
+	 * Returns the queue of confirmable exchanges. Use
+	 * {@link #offerConfirmableExchange(Exchange, int)} and
+	 * {@link #pollConfirmableExchange()} to keep the bound and the metrics.
+	 * @return the queue
+	 */
 	public Queue<Exchange> getConfirmableQueue(){
 		return confirmableQueue;
 	}
 	
+	/**
+	 * Returns the queue of non-confirmable exchanges. Use
+	 * {@link #offerNonConfirmableExchange(Exchange, int)} and
+	 * {@link #pollNonConfirmableExchange()} to keep the bound and the metrics.
+	 * @return the queue
+	 */
 	public Queue<Exchange> getNonConfirmableQueue(){
 		return nonConfirmableQueue;
 	}
 	
+	/**
+	 * Queues a confirmable exchange until NSTART admits it.
+	 * @param exchange the exchange
+	 * @param limit the capacity of the queue
+	 * @return false if the queue is full and the exchange was dropped
+	 */
+	public boolean offerConfirmableExchange(Exchange exchange, int limit){
+		return offer(confirmableQueue, confirmableQueueSize, droppedConfirmables, exchange, limit);
+	}
+	
 	public Exchange pollConfirmableExchange(){
-		return confirmableQueue.poll();
+		return poll(confirmableQueue, confirmableQueueSize);
+	}
+	
+	/**
+	 * Queues a non-confirmable exchange for the pacing of the congestion control layer.
+	 * @param exchange the exchange
+	 * @param limit the capacity of the queue
+	 * @return false if the queue is full and the exchange was dropped
+	 */
+	public boolean offerNonConfirmableExchange(Exchange exchange, int limit){
+		return offer(nonConfirmableQueue, nonConfirmableQueueSize, droppedNonConfirmables, exchange, limit);
+	}
+	
+	public Exchange pollNonConfirmableExchange(){
+		return poll(nonConfirmableQueue, nonConfirmableQueueSize);
+	}
+	
+	public int getConfirmableQueueSize(){
+		return confirmableQueueSize.get();
+	}
+	
+	public int getNonConfirmableQueueSize(){
+		return nonConfirmableQueueSize.get();
+	}
+	
+	public long getDroppedConfirmableCount(){
+		return droppedConfirmables.get();
+	}
+	
+	public long getDroppedNonConfirmableCount(){
+		return droppedNonConfirmables.get();
+	}
+	
+	private static boolean offer(Queue<Exchange> queue, AtomicInteger size, AtomicLong dropped, Exchange exchange, int limit){
+		// reserve the space first so that concurrent offers cannot exceed the limit
+		if (size.incrementAndGet() > limit) {
+			size.decrementAndGet();
+			dropped.incrementAndGet();
+			return false;
+		}
+		queue.offer(exchange);
+		return true;
+	}
+	
+	private static Exchange poll(Queue<Exchange> queue, AtomicInteger size){
+		Exchange exchange = queue.poll();
+		if (exchange != null) {
+			size.decrementAndGet();
+		}
+		return exchange;
+	}
+	
+	/**
+	 * Admits a new exchange if fewer than NSTART exchanges are ongoing. The
+	 * slot is released when the exchange info is removed.
+	 * @param nstart the maximum number of ongoing exchanges
+	 * @return true if the exchange may start
+	 */
+	public boolean tryAcquireExchangeSlot(int nstart){
+		int ongoing;
+		do {
+			ongoing = ongoingExchanges.get();
+			if (ongoing >= nstart) {
+				return false;
+			}
+		} while (!ongoingExchanges.compareAndSet(ongoing, ongoing + 1));
+		return true;
+	}
+	
+	/**
+	 * Releases a slot acquired with {@link #tryAcquireExchangeSlot(int)} that
+	 * was not used to register an exchange.
+	 */
+	public void releaseExchangeSlot(){
+		ongoingExchanges.decrementAndGet();
 	}
 	
 	private void calculateMeanOverallRTO(){
@@ -224,11 +329,45 @@ public class RemoteEndpoint {
 		currentRTO = meanOverallRTO;
 	}
 	public void setProcessingNON(boolean value){
-		processingNON = value;
+		processingNON.set(value);
 	}
 	
 	public boolean getProcessingNON(){
-		return processingNON;
+		return processingNON.get();
+	}
+	
+	/**
+	 * Marks the endpoint as served by the NON pacing loop.
+	 * @return true if it was not served before
+	 */
+	public boolean startProcessingNON(){
+		return processingNON.compareAndSet(false, true);
+	}
+	
+	public long getNextNonConfirmableTime(){
+		return nextNonConfirmableTime;
+	}
+	
+	public void setNextNonConfirmableTime(long time){
+		nextNonConfirmableTime = time;
+	}
+	
+	/**
+	 * Checks whether exchanges with this endpoint are still in progress or
+	 * queued. The state of such an endpoint must be kept.
+	 * @return true if the endpoint is in use
+	 */
+	public boolean hasPendingExchanges(){
+		return ongoingExchanges.get() > 0 || !confirmableQueue.isEmpty()
+				|| !nonConfirmableQueue.isEmpty() || processingNON.get();
+	}
+	
+	long getLastAccess(){
+		return lastAccess;
+	}
+	
+	void setLastAccess(long time){
+		lastAccess = time;
 	}
 	
 	/**
@@ -237,11 +376,12 @@ public class RemoteEndpoint {
 	 */
 	public long getRTO() {
 		long rto;
-		if (usesBlindEstimator && isBlindStrong && isBlindWeak && exchangeInfoMap.size() > 1) {
+		int ongoing = ongoingExchanges.get();
+		if (usesBlindEstimator && isBlindStrong && isBlindWeak && ongoing > 1) {
 			// No RTT measurements have been possible so far => apply blind
 			// estimator rule
-			// System.out.println("Blind Rule applying, RTO: "+(exchangeInfoMap.size())*2000);
-			rto = (long) (exchangeInfoMap.size()) * 2000;
+			// System.out.println("Blind Rule applying, RTO: "+ongoing*2000);
+			rto = (long) ongoing * 2000;
 		} else {
 			if (meanOverallRTO != currentRTO) {
 				// If current RTO was not updated, there was no successful RTO
@@ -288,52 +428,40 @@ public class RemoteEndpoint {
 	 * @param exchange the exchange
 	 */
 	public void setEstimatorState(Exchange exchange){
-		//When no CC layer is used, the entries are all null, check here if this is the case
-		if(exchangeInfoMap.get(exchange) == null){
+		//When no CC layer is used, the exchange is not registered, check here if this is the case
+		if(exchange.getRTTTimestamp() == 0){
 			return;
 		}
 		
-		/*if(exchange.getFailedTransmissionCount() == 5){
-			//TODO: If all retransmissions expired, do delete exchange (use config file to get this value "5" or use another method to delete exchange?)
-				removeExchangeInfo(exchange);
-				return;
-		}*/
 		if(exchange.getFailedTransmissionCount() == 1 || exchange.getFailedTransmissionCount() == 2){
 			//Only allow weak estimator updates from the first or second retransmission
-			//System.out.println("Remote Enpdoint: WEAK");
-			exchangeInfoMap.get(exchange).setTypeWeakEstimator();
+			exchange.setRTTEstimatorType(WEAKRTOTYPE);
 		}else{
 			//If more than 1 retransmission was applied to the exchange, mark this entry as not updatable
-			//System.out.println("Remote Enpdoint: NO");
-			exchangeInfoMap.get(exchange).setTypeNoEstimator();
+			exchange.setRTTEstimatorType(NOESTIMATOR);
 		}
 	}
 	
 	/**
-	 * Confirmable exchanges are registered at the remote endpoint 
+	 * Confirmable exchanges are registered at the remote endpoint after they
+	 * acquired a slot with {@link #tryAcquireExchangeSlot(int)}.
 	 * @param exchange the exchange to register
 	 * @param vbf the variable back-off factor
 	 */
 	public void registerExchange(Exchange exchange, double vbf){
-		exchangeInfo newExchange = new exchangeInfo(System.currentTimeMillis(), vbf);
-		exchangeInfoMap.put(exchange, newExchange);
+		if (!exchange.registerRTT(System.currentTimeMillis(), vbf, STRONGRTOTYPE)) {
+			// the exchange already holds a slot
+			ongoingExchanges.decrementAndGet();
+		}
 	}
 	
 	/**
 	 * Get timestamp of transmission of the message
 	 * @param exchange the exchange
-	 * @return the timestamp in 
+	 * @return the timestamp in ms or 0 if the exchange is not registered
 	 */
 	public long getExchangeTimestamp(Exchange exchange){	
-		long storedTimestamp = 0;	
-		if(exchangeInfoMap.isEmpty()){
-			return 0;
-		}
-		
-		if(exchangeInfoMap.get(exchange) != null){
-			storedTimestamp = exchangeInfoMap.get(exchange).getTimestamp();
-		}
-		return storedTimestamp;
+		return exchange.getRTTTimestamp();
 	}
 	
 	/**
@@ -342,15 +470,10 @@ public class RemoteEndpoint {
 	 * @return the VBF
 	 */
 	public double getExchangeVBF(Exchange exchange){	
-		double vbf = 2;	
-		if(exchangeInfoMap.isEmpty()){
-			return 0;
+		if(exchange.getRTTTimestamp() != 0){
+			return exchange.getRTTVBF();
 		}
-		
-		if(exchangeInfoMap.get(exchange) != null){
-			vbf = exchangeInfoMap.get(exchange).getVBF();
-		}
-		return vbf;
+		return ongoingExchanges.get() == 0 ? 0 : 2;
 	}
 	
 	/**
@@ -359,40 +482,32 @@ public class RemoteEndpoint {
 	 * @return the estimator ID
 	 */
 	public int getExchangeEstimatorState(Exchange exchange){	
-		if(exchangeInfoMap.isEmpty()){
-			//System.out.println("No exchanges stored (estimator state request)");
-		}
-		
-		if(exchangeInfoMap.get(exchange) != null){
-			return exchangeInfoMap.get(exchange).getEstimatorType();
+		if(exchange.getRTTTimestamp() != 0){
+			return exchange.getRTTEstimatorType();
 		}
 		return 0;
 	}
+	
 	/**
 	 * Removes all information of a finished exchange
 	 * @param exchange the exchange to remove
 	 * @return true if removed
 	 */
 	public boolean removeExchangeInfo(Exchange exchange){
-		if(exchangeInfoMap.remove(exchange) == null){
+		if(!exchange.removeRTT()){
 			return false;
 		}else{
 		//deleted exchange!
+		ongoingExchanges.decrementAndGet();
 		return true;
 		}
 	}
 	
 	/**
-	 * Checks if an exchange in the list was was deleted
+	 * Formerly swept the exchange table; the state is now removed together
+	 * with the exchange and nothing needs to be checked.
 	 */
 	public void checkForDeletedExchanges(){
-		//System.out.println("Checking for old exchanges in remote Endpoints.");
-	    for (Object o : exchangeInfoMap.entrySet()){
-	    	if(o == null){
-	    		//System.out.println("Deleting old entry (null-entry).");
-	    		exchangeInfoMap.remove(o);
-	    	}
-	    }
 	}
 	
 	/**
@@ -401,8 +516,7 @@ public class RemoteEndpoint {
 	 * @return the count
 	 */
 	public int getNumberOfOngoingExchanges(Exchange exchange){	
-		//System.out.println("Amount of exchanges: " + exchangeInfoMap.size() );
-		return exchangeInfoMap.size();
+		return ongoingExchanges.get();
 	}
 	
 	public void printLinuxStats(){
@@ -412,42 +526,4 @@ public class RemoteEndpoint {
 	public void printPeakhopperStats(){
 	    System.out.println("Delta: " + delta + " D: " + D_value + " B: " + B_value + " RTT_max: " + RTT_max);
 	}
-	
-	/**
-	 * Object that stores exchange related information 
-	 * 1.) Timestamp
-	 * 2.) Variable Backoff Factor
-	 * 3.) Estimator Type (weak/strong/none)
-	 */ 
-	private class exchangeInfo{
-		
-		private long timestamp;
-		private double vbf;
-		private int estimatorType;
-		
-		public exchangeInfo(long timestamp, double vbf){
-			this.timestamp = timestamp;
-			this.vbf = vbf;
-			estimatorType = STRONGRTOTYPE;
-			//System.out.println("Exchange stored in remote Endpoint (" + System.currentTimeMillis() + ")");
-		}
-		
-		public void setTypeWeakEstimator(){
-			estimatorType = WEAKRTOTYPE;
-		}
-		public void setTypeNoEstimator(){
-			estimatorType = NOESTIMATOR;
-		}
-		public int getEstimatorType(){
-			return estimatorType;
-		}
-		
-		public long getTimestamp(){
-			return timestamp;
-		}
-		
-		public double getVBF(){
-			return vbf;
-		}
-	}
 }
@@ -18,21 +18,58 @@
 package org.eclipse.californium.core.network;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange.Origin;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 
+/**
+ * The RemoteEndpointManager keeps the congestion control state of each peer,
+ * i.e., the RTO estimators and the queues of a {@link RemoteEndpoint}. Peers
+ * are identified by address and port.
+ * <p>
+ * The table is split into segments that are locked independently, so that
+ * the protocol stage threads do not contend when they serve different peers.
+ * Each segment keeps its endpoints in access order. The least recently used
+ * endpoint is removed when the segment exceeds its share of
+ * {@link NetworkConfig.Keys#MAX_REMOTE_ENDPOINTS}, and endpoints that have not
+ * been used for {@link NetworkConfig.Keys#REMOTE_ENDPOINT_LIFETIME} are
+ * removed on the next access to their segment. Endpoints that still have
+ * ongoing or queued exchanges are never removed, since the congestion
+ * control layer looks them up again to complete their exchanges and to
+ * start the queued ones. If all endpoints at the head of a segment are busy,
+ * the segment exceeds its share until they become idle. Only a few entries
+ * are examined per access, so that a segment full of busy peers does not
+ * make each lookup scan the whole segment.
+ */
 public class RemoteEndpointManager {
 
-	// Maximum amount of destinations for which remote endpoint objects are maintained
-	private final int MAX_REMOTE_ENDPOINTS = 10;
-	
-	/** The list of remote endpoints */
-	private LimitedRemoteEndpointHashmap<InetAddress,RemoteEndpoint> remoteEndpointsList = new LimitedRemoteEndpointHashmap<InetAddress,RemoteEndpoint>(MAX_REMOTE_ENDPOINTS);//ArrayList<RemoteEndpoint>(0);
+	/** The logger */
+	private static final Logger LOGGER = Logger.getLogger(RemoteEndpointManager.class.getCanonicalName());
+
+	/** The number of segments for large tables */
+	private static final int SEGMENTS = 16;
+
+	/** Tables smaller than this use a single segment to keep the limit exact */
+	private static final int MIN_SEGMENTED_SIZE = 1024;
+
+	/** The number of entries examined for eviction or expiry per access */
+	private static final int MAX_EVICTION_SCAN = 8;
+
+	/** The segments */
+	private final Segment[] segments;
+
+	/** The idle time in ms after which an endpoint is removed, 0 for never */
+	private final long lifetime;
 
 	/** The configuration */ 
-	private NetworkConfig config;
+	private final NetworkConfig config;
 	
 	/**
 	 * The RemoteEndpointManager is responsible for creating a new RemoteEndpoint object when exchanges with a 
@@ -42,41 +79,129 @@ public class RemoteEndpointManager {
 	 */
 	public RemoteEndpointManager(NetworkConfig config) {
 		this.config = config;
+		this.lifetime = config.getInt(NetworkConfig.Keys.REMOTE_ENDPOINT_LIFETIME);
+		int maxEndpoints = config.getInt(NetworkConfig.Keys.MAX_REMOTE_ENDPOINTS);
+		int count = maxEndpoints > 0 && maxEndpoints < MIN_SEGMENTED_SIZE ? 1 : SEGMENTS;
+		int capacity = maxEndpoints > 0 ? (maxEndpoints + count - 1) / count : 0;
+		this.segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment(capacity);
+		}
 	}
 		
 	/**
-	 * Returns the endpoint responsible for the given exchange.
+	 * Returns the endpoint responsible for the given exchange. This is the
+	 * destination of the request for exchanges that originate locally and
+	 * its source for exchanges from a remote client.
+	 * 
 	 * @param exchange the exchange
 	 * @return the endpoint for the exchange
 	 */
-	public RemoteEndpoint getRemoteEndpoint(Exchange exchange){ //int remotePort, InetAddress remoteAddress){
-		
-		InetAddress remoteAddress = exchange.getRequest().getDestination();
-		int remotePort = exchange.getRequest().getDestinationPort();
-		
-		// TODO: One IP-Address is considered to be a destination endpoint, for higher granularity (portnumber) changes are necessary
-		if (!remoteEndpointsList.containsKey(remoteAddress)){
-			RemoteEndpoint unusedRemoteEndpoint = new RemoteEndpoint(remotePort, remoteAddress, config);
-			remoteEndpointsList.put(remoteAddress,unusedRemoteEndpoint);
-			
-			//System.out.println("Number of RemoteEndpoint objects stored:" + remoteEndpointsList.size());
+	public RemoteEndpoint getRemoteEndpoint(Exchange exchange) {
+		Request request = exchange.getCurrentRequest();
+		if (exchange.getOrigin() == Origin.REMOTE) {
+			return getRemoteEndpoint(request.getSource(), request.getSourcePort());
+		} else {
+			return getRemoteEndpoint(request.getDestination(), request.getDestinationPort());
 		}
-		
-		return remoteEndpointsList.get(remoteAddress);
 	}
-	
-	public class LimitedRemoteEndpointHashmap<K, V> extends LinkedHashMap<K, V> {
+
+	/**
+	 * Returns the endpoint for the specified address and port and creates it
+	 * if it does not exist yet.
+	 * 
+	 * @param address the address of the peer
+	 * @param port the port of the peer
+	 * @return the endpoint
+	 */
+	public RemoteEndpoint getRemoteEndpoint(InetAddress address, int port) {
+		return getRemoteEndpoint(address, port, System.currentTimeMillis());
+	}
+
+	// package-private with explicit time for the tests
+	RemoteEndpoint getRemoteEndpoint(InetAddress address, int port, long now) {
+		InetSocketAddress key = new InetSocketAddress(address, port);
+		Segment segment = segments[(key.hashCode() & 0x7FFFFFFF) % segments.length];
+		synchronized (segment) {
+			segment.purge(now);
+			RemoteEndpoint endpoint = segment.get(key);
+			if (endpoint == null) {
+				endpoint = new RemoteEndpoint(port, address, config);
+				segment.put(key, endpoint);
+			}
+			endpoint.setLastAccess(now);
+			return endpoint;
+		}
+	}
+
+	/**
+	 * Returns the number of endpoints currently in the table.
+	 * 
+	 * @return the number of endpoints
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * A segment of the table. It is guarded by its own monitor.
+	 */
+	private class Segment extends LinkedHashMap<InetSocketAddress, RemoteEndpoint> {
 
 		private static final long serialVersionUID = -7855412701242966797L;
-		private final int maxSize;
 
-	    public LimitedRemoteEndpointHashmap(int maxSize) {
-	        this.maxSize = maxSize;
-	    }
+		/** The maximum number of endpoints in this segment, 0 for no limit */
+		private final int capacity;
+
+		private Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		/**
+		 * Removes the endpoints that have been idle longer than the lifetime.
+		 * They are found at the head since the map is in access order. Busy
+		 * endpoints are kept and at most {@link #MAX_EVICTION_SCAN} of them are
+		 * passed over.
+		 */
+		private void purge(long now) {
+			if (lifetime <= 0) return;
+			Iterator<RemoteEndpoint> it = values().iterator();
+			int skipped = 0;
+			while (it.hasNext() && skipped < MAX_EVICTION_SCAN) {
+				RemoteEndpoint endpoint = it.next();
+				if (now - endpoint.getLastAccess() < lifetime) break;
+				if (endpoint.hasPendingExchanges()) {
+					skipped++;
+				} else {
+					it.remove();
+				}
+			}
+		}
 
-	    @Override
-	    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-	        return size() > maxSize;
-	    }
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, RemoteEndpoint> eldest) {
+			if (capacity == 0 || size() <= capacity) return false;
+			// remove the least recently used endpoints that are idle, but never
+			// the one that has just been added at the tail
+			Iterator<RemoteEndpoint> it = values().iterator();
+			int scan = Math.min(size() - 1, MAX_EVICTION_SCAN);
+			for (int i = 0; i < scan && size() > capacity; i++) {
+				if (!it.next().hasPendingExchanges()) {
+					it.remove();
+				}
+			}
+			if (size() > capacity && LOGGER.isLoggable(Level.FINE)) {
+				LOGGER.fine("Remote endpoints in use exceed the limit: "+size()+" of "+capacity+" in segment");
+			}
+			// the endpoints have been removed already
+			return false;
+		}
 	}
 }
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import java.net.InetAddress;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.eclipse.californium.core.coap.EmptyMessage;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+
+/**
+ * A matcher that partitions exchanges across several independent
+ * {@link Matcher}s. The shard of an exchange is determined by a hash of the
+ * address and port of the remote endpoint. Each shard has its own MID
+ * counter, exchange tables and deduplicator, so that messages from and to
+ * different peers that are processed on different threads do not contend for
+ * the same tables and counter.
+ * <p>
+ * MIDs only have to be unique per remote endpoint (RFC 7252, Section 4.4).
+ * Since all messages of a peer always map to the same shard, each shard can
+ * safely use its own MID space.
+ * <p>
+ * The number of shards is configured with
+ * {@link NetworkConfig.Keys#MATCHER_SHARDS}.
+ */
+public class ShardedMatcher implements ExchangeMatcher {
+
+	/** The independent matchers */
+	private final Matcher[] shards;
+
+	/**
+	 * Instantiates a new sharded matcher with the specified number of shards.
+	 *
+	 * @param config the configuration
+	 * @param count the number of shards
+	 */
+	public ShardedMatcher(NetworkConfig config, int count) {
+		if (count < 1)
+			throw new IllegalArgumentException("Sharded matcher requires at least one shard but got "+count);
+		this.shards = new Matcher[count];
+		for (int i = 0; i < count; i++)
+			shards[i] = new Matcher(config);
+	}
+
+	/**
+	 * Returns the number of shards.
+	 *
+	 * @return the shard count
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	@Override
+	public synchronized void start() {
+		for (Matcher shard:shards)
+			shard.start();
+	}
+
+	@Override
+	public synchronized void stop() {
+		for (Matcher shard:shards)
+			shard.stop();
+	}
+
+	@Override
+	public synchronized void setExecutor(ScheduledExecutorService executor) {
+		for (Matcher shard:shards)
+			shard.setExecutor(executor);
+	}
+
+	@Override
+	public void sendRequest(Exchange exchange, Request request) {
+		shardOf(request.getDestination(), request.getDestinationPort()).sendRequest(exchange, request);
+	}
+
+	@Override
+	public void sendResponse(Exchange exchange, Response response) {
+		shardOf(response.getDestination(), response.getDestinationPort()).sendResponse(exchange, response);
+	}
+
+	@Override
+	public void sendEmptyMessage(Exchange exchange, EmptyMessage message) {
+		shardOf(message.getDestination(), message.getDestinationPort()).sendEmptyMessage(exchange, message);
+	}
+
+	@Override
+	public Exchange receiveRequest(Request request) {
+		return shardOf(request.getSource(), request.getSourcePort()).receiveRequest(request);
+	}
+
+	@Override
+	public Exchange receiveResponse(Response response) {
+		Matcher shard = shardOf(response.getSource(), response.getSourcePort());
+		if (!shard.hasExchange(response.getToken())) {
+			/*
+			 * Responses to a multicast request come from addresses other than
+			 * the destination of the request, so the exchange can be in another
+			 * shard. This only costs additional lookups for unmatched tokens.
+			 */
+			for (Matcher other:shards) {
+				if (other != shard && other.hasExchange(response.getToken()))
+					return other.receiveResponse(response);
+			}
+		}
+		return shard.receiveResponse(response);
+	}
+
+	@Override
+	public Exchange receiveEmptyMessage(EmptyMessage message) {
+		return shardOf(message.getSource(), message.getSourcePort()).receiveEmptyMessage(message);
+	}
+
+	@Override
+	public void clear() {
+		for (Matcher shard:shards)
+			shard.clear();
+	}
+
+	boolean hasExchange(byte[] token) {
+		for (Matcher shard:shards)
+			if (shard.hasExchange(token))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns the shard responsible for the specified remote endpoint.
+	 */
+	private Matcher shardOf(InetAddress address, int port) {
+		int hash = (address == null ? 0 : address.hashCode()) * 31 + port;
+		hash ^= (hash >>> 16);
+		return shards[(hash & 0x7FFFFFFF) % shards.length];
+	}
+}
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An executor for the protocol stage that consists of several workers with a
+ * single thread each. Tasks for a remote endpoint are always executed by the
+ * same worker, which is determined by a hash of its address and port (see
+ * {@link #execute(InetAddress, int, Runnable)}). Thus, the messages of a peer
+ * are processed sequentially and in order, while different peers are spread
+ * across the cores.
+ * <p>
+ * Tasks and timers scheduled from within a worker thread, e.g., the
+ * retransmissions of the reliability layer, stay on that worker. Tasks
+ * submitted by other threads without a remote endpoint are distributed round
+ * robin.
+ * <p>
+ * The endpoint uses the affine execution when it is given a striped executor,
+ * e.g., by the {@link org.eclipse.californium.core.CoapServer}. An endpoint
+ * without executor creates its own striped executor when it starts. Both use
+ * {@link org.eclipse.californium.core.network.config.NetworkConfig.Keys#PROTOCOL_STAGE_THREAD_COUNT}
+ * workers if
+ * {@link org.eclipse.californium.core.network.config.NetworkConfig.Keys#USE_STRIPED_PROTOCOL_STAGE}
+ * is set; the endpoint uses a single worker otherwise.
+ */
+public class StripedExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+
+	/** The workers with one thread each */
+	private final ScheduledThreadPoolExecutor[] workers;
+
+	/** The worker of the current thread or null */
+	private final ThreadLocal<ScheduledExecutorService> current = new ThreadLocal<ScheduledExecutorService>();
+
+	/** The counter to distribute tasks without peer */
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * Instantiates a new striped executor with the specified number of
+	 * workers and non-daemon threads.
+	 *
+	 * @param threads the number of workers
+	 */
+	public StripedExecutor(int threads) {
+		this(threads, Executors.defaultThreadFactory());
+	}
+
+	/**
+	 * Instantiates a new striped executor with the specified number of
+	 * workers, whose threads are created by the specified factory.
+	 *
+	 * @param threads the number of workers
+	 * @param threadFactory the thread factory
+	 */
+	public StripedExecutor(int threads, final ThreadFactory threadFactory) {
+		if (threads <= 0)
+			throw new IllegalArgumentException("Executor must start at least 1 thread");
+		if (threadFactory == null)
+			throw new NullPointerException();
+
+		workers = new ScheduledThreadPoolExecutor[threads];
+		for (int i = 0; i < threads; i++) {
+			final ScheduledThreadPoolExecutor worker = new ScheduledThreadPoolExecutor(1);
+			worker.setThreadFactory(new ThreadFactory() {
+				public Thread newThread(final Runnable runnable) {
+					return threadFactory.newThread(new Runnable() {
+						public void run() {
+							current.set(worker);
+							runnable.run();
+						}
+					});
+				}
+			});
+			workers[i] = worker;
+		}
+	}
+
+	/**
+	 * Returns the number of workers.
+	 *
+	 * @return the number of workers
+	 */
+	public int getThreadCount() {
+		return workers.length;
+	}
+
+	/**
+	 * Executes the task on the worker of the specified remote endpoint.
+	 *
+	 * @param address the address of the remote endpoint
+	 * @param port the port of the remote endpoint
+	 * @param command the task
+	 */
+	public void execute(InetAddress address, int port, Runnable command) {
+		workers[getWorkerIndex(address, port)].execute(command);
+	}
+
+	/**
+	 * Executes the task on the worker with the specified index.
+	 *
+	 * @param index the index of the worker
+	 * @param command the task
+	 * @see #getWorkerIndex(InetAddress, int)
+	 */
+	public void execute(int index, Runnable command) {
+		workers[index].execute(command);
+	}
+
+	/**
+	 * Returns the index of the worker of the specified remote endpoint.
+	 *
+	 * @param address the address of the remote endpoint
+	 * @param port the port of the remote endpoint
+	 * @return the index of the worker between 0 and the number of workers
+	 */
+	public int getWorkerIndex(InetAddress address, int port) {
+		int hash = (address == null ? 0 : address.hashCode()) * 31 + port;
+		hash ^= (hash >>> 16);
+		return (hash & 0x7FFFFFFF) % workers.length;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		worker().execute(command);
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		return worker().schedule(command, delay, unit);
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		return worker().schedule(callable, delay, unit);
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		return worker().scheduleAtFixedRate(command, initialDelay, period, unit);
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		return worker().scheduleWithFixedDelay(command, initialDelay, delay, unit);
+	}
+
+	@Override
+	public void shutdown() {
+		for (ScheduledThreadPoolExecutor worker:workers)
+			worker.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		List<Runnable> pending = new ArrayList<Runnable>();
+		for (ScheduledThreadPoolExecutor worker:workers)
+			pending.addAll(worker.shutdownNow());
+		return pending;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		for (ScheduledThreadPoolExecutor worker:workers)
+			if (!worker.isShutdown())
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		for (ScheduledThreadPoolExecutor worker:workers)
+			if (!worker.isTerminated())
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (ScheduledThreadPoolExecutor worker:workers) {
+			if (!worker.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the worker of the current thread or the next worker in turn.
+	 */
+	private ScheduledExecutorService worker() {
+		ScheduledExecutorService worker = current.get();
+		if (worker != null)
+			return worker;
+		return workers[(next.getAndIncrement() & 0x7FFFFFFF) % workers.length];
+	}
+}
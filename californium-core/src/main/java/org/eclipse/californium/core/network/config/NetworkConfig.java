@@ -64,6 +64,8 @@ public class NetworkConfig {
 		public static final String ACK_RANDOM_FACTOR = "ACK_RANDOM_FACTOR";
 		public static final String ACK_TIMEOUT_SCALE = "ACK_TIMEOUT_SCALE";
 		public static final String MAX_RETRANSMIT = "MAX_RETRANSMIT";
+		public static final String USE_RETRANSMISSION_TIMER_WHEEL = "USE_RETRANSMISSION_TIMER_WHEEL";
+		public static final String RETRANSMISSION_TIMER_TICK = "RETRANSMISSION_TIMER_TICK";
 		public static final String EXCHANGE_LIFETIME = "EXCHANGE_LIFETIME";
 		public static final String NON_LIFETIME = "NON_LIFETIME";
 		public static final String MAX_TRANSMIT_WAIT = "MAX_TRANSMIT_WAIT";
@@ -76,15 +78,25 @@ public class NetworkConfig {
 		
 		public static final String PREFERRED_BLOCK_SIZE = "PREFERRED_BLOCK_SIZE";
 		public static final String MAX_MESSAGE_SIZE = "MAX_MESSAGE_SIZE";
+		public static final String MAX_RESOURCE_BODY_SIZE = "MAX_RESOURCE_BODY_SIZE";
+		public static final String BLOCKWISE_STATUS_LIFETIME = "BLOCKWISE_STATUS_LIFETIME";
+		public static final String MAX_ACTIVE_BLOCKWISE_TRANSFERS = "MAX_ACTIVE_BLOCKWISE_TRANSFERS";
+		public static final String MAX_BLOCKWISE_BUFFER_SIZE = "MAX_BLOCKWISE_BUFFER_SIZE";
 		
 		public static final String NOTIFICATION_CHECK_INTERVAL_TIME = "NOTIFICATION_CHECK_INTERVAL";
 		public static final String NOTIFICATION_CHECK_INTERVAL_COUNT = "NOTIFICATION_CHECK_INTERVAL_COUNT";
 		public static final String NOTIFICATION_REREGISTRATION_BACKOFF = "NOTIFICATION_REREGISTRATION_BACKOFF";
+		public static final String NOTIFICATION_NON_RATE = "NOTIFICATION_NON_RATE";
+		public static final String NOTIFICATION_NON_BURST = "NOTIFICATION_NON_BURST";
 	
 		public static final String USE_CONGESTION_CONTROL = "USE_CONGESTION_CONTROL";
 		public static final String CONGESTION_CONTROL_ALGORITHM = "CONGESTION_CONTROL_ALGORITHM";
+		public static final String MAX_REMOTE_ENDPOINTS = "MAX_REMOTE_ENDPOINTS";
+		public static final String REMOTE_ENDPOINT_LIFETIME = "REMOTE_ENDPOINT_LIFETIME";
 		
 		public static final String PROTOCOL_STAGE_THREAD_COUNT = "PROTOCOL_STAGE_THREAD_COUNT";
+		public static final String USE_STRIPED_PROTOCOL_STAGE = "USE_STRIPED_PROTOCOL_STAGE";
+		public static final String PROTOCOL_STAGE_BATCH_SIZE = "PROTOCOL_STAGE_BATCH_SIZE";
 		public static final String NETWORK_STAGE_RECEIVER_THREAD_COUNT = "NETWORK_STAGE_RECEIVER_THREAD_COUNT";
 		public static final String NETWORK_STAGE_SENDER_THREAD_COUNT = "NETWORK_STAGE_SENDER_THREAD_COUNT";
 		
@@ -98,13 +110,21 @@ public class NetworkConfig {
 		public static final String MARK_AND_SWEEP_INTERVAL = "MARK_AND_SWEEP_INTERVAL";
 		public static final String DEDUPLICATOR_CROP_ROTATION = "DEDUPLICATOR_CROP_ROTATION";
 		public static final String CROP_ROTATION_PERIOD = "CROP_ROTATION_PERIOD";
+		public static final String DEDUPLICATOR_TIMING_WHEEL = "DEDUPLICATOR_TIMING_WHEEL";
+		public static final String TIMING_WHEEL_TICK = "TIMING_WHEEL_TICK";
+		public static final String DEDUPLICATOR_COMPACT = "DEDUPLICATOR_COMPACT";
 		public static final String NO_DEDUPLICATOR = "NO_DEDUPLICATOR";
 		
+		public static final String MATCHER_SHARDS = "MATCHER_SHARDS";
+		
 		public static final String HTTP_PORT = "HTTP_PORT";
 		public static final String HTTP_SERVER_SOCKET_TIMEOUT = "HTTP_SERVER_SOCKET_TIMEOUT";
 		public static final String HTTP_SERVER_SOCKET_BUFFER_SIZE = "HTTP_SERVER_SOCKET_BUFFER_SIZE";
 		public static final String HTTP_CACHE_RESPONSE_MAX_AGE = "HTTP_CACHE_RESPONSE_MAX_AGE";
 		public static final String HTTP_CACHE_SIZE = "HTTP_CACHE_SIZE";
+		public static final String HTTP_CLIENT_SOCKET_TIMEOUT = "HTTP_CLIENT_SOCKET_TIMEOUT";
+		public static final String HTTP_CLIENT_MAX_CONNECTIONS = "HTTP_CLIENT_MAX_CONNECTIONS";
+		public static final String HTTP_CLIENT_MAX_CONNECTIONS_PER_HOST = "HTTP_CLIENT_MAX_CONNECTIONS_PER_HOST";
 		
 		public static final String HEALTH_STATUS_PRINT_LEVEL = "HEALTH_STATUS_PRINT_LEVEL";
 		public static final String HEALTH_STATUS_INTERVAL = "HEALTH_STATUS_INTERVAL";
@@ -44,6 +44,8 @@ public class NetworkConfigDefaults {
 		config.setFloat(NetworkConfig.Keys.ACK_RANDOM_FACTOR, 1.5f);
 		config.setFloat(NetworkConfig.Keys.ACK_TIMEOUT_SCALE, 2f);
 		config.setInt(NetworkConfig.Keys.MAX_RETRANSMIT, 4);
+		config.setBoolean(NetworkConfig.Keys.USE_RETRANSMISSION_TIMER_WHEEL, false); // schedule retransmissions on the executor
+		config.setInt(NetworkConfig.Keys.RETRANSMISSION_TIMER_TICK, 10); // in ms
 		config.setLong(NetworkConfig.Keys.EXCHANGE_LIFETIME, 247 * 1000); // in ms
 		config.setLong(NetworkConfig.Keys.NON_LIFETIME, 145 * 1000); // in ms
 		config.setLong(NetworkConfig.Keys.MAX_TRANSMIT_WAIT, 93 * 1000);
@@ -56,15 +58,25 @@ public class NetworkConfigDefaults {
 
 		config.setInt(NetworkConfig.Keys.PREFERRED_BLOCK_SIZE, 512);
 		config.setInt(NetworkConfig.Keys.MAX_MESSAGE_SIZE, 1024);
+		config.setInt(NetworkConfig.Keys.MAX_RESOURCE_BODY_SIZE, 0); // in bytes for blockwise transfers, 0 for no limit
+		config.setInt(NetworkConfig.Keys.BLOCKWISE_STATUS_LIFETIME, 5 * 60 * 1000); // idle time of a transfer in ms
+		config.setInt(NetworkConfig.Keys.MAX_ACTIVE_BLOCKWISE_TRANSFERS, 0); // 0 for no limit
+		config.setInt(NetworkConfig.Keys.MAX_BLOCKWISE_BUFFER_SIZE, 0); // in bytes for all transfers, 0 for no limit
 
 		config.setLong(NetworkConfig.Keys.NOTIFICATION_CHECK_INTERVAL_TIME, 24 * 60 * 60 * 1000); // ms
 		config.setInt(NetworkConfig.Keys.NOTIFICATION_CHECK_INTERVAL_COUNT, 100);
 		config.setLong(NetworkConfig.Keys.NOTIFICATION_REREGISTRATION_BACKOFF, 2000); // ms
+		config.setInt(NetworkConfig.Keys.NOTIFICATION_NON_RATE, 0); // NON notifications per second and peer, 0 disables pacing
+		config.setInt(NetworkConfig.Keys.NOTIFICATION_NON_BURST, 10);
 		
 		config.setBoolean(NetworkConfig.Keys.USE_CONGESTION_CONTROL, false);
 		config.setString(NetworkConfig.Keys.CONGESTION_CONTROL_ALGORITHM, "Cocoa"); // see org.eclipse.californium.core.network.stack.congestioncontrol
+		config.setInt(NetworkConfig.Keys.MAX_REMOTE_ENDPOINTS, 100000); // peers with congestion control state, 0 for no limit
+		config.setInt(NetworkConfig.Keys.REMOTE_ENDPOINT_LIFETIME, 10 * 60 * 1000); // idle time of a peer's state in ms, 0 for no expiry
 		
 		config.setInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT, CORES);
+		config.setBoolean(NetworkConfig.Keys.USE_STRIPED_PROTOCOL_STAGE, false); // process each peer on one thread
+		config.setInt(NetworkConfig.Keys.PROTOCOL_STAGE_BATCH_SIZE, 1); // received datagrams per task, 1 disables batching
 		config.setInt(NetworkConfig.Keys.NETWORK_STAGE_RECEIVER_THREAD_COUNT, WINDOWS ? CORES : 1);
 		config.setInt(NetworkConfig.Keys.NETWORK_STAGE_SENDER_THREAD_COUNT, WINDOWS ? CORES : 1);
 		
@@ -76,12 +88,18 @@ public class NetworkConfigDefaults {
 		config.setString(NetworkConfig.Keys.DEDUPLICATOR, NetworkConfig.Keys.DEDUPLICATOR_MARK_AND_SWEEP);
 		config.setLong(NetworkConfig.Keys.MARK_AND_SWEEP_INTERVAL, 10 * 1000);
 		config.setInt(NetworkConfig.Keys.CROP_ROTATION_PERIOD, 2000);
+		config.setLong(NetworkConfig.Keys.TIMING_WHEEL_TICK, 1000);
+		
+		config.setInt(NetworkConfig.Keys.MATCHER_SHARDS, 1); // use CORES to shard exchanges by peer
 
 		config.setInt(NetworkConfig.Keys.HTTP_PORT, 8080);
 		config.setInt(NetworkConfig.Keys.HTTP_SERVER_SOCKET_TIMEOUT, 100000);
 		config.setInt(NetworkConfig.Keys.HTTP_SERVER_SOCKET_BUFFER_SIZE, 8192);
 		config.setInt(NetworkConfig.Keys.HTTP_CACHE_RESPONSE_MAX_AGE, 86400);
 		config.setInt(NetworkConfig.Keys.HTTP_CACHE_SIZE, 32);
+		config.setInt(NetworkConfig.Keys.HTTP_CLIENT_SOCKET_TIMEOUT, 30000); // connect and read timeout of the proxy's http client in ms
+		config.setInt(NetworkConfig.Keys.HTTP_CLIENT_MAX_CONNECTIONS, 200);
+		config.setInt(NetworkConfig.Keys.HTTP_CLIENT_MAX_CONNECTIONS_PER_HOST, 4);
 		
 		config.setString(NetworkConfig.Keys.HEALTH_STATUS_PRINT_LEVEL, "FINEST");
 		config.setInt(NetworkConfig.Keys.HEALTH_STATUS_INTERVAL, 60); // s
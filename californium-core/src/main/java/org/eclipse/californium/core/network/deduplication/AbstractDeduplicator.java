@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.deduplication;
+
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.KeyMID;
+
+/**
+ * Base class for deduplicators that can be looked up with packed keys and
+ * want to be notified when an exchange completes. The matcher only uses
+ * these methods for deduplicators that extend this class; implementations of
+ * the plain {@link Deduplicator} interface are still looked up with
+ * {@link KeyMID} objects.
+ * <p>
+ * By default, packed keys are unpacked into a {@link KeyMID} and completion
+ * is ignored. Subclasses override the methods to avoid the allocation.
+ */
+public abstract class AbstractDeduplicator implements Deduplicator {
+
+	/**
+	 * Same as {@link #findPrevious(KeyMID, Exchange)} but with a key packed
+	 * with {@link KeyMID#pack(int, java.net.InetAddress, int)}, which does
+	 * not allocate any objects. Only MIDs from IPv4 addresses can be packed.
+	 *
+	 * @param key the packed key
+	 * @param exchange the exchange
+	 * @return the previous exchange associated with the specified key, or
+	 *         <tt>null</tt> if there was no mapping for the key.
+	 */
+	public Exchange findPrevious(long key, Exchange exchange) {
+		return findPrevious(unpack(key), exchange);
+	}
+
+	/**
+	 * Same as {@link #find(KeyMID)} but with a packed key.
+	 *
+	 * @param key the packed key
+	 * @return the exchange associated with the specified key or null
+	 */
+	public Exchange find(long key) {
+		return find(unpack(key));
+	}
+
+	/**
+	 * Notifies the deduplicator that the specified exchange has completed.
+	 * The deduplicator must still detect duplicates of its messages, but
+	 * might release the exchange itself.
+	 *
+	 * @param exchange the completed exchange
+	 */
+	public void complete(Exchange exchange) { }
+
+	/**
+	 * Unpacks a key packed with
+	 * {@link KeyMID#pack(int, java.net.InetAddress, int)}.
+	 *
+	 * @param key the packed key
+	 * @return the key as object
+	 */
+	protected static KeyMID unpack(long key) {
+		int mid = (int) (key & 0xFFFF);
+		int port = (int) ((key >>> 16) & 0xFFFF);
+		int ip = (int) (key >>> 32);
+		if (ip == 0) // local namespace
+			return new KeyMID(mid, null, 0);
+		byte[] address = new byte[] { (byte) (ip >>> 24), (byte) (ip >>> 16), (byte) (ip >>> 8), (byte) ip };
+		return new KeyMID(mid, address, port);
+	}
+}
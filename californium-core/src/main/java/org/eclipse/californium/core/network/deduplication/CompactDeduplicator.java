@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.deduplication;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.KeyMID;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.eclipse.californium.core.network.LongKeyMap;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.serialization.DataSerializer;
+
+
+/**
+ * This deduplicator only keeps the whole exchange of an incoming request
+ * while the exchange is active. When the exchange completes, the entry is
+ * replaced by the serialized reply, i.e., the piggy-backed or separate
+ * response, a marker for an RST, or a marker that there is nothing to resend.
+ * This releases the request, response, options, payload and observers of
+ * the exchange long before the end of the exchange lifetime. Entries for
+ * IPv4 peers are stored in a {@link LongKeyMap} and need about the size of
+ * the reply plus 40 bytes.
+ * <p>
+ * When a duplicate of a completed request arrives, the new exchange for the
+ * duplicate is returned as previous exchange, with the cached response as
+ * current response or with the request marked as rejected. The reliability
+ * layer then resends the response or RST as for any other duplicate. The
+ * cached response is not parsed again; it only carries the header and the
+ * bytes to send.
+ * <p>
+ * Exchanges that are only identified by the MIDs of incoming responses,
+ * exchanges of observe relations and exchanges with a Block2 response are
+ * kept whole. Obsolete entries are removed every
+ * {@link NetworkConfig.Keys#MARK_AND_SWEEP_INTERVAL}.
+ */
+public class CompactDeduplicator extends AbstractDeduplicator {
+
+	/** The logger. */
+	private final static Logger LOGGER = Logger.getLogger(CompactDeduplicator.class.getCanonicalName());
+
+	/** Marks a completed exchange whose request was rejected */
+	private static final byte[] REJECTED = new byte[0];
+
+	/** Marks a completed exchange without anything to resend */
+	private static final byte[] NO_REPLY = new byte[0];
+
+	private static final DataSerializer SERIALIZER = new DataSerializer();
+
+	/** The hash map with the incoming messages from IPv6 addresses. */
+	private ConcurrentHashMap<KeyMID, Object> incommingMessages;
+
+	/** The table with the incoming messages from IPv4 addresses. */
+	private LongKeyMap<Object> packedMessages;
+
+	private NetworkConfig config;
+	private SweepAlgorithm algorithm;
+
+	private ScheduledExecutorService executor;
+
+	private boolean started = false;
+
+	public CompactDeduplicator(NetworkConfig config) {
+		this.config = config;
+		incommingMessages = new ConcurrentHashMap<KeyMID, Object>();
+		packedMessages = new LongKeyMap<Object>();
+		algorithm = new SweepAlgorithm();
+	}
+
+	public void start() {
+		started = true;
+		algorithm.schedule();
+	}
+
+	public void stop() {
+		started = false;
+		algorithm.cancel();
+	}
+
+	public void setExecutor(ScheduledExecutorService executor) {
+		stop();
+		this.executor = executor;
+		if (started)
+			start();
+	}
+
+	public Exchange findPrevious(KeyMID key, Exchange exchange) {
+		return previous(incommingMessages.putIfAbsent(key, exchange), exchange);
+	}
+
+	public Exchange find(KeyMID key) {
+		Object previous = incommingMessages.get(key);
+		return previous instanceof Exchange ? (Exchange) previous : null;
+	}
+
+	@Override
+	public Exchange findPrevious(long key, Exchange exchange) {
+		return previous(packedMessages.putIfAbsent(key, 0, exchange, exchange.getTimestamp()), exchange);
+	}
+
+	@Override
+	public Exchange find(long key) {
+		Object previous = packedMessages.get(key, 0);
+		return previous instanceof Exchange ? (Exchange) previous : null;
+	}
+
+	/**
+	 * Replaces the completed exchange with its serialized reply.
+	 */
+	public void complete(Exchange exchange) {
+		if (exchange.getOrigin() != Origin.REMOTE)
+			return;
+		Request request = exchange.getCurrentRequest();
+		InetAddress source = request.getSource();
+		if (source == null)
+			return;
+		// notifications and blocks are not what the duplicate has to get
+		if (exchange.getRelation() != null)
+			return;
+		Response response = exchange.getCurrentResponse();
+		if (response != null && (response.getToken() == null || response.getOptions().hasBlock2()))
+			return;
+
+		byte[] reply = reply(exchange);
+		if (KeyMID.isPackable(source)) {
+			packedMessages.replace(KeyMID.pack(request.getMID(), source, request.getSourcePort()), 0, exchange, reply);
+		} else {
+			KeyMID key = new KeyMID(request.getMID(), source.getAddress(), request.getSourcePort());
+			incommingMessages.replace(key, exchange, new Reply(exchange.getTimestamp(), reply));
+		}
+	}
+
+	public void clear() {
+		incommingMessages.clear();
+		packedMessages.clear();
+	}
+
+	/**
+	 * Returns the number of stored messages.
+	 *
+	 * @return the number of stored messages
+	 */
+	public int size() {
+		return incommingMessages.size() + packedMessages.size();
+	}
+
+	/**
+	 * Returns the serialized response of the exchange or a marker.
+	 */
+	private static byte[] reply(Exchange exchange) {
+		Response response = exchange.getCurrentResponse();
+		if (response != null) {
+			byte[] bytes = response.getBytes();
+			if (bytes == null) {
+				// the outbox uses these bytes as well
+				bytes = SERIALIZER.serializeResponse(response);
+				response.setBytes(bytes);
+			}
+			return bytes;
+		}
+		Request request = exchange.getRequest();
+		if (exchange.getCurrentRequest().isRejected() || (request != null && request.isRejected()))
+			return REJECTED;
+		return NO_REPLY;
+	}
+
+	/**
+	 * Returns the previous exchange or, if the previous message is completed,
+	 * the new exchange prepared to resend the reply.
+	 */
+	private static Exchange previous(Object previous, Exchange exchange) {
+		if (previous == null || previous instanceof Exchange)
+			return (Exchange) previous;
+
+		byte[] reply = previous instanceof Reply ? ((Reply) previous).bytes : (byte[]) previous;
+		Request request = exchange.getCurrentRequest();
+		exchange.setRequest(request);
+		if (reply == REJECTED) {
+			request.setRejected(true);
+		} else if (reply != NO_REPLY) {
+			Response response = resend(reply);
+			response.setDestination(request.getSource());
+			response.setDestinationPort(request.getSourcePort());
+			exchange.setResponse(response);
+			exchange.setCurrentResponse(response);
+		}
+		return exchange;
+	}
+
+	/**
+	 * Returns a response that resends the specified bytes. Only the header
+	 * and token are read, since the bytes are sent as they are. The response
+	 * is marked as duplicate, so that the matcher does not wait for an ACK.
+	 */
+	private static Response resend(byte[] reply) {
+		int tokenLength = reply[0] & 0x0F;
+		Response response = new Response(ResponseCode.valueOf(reply[1] & 0xFF));
+		response.setType(Type.valueOf((reply[0] >> 4) & 0x03));
+		response.setMID(((reply[2] & 0xFF) << 8) | (reply[3] & 0xFF));
+		response.setToken(Arrays.copyOfRange(reply, 4, 4 + tokenLength));
+		response.setBytes(reply);
+		response.setDuplicate(true);
+		return response;
+	}
+
+	/**
+	 * The reply of a completed exchange from an IPv6 address.
+	 */
+	private static final class Reply {
+
+		private final long timestamp;
+		private final byte[] bytes;
+
+		private Reply(long timestamp, byte[] bytes) {
+			this.timestamp = timestamp;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * The sweep algorithm periodically removes obsolete entries.
+	 */
+	private class SweepAlgorithm implements Runnable {
+
+		private ScheduledFuture<?> future;
+
+		@Override
+		public void run() {
+			try {
+				LOGGER.finest("Start Mark-And-Sweep with "+size()+" entries");
+				sweep();
+
+			} catch (Throwable t) {
+				LOGGER.log(Level.WARNING, "Exception in Mark-and-Sweep algorithm", t);
+
+			} finally {
+				try {
+					schedule();
+				} catch (Throwable t) {
+					LOGGER.log(Level.WARNING, "Exception while scheduling Mark-and-Sweep algorithm", t);
+				}
+			}
+		}
+
+		private void sweep() {
+			int lifecycle = config.getInt(NetworkConfig.Keys.EXCHANGE_LIFETIME);
+			long oldestAllowed = System.currentTimeMillis() - lifecycle;
+
+			for (Map.Entry<KeyMID, Object> entry:incommingMessages.entrySet()) {
+				Object value = entry.getValue();
+				long timestamp = value instanceof Exchange ? ((Exchange) value).getTimestamp() : ((Reply) value).timestamp;
+				if (timestamp < oldestAllowed) {
+					LOGGER.finer("Mark-And-Sweep removes "+entry.getKey());
+					incommingMessages.remove(entry.getKey(), value);
+				}
+			}
+
+			int removed = packedMessages.removeOlderThan(oldestAllowed);
+			if (removed > 0)
+				LOGGER.finer("Mark-And-Sweep removes "+removed+" IPv4 entries");
+		}
+
+		private void schedule() {
+			long period = config.getLong(NetworkConfig.Keys.MARK_AND_SWEEP_INTERVAL);
+			future = executor.schedule(this, period, TimeUnit.MILLISECONDS);
+		}
+
+		private void cancel() {
+			if (future != null)
+				future.cancel(true);
+		}
+	}
+}
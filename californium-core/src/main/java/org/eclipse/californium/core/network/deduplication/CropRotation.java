@@ -28,6 +28,7 @@ import java.util.logging.Logger;
 
 import org.eclipse.californium.core.network.Exchange;
 import org.eclipse.californium.core.network.Exchange.KeyMID;
+import org.eclipse.californium.core.network.LongKeyExchangeMap;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 
 
@@ -41,13 +42,14 @@ import org.eclipse.californium.core.network.config.NetworkConfig;
  * remove them one-by-one. Instead, it clears all entries of the passive
  * hash map at once.
  */
-public class CropRotation implements Deduplicator {
+public class CropRotation extends AbstractDeduplicator {
 
 	private final static Logger LOGGER = Logger.getLogger(CropRotation.class.getCanonicalName());
 	
 	private ScheduledExecutorService executor;
 	
 	private ExchangeMap[] maps;
+	private LongKeyExchangeMap[] packedMaps;
 	private int first;
 	private int second;
 	
@@ -62,6 +64,10 @@ public class CropRotation implements Deduplicator {
 		maps[0] = new ExchangeMap();
 		maps[1] = new ExchangeMap();
 		maps[2] = new ExchangeMap();
+		packedMaps = new LongKeyExchangeMap[3];
+		packedMaps[0] = new LongKeyExchangeMap();
+		packedMaps[1] = new LongKeyExchangeMap();
+		packedMaps[2] = new LongKeyExchangeMap();
 		first = 0;
 		second = 1;
 		period = config.getInt(NetworkConfig.Keys.CROP_ROTATION_PERIOD);
@@ -111,11 +117,39 @@ public class CropRotation implements Deduplicator {
 		return prev;
 	}
 
+	@Override
+	public Exchange findPrevious(long key, Exchange exchange) {
+		int f = first;
+		int s = second;
+		Exchange prev = packedMaps[f].putIfAbsent(key, 0, exchange);
+		if (prev != null || f==s) 
+			return prev;
+		prev = packedMaps[s].putIfAbsent(key, 0, exchange);
+		return prev;
+	}
+
+	@Override
+	public Exchange find(long key) {
+		int f = first;
+		int s = second;
+		Exchange prev = packedMaps[f].get(key, 0);
+		if (prev != null || f==s)
+			return prev;
+		prev = packedMaps[s].get(key, 0);
+		return prev;
+	}
+
+	@Override
+	public void complete(Exchange exchange) { }
+
 	@Override
 	public void clear() {
 		maps[0].clear();
 		maps[1].clear();
 		maps[2].clear();
+		packedMaps[0].clear();
+		packedMaps[1].clear();
+		packedMaps[2].clear();
 	}
 	
 	private class Rotation implements Runnable {
@@ -144,6 +178,7 @@ public class CropRotation implements Deduplicator {
 			first = second;
 			second = (second+1)%3;
 			maps[third].clear();
+			packedMaps[third].clear();
 		}
 		
 		private void schedule() {
@@ -65,6 +65,8 @@ public class DeduplicatorFactory {
 		String type = config.getString(NetworkConfig.Keys.DEDUPLICATOR);
 		if (NetworkConfig.Keys.DEDUPLICATOR_MARK_AND_SWEEP.equals(type)) return new SweepDeduplicator(config);
 		else if (NetworkConfig.Keys.DEDUPLICATOR_CROP_ROTATION.equals(type)) return new CropRotation(config);
+		else if (NetworkConfig.Keys.DEDUPLICATOR_TIMING_WHEEL.equals(type)) return new TimingWheelDeduplicator(config);
+		else if (NetworkConfig.Keys.DEDUPLICATOR_COMPACT.equals(type)) return new CompactDeduplicator(config);
 		else if (NetworkConfig.Keys.NO_DEDUPLICATOR.equals(type)) return new NoDeduplicator();
 		else {
 			LOGGER.warning("Unknown deduplicator type: " + type);
@@ -30,7 +30,7 @@ import org.eclipse.californium.core.network.Exchange.KeyMID;
  * does not want to deduplicate incoming messages, it should use this
  * deduplicator instead of 'null'.
  */
-public class NoDeduplicator implements Deduplicator {
+public class NoDeduplicator extends AbstractDeduplicator {
 
 	@Override
 	public void start() { }
@@ -51,6 +51,19 @@ public class NoDeduplicator implements Deduplicator {
 		return null;
 	}
 
+	@Override
+	public Exchange findPrevious(long key, Exchange exchange) {
+		return null;
+	}
+
+	@Override
+	public Exchange find(long key) {
+		return null;
+	}
+
+	@Override
+	public void complete(Exchange exchange) { }
+
 	@Override
 	public void clear() { }
 
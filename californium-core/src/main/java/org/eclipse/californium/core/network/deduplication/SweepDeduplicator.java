@@ -29,6 +29,7 @@ import java.util.logging.Logger;
 
 import org.eclipse.californium.core.network.Exchange;
 import org.eclipse.californium.core.network.Exchange.KeyMID;
+import org.eclipse.californium.core.network.LongKeyExchangeMap;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 
 
@@ -37,7 +38,7 @@ import org.eclipse.californium.core.network.config.NetworkConfig;
  * deduplicator periodically iterates through all entries and removes obsolete
  * messages (exchanges).
  */
-public class SweepDeduplicator implements Deduplicator {
+public class SweepDeduplicator extends AbstractDeduplicator {
 
 	/** The logger. */
 	private final static Logger LOGGER = Logger.getLogger(SweepDeduplicator.class.getCanonicalName());
@@ -45,6 +46,9 @@ public class SweepDeduplicator implements Deduplicator {
 	/** The hash map with all incoming messages. */
 	private ConcurrentHashMap<KeyMID, Exchange> incommingMessages;
 	
+	/** The hash map with all incoming messages from IPv4 addresses. */
+	private LongKeyExchangeMap packedMessages;
+	
 	private NetworkConfig config;
 	private SweepAlgorithm algorithm;
 	
@@ -55,6 +59,7 @@ public class SweepDeduplicator implements Deduplicator {
 	public SweepDeduplicator(NetworkConfig config) {
 		this.config = config;
 		incommingMessages = new ConcurrentHashMap<KeyMID, Exchange>();
+		packedMessages = new LongKeyExchangeMap();
 		algorithm = new SweepAlgorithm();
 	}
 	
@@ -90,8 +95,21 @@ public class SweepDeduplicator implements Deduplicator {
 		return incommingMessages.get(key);
 	}
 	
+	@Override
+	public Exchange findPrevious(long key, Exchange exchange) {
+		return packedMessages.putIfAbsent(key, 0, exchange);
+	}
+	
+	@Override
+	public Exchange find(long key) {
+		return packedMessages.get(key, 0);
+	}
+	
+	public void complete(Exchange exchange) { }
+	
 	public void clear() {
 		incommingMessages.clear();
+		packedMessages.clear();
 	}
 	
 	/**
@@ -109,7 +127,7 @@ public class SweepDeduplicator implements Deduplicator {
 		@Override
 		public void run() {
 			try {
-				LOGGER.finest("Start Mark-And-Sweep with "+incommingMessages.size()+" entries");
+				LOGGER.finest("Start Mark-And-Sweep with "+(incommingMessages.size()+packedMessages.size())+" entries");
 				sweep();
 				
 			} catch (Throwable t) {
@@ -141,6 +159,10 @@ public class SweepDeduplicator implements Deduplicator {
 					incommingMessages.remove(entry.getKey());
 				}
 			}
+			
+			int removed = packedMessages.removeOlderThan(oldestAllowed);
+			if (removed > 0)
+				LOGGER.finer("Mark-And-Sweep removes "+removed+" IPv4 entries");
 		}
 		
 		/**
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.deduplication;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.KeyMID;
+import org.eclipse.californium.core.network.LongKeyExchangeMap;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+
+
+/**
+ * This deduplicator stores incoming messages in a hash map like the
+ * {@link SweepDeduplicator}, but additionally remembers each key in the slot
+ * of a timing wheel that corresponds to the tick in which it arrived. The
+ * wheel has enough slots to cover the exchange lifetime. On each tick, the
+ * wheel advances by one slot and only the keys of the slot that has just
+ * become older than the exchange lifetime are removed. The cost of expiry is
+ * thus proportional to the number of expired messages and not to the number
+ * of all stored messages.
+ * <p>
+ * The tick is configured with {@link NetworkConfig.Keys#TIMING_WHEEL_TICK}.
+ * Messages are removed between one exchange lifetime and one exchange lifetime
+ * plus one tick after their arrival.
+ */
+public class TimingWheelDeduplicator extends AbstractDeduplicator {
+
+	/** The logger. */
+	private final static Logger LOGGER = Logger.getLogger(TimingWheelDeduplicator.class.getCanonicalName());
+
+	/** The hash map with all incoming messages from IPv6 addresses. */
+	private final ConcurrentHashMap<KeyMID, Exchange> incommingMessages;
+
+	/** The hash map with all incoming messages from IPv4 addresses. */
+	private final LongKeyExchangeMap packedMessages;
+
+	/** The slots with the keys that arrived in the same tick */
+	private final Slot[] wheel;
+
+	/** The slot for keys arriving now */
+	private volatile int current;
+
+	private final long tick;
+	private final Advance advance;
+
+	private ScheduledExecutorService executor;
+
+	private volatile boolean started = false;
+
+	public TimingWheelDeduplicator(NetworkConfig config) {
+		long lifetime = config.getLong(NetworkConfig.Keys.EXCHANGE_LIFETIME);
+		long tick = config.getLong(NetworkConfig.Keys.TIMING_WHEEL_TICK);
+		this.tick = tick > 0 ? tick : 1000;
+		this.incommingMessages = new ConcurrentHashMap<KeyMID, Exchange>();
+		this.packedMessages = new LongKeyExchangeMap();
+		// one more slot so that the expiring slot is never the current one
+		int slots = (int) ((lifetime + this.tick - 1) / this.tick) + 1;
+		this.wheel = new Slot[Math.max(slots, 2)];
+		for (int i = 0; i < wheel.length; i++)
+			wheel[i] = new Slot();
+		this.advance = new Advance();
+	}
+
+	public synchronized void start() {
+		started = true;
+		advance.schedule();
+	}
+
+	public synchronized void stop() {
+		started = false;
+		advance.cancel();
+	}
+
+	public synchronized void setExecutor(ScheduledExecutorService executor) {
+		advance.cancel();
+		this.executor = executor;
+		if (started)
+			advance.schedule();
+	}
+
+	public Exchange findPrevious(KeyMID key, Exchange exchange) {
+		Exchange previous = incommingMessages.putIfAbsent(key, exchange);
+		if (previous == null)
+			wheel[current].add(key, exchange);
+		return previous;
+	}
+
+	public Exchange find(KeyMID key) {
+		return incommingMessages.get(key);
+	}
+
+	@Override
+	public Exchange findPrevious(long key, Exchange exchange) {
+		Exchange previous = packedMessages.putIfAbsent(key, 0, exchange);
+		if (previous == null)
+			wheel[current].add(key, exchange);
+		return previous;
+	}
+
+	@Override
+	public Exchange find(long key) {
+		return packedMessages.get(key, 0);
+	}
+	
+	public void complete(Exchange exchange) { }
+
+	public void clear() {
+		incommingMessages.clear();
+		packedMessages.clear();
+		for (Slot slot:wheel)
+			slot.clear();
+	}
+
+	/**
+	 * Returns the number of stored messages.
+	 *
+	 * @return the number of stored messages
+	 */
+	public int size() {
+		return incommingMessages.size() + packedMessages.size();
+	}
+
+	/**
+	 * Expires the oldest slot and makes it the current one.
+	 */
+	void advance() {
+		int next = (current + 1) % wheel.length;
+		int removed = wheel[next].expire();
+		current = next;
+		if (removed > 0 && LOGGER.isLoggable(Level.FINER))
+			LOGGER.finer("Timing wheel removes "+removed+" entries");
+	}
+
+	/**
+	 * The keys and exchanges that arrived within the same tick. Packed keys
+	 * are kept in growing primitive arrays, so that remembering them does not
+	 * allocate any objects per message. Entries are only removed from the
+	 * hash maps if they still refer to the same exchange, since a message
+	 * might have expired and arrived again in the meantime.
+	 */
+	private class Slot {
+
+		private long[] packedKeys = new long[16];
+		private Exchange[] packedExchanges = new Exchange[16];
+		private int packedCount;
+
+		private ArrayList<KeyMID> keys = new ArrayList<KeyMID>();
+		private ArrayList<Exchange> exchanges = new ArrayList<Exchange>();
+
+		private synchronized void add(long key, Exchange exchange) {
+			if (packedCount == packedKeys.length) {
+				long[] grownKeys = new long[packedCount * 2];
+				Exchange[] grownExchanges = new Exchange[packedCount * 2];
+				System.arraycopy(packedKeys, 0, grownKeys, 0, packedCount);
+				System.arraycopy(packedExchanges, 0, grownExchanges, 0, packedCount);
+				packedKeys = grownKeys;
+				packedExchanges = grownExchanges;
+			}
+			packedKeys[packedCount] = key;
+			packedExchanges[packedCount] = exchange;
+			packedCount++;
+		}
+
+		private synchronized void add(KeyMID key, Exchange exchange) {
+			keys.add(key);
+			exchanges.add(exchange);
+		}
+
+		private synchronized int expire() {
+			int removed = 0;
+			for (int i = 0; i < packedCount; i++) {
+				if (packedMessages.remove(packedKeys[i], 0, packedExchanges[i]))
+					removed++;
+				packedExchanges[i] = null;
+			}
+			packedCount = 0;
+			for (int i = 0; i < keys.size(); i++) {
+				if (incommingMessages.remove(keys.get(i), exchanges.get(i)))
+					removed++;
+			}
+			keys.clear();
+			exchanges.clear();
+			return removed;
+		}
+
+		private synchronized void clear() {
+			for (int i = 0; i < packedCount; i++)
+				packedExchanges[i] = null;
+			packedCount = 0;
+			keys.clear();
+			exchanges.clear();
+		}
+	}
+
+	/**
+	 * Advances the wheel every tick.
+	 */
+	private class Advance implements Runnable {
+
+		private ScheduledFuture<?> future;
+
+		@Override
+		public void run() {
+			try {
+				advance();
+
+			} catch (Throwable t) {
+				LOGGER.log(Level.WARNING, "Exception in Timing-Wheel algorithm", t);
+
+			} finally {
+				try {
+					schedule();
+				} catch (Throwable t) {
+					LOGGER.log(Level.WARNING, "Exception while scheduling Timing-Wheel algorithm", t);
+				}
+			}
+		}
+
+		private synchronized void schedule() {
+			if (started && executor != null)
+				future = executor.schedule(this, tick, TimeUnit.MILLISECONDS);
+		}
+
+		private synchronized void cancel() {
+			if (future != null)
+				future.cancel(false);
+			future = null;
+		}
+	}
+}
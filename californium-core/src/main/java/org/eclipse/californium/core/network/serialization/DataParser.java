@@ -19,22 +19,20 @@
  ******************************************************************************/
 package org.eclipse.californium.core.network.serialization;
 
-import static org.eclipse.californium.core.coap.CoAP.MessageFormat.CODE_BITS;
 import static org.eclipse.californium.core.coap.CoAP.MessageFormat.EMPTY_CODE;
-import static org.eclipse.californium.core.coap.CoAP.MessageFormat.MESSAGE_ID_BITS;
 import static org.eclipse.californium.core.coap.CoAP.MessageFormat.PAYLOAD_MARKER;
 import static org.eclipse.californium.core.coap.CoAP.MessageFormat.REQUEST_CODE_LOWER_BOUND;
 import static org.eclipse.californium.core.coap.CoAP.MessageFormat.REQUEST_CODE_UPPER_BOUNT;
 import static org.eclipse.californium.core.coap.CoAP.MessageFormat.RESPONSE_CODE_LOWER_BOUND;
 import static org.eclipse.californium.core.coap.CoAP.MessageFormat.RESPONSE_CODE_UPPER_BOUND;
-import static org.eclipse.californium.core.coap.CoAP.MessageFormat.TOKEN_LENGTH_BITS;
-import static org.eclipse.californium.core.coap.CoAP.MessageFormat.TYPE_BITS;
-import static org.eclipse.californium.core.coap.CoAP.MessageFormat.VERSION_BITS;
+
+import java.nio.ByteBuffer;
 
 import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.CompactOptionSet;
 import org.eclipse.californium.core.coap.EmptyMessage;
 import org.eclipse.californium.core.coap.Message;
-import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.OptionSet;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.coap.CoAP.Code;
@@ -43,10 +41,22 @@ import org.eclipse.californium.core.coap.CoAP.Type;
 
 /**
  * The DataParser parses incoming byte arrays to messages.
+ * <p>
+ * The parser works directly on a view of the datagram, i.e., a byte array
+ * together with an offset and a length. The fixed header is decoded with
+ * plain shifts, option values are decoded straight from the datagram into
+ * the {@link OptionSet} without intermediate {@link org.eclipse.californium.core.coap.Option}
+ * objects, and the payload is handed to the message as a lazy slice that is
+ * only copied when a layer actually reads it.
  */
 public class DataParser {
 
-	private DatagramReader reader;
+	/** The shared empty array used for empty tokens and payloads */
+	private static final byte[] EMPTY = new byte[0];
+	
+	private byte[] bytes;
+	private int offset;
+	private int limit;
 	
 	private int version;
 	private int type;
@@ -58,13 +68,62 @@ public class DataParser {
 		setBytes(bytes);
 	}
 	
+	/**
+	 * Instantiates a new parser for the specified part of a byte array. The
+	 * array is not copied and must not be modified while messages are parsed
+	 * from it.
+	 * 
+	 * @param bytes the array containing the datagram
+	 * @param offset the offset of the datagram within the array
+	 * @param length the length of the datagram
+	 */
+	public DataParser(byte[] bytes, int offset, int length) {
+		setBytes(bytes, offset, length);
+	}
+	
+	/**
+	 * Instantiates a new parser for the remaining bytes of the specified
+	 * buffer. Buffers backed by an accessible array are parsed in place,
+	 * other buffers are copied once. The position of the buffer is not
+	 * changed.
+	 * 
+	 * @param buffer the buffer containing the datagram
+	 */
+	public DataParser(ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			setBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		} else {
+			byte[] copy = new byte[buffer.remaining()];
+			buffer.duplicate().get(copy);
+			setBytes(copy);
+		}
+	}
+	
 	public void setBytes(byte[] bytes) {
-		this.reader = new DatagramReader(bytes);
-		this.version = reader.read(VERSION_BITS);
-		this.type = reader.read(TYPE_BITS);
-		this.tokenlength = reader.read(TOKEN_LENGTH_BITS);
-		this.code = reader.read(CODE_BITS);
-		this.mid = reader.read(MESSAGE_ID_BITS);
+		setBytes(bytes, 0, bytes.length);
+	}
+	
+	/**
+	 * Sets the datagram to parse and decodes its fixed-size header.
+	 * 
+	 * @param bytes the array containing the datagram
+	 * @param offset the offset of the datagram within the array
+	 * @param length the length of the datagram
+	 */
+	public void setBytes(byte[] bytes, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > bytes.length)
+			throw new IndexOutOfBoundsException("Invalid datagram bounds "+offset+"+"+length+" for "+bytes.length+" bytes");
+		this.bytes = bytes;
+		this.offset = offset;
+		this.limit = offset + length;
+		
+		// missing header bytes are read as zero like the bit reader did
+		int first = byteAt(0);
+		this.version = first >>> 6;
+		this.type = (first >>> 4) & 0x03;
+		this.tokenlength = first & 0x0F;
+		this.code = byteAt(1);
+		this.mid = (byteAt(2) << 8) | byteAt(3);
 	}
 	
 	public boolean isWellFormed() {
@@ -118,48 +177,121 @@ public class DataParser {
 		return message;
 	}
 	
+	/**
+	 * Parses only the options of the datagram into a {@link CompactOptionSet}
+	 * without creating a message. The option values are copied into a
+	 * single buffer and are only decoded when they are requested, e.g., to
+	 * look up the Uri-Path before the request is parsed completely.
+	 * 
+	 * @return the options of the datagram
+	 */
+	public CompactOptionSet parseOptions() {
+		int position = offset + 4 + tokenlength;
+		if (tokenlength > 8 || position > limit)
+			throw new IllegalStateException("Message format error: invalid token length "+tokenlength);
+		CompactOptionSet options = new CompactOptionSet(8, limit - position);
+		parseOptions(position, null, options);
+		return options;
+	}
+	
 	private void parseMessage(Message message) {
 		message.setType(Type.valueOf(type));
-		message.setMID(mid);		
+		message.setMID(mid);
 		
-		if (tokenlength>0) {
-			message.setToken(reader.readBytes(tokenlength));
+		int position = offset + 4;
+		if (tokenlength > 0) {
+			if (tokenlength > 8 || position + tokenlength > limit)
+				throw new IllegalStateException("Message format error: invalid token length "+tokenlength);
+			message.setToken(copy(position, tokenlength));
+			position += tokenlength;
 		} else {
-			message.setToken(new byte[0]);
+			message.setToken(EMPTY);
 		}
 		
-		int currentOption = 0;
-		byte nextByte = 0;
-		while(reader.bytesAvailable()) {
-			nextByte = reader.readNextByte();
-			if (nextByte != PAYLOAD_MARKER) {
-				// the first 4 bits of the byte represent the option delta
-				int optionDeltaNibble = (0xF0 & nextByte) >> 4;
-				currentOption += readOptionValueFromNibble(optionDeltaNibble);
-				
-				// the second 4 bits represent the option length
-				int optionLengthNibble = (0x0F & nextByte);
-				int optionLength = readOptionValueFromNibble(optionLengthNibble);
-				
-				// read option
-				Option option = new Option(currentOption);
-				option.setValue(reader.readBytes(optionLength));
-				
-				// add option to message
-				message.getOptions().addOption(option);
-			} else break;
-		}
+		position = parseOptions(position, message.getOptions(), null);
 		
-		if (nextByte == PAYLOAD_MARKER) {
+		if (position < limit) {
+			// skip the payload marker
+			position++;
+			
 			// the presence of a marker followed by a zero-length payload must be processed as a message format error
-			if (!reader.bytesAvailable())
+			if (position >= limit)
 				throw new IllegalStateException();
 			
-			// get payload
-			message.setPayload(reader.readBytesLeft());
+			// the payload is only copied once a layer reads it
+			message.setPayload(bytes, position, limit - position);
 		} else {
-			message.setPayload(new byte[0]); // or null?
+			message.setPayload(EMPTY);
+		}
+	}
+	
+	/**
+	 * Parses the options starting at the specified position into the option
+	 * set or into the compact option set, whichever is not null.
+	 * 
+	 * @return the position of the payload marker or the end of the datagram
+	 */
+	private int parseOptions(int position, OptionSet options, CompactOptionSet compact) {
+		int currentOption = 0;
+		while (position < limit) {
+			int nextByte = bytes[position] & 0xFF;
+			if (nextByte == (PAYLOAD_MARKER & 0xFF))
+				break;
+			position++;
+			
+			// the first 4 bits of the byte represent the option delta
+			int optionDeltaNibble = nextByte >>> 4;
+			// the second 4 bits represent the option length
+			int optionLengthNibble = nextByte & 0x0F;
+			
+			// the extended option delta precedes the extended option length
+			int extended = extendedLength(optionDeltaNibble);
+			currentOption += optionValueFromNibble(optionDeltaNibble, position);
+			position += extended;
+			
+			extended = extendedLength(optionLengthNibble);
+			int optionLength = optionValueFromNibble(optionLengthNibble, position);
+			position += extended;
+			
+			if (position + optionLength > limit)
+				throw new IllegalStateException("Message format error: option "+currentOption+" exceeds datagram");
+			
+			// decode the option value straight from the datagram
+			if (options != null)
+				options.addOption(currentOption, bytes, position, optionLength);
+			else
+				compact.add(currentOption, bytes, position, optionLength);
+			position += optionLength;
 		}
+		return position;
+	}
+	
+	/**
+	 * Returns the unsigned byte at the specified position relative to the
+	 * start of the datagram or zero if the position is beyond its end.
+	 */
+	private int byteAt(int index) {
+		int position = offset + index;
+		return position < limit ? bytes[position] & 0xFF : 0;
+	}
+	
+	/**
+	 * Copies the specified range of the datagram into a new array.
+	 */
+	private byte[] copy(int position, int length) {
+		byte[] copy = new byte[length];
+		System.arraycopy(bytes, position, copy, 0, length);
+		return copy;
+	}
+	
+	/**
+	 * Returns the number of extended bytes that follow for the specified
+	 * 4-bit option header value.
+	 */
+	private static int extendedLength(int nibble) {
+		if (nibble == 13) return 1;
+		else if (nibble == 14) return 2;
+		else return 0;
 	}
 	
 	/**
@@ -168,18 +300,22 @@ public class DataParser {
 	 * 
 	 * @param nibble
 	 *            the 4-bit option header value.
-	 * @param datagram
-	 *            the datagram.
+	 * @param position
+	 *            the position of the extended option value in the datagram.
 	 * @return the value calculated from the nibble and the extended option
 	 *         value.
 	 */
-	private int readOptionValueFromNibble(int nibble) {
+	private int optionValueFromNibble(int nibble, int position) {
 		if (nibble <= 12) {
 			return nibble;
 		} else if (nibble == 13) {
-			return reader.read(8) + 13;
+			if (position + 1 > limit)
+				throw new IllegalStateException("Message format error: truncated option header");
+			return (bytes[position] & 0xFF) + 13;
 		} else if (nibble == 14) {
-			return reader.read(16) + 269;
+			if (position + 2 > limit)
+				throw new IllegalStateException("Message format error: truncated option header");
+			return (((bytes[position] & 0xFF) << 8) | (bytes[position + 1] & 0xFF)) + 269;
 		} else {
 			throw new IllegalArgumentException("Unsupported option delta "+nibble);
 		}
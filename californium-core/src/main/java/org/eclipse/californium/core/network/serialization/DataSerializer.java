@@ -19,20 +19,11 @@
  ******************************************************************************/
 package org.eclipse.californium.core.network.serialization;
 
-import static org.eclipse.californium.core.coap.CoAP.MessageFormat.CODE_BITS;
-import static org.eclipse.californium.core.coap.CoAP.MessageFormat.MESSAGE_ID_BITS;
-import static org.eclipse.californium.core.coap.CoAP.MessageFormat.OPTION_DELTA_BITS;
-import static org.eclipse.californium.core.coap.CoAP.MessageFormat.OPTION_LENGTH_BITS;
 import static org.eclipse.californium.core.coap.CoAP.MessageFormat.PAYLOAD_MARKER;
-import static org.eclipse.californium.core.coap.CoAP.MessageFormat.TOKEN_LENGTH_BITS;
-import static org.eclipse.californium.core.coap.CoAP.MessageFormat.TYPE_BITS;
 import static org.eclipse.californium.core.coap.CoAP.MessageFormat.VERSION;
-import static org.eclipse.californium.core.coap.CoAP.MessageFormat.VERSION_BITS;
-
-import java.util.List;
 
+import org.eclipse.californium.core.coap.CompactOptionSet;
 import org.eclipse.californium.core.coap.Message;
-import org.eclipse.californium.core.coap.Option;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.coap.CoAP.Code;
@@ -40,84 +31,170 @@ import org.eclipse.californium.core.coap.CoAP.Code;
 
 /**
  * The DataSerialized serializes outgoing messages to byte arrays.
+ * <p>
+ * The serializer first computes the exact encoded size of a message from its
+ * options and payload and then writes the message into an array of exactly
+ * that size. The options are taken from a {@link CompactOptionSet}, which
+ * already holds the encoded values in ascending order. The array is handed on as is, i.e., there is neither a growing
+ * intermediate buffer nor a final copy. The serializer holds no state and a
+ * single instance can be shared by all threads.
  */
 // TODO: Should we call this "Encoder/Decoder"?
 public class DataSerializer {
 	
-	private DatagramWriter writer;
-	
 	public byte[] serializeRequest(Request request) {
-		writer = new DatagramWriter();
 		Code code = request.getCode();
-		serializeMessage(request, code == null ? 0 : code.value);
-		return writer.toByteArray();
+		return serializeMessage(request, code == null ? 0 : code.value);
 	}
 	
 	public byte[] serializeResponse(Response response) {
-		writer = new DatagramWriter();
-		serializeMessage(response, response.getCode().value);
-		return writer.toByteArray();
+		return serializeMessage(response, response.getCode().value, response.getEncodedBody());
 	}
 	
 	public byte[] serializeEmptyMessage(Message message) {
-		writer = new DatagramWriter();
-		serializeMessage(message, 0);
-		return writer.toByteArray();
+		return serializeMessage(message, 0);
+	}
+	
+	/**
+	 * Serializes the options and the payload of the specified message, i.e.,
+	 * everything that follows the token. Notifications of the same
+	 * representation share this part (see {@link Response#setEncodedBody(byte[])}).
+	 * 
+	 * @param message the message
+	 * @return the encoded options and payload
+	 */
+	public byte[] serializeBody(Message message) {
+		CompactOptionSet options = message.getOptions().toCompact();
+		byte[] payload = message.getPayload();
+		byte[] bytes = new byte[getBodySize(options, payload)];
+		writeBody(bytes, 0, options, payload);
+		return bytes;
+	}
+	
+	private byte[] serializeMessage(Message message, int code) {
+		return serializeMessage(message, code, null);
 	}
 	
-	private void serializeMessage(Message message, int code) {
-		if (message.getToken() == null)
+	private byte[] serializeMessage(Message message, int code, byte[] body) {
+		byte[] token = message.getToken();
+		if (token == null)
 			throw new NullPointerException("No Token has been set, not even an empty byte[0]");
-		writer.write(VERSION, VERSION_BITS);
-		writer.write(message.getType().value, TYPE_BITS);
-		writer.write(message.getToken().length, TOKEN_LENGTH_BITS);
-		writer.write(code, CODE_BITS);
-		writer.write(message.getMID(), MESSAGE_ID_BITS);
-		writer.writeBytes(message.getToken());
 		
-		List<Option> options = message.getOptions().asSortedList(); // already sorted
+		CompactOptionSet options = null;
+		byte[] payload = null;
+		
+		// compute the exact size of the datagram
+		int size = 4 + token.length;
+		if (body != null) {
+			size += body.length;
+		} else {
+			options = message.getOptions().toCompact();
+			payload = message.getPayload();
+			size += getBodySize(options, payload);
+		}
+		
+		byte[] bytes = new byte[size];
+		bytes[0] = (byte) ((VERSION << 6) | (message.getType().value << 4) | token.length);
+		bytes[1] = (byte) code;
+		bytes[2] = (byte) (message.getMID() >> 8);
+		bytes[3] = (byte) message.getMID();
+		System.arraycopy(token, 0, bytes, 4, token.length);
+		int position = 4 + token.length;
+		
+		if (body != null)
+			System.arraycopy(body, 0, bytes, position, body.length);
+		else
+			writeBody(bytes, position, options, payload);
+		return bytes;
+	}
+	
+	/**
+	 * Returns the number of bytes of the encoded options and payload.
+	 */
+	private static int getBodySize(CompactOptionSet options, byte[] payload) {
+		int size = options.getValueBytes();
+		int lastOptionNumber = 0;
+		for (int i = 0; i < options.size(); i++) {
+			int number = options.getNumber(i);
+			size += getOptionHeaderSize(number - lastOptionNumber, options.getLength(i));
+			lastOptionNumber = number;
+		}
+		if (payload != null && payload.length > 0)
+			size += 1 + payload.length;
+		return size;
+	}
+	
+	/**
+	 * Writes the options and the payload at the specified position.
+	 */
+	private static void writeBody(byte[] bytes, int position, CompactOptionSet options, byte[] payload) {
+		byte[] values = options.getBuffer();
 		int lastOptionNumber = 0;
-		for (Option option:options) {
+		for (int i = 0; i < options.size(); i++) {
+			int number = options.getNumber(i);
 			
-			// write 4-bit option delta
-			int optionDelta = option.getNumber() - lastOptionNumber;
+			// write 4-bit option delta and 4-bit option length
+			int optionDelta = number - lastOptionNumber;
 			int optionDeltaNibble = getOptionNibble(optionDelta);
-			writer.write(optionDeltaNibble, OPTION_DELTA_BITS);
-			
-			// write 4-bit option length
-			int optionLength = option.getLength();
+			int optionLength = options.getLength(i);
 			int optionLengthNibble = getOptionNibble(optionLength);
-			writer.write(optionLengthNibble, OPTION_LENGTH_BITS);
+			bytes[position++] = (byte) ((optionDeltaNibble << 4) | optionLengthNibble);
 			
 			// write extended option delta field (0 - 2 bytes)
-			if (optionDeltaNibble == 13) {
-				writer.write(optionDelta - 13, 8);
-			} else if (optionDeltaNibble == 14) {
-				writer.write(optionDelta - 269, 16);
-			}
+			position = writeExtended(bytes, position, optionDeltaNibble, optionDelta);
 			
 			// write extended option length field (0 - 2 bytes)
-			if (optionLengthNibble == 13) {
-				writer.write(optionLength - 13, 8);
-			} else if (optionLengthNibble == 14) {
-				writer.write(optionLength - 269, 16);
-			}
+			position = writeExtended(bytes, position, optionLengthNibble, optionLength);
 
 			// write option value
-			writer.writeBytes(option.getValue());
+			System.arraycopy(values, options.getOffset(i), bytes, position, optionLength);
+			position += optionLength;
 
 			// update last option number
-			lastOptionNumber = option.getNumber();
+			lastOptionNumber = number;
 		}
 		
-		byte[] payload = message.getPayload();
 		if (payload != null && payload.length > 0) {
 			// if payload is present and of non-zero length, it is prefixed by
 			// an one-byte Payload Marker (0xFF) which indicates the end of
 			// options and the start of the payload
-			writer.writeByte(PAYLOAD_MARKER);
-			writer.writeBytes(payload);
+			bytes[position++] = PAYLOAD_MARKER;
+			System.arraycopy(payload, 0, bytes, position, payload.length);
+		}
+	}
+	
+	/**
+	 * Writes the extended option delta or length field for the specified
+	 * nibble.
+	 * 
+	 * @return the position after the extended field
+	 */
+	private static int writeExtended(byte[] bytes, int position, int nibble, int value) {
+		if (nibble == 13) {
+			bytes[position++] = (byte) (value - 13);
+		} else if (nibble == 14) {
+			bytes[position++] = (byte) ((value - 269) >> 8);
+			bytes[position++] = (byte) (value - 269);
 		}
+		return position;
+	}
+	
+	/**
+	 * Returns the number of bytes of the option header, i.e., the byte with
+	 * the delta and length nibbles and the extended fields.
+	 * 
+	 * @param optionDelta the option delta
+	 * @param optionLength the length of the option value
+	 * @return the size of the option header
+	 */
+	private static int getOptionHeaderSize(int optionDelta, int optionLength) {
+		return 1 + getExtendedSize(getOptionNibble(optionDelta)) + getExtendedSize(getOptionNibble(optionLength));
+	}
+	
+	private static int getExtendedSize(int nibble) {
+		if (nibble == 13) return 1;
+		else if (nibble == 14) return 2;
+		else return 0;
 	}
 	
 	/**
@@ -127,7 +204,7 @@ public class DataSerializer {
 	 *            the option value (delta or length) to be encoded.
 	 * @return the 4-bit option header value.
 	 */
-	private int getOptionNibble(int optionValue) {
+	private static int getOptionNibble(int optionValue) {
 		if (optionValue <= 12) {
 			return optionValue;
 		} else if (optionValue <= 255 + 13) {
@@ -153,7 +153,11 @@ public class DatagramWriter {
 	 *            The byte to be written.
 	 */
 	public void writeByte(byte b) {
-		writeBytes(new byte[] { b });
+		if (currentBitIndex < Byte.SIZE - 1) {
+			write(b & 0xFF, Byte.SIZE);
+		} else {
+			byteStream.write(b);
+		}
 	}
 
 	// Functions ///////////////////////////////////////////////////////////////
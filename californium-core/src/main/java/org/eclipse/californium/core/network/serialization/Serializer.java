@@ -31,6 +31,9 @@ import org.eclipse.californium.elements.RawData;
  */
 public class Serializer {
 
+	/** The stateless serializer shared by all threads */
+	private static final DataSerializer SERIALIZER = new DataSerializer();
+
 	/**
 	 * Serializes the specified request. Message identifier, message code,
 	 * token, options and payload are converted into a byte array and wrapped in
@@ -44,7 +47,7 @@ public class Serializer {
 	public RawData serialize(Request request) {
 		byte[] bytes = request.getBytes();
 		if (bytes == null)
-			bytes = new DataSerializer().serializeRequest(request);
+			bytes = SERIALIZER.serializeRequest(request);
 		request.setBytes(bytes);
 		return new RawData(bytes, request.getDestination(), request.getDestinationPort());
 	}
@@ -61,7 +64,7 @@ public class Serializer {
 	public RawData serialize(Response response) {
 		byte[] bytes = response.getBytes();
 		if (bytes == null)
-			bytes = new DataSerializer().serializeResponse(response);
+			bytes = SERIALIZER.serializeResponse(response);
 		response.setBytes(bytes);
 		return new RawData(bytes, response.getDestination(), response.getDestinationPort());
 	}
@@ -79,7 +82,7 @@ public class Serializer {
 	public RawData serialize(EmptyMessage message) {
 		byte[] bytes = message.getBytes();
 		if (bytes == null)
-			bytes = new DataSerializer().serializeEmptyMessage(message);
+			bytes = SERIALIZER.serializeEmptyMessage(message);
 		message.setBytes(bytes);
 		return new RawData(bytes, message.getDestination(), message.getDestinationPort());
 	}
@@ -19,6 +19,9 @@
  ******************************************************************************/
 package org.eclipse.californium.core.network.stack;
 
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.eclipse.californium.core.coap.BlockOption;
@@ -26,6 +29,7 @@ import org.eclipse.californium.core.coap.EmptyMessage;
 import org.eclipse.californium.core.coap.Message;
 import org.eclipse.californium.core.coap.MessageObserverAdapter;
 import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.PayloadSource;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.coap.CoAP.Code;
@@ -41,8 +45,7 @@ public class BlockwiseLayer extends AbstractLayer {
 	/** The logger. */
 	protected final static Logger LOGGER = Logger.getLogger(BlockwiseLayer.class.getCanonicalName());
 	
-	// TODO: Size Option. Include only in first block.
-	// TODO: DoS: server should have max allowed blocks/bytes/time to allocate.
+	// TODO: DoS: server should have max allowed blocks/time to allocate.
 	// TODO: Random access for Cf servers: The draft still needs to specify a reaction to "overshoot"
 	// TODO: Blockwise with separate response or NONs. Not yet mentioned in draft.
 	// TODO: How should our client deal with a server that handles blocks non-atomic?
@@ -83,6 +86,10 @@ public class BlockwiseLayer extends AbstractLayer {
 	
 	private int max_message_size;
 	private int preferred_block_size;
+	private int max_body_size;
+	
+	/** The transfers that this server performs for its clients */
+	private final BlockwiseTransferStore transfers;
 	
 	/**
 	 * Constructs a new blockwise layer.
@@ -92,7 +99,13 @@ public class BlockwiseLayer extends AbstractLayer {
 	public BlockwiseLayer(NetworkConfig config) {
 		this.max_message_size = config.getInt(NetworkConfig.Keys.MAX_MESSAGE_SIZE);
 		this.preferred_block_size = config.getInt(NetworkConfig.Keys.PREFERRED_BLOCK_SIZE);
-		LOGGER.config("BlockwiseLayer uses MAX_MESSAGE_SIZE: "+max_message_size+" and DEFAULT_BLOCK_SIZE: "+preferred_block_size);
+		this.max_body_size = config.getInt(NetworkConfig.Keys.MAX_RESOURCE_BODY_SIZE);
+		LOGGER.config("BlockwiseLayer uses MAX_MESSAGE_SIZE: "+max_message_size+", DEFAULT_BLOCK_SIZE: "+preferred_block_size+" and MAX_RESOURCE_BODY_SIZE: "+max_body_size);
+		this.transfers = new BlockwiseTransferStore(
+				config.getInt(NetworkConfig.Keys.BLOCKWISE_STATUS_LIFETIME),
+				config.getInt(NetworkConfig.Keys.MAX_ACTIVE_BLOCKWISE_TRANSFERS),
+				config.getInt(NetworkConfig.Keys.MAX_BLOCKWISE_BUFFER_SIZE),
+				Level.parse(config.getString(NetworkConfig.Keys.HEALTH_STATUS_PRINT_LEVEL)));
 		
 		config.addConfigObserver(new NetworkConfigObserverAdapter() {
 			@Override
@@ -101,10 +114,28 @@ public class BlockwiseLayer extends AbstractLayer {
 					max_message_size = value;
 				if (NetworkConfig.Keys.PREFERRED_BLOCK_SIZE.equals(key))
 					preferred_block_size = value;
+				if (NetworkConfig.Keys.MAX_RESOURCE_BODY_SIZE.equals(key))
+					max_body_size = value;
 			}
 		});
 	}
 	
+	@Override
+	public void setExecutor(ScheduledExecutorService executor) {
+		super.setExecutor(executor);
+		transfers.setExecutor(executor);
+	}
+	
+	/**
+	 * Returns the store of the blockwise transfers this layer performs as a
+	 * server, which also provides their metrics.
+	 * 
+	 * @return the store
+	 */
+	public BlockwiseTransferStore getTransferStore() {
+		return transfers;
+	}
+	
 	@Override
 	public void sendRequest(Exchange exchange, Request request) {
 		if (request.getOptions().hasBlock2()
@@ -147,23 +178,48 @@ public class BlockwiseLayer extends AbstractLayer {
 			BlockOption block1 = request.getOptions().getBlock1();
 			LOGGER.fine("Request contains block1 option "+block1);
 			
+			if (exchange.getRequestBlockStatus() == null && !transfers.start(exchange, 0, true)) {
+				sendServiceUnavailable(exchange, request, block1);
+				return;
+			}
+			
 			BlockwiseStatus status = findRequestBlockStatus(exchange, request);
 			if (block1.getNum() == 0 && status.getCurrentNum() > 0) {
 				// reset the blockwise transfer
 				LOGGER.finer("Block1 num is 0, the client has restarted the blockwise transfer. Reset status.");
+				transfers.touch(exchange, -status.getBufferSize());
 				status = new BlockwiseStatus(request.getOptions().getContentFormat());
 				exchange.setRequestBlockStatus(status);
 			}
 			
+			if (block1.getNum() == 0 && request.getOptions().hasSize1()) {
+				// the client announces the size of the body
+				int buffered = status.getBufferSize();
+				if (!prepareBody(status, request.getOptions().getSize1())) {
+					sendEntityTooLarge(exchange, request, block1);
+					return;
+				}
+				transfers.touch(exchange, status.getBufferSize() - buffered);
+			}
+			
 			if (block1.getNum() == status.getCurrentNum()) {
 				
+				if (exceedsMaxBodySize(status, request.getPayloadSize())) {
+					sendEntityTooLarge(exchange, request, block1);
+					return;
+				}
+				
 				if (request.getOptions().getContentFormat()==status.getContentFormat()) {
+					int buffered = status.getBufferSize();
 					status.addBlock(request.getPayload());
+					transfers.touch(exchange, status.getBufferSize() - buffered);
 				} else {
 					Response error = Response.createPiggybackedResponse(request, ResponseCode.REQUEST_ENTITY_INCOMPLETE);
 					error.getOptions().setBlock1(block1.getSzx(), block1.isM(), block1.getNum());
 					error.setPayload("Changed Content-Format");
 					request.setAcknowledged(true);
+					exchange.setRequestBlockStatus(null);
+					transfers.complete(exchange);
 					exchange.setCurrentResponse(error);
 					super.sendResponse(exchange, error);
 					return;
@@ -185,6 +241,7 @@ public class BlockwiseLayer extends AbstractLayer {
 					
 				} else {
 					LOGGER.finer("This was the last block. Deliver request");
+					transfers.complete(exchange);
 					
 					// Remember block to acknowledge. TODO: We might make this a boolean flag in status.
 					exchange.setBlock1ToAck(block1); 
@@ -207,6 +264,8 @@ public class BlockwiseLayer extends AbstractLayer {
 				error.getOptions().setBlock1(block1.getSzx(), block1.isM(), block1.getNum());
 				error.setPayload("Wrong block number");
 				request.setAcknowledged(true);
+				exchange.setRequestBlockStatus(null);
+				transfers.complete(exchange);
 				exchange.setCurrentResponse(error);
 				super.sendResponse(exchange, error);
 			}
@@ -228,7 +287,9 @@ public class BlockwiseLayer extends AbstractLayer {
 				// clean up blockwise status
 				LOGGER.fine("Ongoing is complete "+status);
 				exchange.setResponseBlockStatus(null);
+				transfers.complete(exchange);
 			} else {
+				transfers.touch(exchange, 0);
 				LOGGER.fine("Ongoing is continuing "+status);
 			}
 			
@@ -265,13 +326,27 @@ public class BlockwiseLayer extends AbstractLayer {
 			if (response.getOptions().hasObserve()) {
 				// the ACK for the first block should acknowledge the whole notification
 				exchange.setCurrentResponse(response);
+				// and the notification must not complete the observe exchange
+				block.setLast(response.isLast());
 			} else {
 				exchange.setCurrentResponse(block);
+				// remember the transfer until the client has fetched all blocks
+				if (!status.isComplete())
+					transfers.start(exchange, response.getPayloadSize(), false);
 			}
 			super.sendResponse(exchange, block);
 			
 		} else {
 			if (block1 != null) response.getOptions().setBlock1(block1);
+			if (response.getBodySource() != null) {
+				// small enough to be sent at once
+				try {
+					response.setPayload(readPayload(response, 0, getPayloadSize(response)));
+				} catch (IOException e) {
+					LOGGER.log(Level.WARNING, "Cannot read the body source", e);
+					response = createSourceError(response);
+				}
+			}
 			exchange.setCurrentResponse(response);
 			super.sendResponse(exchange, response);
 		}
@@ -292,7 +367,15 @@ public class BlockwiseLayer extends AbstractLayer {
 			LOGGER.finer("Response acknowledges block "+block1);
 			
 			BlockwiseStatus status = exchange.getRequestBlockStatus();
-			if (! status.isComplete()) {
+			if (!ResponseCode.isSuccess(response.getCode())) {
+				// The server has aborted the transfer, e.g., with 4.13 (Request Entity Too Large)
+				LOGGER.fine("Blockwise request has failed with "+response.getCode());
+				exchange.setRequestBlockStatus(null);
+				exchange.setResponse(response);
+				super.receiveResponse(exchange, response);
+				return;
+				
+			} else if (! status.isComplete()) {
 				// TODO: the response code should be CONTINUE. Otherwise deliver
 				// Send next block
 				int currentSize = 1 << (4 + status.getCurrentSzx());
@@ -320,7 +403,23 @@ public class BlockwiseLayer extends AbstractLayer {
 			BlockOption block2 = response.getOptions().getBlock2();
 			BlockwiseStatus status = findResponseBlockStatus(exchange, response);
 			
-			if (block2.getNum() == status.getCurrentNum()) {
+			boolean tooLarge = exceedsMaxBodySize(status, response.getPayloadSize());
+			if (block2.getNum() == 0 && response.getOptions().hasSize2()) {
+				// the server announces the size of the body
+				tooLarge |= !prepareBody(status, response.getOptions().getSize2());
+			}
+			
+			if (block2.getNum() == status.getCurrentNum() && tooLarge) {
+				// The response is larger than we are willing to buffer
+				LOGGER.warning("Response body exceeds the maximum of "+max_body_size+" bytes. Reject response; exchange has failed.");
+				if (response.getType()==Type.CON) {
+					EmptyMessage rst = EmptyMessage.newRST(response);
+					super.sendEmptyMessage(exchange, rst);
+				}
+				exchange.setResponseBlockStatus(null);
+				exchange.getRequest().cancel();
+				
+			} else if (block2.getNum() == status.getCurrentNum()) {
 				// We got the block we expected :-)
 				status.addBlock(response.getPayload());
 				if (response.getOptions().hasObserve())
@@ -421,6 +520,58 @@ public class BlockwiseLayer extends AbstractLayer {
 		}
 	}
 	
+	/*
+	 * Checks the announced size of a body against the maximum and passes it
+	 * on to the status, which allocates a part of the buffer in advance.
+	 * Returns false if the body is too large.
+	 */
+	private boolean prepareBody(BlockwiseStatus status, int size) {
+		if (max_body_size > 0 && (size < 0 || size > max_body_size))
+			return false;
+		status.setBodySize(size);
+		return true;
+	}
+	
+	/*
+	 * Returns true if a block of the specified size would make the body
+	 * exceed the maximum body size.
+	 */
+	private boolean exceedsMaxBodySize(BlockwiseStatus status, int size) {
+		return max_body_size > 0 && status.getBodyLength() + size > max_body_size;
+	}
+	
+	/*
+	 * Rejects a Block1 transfer with 4.13 (Request Entity Too Large) and
+	 * forgets the blocks received so far.
+	 */
+	private void sendEntityTooLarge(Exchange exchange, Request request, BlockOption block1) {
+		LOGGER.warning("Request body exceeds the maximum of "+max_body_size+" bytes. Respond with 4.13 (Request Entity Too Large)");
+		Response error = Response.createPiggybackedResponse(request, ResponseCode.REQUEST_ENTITY_TOO_LARGE);
+		error.getOptions().setBlock1(block1.getSzx(), block1.isM(), block1.getNum());
+		error.getOptions().setSize1(max_body_size);
+		error.setPayload("Request body too large");
+		request.setAcknowledged(true);
+		exchange.setRequestBlockStatus(null);
+		transfers.complete(exchange);
+		exchange.setCurrentResponse(error);
+		super.sendResponse(exchange, error);
+	}
+	
+	/*
+	 * Rejects a new Block1 transfer with 5.03 (Service Unavailable) because
+	 * the server already performs too many transfers.
+	 */
+	private void sendServiceUnavailable(Exchange exchange, Request request, BlockOption block1) {
+		LOGGER.warning("Too many blockwise transfers. Respond with 5.03 (Service Unavailable)");
+		Response error = Response.createPiggybackedResponse(request, ResponseCode.SERVICE_UNAVAILABLE);
+		error.getOptions().setBlock1(block1.getSzx(), block1.isM(), block1.getNum());
+		error.getOptions().setMaxAge(1);
+		error.setPayload("Too many blockwise transfers");
+		request.setAcknowledged(true);
+		exchange.setCurrentResponse(error);
+		super.sendResponse(exchange, error);
+	}
+	
 	private BlockwiseStatus findRequestBlockStatus(Exchange exchange, Request request) {
 		// NOTICE: This method is used by sendRequest and receiveRequest. Be
 		// careful, making changes to the status in here.
@@ -469,6 +620,8 @@ public class BlockwiseLayer extends AbstractLayer {
 		
 		boolean m = (to < request.getPayloadSize());
 		block.getOptions().setBlock1(szx, m, num);
+		if (num == 0 && m)
+			block.getOptions().setSize1(request.getPayloadSize());
 		
 		status.setComplete(!m);
 		return block;
@@ -485,19 +638,25 @@ public class BlockwiseLayer extends AbstractLayer {
 		block.setOptions(new OptionSet(response.getOptions()));
 		block.addMessageObserver(new TimeoutForwarder(response));
 
-		int payloadsize = response.getPayloadSize();
+		int payloadsize = getPayloadSize(response);
 		int currentSize = 1 << (4 + szx);
 		int from = num * currentSize;
 		
 		if (0 < payloadsize && from < payloadsize) {
-			int to = Math.min((num + 1) * currentSize, response.getPayloadSize());
+			int to = Math.min((num + 1) * currentSize, payloadsize);
 			int length = to - from;
-			byte[] blockPayload = new byte[length];
-			System.arraycopy(response.getPayload(), from, blockPayload, 0, length);
-			block.setPayload(blockPayload);
+			try {
+				block.setPayload(readPayload(response, from, length));
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Cannot read block "+num+" from the body source", e);
+				status.setComplete(true);
+				return createSourceError(response);
+			}
 			
-			boolean m = (to < response.getPayloadSize());
+			boolean m = (to < payloadsize);
 			block.getOptions().setBlock2(szx, m, num);
+			if (num == 0 && m)
+				block.getOptions().setSize2(payloadsize);
 			block.setLast(!m);
 			
 			status.setComplete(!m);
@@ -509,6 +668,41 @@ public class BlockwiseLayer extends AbstractLayer {
 		return block;
 	}
 	
+	/*
+	 * Returns the size of the payload or of the body source.
+	 */
+	private static int getPayloadSize(Response response) {
+		PayloadSource source = response.getBodySource();
+		return source != null ? source.size() : response.getPayloadSize();
+	}
+	
+	/*
+	 * Reads the specified window of the payload or of the body source.
+	 */
+	private static byte[] readPayload(Response response, int from, int length) throws IOException {
+		PayloadSource source = response.getBodySource();
+		if (source != null)
+			return source.read(from, length);
+		byte[] payload = new byte[length];
+		System.arraycopy(response.getPayload(), from, payload, 0, length);
+		return payload;
+	}
+	
+	/*
+	 * Creates the 5.00 (Internal Server Error) that replaces a response whose
+	 * body source has failed.
+	 */
+	private static Response createSourceError(Response response) {
+		Response error = new Response(ResponseCode.INTERNAL_SERVER_ERROR);
+		error.setType(response.getType());
+		error.setMID(response.getMID());
+		error.setDestination(response.getDestination());
+		error.setDestinationPort(response.getDestinationPort());
+		error.setToken(response.getToken());
+		error.addMessageObserver(new TimeoutForwarder(response));
+		return error;
+	}
+	
 	private void assembleMessage(BlockwiseStatus status, Message message, Message last) {
 		// The assembled request will contain the options of the last block
 		message.setMID(last.getMID());
@@ -518,18 +712,7 @@ public class BlockwiseLayer extends AbstractLayer {
 		message.setType(last.getType());
 		message.setOptions(new OptionSet(last.getOptions()));
 		
-		int length = 0;
-		for (byte[] block:status.getBlocks())
-			length += block.length;
-		
-		byte[] payload = new byte[length];
-		int offset = 0;
-		for (byte[] block:status.getBlocks()) {
-			System.arraycopy(block, 0, payload, offset, block.length);
-			offset += block.length;
-		}
-		
-		message.setPayload(payload);
+		message.setPayload(status.getBody());
 	}
 	
 	private boolean requiresBlockwise(Request request) {
@@ -539,7 +722,7 @@ public class BlockwiseLayer extends AbstractLayer {
 	}
 	
 	private boolean requireBlockwise(Exchange exchange, Response response) {
-		return response.getPayloadSize() > max_message_size
+		return getPayloadSize(response) > max_message_size
 				|| exchange.getResponseBlockStatus() != null;
 	}
 	
@@ -19,7 +19,8 @@
  ******************************************************************************/
 package org.eclipse.californium.core.network.stack;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -33,6 +34,9 @@ public class BlockwiseStatus {
 
 	public static final int NO_OBSERVE = -1;
 	
+	/** The largest buffer that is allocated for an announced body size */
+	private static final int MAX_PREALLOCATED_SIZE = 16 * 1024;
+	
 	/** The current num. */
 	private int currentNum;
 	
@@ -66,10 +70,22 @@ public class BlockwiseStatus {
 	 * This is also the reason, why synchronization is required. (=>TODO)
 	 * This might change in a future draft.
 	 * UPDATE: This is no longer true since block-14.
+	 * Hence, the blocks are now appended in place to a single buffer. If the
+	 * size of the body is known from the Size1 or Size2 option, the buffer
+	 * grows up to this size and becomes the payload without copying. Only a
+	 * small buffer is allocated in advance, since the size comes from the peer.
 	 */
-	// Container for the payload of all blocks
-	/** The blocks. */
-	private ArrayList<byte[]> blocks = new ArrayList<byte[]>();
+	/** The buffer with the payload of all blocks */
+	private byte[] body;
+	
+	/** The size of the body announced by the Size1 or Size2 option or 0 */
+	private int bodySize;
+	
+	/** The number of bytes in the buffer */
+	private int bodyLength;
+	
+	/** The number of blocks in the buffer */
+	private int blockCount;
 
 	/**
 	 * Instantiates a new blockwise status.
@@ -157,12 +173,38 @@ public class BlockwiseStatus {
 	}
 	
 	/**
-	 * Adds the specified block to the current list of blocks.
+	 * Sets the expected size of the body as indicated by the Size1 or Size2
+	 * option. The buffer does not grow beyond this size as long as the body
+	 * fits, but at most 16 KiB are allocated in advance. Has no effect once
+	 * blocks have been added.
+	 *
+	 * @param size the expected size in bytes
+	 */
+	public void setBodySize(int size) {
+		if (bodyLength == 0 && size > 0) {
+			bodySize = size;
+			body = new byte[Math.min(size, MAX_PREALLOCATED_SIZE)];
+		}
+	}
+	
+	/**
+	 * Appends the specified block to the body.
 	 *
 	 * @param block the block
 	 */
 	public void addBlock(byte[] block) {
-		blocks.add(block);
+		if (block == null)
+			block = new byte[0];
+		int length = bodyLength + block.length;
+		if (body == null || length > body.length) {
+			int capacity = Math.max(length, 2 * getBufferSize());
+			if (length <= bodySize)
+				capacity = Math.min(capacity, bodySize);
+			body = body == null ? new byte[capacity] : Arrays.copyOf(body, capacity);
+		}
+		System.arraycopy(block, 0, body, bodyLength, block.length);
+		bodyLength = length;
+		blockCount++;
 	}
 	
 	/**
@@ -171,16 +213,54 @@ public class BlockwiseStatus {
 	 * @return the block count
 	 */
 	public int getBlockCount() {
-		return blocks.size();
+		return blockCount;
+	}
+	
+	/**
+	 * Gets the number of bytes that have been received so far.
+	 *
+	 * @return the length of the body
+	 */
+	public int getBodyLength() {
+		return bodyLength;
+	}
+	
+	/**
+	 * Gets the number of bytes allocated for the body, which can be larger
+	 * than the number of bytes received so far.
+	 *
+	 * @return the size of the buffer
+	 */
+	public int getBufferSize() {
+		return body == null ? 0 : body.length;
 	}
 	
 	/**
-	 * Gets the list of blocks.
+	 * Gets the list of blocks. The blocks are no longer stored separately, so
+	 * that the list contains the body received so far as one block.
 	 *
 	 * @return the blocks
+	 * @deprecated Use {@link #getBody()} instead.
 	 */
+	@Deprecated
 	public List<byte[]> getBlocks() {
-		return blocks;
+		if (blockCount == 0)
+			return Collections.emptyList();
+		return Collections.singletonList(getBody());
+	}
+	
+	/**
+	 * Gets the body that consists of all blocks. The buffer itself is
+	 * returned if it has exactly the size of the body.
+	 *
+	 * @return the body
+	 */
+	public byte[] getBody() {
+		if (body == null)
+			return new byte[0];
+		if (body.length == bodyLength)
+			return body;
+		return Arrays.copyOf(body, bodyLength);
 	}
 	
 	public int getObserve() {
@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.stack;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.network.Exchange;
+
+/**
+ * The store keeps track of the blockwise transfers that a server has started
+ * on behalf of its clients. A transfer that has not seen a block for the
+ * configured lifetime is considered abandoned: its exchange is completed,
+ * which removes it from the matcher, and the blocks it has buffered are
+ * released. The store also limits the number of concurrent transfers and the
+ * bytes they buffer, so that the blockwise layer can reject new transfers
+ * with 5.03 (Service Unavailable) instead of running out of memory.
+ * <p>
+ * The store only sweeps while it holds transfers. It counts the transfers it
+ * has started, rejected and expired as metrics.
+ */
+public class BlockwiseTransferStore {
+
+	/** The logger. */
+	private final static Logger LOGGER = Logger.getLogger(BlockwiseTransferStore.class.getCanonicalName());
+
+	/** The transfers by exchange */
+	private final ConcurrentHashMap<Exchange, Transfer> transfers = new ConcurrentHashMap<Exchange, Transfer>();
+
+	/** The idle time after which a transfer expires in ms, 0 for never */
+	private final long lifetime;
+
+	/** The maximum number of transfers, 0 for no limit */
+	private final int maxTransfers;
+
+	/** The maximum number of buffered bytes, 0 for no limit */
+	private final long maxBytes;
+
+	/** The level of the periodic status output */
+	private final Level statusLevel;
+
+	private final AtomicLong bufferedBytes = new AtomicLong();
+	private final AtomicLong startedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong expiredCount = new AtomicLong();
+
+	/** Whether a sweep is scheduled */
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+
+	private volatile ScheduledExecutorService executor;
+
+	private final Runnable sweeper = new Runnable() {
+		public void run() {
+			sweep();
+			sweeping.set(false);
+			scheduleSweep();
+		}
+	};
+
+	/**
+	 * Instantiates a new store.
+	 *
+	 * @param lifetime the idle time after which a transfer expires in ms or 0
+	 * @param maxTransfers the maximum number of transfers or 0 for no limit
+	 * @param maxBytes the maximum number of buffered bytes or 0 for no limit
+	 * @param statusLevel the level at which each sweep logs the metrics
+	 */
+	public BlockwiseTransferStore(long lifetime, int maxTransfers, long maxBytes, Level statusLevel) {
+		this.lifetime = lifetime;
+		this.maxTransfers = maxTransfers;
+		this.maxBytes = maxBytes;
+		this.statusLevel = statusLevel;
+	}
+
+	/**
+	 * Sets the executor that sweeps the store. A sweep that is already
+	 * scheduled keeps running on the previous executor and schedules the next
+	 * one on the new executor.
+	 *
+	 * @param executor the executor
+	 */
+	public void setExecutor(ScheduledExecutorService executor) {
+		this.executor = executor;
+		scheduleSweep();
+	}
+
+	/**
+	 * Starts to track the transfer of the specified exchange. If admission is
+	 * requested and the store is full, the transfer is rejected.
+	 *
+	 * @param exchange the exchange
+	 * @param bytes the bytes that the transfer already buffers
+	 * @param admission true to reject the transfer if the store is full
+	 * @return false if the transfer has been rejected
+	 */
+	public boolean start(Exchange exchange, int bytes, boolean admission) {
+		if (admission && isFull()) {
+			rejectedCount.incrementAndGet();
+			return false;
+		}
+		Transfer transfer = new Transfer();
+		if (transfers.putIfAbsent(exchange, transfer) == null) {
+			startedCount.incrementAndGet();
+			transfer.add(bytes);
+			scheduleSweep();
+		}
+		return true;
+	}
+
+	/**
+	 * Notes that the transfer of the specified exchange has progressed and
+	 * buffered the specified number of further bytes. The number is negative
+	 * if the transfer has released bytes, e.g., because it was restarted.
+	 *
+	 * @param exchange the exchange
+	 * @param bytes the additional bytes
+	 */
+	public void touch(Exchange exchange, int bytes) {
+		Transfer transfer = transfers.get(exchange);
+		if (transfer != null) {
+			transfer.lastAccess = System.nanoTime();
+			transfer.add(bytes);
+		}
+	}
+
+	/**
+	 * Stops to track the transfer of the specified exchange and releases its
+	 * buffered bytes.
+	 *
+	 * @param exchange the exchange
+	 */
+	public void complete(Exchange exchange) {
+		Transfer transfer = transfers.remove(exchange);
+		if (transfer != null)
+			transfer.release();
+	}
+
+	/**
+	 * Returns true if no further transfers are admitted.
+	 *
+	 * @return true if the store is full
+	 */
+	public boolean isFull() {
+		return (maxTransfers > 0 && transfers.size() >= maxTransfers)
+				|| (maxBytes > 0 && bufferedBytes.get() >= maxBytes);
+	}
+
+	/**
+	 * Returns the number of ongoing transfers.
+	 *
+	 * @return the number of transfers
+	 */
+	public int getTransferCount() {
+		return transfers.size();
+	}
+
+	/**
+	 * Returns the number of bytes buffered by the ongoing transfers.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getBufferedBytes() {
+		return bufferedBytes.get();
+	}
+
+	/**
+	 * Returns the number of transfers that have been started.
+	 *
+	 * @return the number of started transfers
+	 */
+	public long getStartedCount() {
+		return startedCount.get();
+	}
+
+	/**
+	 * Returns the number of transfers that have been rejected.
+	 *
+	 * @return the number of rejected transfers
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Returns the number of transfers that have expired.
+	 *
+	 * @return the number of expired transfers
+	 */
+	public long getExpiredCount() {
+		return expiredCount.get();
+	}
+
+	/**
+	 * Completes the exchanges of all transfers that have been idle for longer
+	 * than the lifetime.
+	 */
+	public void sweep() {
+		try {
+			long now = System.nanoTime();
+			long limit = TimeUnit.MILLISECONDS.toNanos(lifetime);
+			for (Iterator<Map.Entry<Exchange, Transfer>> it = transfers.entrySet().iterator(); it.hasNext();) {
+				Map.Entry<Exchange, Transfer> entry = it.next();
+				if (now - entry.getValue().lastAccess >= limit && transfers.remove(entry.getKey(), entry.getValue())) {
+					entry.getValue().release();
+					expiredCount.incrementAndGet();
+					expire(entry.getKey());
+				}
+			}
+			if (LOGGER.isLoggable(statusLevel)) {
+				LOGGER.log(statusLevel, "Blockwise transfers: " + transfers.size() + " ongoing, " + bufferedBytes.get() + " bytes buffered, "
+						+ startedCount.get() + " started, " + rejectedCount.get() + " rejected, " + expiredCount.get() + " expired");
+			}
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.SEVERE, "Exception while sweeping blockwise transfers", e);
+		}
+	}
+
+	private void expire(Exchange exchange) {
+		LOGGER.fine("Blockwise transfer of " + exchange.getRequest() + " has expired");
+		exchange.setRequestBlockStatus(null);
+		exchange.setResponseBlockStatus(null);
+		if (!exchange.isComplete())
+			exchange.setComplete();
+	}
+
+	/*
+	 * Schedules the next sweep as long as there are transfers, unless one is
+	 * scheduled already.
+	 */
+	private void scheduleSweep() {
+		ScheduledExecutorService executor = this.executor;
+		if (lifetime <= 0 || executor == null || transfers.isEmpty())
+			return;
+		if (sweeping.compareAndSet(false, true)) {
+			try {
+				executor.schedule(sweeper, Math.max(lifetime / 2, 1), TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				sweeping.set(false);
+				LOGGER.fine("Executor shut down, blockwise transfers are no longer swept");
+			}
+		}
+	}
+
+	/*
+	 * The state of a transfer.
+	 */
+	private final class Transfer {
+
+		private volatile long lastAccess = System.nanoTime();
+		private long bytes;
+
+		private synchronized void add(int bytes) {
+			// never release more than the transfer has buffered
+			bytes = (int) Math.max(bytes, -this.bytes);
+			if (bytes != 0) {
+				this.bytes += bytes;
+				bufferedBytes.addAndGet(bytes);
+			}
+		}
+
+		private synchronized void release() {
+			bufferedBytes.addAndGet(-bytes);
+			bytes = 0;
+		}
+	}
+}
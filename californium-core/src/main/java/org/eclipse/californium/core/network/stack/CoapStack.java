@@ -24,6 +24,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.Logger;
 
 import org.eclipse.californium.core.coap.EmptyMessage;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.Exchange;
@@ -155,7 +156,21 @@ public class CoapStack {
 	private class StackTopAdapter extends AbstractLayer {
 		
 		public void sendRequest(Request request) {
-			Exchange exchange = new Exchange(request, Origin.LOCAL);
+			// a request canceled before it was processed is not sent at all
+			if (request.isCanceled())
+				return;
+			final Exchange exchange = new Exchange(request, Origin.LOCAL);
+			if (!request.getOptions().hasObserve()) {
+				// release the exchange when the request is canceled, e.g.,
+				// through a CoapFuture; observe requests keep it to reject
+				// further notifications
+				request.addMessageObserver(new MessageObserverAdapter() {
+					@Override public void onCancel() {
+						if (!exchange.isComplete())
+							exchange.setComplete();
+					}
+				});
+			}
 			sendRequest(exchange, request); // layer method
 		}
 		
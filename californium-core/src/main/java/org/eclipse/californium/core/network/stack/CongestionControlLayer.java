@@ -17,8 +17,13 @@
  
 package org.eclipse.californium.core.network.stack;
 
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.californium.core.coap.CoAP.Type;
 import org.eclipse.californium.core.coap.EmptyMessage;
@@ -41,6 +46,9 @@ import org.eclipse.californium.core.network.stack.congestioncontrol.*;
  * COCOASTRONG = CoCoA but only with the strong estimator
  * PEAKHOPPERRTO  = The Peakhopper RTO calculation mechanism (PH-RTO)
  * 
+ * Confirmables beyond NSTART and all non-confirmables are held in bounded, concurrent queues of the remote endpoint.
+ * The NON queues of all peers are drained by a single pacing loop that sends at most one NON per peer and RTO.
+ * 
  * @author augustbetzler
  *
  */
@@ -62,11 +70,21 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 	private final static int EXCHANGELIMIT = 50;    // An upper limit for the queue size of confirmables and non-confirmables (separate queues)
 	
 	private final static int MAX_RTO = 60000;
+	
+	private final static long PACING_INTERVAL = 10; // Maximum time in ms until the pacing loop checks for newly queued NONs
 	 
 	private boolean appliesDithering; // In CoAP, dithering is applied to the initial RTO of a transmission; set to true to apply dithering
 	
 	private RemoteEndpointManager remoteEndpointmanager;
 	
+	/* The endpoints with queued non-confirmables served by the pacing loop */
+	private final Queue<RemoteEndpoint> pacedEndpoints = new ConcurrentLinkedQueue<RemoteEndpoint>();
+	private final AtomicBoolean pacing = new AtomicBoolean();
+	private final PacingTask pacingTask = new PacingTask();
+	
+	private final AtomicLong droppedConfirmables = new AtomicLong();
+	private final AtomicLong droppedNonConfirmables = new AtomicLong();
+	
 	/**
 	 * Constructs a new congestion control layer.
 	 * @param config the configuration
@@ -90,6 +108,30 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 		this.appliesDithering = mode;
 	}
 	
+	/**
+	 * Returns the number of confirmables dropped because the NSTART queue of their peer was full.
+	 * @return the count
+	 */
+	public long getDroppedConfirmableCount(){
+		return droppedConfirmables.get();
+	}
+	
+	/**
+	 * Returns the number of non-confirmables dropped because the pacing queue of their peer was full.
+	 * @return the count
+	 */
+	public long getDroppedNonConfirmableCount(){
+		return droppedNonConfirmables.get();
+	}
+	
+	/**
+	 * Returns the number of peers with non-confirmables waiting for the pacing loop.
+	 * @return the count
+	 */
+	public int getPacedEndpointCount(){
+		return pacedEndpoints.size();
+	}
+	
 	/*
 	 * Calculate how long the maximum transmission duration will be when no ACK is received
 	 */
@@ -118,42 +160,32 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 			messageType = exchange.getCurrentResponse().getType();
 		}
 
+		RemoteEndpoint endpoint = getRemoteEndpoint(exchange);
+
 		// Put into queues for NON or CON messages
 		if (messageType == Type.CON) {
-			if (!checkNSTART(exchange)) { // Check if NSTART is not reached yet
+			if (!checkNSTART(exchange, endpoint)) { // Check if NSTART is not reached yet
 											// for confirmable transmissions
 				return false;
 			}
-		} else if (getRemoteEndpoint(exchange).getNonConfirmableCounter() > MAX_SUCCESSIVE_NONS) {
+		} else if (endpoint.getNonConfirmableCounter() > MAX_SUCCESSIVE_NONS) {
 			// Every MAX_SUCCESSIVE_NONS + 1 packets, a non-confirmable needs to
 			// be converted to a confirmable [CoCoA]
-			if (exchange.getCurrentRequest().getDestinationPort() != 0) {
-				exchange.getCurrentRequest().setType(Type.CON);
-			} else if (exchange.getCurrentResponse() != null) {
-				exchange.getCurrentResponse().setType(Type.CON);
-			}
-			getRemoteEndpoint(exchange).resetNonConfirmableCounter();
+			convertToConfirmable(exchange, endpoint);
 
 			// Check if NSTART is not reached yet for confirmable transmissions
-			if (!checkNSTART(exchange)) {
+			if (!checkNSTART(exchange, endpoint)) {
 				return false;
 			}
 		} else {
 			// Check of if there's space to queue a NON
-			if (getRemoteEndpoint(exchange).getNonConfirmableQueue().size() == EXCHANGELIMIT) {
-				// System.out.println("Non-confirmable exchange queue limit reached!");
-				// TODO: Drop packet -> Notify upper layers?
-			} else {
-				getRemoteEndpoint(exchange).getNonConfirmableQueue().add(
-						exchange);
-
-				// Check if NONs are already processed, if not, start bucket
-				// Thread
-				if (!getRemoteEndpoint(exchange).getProcessingNON()) {
-					executor.schedule(new bucketThread(
-							getRemoteEndpoint(exchange)), 0,
-							TimeUnit.MILLISECONDS);
-				}
+			if (!endpoint.offerNonConfirmableExchange(exchange, EXCHANGELIMIT)) {
+				droppedNonConfirmables.incrementAndGet();
+				LOGGER.fine("Non-confirmable queue limit reached, dropping message to " + endpoint.getRemoteAddress());
+			} else if (endpoint.startProcessingNON()) {
+				// Hand the endpoint to the pacing loop
+				pacedEndpoints.offer(endpoint);
+				startPacing();
 			}
 			return false;
 		}
@@ -161,46 +193,48 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 
 	}
 	
+	private void convertToConfirmable(Exchange exchange, RemoteEndpoint endpoint) {
+		if (exchange.getCurrentRequest().getDestinationPort() != 0) {
+			exchange.getCurrentRequest().setType(Type.CON);
+		} else if (exchange.getCurrentResponse() != null) {
+			exchange.getCurrentResponse().setType(Type.CON);
+		}
+		endpoint.resetNonConfirmableCounter();
+	}
+	
 	/*
 	 * Check if the limit of exchanges towards the remote endpoint has reached NSTART.
 	 */
-	private boolean checkNSTART(Exchange exchange) {
-		getRemoteEndpoint(exchange).checkForDeletedExchanges();
-		if (getRemoteEndpoint(exchange).getNumberOfOngoingExchanges(exchange) < config
-				.getInt("NSTART")) {
-			// System.out.println("Processing exchange (NSTART OK!)");
-
+	private boolean checkNSTART(Exchange exchange, RemoteEndpoint endpoint) {
+		if (endpoint.tryAcquireExchangeSlot(config.getInt(NetworkConfig.Keys.NSTART))) {
 			// NSTART allows to start the exchange, proceed normally
-			getRemoteEndpoint(exchange).registerExchange(exchange,
-					calculateVBF(getRemoteEndpoint(exchange).getRTO()));
-
-			// The exchange needs to be deleted after at least 255 s TODO:
-			// should this value be calculated dynamically
-			executor.schedule(new SweepCheckTask(getRemoteEndpoint(exchange),
-					exchange), MAX_REMOTE_TRANSACTION_DURATION,
-					TimeUnit.MILLISECONDS);
+			registerExchange(exchange, endpoint);
 			return true;
+		}
+		
+		// NSTART does not allow any further parallel exchanges towards the
+		// remote endpoint, queue exchange in the CON-Queue
+		if (!endpoint.offerConfirmableExchange(exchange, EXCHANGELIMIT)) {
+			// Request cannot be queued TODO: does this trigger some
+			// feedback for other layers?
+			droppedConfirmables.incrementAndGet();
+			LOGGER.fine("Confirmable queue limit reached, dropping message to " + endpoint.getRemoteAddress());
 		} else {
-			// NSTART does not allow any further parallel exchanges towards the
-			// remote endpoint
-			// System.out.println("Nstart does not allow further exchanges with "
-			// + getRemoteEndpoint(exchange).getRemoteAddress().toString());
-
-			// Check if the queue limit for exchanges is already reached
-			if (getRemoteEndpoint(exchange).getConfirmableQueue().size() == EXCHANGELIMIT) {
-				// Request cannot be queued TODO: does this trigger some
-				// feedback for other layers?
-				// System.out.println("Confirmable exchange queue limit reached! Message dropped...");
-
-			} else {
-				// Queue exchange in the CON-Queue
-				getRemoteEndpoint(exchange).getConfirmableQueue().add(exchange);
-				// System.out.println("Added exchange to the queue (NSTART limit reached)");
-			}
+			// An exchange might have completed since the check
+			checkRemoteEndpointQueue(endpoint);
 		}
 		return false;
 	}
 	
+	private void registerExchange(Exchange exchange, RemoteEndpoint endpoint) {
+		endpoint.registerExchange(exchange, calculateVBF(endpoint.getRTO()));
+
+		// The exchange needs to be deleted after at least 255 s TODO:
+		// should this value be calculated dynamically
+		executor.schedule(new SweepCheckTask(endpoint, exchange),
+				MAX_REMOTE_TRANSACTION_DURATION, TimeUnit.MILLISECONDS);
+	}
+	
 	/*
 	 * When a response or an ACK was received, update the RTO values with the measured RTT.
 	 */
@@ -273,20 +307,27 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 	}
 	
 	/*
-	 * Gets a request or response from the dedicated queue and polls it
+	 * Starts queued confirmables as long as NSTART admits them. The slot is
+	 * acquired before polling so that no exchange is left in the queue when
+	 * an exchange completes concurrently.
 	 */
-	private void checkRemoteEndpointQueue(Exchange exchange) {
-		// 0 = empty queue | 1 = response | 2 = request
-		if (!getRemoteEndpoint(exchange).getConfirmableQueue().isEmpty()) {
-			// We have some exchanges that need to be processed; is it a
-			// response or a request?
-			Exchange queuedExchange = getRemoteEndpoint(exchange).getConfirmableQueue().poll();
+	private void checkRemoteEndpointQueue(RemoteEndpoint endpoint) {
+		int nstart = config.getInt(NetworkConfig.Keys.NSTART);
+		while (endpoint.tryAcquireExchangeSlot(nstart)) {
+			Exchange queuedExchange = endpoint.pollConfirmableExchange();
+			if (queuedExchange == null) {
+				endpoint.releaseExchangeSlot();
+				break;
+			}
+			registerExchange(queuedExchange, endpoint);
+			checkAging(queuedExchange);
+			// is it a response or a request?
 			if (queuedExchange.getCurrentResponse() != null) {
 				// it's a response
-				sendResponse(queuedExchange, queuedExchange.getCurrentResponse());
+				super.sendResponse(queuedExchange, queuedExchange.getCurrentResponse());
 			} else if (queuedExchange.getCurrentRequest() != null) {
 				// it's a request
-				sendRequest(queuedExchange, queuedExchange.getCurrentRequest());
+				super.sendRequest(queuedExchange, queuedExchange.getCurrentRequest());
 			}
 		}
 	}
@@ -352,7 +393,7 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 		exchange.setCurrentTimeout(timeout);
 		//expectedmaxduration = calculateMaxTransactionDuration(exchange); //FIXME what was this for?
 		//System.out.println("Sending MSG (timeout;timestamp:" + timeout + ";" + System.currentTimeMillis() + ")");
-		ScheduledFuture<?> f = executor.schedule(task , timeout, TimeUnit.MILLISECONDS);
+		ScheduledFuture<?> f = scheduleRetransmission(task, timeout);
 		exchange.setRetransmissionHandle(f);	
 	}
 	
@@ -365,7 +406,7 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 		super.receiveResponse(exchange, response);
 		
 		calculateRTT(exchange);	
-		checkRemoteEndpointQueue(exchange);	
+		checkRemoteEndpointQueue(getRemoteEndpoint(exchange));	
 	}
 	
 	/**
@@ -380,7 +421,7 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 		super.receiveEmptyMessage(exchange, message);
 		
 		calculateRTT(exchange);
-		checkRemoteEndpointQueue(exchange);
+		checkRemoteEndpointQueue(getRemoteEndpoint(exchange));
 	}	
 	
 	/**
@@ -403,45 +444,74 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 		super.sendResponse(exchange, response);
 	}
 	
+	private void startPacing() {
+		if (pacing.compareAndSet(false, true)) {
+			executor.execute(pacingTask);
+		}
+	}
+	
 	/*
-	 * This Thread is used to apply rate control to non-confirmables by polling them from the queue and
-	 * scheduling the task to run again later.
+	 * This task applies rate control to the non-confirmables of all endpoints. Each run sends at most
+	 * one NON per endpoint whose interval (rate = 1/RTO) has elapsed and then reschedules itself. An
+	 * endpoint leaves the loop once its queue is empty; the loop stops when no endpoints are left.
 	 */
-	private class bucketThread implements Runnable {
-		
-		RemoteEndpoint endpoint;
-
-		public bucketThread(RemoteEndpoint queue) {
-			endpoint = queue;
-		}
+	private class PacingTask implements Runnable {
 		
 		@Override
 		public void run() {
-			if (!endpoint.getNonConfirmableQueue().isEmpty()) {
-				endpoint.setProcessingNON(true);
-
-				Exchange exchange = endpoint.getNonConfirmableQueue().poll();
-
-				if (getRemoteEndpoint(exchange).getNonConfirmableCounter() <= MAX_SUCCESSIVE_NONS) {
-					getRemoteEndpoint(exchange).increaseNonConfirmableCounter();
-					if (exchange.getCurrentRequest().getDestinationPort() != 0) {
-						// it's a response
-						sendBucketRequest(exchange, exchange.getCurrentRequest());
-					} else if (exchange.getCurrentResponse() != null) {
-						// it's a request
-						sendBucketResponse(exchange, exchange.getCurrentResponse());
+			long now = System.currentTimeMillis();
+			long next = now + PACING_INTERVAL;
+			
+			for (Iterator<RemoteEndpoint> it = pacedEndpoints.iterator(); it.hasNext(); ) {
+				RemoteEndpoint endpoint = it.next();
+				if (endpoint.getNextNonConfirmableTime() <= now) {
+					Exchange exchange = endpoint.pollNonConfirmableExchange();
+					if (exchange == null) {
+						it.remove();
+						endpoint.setProcessingNON(false);
+						// re-add the endpoint if a NON was queued meanwhile
+						if (!endpoint.getNonConfirmableQueue().isEmpty() && endpoint.startProcessingNON()) {
+							pacedEndpoints.offer(endpoint);
+						}
+						continue;
 					}
+					sendNonConfirmable(exchange, endpoint);
+					// schedule next transmission of a NON based on the RTO value (rate = 1/RTO)
+					endpoint.setNextNonConfirmableTime(now + endpoint.getRTO());
+				}
+				next = Math.min(next, endpoint.getNextNonConfirmableTime());
+			}
+			
+			if (pacedEndpoints.isEmpty()) {
+				pacing.set(false);
+				// an endpoint might have been added after the check
+				if (!pacedEndpoints.isEmpty()) {
+					startPacing();
 				}
-				// schedule next transmission of a NON based on the RTO value (rate = 1/RTO)
-				executor.schedule(
-						new bucketThread(getRemoteEndpoint(exchange)),
-						getRemoteEndpoint(exchange).getRTO(),
-						TimeUnit.MILLISECONDS);
-
 			} else {
-				endpoint.setProcessingNON(false);
+				executor.schedule(this, Math.max(next - now, 1), TimeUnit.MILLISECONDS);
 			}
-		}		
+		}
+		
+		private void sendNonConfirmable(Exchange exchange, RemoteEndpoint endpoint) {
+			if (endpoint.getNonConfirmableCounter() > MAX_SUCCESSIVE_NONS) {
+				// the NON has been queued behind others and is now due for conversion to a CON [CoCoA]
+				convertToConfirmable(exchange, endpoint);
+				if (!checkNSTART(exchange, endpoint)) {
+					return;
+				}
+				checkAging(exchange);
+			} else {
+				endpoint.increaseNonConfirmableCounter();
+			}
+			if (exchange.getCurrentRequest().getDestinationPort() != 0) {
+				// it's a request
+				sendBucketRequest(exchange, exchange.getCurrentRequest());
+			} else if (exchange.getCurrentResponse() != null) {
+				// it's a response
+				sendBucketResponse(exchange, exchange.getCurrentResponse());
+			}
+		}
 	}
 	
 	/*
@@ -464,7 +534,7 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 			} else {
 				// Entry was removed, check if there are more messages in the
 				// queue
-				checkRemoteEndpointQueue(exchange);
+				checkRemoteEndpointQueue(endpoint);
 			}
 		}
 	}
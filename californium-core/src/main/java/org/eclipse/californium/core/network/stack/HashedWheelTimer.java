@@ -0,0 +1,401 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.stack;
+
+import java.net.InetAddress;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.network.StripedExecutor;
+
+/**
+ * A hashed timing wheel for the many short timers of the reliability layer.
+ * A timer is appended to the bucket of its deadline tick and removed from it
+ * again when it is canceled, both in constant time. This avoids the heap of a
+ * {@link java.util.concurrent.ScheduledThreadPoolExecutor}, where most
+ * retransmission timers are inserted only to be canceled by the ACK soon
+ * after.
+ * <p>
+ * The timers fire with the resolution of one tick. The wheel only ticks while
+ * timers are pending, so that it does not keep a shared executor busy. Expired
+ * tasks are handed over to the executor and do not delay the wheel. If the
+ * executor is a {@link StripedExecutor}, tasks scheduled for a remote endpoint
+ * are handed over to the worker of that endpoint, which processes all other
+ * messages of the peer as well.
+ */
+public class HashedWheelTimer {
+
+	/** The logger. */
+	private final static Logger LOGGER = Logger.getLogger(HashedWheelTimer.class.getCanonicalName());
+
+	/** The executor that drives the wheel and runs the tasks */
+	private final ScheduledExecutorService executor;
+
+	/** The buckets of the wheel */
+	private final Bucket[] buckets;
+
+	/** The mask to map a tick to its bucket */
+	private final int mask;
+
+	/** The duration of a tick in ns */
+	private final long tickNanos;
+
+	/** The time of tick zero */
+	private final long start;
+
+	/** The number of pending timers */
+	private final AtomicInteger pending = new AtomicInteger();
+
+	/** Whether the wheel is ticking */
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	/** The next tick to process, only accessed by the ticking task */
+	private long ticks;
+
+	/** The task that advances the wheel */
+	private final Runnable ticker = new Runnable() {
+		public void run() {
+			tick();
+		}
+	};
+
+	/**
+	 * Instantiates a new timer with 512 buckets.
+	 *
+	 * @param executor the executor that drives the wheel and runs the tasks
+	 * @param tick the duration of a tick in ms
+	 */
+	public HashedWheelTimer(ScheduledExecutorService executor, long tick) {
+		this(executor, tick, 512);
+	}
+
+	/**
+	 * Instantiates a new timer.
+	 *
+	 * @param executor the executor that drives the wheel and runs the tasks
+	 * @param tick the duration of a tick in ms
+	 * @param size the number of buckets, rounded up to a power of two
+	 */
+	public HashedWheelTimer(ScheduledExecutorService executor, long tick, int size) {
+		if (executor == null)
+			throw new NullPointerException();
+		if (tick <= 0)
+			throw new IllegalArgumentException("Tick must be positive: "+tick);
+		if (size <= 0 || size > (1 << 30))
+			throw new IllegalArgumentException("Illegal wheel size: "+size);
+
+		int n = Integer.highestOneBit(size);
+		if (n < size) n <<= 1;
+		this.buckets = new Bucket[n];
+		for (int i = 0; i < n; i++)
+			buckets[i] = new Bucket();
+		this.mask = n - 1;
+		this.executor = executor;
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tick);
+		this.start = System.nanoTime();
+	}
+
+	/**
+	 * Schedules the specified task to be executed after the specified delay.
+	 * The returned future is canceled in constant time.
+	 *
+	 * @param task the task
+	 * @param delay the delay
+	 * @param unit the unit of the delay
+	 * @return the future of the task
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		return schedule(task, delay, unit, -1);
+	}
+
+	/**
+	 * Schedules the specified task for the specified remote endpoint. If the
+	 * executor is a {@link StripedExecutor}, the task is executed by the
+	 * worker of the remote endpoint.
+	 *
+	 * @param task the task
+	 * @param delay the delay
+	 * @param unit the unit of the delay
+	 * @param address the address of the remote endpoint
+	 * @param port the port of the remote endpoint
+	 * @return the future of the task
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit, InetAddress address, int port) {
+		int stripe = executor instanceof StripedExecutor ? ((StripedExecutor) executor).getWorkerIndex(address, port) : -1;
+		return schedule(task, delay, unit, stripe);
+	}
+
+	private ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit, int stripe) {
+		if (task == null)
+			throw new NullPointerException();
+		long deadline = System.nanoTime() + unit.toNanos(Math.max(delay, 0));
+		long tick = (deadline - start + tickNanos - 1) / tickNanos;
+		Timeout timeout = new Timeout(task, deadline, tick, buckets[(int) tick & mask], stripe);
+
+		pending.incrementAndGet();
+		if (!timeout.bucket.add(timeout)) {
+			// the bucket has already passed the deadline
+			pending.decrementAndGet();
+			dispatch(timeout);
+		}
+		if (!running.get() && running.compareAndSet(false, true)) {
+			try {
+				executor.execute(ticker);
+			} catch (RejectedExecutionException e) {
+				running.set(false);
+				throw e;
+			}
+		}
+		return timeout;
+	}
+
+	/**
+	 * Returns the number of pending timers.
+	 *
+	 * @return the number of pending timers
+	 */
+	public int size() {
+		return pending.get();
+	}
+
+	/*
+	 * Processes all ticks that have passed and reschedules itself for the
+	 * next one as long as timers are pending.
+	 */
+	private void tick() {
+		try {
+			long now = (System.nanoTime() - start) / tickNanos;
+			if (pending.get() == 0) {
+				// skip the ticks that passed while idle, but a full round in
+				// case a timer has just been added
+				ticks = Math.max(ticks, now - mask);
+			}
+			for (; ticks <= now; ticks++) {
+				buckets[(int) ticks & mask].expire(ticks);
+			}
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.SEVERE, "Exception in timer wheel", e);
+		}
+
+		if (pending.get() == 0) {
+			running.set(false);
+			// a timer might have been added before the flag was reset
+			if (pending.get() == 0 || !running.compareAndSet(false, true))
+				return;
+		}
+		try {
+			long delay = start + ticks * tickNanos - System.nanoTime();
+			executor.schedule(ticker, Math.max(delay, 0), TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			LOGGER.fine("Executor shut down, timer wheel stopped with "+pending.get()+" pending timers");
+			running.set(false);
+		}
+	}
+
+	private void dispatch(Timeout timeout) {
+		try {
+			if (timeout.stripe >= 0)
+				((StripedExecutor) executor).execute(timeout.stripe, timeout);
+			else
+				executor.execute(timeout);
+		} catch (RejectedExecutionException e) {
+			LOGGER.fine("Executor shut down, skipping timer");
+		}
+	}
+
+	/*
+	 * A bucket holds the timers of all ticks that map to it in a doubly-linked
+	 * list.
+	 */
+	private final class Bucket {
+
+		private Timeout head;
+
+		/** The last tick that was processed for this bucket */
+		private long last = -1;
+
+		private synchronized boolean add(Timeout timeout) {
+			if (timeout.tick <= last)
+				return false;
+			timeout.next = head;
+			if (head != null)
+				head.prev = timeout;
+			head = timeout;
+			timeout.linked = true;
+			return true;
+		}
+
+		private synchronized boolean remove(Timeout timeout) {
+			if (!timeout.linked)
+				return false;
+			if (timeout.prev != null)
+				timeout.prev.next = timeout.next;
+			else
+				head = timeout.next;
+			if (timeout.next != null)
+				timeout.next.prev = timeout.prev;
+			timeout.prev = timeout.next = null;
+			timeout.linked = false;
+			pending.decrementAndGet();
+			return true;
+		}
+
+		private void expire(long tick) {
+			Timeout expired = null;
+			synchronized (this) {
+				last = tick;
+				Timeout timeout = head;
+				while (timeout != null) {
+					Timeout next = timeout.next;
+					if (timeout.tick <= tick) {
+						remove(timeout);
+						timeout.next = expired;
+						expired = timeout;
+					}
+					timeout = next;
+				}
+			}
+			while (expired != null) {
+				Timeout next = expired.next;
+				expired.next = null;
+				dispatch(expired);
+				expired = next;
+			}
+		}
+	}
+
+	/*
+	 * A timer in the wheel and its future.
+	 */
+	private static final class Timeout implements ScheduledFuture<Object>, Runnable {
+
+		private static final int WAITING = 0;
+		private static final int CANCELED = 1;
+		private static final int RUNNING = 2;
+		private static final int DONE = 3;
+
+		private final Runnable task;
+		private final long deadline;
+		private final long tick;
+		private final Bucket bucket;
+		private final int stripe; // the worker of a striped executor or -1
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+
+		/* guarded by the bucket */
+		private Timeout prev;
+		private Timeout next;
+		private boolean linked;
+
+		private Throwable failure;
+
+		private Timeout(Runnable task, long deadline, long tick, Bucket bucket, int stripe) {
+			this.task = task;
+			this.deadline = deadline;
+			this.tick = tick;
+			this.bucket = bucket;
+			this.stripe = stripe;
+		}
+
+		@Override
+		public void run() {
+			if (!state.compareAndSet(WAITING, RUNNING))
+				return;
+			try {
+				task.run();
+			} catch (Throwable t) {
+				failure = t;
+				LOGGER.log(Level.WARNING, "Exception in timer task", t);
+			}
+			synchronized (this) {
+				state.set(DONE);
+				notifyAll();
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (!state.compareAndSet(WAITING, CANCELED))
+				return false;
+			bucket.remove(this);
+			synchronized (this) {
+				notifyAll();
+			}
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state.get() == CANCELED;
+		}
+
+		@Override
+		public boolean isDone() {
+			int s = state.get();
+			return s == CANCELED || s == DONE;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			if (other == this)
+				return 0;
+			long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+			return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+		}
+
+		@Override
+		public synchronized Object get() throws InterruptedException, ExecutionException {
+			while (!isDone())
+				wait();
+			return result();
+		}
+
+		@Override
+		public synchronized Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			long end = System.nanoTime() + unit.toNanos(timeout);
+			while (!isDone()) {
+				long left = end - System.nanoTime();
+				if (left <= 0)
+					throw new TimeoutException();
+				TimeUnit.NANOSECONDS.timedWait(this, left);
+			}
+			return result();
+		}
+
+		private Object result() throws ExecutionException {
+			if (isCancelled())
+				throw new CancellationException();
+			if (failure != null)
+				throw new ExecutionException(failure);
+			return null;
+		}
+	}
+}
@@ -19,6 +19,8 @@
  ******************************************************************************/
 package org.eclipse.californium.core.network.stack;
 
+import java.util.concurrent.TimeUnit;
+
 import org.eclipse.californium.core.coap.EmptyMessage;
 import org.eclipse.californium.core.coap.Message;
 import org.eclipse.californium.core.coap.MessageObserverAdapter;
@@ -34,8 +36,16 @@ import org.eclipse.californium.core.observe.ObserveRelation;
 
 public class ObserveLayer extends AbstractLayer {
 
+	/** The interval between NON notifications to a peer in ns, 0 for no pacing */
+	private final long nonInterval;
+	
+	/** The number of NON notifications a peer may receive at once */
+	private final int nonBurst;
+	
 	public ObserveLayer(NetworkConfig config) {
-		// so far no configuration values for this layer
+		int rate = config.getInt(NetworkConfig.Keys.NOTIFICATION_NON_RATE);
+		this.nonInterval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+		this.nonBurst = Math.max(config.getInt(NetworkConfig.Keys.NOTIFICATION_NON_BURST), 1);
 	}
 	
 	@Override
@@ -69,14 +79,6 @@ public class ObserveLayer extends AbstractLayer {
 			// This is a notification
 			response.setLast(false);
 			
-			/*
-			 * The matcher must be able to find the NON notifications to remove
-			 * them from the exchangesByMID hashmap
-			 */
-			if (response.getType() == Type.NON) {
-				relation.addNotification(response);
-			}
-			
 			/*
 			 * Only one Confirmable message is allowed to be in transit. A CON
 			 * is in transit as long as it has not been acknowledged, rejected,
@@ -102,6 +104,9 @@ public class ObserveLayer extends AbstractLayer {
 					relation.setNextControlNotification(response);
 					// do not send now
 					return;
+				} else if (response.getType() == Type.NON && postponeNotification(exchange, relation, response)) {
+					// do not send now
+					return;
 				} else {
 					relation.setCurrentControlNotification(response);
 					relation.setNextControlNotification(null);
@@ -112,6 +117,32 @@ public class ObserveLayer extends AbstractLayer {
 		super.sendResponse(exchange, response);
 	}
 	
+	/**
+	 * Paces the NON notifications to a peer with a token bucket. If the peer
+	 * has no token left, the notification is postponed until the next one is
+	 * available. Further notifications in the meantime replace the postponed
+	 * one, so that a resource that changes faster than the rate only sends
+	 * its freshest state. Must be called while synchronized on the exchange.
+	 * 
+	 * @return true if the notification has been postponed
+	 */
+	private boolean postponeNotification(Exchange exchange, ObserveRelation relation, Response response) {
+		if (nonInterval == 0)
+			return false;
+		if (relation.getNextControlNotification() != null) {
+			LOGGER.fine("A former notification is still waiting for the rate limit. Replace it by " + response);
+			relation.setNextControlNotification(response);
+			return true;
+		}
+		long delay = relation.getEndpoint().reserveNotification(nonInterval, nonBurst);
+		if (delay == 0)
+			return false;
+		LOGGER.fine("Rate limit for notifications to " + relation.getSource() + " exceeded. Postpone " + response);
+		relation.setNextControlNotification(response);
+		executor.schedule(new PacedNotification(exchange), delay, TimeUnit.NANOSECONDS);
+		return true;
+	}
+	
 	/**
 	 * Returns true if the specified response is still in transit. A response is
 	 * in transit if it has not yet been acknowledged, rejected or its current
@@ -157,6 +188,36 @@ public class ObserveLayer extends AbstractLayer {
 		response.addMessageObserver(new NotificationController(exchange, response));
 	}
 	
+	/**
+	 * Sends the postponed notification when the rate limit allows it, unless
+	 * it has been superseded or a CON is in transit, which then sends it.
+	 */
+	private class PacedNotification implements Runnable {
+		
+		private final Exchange exchange;
+		
+		public PacedNotification(Exchange exchange) {
+			this.exchange = exchange;
+		}
+		
+		@Override
+		public void run() {
+			final Response next;
+			synchronized (exchange) {
+				ObserveRelation relation = exchange.getRelation();
+				next = relation.getNextControlNotification();
+				if (next == null || !relation.isEstablished())
+					return;
+				Response current = relation.getCurrentControlNotification();
+				if (current != null && isInTransit(current))
+					return;
+				relation.setCurrentControlNotification(next);
+				relation.setNextControlNotification(null);
+			}
+			ObserveLayer.super.sendResponse(exchange, next);
+		}
+	}
+	
 	/**
 	 * Sends the next CON as soon as the former CON is no longer in transit.
 	 */
@@ -20,6 +20,7 @@
 package org.eclipse.californium.core.network.stack;
 
 import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
@@ -51,6 +52,12 @@ public class ReliabilityLayer extends AbstractLayer {
 	private float ack_timeout_scale;
 	private int max_retransmit;
 	
+	/** The tick of the timer wheel in ms or 0 to use the executor */
+	private final int timer_tick;
+	
+	/** The timer wheel for retransmissions if enabled */
+	private HashedWheelTimer timer;
+	
 	/**
 	 * Constructs a new reliability layer.
 	 * Changes to the configuration are observed and automatically applied.
@@ -62,8 +69,12 @@ public class ReliabilityLayer extends AbstractLayer {
 		ack_random_factor = config.getFloat(NetworkConfig.Keys.ACK_RANDOM_FACTOR);
 		ack_timeout_scale = config.getFloat(NetworkConfig.Keys.ACK_TIMEOUT_SCALE);
 		max_retransmit = config.getInt(NetworkConfig.Keys.MAX_RETRANSMIT);
+		timer_tick = config.getBoolean(NetworkConfig.Keys.USE_RETRANSMISSION_TIMER_WHEEL)
+				? Math.max(config.getInt(NetworkConfig.Keys.RETRANSMISSION_TIMER_TICK), 1) : 0;
 		
 		LOGGER.config("ReliabilityLayer uses ACK_TIMEOUT: "+ack_timeout+", ACK_RANDOM_FACTOR: "+ack_random_factor+", and ACK_TIMEOUT_SCALE: "+ack_timeout_scale);
+		if (timer_tick > 0)
+			LOGGER.config("ReliabilityLayer uses a timer wheel with RETRANSMISSION_TIMER_TICK: "+timer_tick);
 		
 		config.addConfigObserver(new NetworkConfigObserverAdapter() {
 			@Override
@@ -181,10 +192,40 @@ public class ReliabilityLayer extends AbstractLayer {
 			timeout = (int) (ack_timeout_scale * exchange.getCurrentTimeout());
 		}
 		exchange.setCurrentTimeout(timeout);
-		ScheduledFuture<?> f = executor.schedule(task , timeout, TimeUnit.MILLISECONDS);
+		ScheduledFuture<?> f = scheduleRetransmission(task, timeout);
 		exchange.setRetransmissionHandle(f);
 	}
 	
+	/**
+	 * Schedules the specified retransmission task on the timer wheel if
+	 * enabled or on the executor otherwise. The timer wheel hands the expired
+	 * task over to the worker of the remote endpoint if the executor is a
+	 * {@link org.eclipse.californium.core.network.StripedExecutor}.
+	 * 
+	 * @param task the retransmission task
+	 * @param timeout the timeout in ms
+	 * @return the handle to cancel the retransmission
+	 */
+	protected ScheduledFuture<?> scheduleRetransmission(RetransmissionTask task, int timeout) {
+		if (timer != null)
+			return timer.schedule(task, timeout, TimeUnit.MILLISECONDS, task.message.getDestination(), task.message.getDestinationPort());
+		else
+			return executor.schedule(task, timeout, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Also creates the timer wheel for the new executor if enabled through
+	 * {@link NetworkConfig.Keys#USE_RETRANSMISSION_TIMER_WHEEL}.
+	 */
+	@Override
+	public void setExecutor(ScheduledExecutorService executor) {
+		super.setExecutor(executor);
+		if (timer_tick > 0 && executor != null)
+			timer = new HashedWheelTimer(executor, timer_tick);
+		else
+			timer = null;
+	}
+	
 	/**
 	 * When we receive a duplicate of a request, we stop it here and do not
 	 * forward it to the upper layer. If the server has already sent a response,
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.Utils;
+
+/**
+ * The notification scheduler coalesces the changes of a resource that occur
+ * faster than its minimum notification period (pmin). The first change is
+ * notified at once and all further changes within the period result in a
+ * single notification at its end, which carries the freshest state. If a
+ * maximum notification period (pmax) is set, the observers are also notified
+ * when the resource has not changed for that long.
+ * <p>
+ * The scheduler only decides when to notify; the notification itself is
+ * performed by the specified task, e.g., by reprocessing the requests of all
+ * observe relations of the resource. The timer of the scheduler only hands
+ * postponed and periodic notifications to the specified executor, so that a
+ * slow notifier cannot delay the notifications of other resources.
+ */
+public class NotificationScheduler {
+
+	/** The timer for postponed notifications, shared by all schedulers */
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new Utils.DaemonThreadFactory());
+
+	/** The task that notifies the observers */
+	private final Runnable notifier;
+
+	/** The executor for postponed and periodic notifications */
+	private final Executor executor;
+
+	/** The minimum period between notifications in ns */
+	private final long minPeriod;
+
+	/** The maximum period between notifications in ns, 0 for none */
+	private final long maxPeriod;
+
+	/** The time of the last notification in ns */
+	private long last;
+
+	/** The postponed notification for changes within the minimum period */
+	private ScheduledFuture<?> pending;
+
+	/** The notification after the maximum period */
+	private ScheduledFuture<?> refresh;
+
+	/** The postponed or periodic notification */
+	private final Runnable notification = new Runnable() {
+		public void run() {
+			notifyPostponed();
+		}
+	};
+
+	/** The timer task that hands the notification to the executor */
+	private final Runnable task = new Runnable() {
+		public void run() {
+			try {
+				executor.execute(notification);
+			} catch (RejectedExecutionException e) {
+				// the executor has been shut down, e.g., with its endpoint
+			}
+		}
+	};
+
+	/**
+	 * Constructs a new scheduler.
+	 *
+	 * @param notifier the task that notifies the observers
+	 * @param executor the executor for postponed and periodic notifications
+	 * @param minPeriod the minimum period between notifications in ms
+	 * @param maxPeriod the maximum period between notifications in ms or 0
+	 *            for none
+	 */
+	public NotificationScheduler(Runnable notifier, Executor executor, long minPeriod, long maxPeriod) {
+		if (notifier == null || executor == null)
+			throw new NullPointerException();
+		if (minPeriod < 0 || maxPeriod < 0)
+			throw new IllegalArgumentException("Notification periods must not be negative");
+		if (maxPeriod > 0 && maxPeriod < minPeriod)
+			throw new IllegalArgumentException("Maximum notification period must not be shorter than the minimum period");
+		this.notifier = notifier;
+		this.executor = executor;
+		this.minPeriod = TimeUnit.MILLISECONDS.toNanos(minPeriod);
+		this.maxPeriod = TimeUnit.MILLISECONDS.toNanos(maxPeriod);
+		synchronized (this) {
+			notified(System.nanoTime() - this.minPeriod);
+		}
+	}
+
+	/**
+	 * Reports a change of the resource. The observers are notified by the
+	 * calling thread if the minimum period has passed since the last
+	 * notification. Otherwise, the notification is postponed to the end of
+	 * the period and performed by the executor, unless it has been postponed
+	 * already.
+	 */
+	public void changed() {
+		synchronized (this) {
+			if (pending != null)
+				return; // coalesced into the postponed notification
+			long now = System.nanoTime();
+			long delay = last + minPeriod - now;
+			if (delay > 0) {
+				pending = TIMER.schedule(task, delay, TimeUnit.NANOSECONDS);
+				return;
+			}
+			notified(now);
+		}
+		notifier.run();
+	}
+
+	/**
+	 * Cancels the postponed and periodic notifications. A further change
+	 * starts them again.
+	 */
+	public synchronized void cancel() {
+		if (pending != null)
+			pending.cancel(false);
+		if (refresh != null)
+			refresh.cancel(false);
+		pending = null;
+		refresh = null;
+	}
+
+	private void notifyPostponed() {
+		synchronized (this) {
+			notified(System.nanoTime());
+		}
+		notifier.run();
+	}
+
+	/*
+	 * Must be called while synchronized on this scheduler.
+	 */
+	private void notified(long now) {
+		last = now;
+		if (pending != null) {
+			pending.cancel(false);
+			pending = null;
+		}
+		if (maxPeriod > 0) {
+			if (refresh != null)
+				refresh.cancel(false);
+			refresh = TIMER.schedule(task, maxPeriod, TimeUnit.NANOSECONDS);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.serialization.DataSerializer;
+
+/**
+ * A notification template holds a representation that a resource has
+ * rendered once for all its observe relations with the same variant, i.e.,
+ * the same Accept option and query. The options and the payload are encoded
+ * only once and shared by all notifications that are created from the
+ * template. The stack then only sets the token, MID, and type of each
+ * notification.
+ * 
+ * @see org.eclipse.californium.core.CoapResource#setSharedNotifications(boolean)
+ */
+public class NotificationTemplate {
+
+	/** The serializer, which holds no state */
+	private static final DataSerializer serializer = new DataSerializer();
+	
+	private final ResponseCode code;
+	private final OptionSet options;
+	private final byte[] payload;
+	
+	/** The encoded options and payload, created on first use */
+	private volatile byte[] body;
+	
+	/**
+	 * Creates a template from the specified response, which the resource has
+	 * rendered for one of the relations. The token, MID, and type of the
+	 * response are not part of the template.
+	 * 
+	 * @param response the response
+	 */
+	public NotificationTemplate(Response response) {
+		this.code = response.getCode();
+		this.options = new OptionSet(response.getOptions());
+		this.payload = response.getPayload();
+	}
+	
+	/**
+	 * Returns the variant of the representation that the specified request
+	 * asks for. Relations whose requests have the same variant receive the
+	 * same notifications.
+	 * 
+	 * @param request the request that has established a relation
+	 * @return the variant
+	 */
+	public static String getVariant(Request request) {
+		OptionSet options = request.getOptions();
+		return options.getAccept() + "?" + options.getUriQueryString();
+	}
+	
+	/**
+	 * Creates a new notification with the options and the payload of this
+	 * template. The notification must not be modified except for its token,
+	 * MID, and type.
+	 * 
+	 * @return the notification
+	 */
+	public Response newNotification() {
+		Response notification = new Response(code);
+		notification.setOptions(options);
+		notification.setPayload(payload);
+		notification.setEncodedBody(getBody());
+		return notification;
+	}
+	
+	/**
+	 * Returns the encoded options and payload. Concurrent callers might
+	 * encode them twice, but always obtain the same bytes.
+	 */
+	private byte[] getBody() {
+		byte[] body = this.body;
+		if (body == null) {
+			Response response = new Response(code);
+			response.setOptions(options);
+			response.setPayload(payload);
+			body = serializer.serializeBody(response);
+			this.body = body;
+		}
+		return body;
+	}
+}
@@ -89,6 +89,15 @@ public class ObserveManager {
 		}
 	}
 
+	/**
+	 * Returns the observe relation of the specified endpoint with the
+	 * specified token or null if none exists. The lookup does not depend on
+	 * the number of relations.
+	 * 
+	 * @param source the address of the observing endpoint
+	 * @param token the token of the observe request
+	 * @return the observe relation or null
+	 */
 	public ObserveRelation getRelation(InetSocketAddress source, byte[] token) {
 		ObservingEndpoint remote = getObservingEndpoint(source);
 		if (remote!=null) {
@@ -20,12 +20,15 @@
 package org.eclipse.californium.core.observe;
 
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.KeyToken;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.core.server.resources.Resource;
 
@@ -53,7 +56,7 @@ public class ObserveRelation {
 	private Response recentControlNotification;
 	private Response nextControlNotification;
 	
-	private String key = null;
+	private final Key key;
 
 	/*
 	 * This value is false at first and must be set to true by the resource if
@@ -68,6 +71,9 @@ public class ObserveRelation {
 	/** The notifications that have been sent, so they can be removed from the Matcher */
 	private ConcurrentLinkedQueue<Response> notifications = new ConcurrentLinkedQueue<Response>();
 	
+	/** The number of notifications in the queue */
+	private final AtomicInteger notificationCount = new AtomicInteger();
+	
 	/**
 	 * Constructs a new observe relation.
 	 * 
@@ -87,7 +93,7 @@ public class ObserveRelation {
 		this.exchange = exchange;
 		this.established = false;
 		
-		this.key = getSource().toString() + "#" + exchange.getRequest().getTokenString();
+		this.key = new Key(getSource(), exchange.getRequest().getToken());
 	}
 	
 	/**
@@ -162,6 +168,15 @@ public class ObserveRelation {
 		return endpoint.getAddress();
 	}
 
+	/**
+	 * Gets the observing endpoint.
+	 *
+	 * @return the observing endpoint
+	 */
+	public ObservingEndpoint getEndpoint() {
+		return endpoint;
+	}
+
 	public boolean check() {
 		boolean check = false;
 		check |= this.interestCheckTimer + CHECK_INTERVAL_TIME < System.currentTimeMillis();
@@ -189,15 +204,108 @@ public class ObserveRelation {
 		this.nextControlNotification = nextControlNotification;
 	}
 	
-	public void addNotification(Response notification) {
+	/**
+	 * Remembers a NON notification that has been sent. Since a CON
+	 * notification is mixed in every {@link NetworkConfig.Keys#NOTIFICATION_CHECK_INTERVAL_COUNT}
+	 * notifications, the queue does not hold more than that many. If it is
+	 * full, the eldest notification is removed and returned, so that the
+	 * caller can forget it as well.
+	 * 
+	 * @param notification the notification
+	 * @return the removed eldest notification or null
+	 */
+	public Response addNotification(Response notification) {
 		notifications.add(notification);
+		if (notificationCount.incrementAndGet() > Math.max(CHECK_INTERVAL_COUNT, 1))
+			return pollNotification();
+		return null;
+	}
+	
+	/**
+	 * Removes and returns the eldest notification that has been sent.
+	 * 
+	 * @return the notification or null if there are none
+	 */
+	public Response pollNotification() {
+		Response notification = notifications.poll();
+		if (notification != null)
+			notificationCount.decrementAndGet();
+		return notification;
 	}
 	
 	public Iterator<Response> getNotificationIterator() {
 		return notifications.iterator();
 	}
 	
-	public String getKey() {
+	/**
+	 * Returns the key of this relation, which consists of the address of the
+	 * observing endpoint and the token of the observe request.
+	 *
+	 * @return the key
+	 */
+	public Key getKey() {
 		return this.key;
 	}
+
+	/**
+	 * The key of an observe relation. It compares the raw bytes of the
+	 * address and the token, so that it does not have to build a string for
+	 * each relation.
+	 */
+	public static final class Key {
+
+		private final InetSocketAddress source;
+		private final byte[] address;
+		private final int port;
+		private final byte[] bytes;
+		private final KeyToken token;
+		private final int hash;
+
+		/**
+		 * Instantiates a new key.
+		 *
+		 * @param source the address of the observing endpoint
+		 * @param token the token of the observe request
+		 */
+		public Key(InetSocketAddress source, byte[] token) {
+			if (source == null)
+				throw new NullPointerException();
+			this.source = source;
+			this.address = source.getAddress().getAddress();
+			this.port = source.getPort();
+			this.bytes = token;
+			this.token = new KeyToken(token);
+			this.hash = (port*31 + this.token.hashCode()) * 31 + Arrays.hashCode(address);
+		}
+
+		/**
+		 * Returns the token as key for the relations of an endpoint.
+		 *
+		 * @return the token
+		 */
+		public KeyToken getToken() {
+			return token;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (! (o instanceof Key))
+				return false;
+			Key key = (Key) o;
+			return port == key.port && token.equals(key.token) && Arrays.equals(address, key.address);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder(source.toString()).append('#');
+			for (byte b:bytes)
+				builder.append(String.format("%02x", b&0xff));
+			return builder.toString();
+		}
+	}
 }
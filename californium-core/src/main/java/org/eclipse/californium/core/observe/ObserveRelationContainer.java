@@ -30,31 +30,36 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class ObserveRelationContainer implements Iterable<ObserveRelation> {
 	
-	/** The set of observe relations */
-	private ConcurrentHashMap<String, ObserveRelation> observeRelations;
+	/** The set of observe relations by endpoint address and token */
+	private ConcurrentHashMap<ObserveRelation.Key, ObserveRelation> observeRelations;
 	
 	/**
 	 * Constructs a container for observe relations.
 	 */
 	public ObserveRelationContainer() {
-		this.observeRelations = new ConcurrentHashMap<String, ObserveRelation>();
+		this.observeRelations = new ConcurrentHashMap<ObserveRelation.Key, ObserveRelation>();
 	}
 	
 	/**
-	 * Adds the specified observe relation
+	 * Adds the specified observe relation. A relation with the same key is
+	 * replaced and canceled.
 	 *
 	 * @param relation the observe relation
-	 * @return true, if successful
+	 * @return true, if a relation has been replaced
 	 */
 	public boolean add(ObserveRelation relation) {
 		if (relation == null)
 			throw new NullPointerException();
 		
-		return (observeRelations.put(relation.getKey(), relation) != null);
+		ObserveRelation previous = observeRelations.put(relation.getKey(), relation);
+		if (previous != null && previous != relation)
+			previous.cancel();
+		return previous != null;
 	}
 	
 	/**
-	 * Removes the specified observe relation.
+	 * Removes the specified observe relation. A relation that has already been
+	 * replaced by a new one with the same key is not removed.
 	 *
 	 * @param relation the observe relation
 	 * @return true, if successful
@@ -62,7 +67,7 @@ public class ObserveRelationContainer implements Iterable<ObserveRelation> {
 	public boolean remove(ObserveRelation relation) {
 		if (relation == null)
 			throw new NullPointerException();
-		return observeRelations.remove(relation.getKey())!=null;
+		return observeRelations.remove(relation.getKey(), relation);
 	}
 	
 	/**
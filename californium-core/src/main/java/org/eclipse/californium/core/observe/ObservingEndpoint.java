@@ -20,23 +20,30 @@
 package org.eclipse.californium.core.observe;
 
 import java.net.InetSocketAddress;
-import java.util.Arrays;
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.californium.core.network.Exchange.KeyToken;
 
 /**
  * This class represents an observing endpoint. It holds all observe relations
  * that the endpoint has to this server. If a confirmable notification timeouts
  * for the maximum times allowed the server assumes the client is no longer
  * reachable and cancels all relations that it has established to resources.
+ * <p>
+ * The relations are indexed by the token of the observe request, so that a
+ * relation can be found and added or removed in constant time even if the
+ * endpoint observes many resources.
  */
 public class ObservingEndpoint {
 	
 	/** The endpoint's address */
 	private final InetSocketAddress address;
 
-	/** The list of relations the endpoint has established with this server */
-	private final List<ObserveRelation> relations;
+	/** The relations the endpoint has established with this server by token */
+	private final ConcurrentHashMap<KeyToken, ObserveRelation> relations;
+	
+	/** The theoretical arrival time of the next paced notification in ns */
+	private long notificationTime = System.nanoTime();
 	
 	/**
 	 * Constructs a new ObservingEndpoint.
@@ -44,23 +51,27 @@ public class ObservingEndpoint {
 	 */
 	public ObservingEndpoint(InetSocketAddress address) {
 		this.address = address;
-		this.relations = new CopyOnWriteArrayList<ObserveRelation>();
+		this.relations = new ConcurrentHashMap<KeyToken, ObserveRelation>();
 	}
 	
 	/**
-	 * Adds the specified observe relation.
+	 * Adds the specified observe relation. A relation with the same token
+	 * is replaced and canceled.
 	 * @param relation the relation
 	 */
 	public void addObserveRelation(ObserveRelation relation) {
-		relations.add(relation);
+		ObserveRelation previous = relations.put(relation.getKey().getToken(), relation);
+		if (previous != null && previous != relation)
+			previous.cancel();
 	}
 	
 	/**
-	 * Removes the specified observe relations.
+	 * Removes the specified observe relations. A relation that has already
+	 * been replaced by a new one with the same token is not removed.
 	 * @param relation the relation
 	 */
 	public void removeObserveRelation(ObserveRelation relation) {
-		relations.remove(relation);
+		relations.remove(relation.getKey().getToken(), relation);
 	}
 	
 	/**
@@ -68,10 +79,29 @@ public class ObservingEndpoint {
 	 * resources from this server.
 	 */
 	public void cancelAll() {
-		for (ObserveRelation relation:relations)
+		for (ObserveRelation relation:relations.values())
 			relation.cancel();
 	}
 
+	/**
+	 * Reserves the transmission of a notification to this endpoint from a
+	 * token bucket that allows bursts of the specified size and refills one
+	 * token per interval. Returns the delay after which the notification may
+	 * be sent, which is 0 if a token is available.
+	 * 
+	 * @param interval the interval between notifications in ns
+	 * @param burst the maximum number of notifications sent at once
+	 * @return the delay in ns
+	 */
+	public synchronized long reserveNotification(long interval, int burst) {
+		long now = System.nanoTime();
+		if (notificationTime - now < 0)
+			notificationTime = now;
+		long delay = notificationTime - now - (burst - 1) * interval;
+		notificationTime += interval;
+		return Math.max(delay, 0);
+	}
+
 	/**
 	 * Returns the address of this endpoint-
 	 * @return the address
@@ -80,12 +110,21 @@ public class ObservingEndpoint {
 		return address;
 	}
 
+	/**
+	 * Returns the observe relation with the specified token or null if none
+	 * exists.
+	 * @param token the token of the observe request
+	 * @return the relation or null
+	 */
 	public ObserveRelation getObserveRelation(byte[] token) {
-		for (ObserveRelation relation:relations) {
-			if (Arrays.equals(relation.getExchange().getRequest().getToken(), token)) {
-				return relation;
-			}
-		}
-		return null;
+		return relations.get(new KeyToken(token));
+	}
+
+	/**
+	 * Returns the number of observe relations of this endpoint.
+	 * @return the number of relations
+	 */
+	public int getObserveRelationCount() {
+		return relations.size();
 	}
 }
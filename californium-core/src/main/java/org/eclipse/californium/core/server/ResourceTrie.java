@@ -0,0 +1,365 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.CompactOptionSet;
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
+import org.eclipse.californium.core.observe.ObserveRelation;
+import org.eclipse.californium.core.server.resources.Resource;
+import org.eclipse.californium.core.server.resources.ResourceObserver;
+
+/**
+ * A read-optimized index of a resource tree for resolving request paths. The
+ * trie consists of immutable nodes whose children are sorted by the UTF-8
+ * bytes of their names, so that a path is resolved with a binary search per
+ * segment, either on the decoded Uri-Path strings or directly on the raw
+ * option bytes of a {@link CompactOptionSet}.
+ * <p>
+ * Lookups read the current snapshot of the trie without locking. When a
+ * child is added to or removed from a resource in the tree, the trie creates
+ * a new node for that resource and copies the nodes on the path up to the
+ * root, while all other nodes are shared with the previous snapshot. The new
+ * root is then published for subsequent lookups.
+ * <p>
+ * If a segment has no node, the lookup continues with
+ * {@link Resource#getChild(String)} from the deepest resource found, so that
+ * resources that accept requests to subresources, e.g., for wildcards, keep
+ * working.
+ */
+public class ResourceTrie {
+
+	/** The root resource */
+	private final Resource root;
+
+	/** The observers of the resources in the tree */
+	private final ConcurrentHashMap<Resource, Tracker> trackers = new ConcurrentHashMap<Resource, Tracker>();
+
+	/** The current snapshot */
+	private volatile Node snapshot;
+
+	/**
+	 * Instantiates a new trie for the tree with the specified root and keeps
+	 * it up to date with changes of the tree.
+	 *
+	 * @param root the root resource
+	 */
+	public ResourceTrie(Resource root) {
+		if (root == null)
+			throw new NullPointerException();
+		this.root = root;
+		track(root);
+		synchronized (this) {
+			snapshot = build(root, null);
+		}
+	}
+
+	/**
+	 * Returns the resource for the specified path.
+	 *
+	 * @param path the path as list of resource names
+	 * @return the resource or null if not found
+	 */
+	public Resource find(List<String> path) {
+		Node node = snapshot;
+		int size = path.size();
+		for (int i = 0; i < size; i++) {
+			Node child = node.getChild(path.get(i));
+			if (child == null)
+				return fallback(node.resource, path, i);
+			node = child;
+		}
+		return node.resource;
+	}
+
+	/**
+	 * Returns the resource for the Uri-Path options of the specified option
+	 * set. The segments are matched on their raw bytes and only decoded if
+	 * the lookup has to fall back to {@link Resource#getChild(String)}.
+	 *
+	 * @param options the options
+	 * @return the resource or null if not found
+	 */
+	public Resource find(CompactOptionSet options) {
+		Node node = snapshot;
+		byte[] buffer = options.getBuffer();
+		int index = options.indexOf(OptionNumberRegistry.URI_PATH);
+		if (index < 0)
+			return node.resource;
+		for (; index < options.size() && options.getNumber(index) == OptionNumberRegistry.URI_PATH; index++) {
+			Node child = node.getChild(buffer, options.getOffset(index), options.getLength(index));
+			if (child == null) {
+				List<String> rest = new ArrayList<String>();
+				for (; index < options.size() && options.getNumber(index) == OptionNumberRegistry.URI_PATH; index++)
+					rest.add(options.getStringValue(index));
+				return fallback(node.resource, rest, 0);
+			}
+			node = child;
+		}
+		return node.resource;
+	}
+
+	private static Resource fallback(Resource current, List<String> path, int start) {
+		int size = path.size();
+		for (int i = start; i < size && current != null; i++)
+			current = current.getChild(path.get(i));
+		return current;
+	}
+
+	/*
+	 * Starts observing the specified resource and its descendants.
+	 */
+	private void track(Resource resource) {
+		Tracker tracker = new Tracker(resource);
+		if (trackers.putIfAbsent(resource, tracker) == null)
+			resource.addObserver(tracker);
+		for (Resource child:resource.getChildren())
+			track(child);
+	}
+
+	/*
+	 * Stops observing the specified resource and its descendants.
+	 */
+	private void untrack(Resource resource) {
+		Tracker tracker = trackers.remove(resource);
+		if (tracker != null)
+			resource.removeObserver(tracker);
+		for (Resource child:resource.getChildren())
+			untrack(child);
+	}
+
+	/*
+	 * Replaces the node of the specified resource with a new one that reflects
+	 * its current children and publishes the new snapshot. Resources that are
+	 * not (or no longer) part of the tree are ignored.
+	 */
+	private synchronized void update(Resource resource) {
+		List<Resource> chain = new ArrayList<Resource>();
+		for (Resource current = resource; current != root; current = current.getParent()) {
+			if (current == null)
+				return;
+			chain.add(current);
+		}
+		chain.add(root);
+		Collections.reverse(chain);
+
+		// find the old nodes from the root down to the resource
+		Node[] nodes = new Node[chain.size()];
+		nodes[0] = snapshot;
+		for (int i = 1; i < nodes.length; i++) {
+			nodes[i] = nodes[i - 1] == null ? null : nodes[i - 1].getChild(chain.get(i));
+			if (nodes[i] == null)
+				break;
+		}
+
+		// copy the path up to the root
+		Node node = build(resource, nodes[nodes.length - 1]);
+		for (int i = nodes.length - 2; i >= 0; i--)
+			node = build(chain.get(i), nodes[i], node);
+		snapshot = node;
+	}
+
+	/*
+	 * Creates the node for the specified resource and reuses the nodes of
+	 * unchanged children from the old node if given.
+	 */
+	private static Node build(Resource resource, Node old) {
+		List<Resource> children = new ArrayList<Resource>(resource.getChildren());
+		byte[][] keys = new byte[children.size()][];
+		Node[] nodes = new Node[children.size()];
+		int count = 0;
+		for (Resource child:children) {
+			String name = child.getName();
+			if (name == null)
+				continue;
+			Node node = old == null ? null : old.getChild(child);
+			keys[count] = name.getBytes(CoAP.UTF8_CHARSET);
+			nodes[count] = node != null ? node : build(child, null);
+			count++;
+		}
+		return new Node(resource, keys, nodes, count);
+	}
+
+	/*
+	 * Creates a copy of the old node of the specified resource in which the
+	 * node of one child is replaced.
+	 */
+	private static Node build(Resource resource, Node old, Node replacement) {
+		if (old == null)
+			return build(resource, null);
+		Node[] nodes = old.children.clone();
+		for (int i = 0; i < nodes.length; i++) {
+			if (nodes[i].resource == replacement.resource) {
+				nodes[i] = replacement;
+				return new Node(resource, old.keys, nodes);
+			}
+		}
+		// the child is not in the old node yet
+		return build(resource, old);
+	}
+
+	/*
+	 * An immutable node of the trie.
+	 */
+	private static final class Node {
+
+		private final Resource resource;
+		private final byte[][] keys;
+		private final Node[] children;
+
+		private Node(Resource resource, byte[][] keys, Node[] children) {
+			this.resource = resource;
+			this.keys = keys;
+			this.children = children;
+		}
+
+		/*
+		 * Sorts the first count keys and their nodes.
+		 */
+		private Node(Resource resource, byte[][] keys, Node[] nodes, int count) {
+			Integer[] order = new Integer[count];
+			for (int i = 0; i < count; i++)
+				order[i] = i;
+			final byte[][] unsorted = keys;
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					byte[] key = unsorted[b];
+					return ResourceTrie.compare(unsorted[a], key, 0, key.length);
+				}
+			});
+			this.resource = resource;
+			this.keys = new byte[count][];
+			this.children = new Node[count];
+			for (int i = 0; i < count; i++) {
+				this.keys[i] = keys[order[i]];
+				this.children[i] = nodes[order[i]];
+			}
+		}
+
+		private Node getChild(byte[] bytes, int offset, int length) {
+			int low = 0;
+			int high = keys.length - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				int cmp = compare(keys[middle], bytes, offset, length);
+				if (cmp < 0)
+					low = middle + 1;
+				else if (cmp > 0)
+					high = middle - 1;
+				else
+					return children[middle];
+			}
+			return null;
+		}
+
+		private Node getChild(String name) {
+			int low = 0;
+			int high = keys.length - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				int cmp = compare(keys[middle], name);
+				if (cmp < 0)
+					low = middle + 1;
+				else if (cmp > 0)
+					high = middle - 1;
+				else
+					return children[middle];
+			}
+			return null;
+		}
+
+		private Node getChild(Resource resource) {
+			for (Node child:children)
+				if (child.resource == resource)
+					return child;
+			return null;
+		}
+	}
+
+	/*
+	 * Compares a key with a slice of a byte array as unsigned bytes.
+	 */
+	private static int compare(byte[] key, byte[] bytes, int offset, int length) {
+		int n = Math.min(key.length, length);
+		for (int i = 0; i < n; i++) {
+			int cmp = (key[i] & 0xFF) - (bytes[offset + i] & 0xFF);
+			if (cmp != 0)
+				return cmp;
+		}
+		return key.length - length;
+	}
+
+	/*
+	 * Compares a key with the UTF-8 encoding of a name. ASCII names are
+	 * compared without encoding them.
+	 */
+	private static int compare(byte[] key, String name) {
+		int length = name.length();
+		int n = Math.min(key.length, length);
+		for (int i = 0; i < n; i++) {
+			char c = name.charAt(i);
+			if (c >= 0x80) {
+				byte[] bytes = name.getBytes(CoAP.UTF8_CHARSET);
+				return compare(key, bytes, 0, bytes.length);
+			}
+			int cmp = (key[i] & 0xFF) - c;
+			if (cmp != 0)
+				return cmp;
+		}
+		for (int i = n; i < length; i++) {
+			if (name.charAt(i) >= 0x80) {
+				byte[] bytes = name.getBytes(CoAP.UTF8_CHARSET);
+				return compare(key, bytes, 0, bytes.length);
+			}
+		}
+		return key.length - length;
+	}
+
+	/*
+	 * Updates the trie when the children of a resource change.
+	 */
+	private final class Tracker implements ResourceObserver {
+
+		private final Resource resource;
+
+		private Tracker(Resource resource) {
+			this.resource = resource;
+		}
+
+		public void addedChild(Resource child) {
+			track(child);
+			update(resource);
+		}
+
+		public void removedChild(Resource child) {
+			untrack(child);
+			update(resource);
+		}
+
+		public void changedName(String old) { }
+		public void changedPath(String old) { }
+		public void addedObserveRelation(ObserveRelation relation) { }
+		public void removedObserveRelation(ObserveRelation relation) { }
+	}
+}
@@ -20,7 +20,6 @@
 package org.eclipse.californium.core.server;
 
 import java.net.InetSocketAddress;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.logging.Logger;
@@ -43,8 +42,8 @@ public class ServerMessageDeliverer implements MessageDeliverer {
 
 	private final static Logger LOGGER = Logger.getLogger(ServerMessageDeliverer.class.getCanonicalName());
 
-	/* The root of all resources */
-	private final Resource root;
+	/* The index of all resources to resolve request paths */
+	private final ResourceTrie resources;
 
 	/* The manager of the observe mechanism for this server */
 	private ObserveManager observeManager = new ObserveManager();
@@ -56,7 +55,7 @@ public class ServerMessageDeliverer implements MessageDeliverer {
 	 * @param root the root resource
 	 */
 	public ServerMessageDeliverer(Resource root) {
-		this.root = root;
+		this.resources = new ResourceTrie(root);
 	}
 
 	/* (non-Javadoc)
@@ -130,18 +129,15 @@ public class ServerMessageDeliverer implements MessageDeliverer {
 	 * Searches in the resource tree for the specified path. A parent resource
 	 * may accept requests to subresources, e.g., to allow addresses with
 	 * wildcards like <code>coap://example.com:5683/devices/*</code>
+	 * <p>
+	 * The path is resolved against a {@link ResourceTrie} of the tree, which
+	 * is kept up to date when resources are added or removed.
 	 * 
 	 * @param list the path as list of resource names
 	 * @return the resource or null if not found
 	 */
 	private Resource findResource(List<String> list) {
-		LinkedList<String> path = new LinkedList<String>(list);
-		Resource current = root;
-		while (!path.isEmpty() && current != null) {
-			String name = path.removeFirst();
-			current = current.getChild(name);
-		}
-		return current;
+		return resources.find(list);
 	}
 
 	/* (non-Javadoc)
@@ -26,6 +26,7 @@ import org.eclipse.californium.core.coap.CoAP.Code;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
 import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.PayloadSource;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.Exchange;
 
@@ -249,6 +250,22 @@ public class CoapExchange {
 		respond(response);
 	}
 	
+	/**
+	 * Respond with the specified response code and the payload read from the
+	 * specified source. Large payloads are sent blockwise, where each block is
+	 * read separately from the source (see {@link Response#setBodySource(PayloadSource)}).
+	 *
+	 * @param code the response code
+	 * @param source the source of the payload
+	 * @param contentFormat the Content-Format of the payload
+	 */
+	public void respond(ResponseCode code, PayloadSource source, int contentFormat) {
+		Response response = new Response(code);
+		response.setBodySource(source);
+		response.getOptions().setContentFormat(contentFormat);
+		respond(response);
+	}
+	
 	/**
 	 * Respond with the specified response code and the specified payload.
 	 * <ul>
@@ -25,6 +25,8 @@ import java.security.Principal;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.californium.core.coap.CoAP;
@@ -95,6 +97,45 @@ public class CoAPEndpointTest {
 		assertThat(receivedRequests.get(0).getSenderIdentity().getName(), is(clientId));
 	}
 
+	@Test
+	public void testBatchedReceiveDeliversAllRequests() throws Exception {
+		final int count = 100;
+		final CountDownLatch latch = new CountDownLatch(count);
+		NetworkConfig config = NetworkConfig.createStandardWithoutFile()
+				.setInt(NetworkConfig.Keys.PROTOCOL_STAGE_BATCH_SIZE, 8)
+				.setInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT, 2);
+		SimpleConnector batchedConnector = new SimpleConnector();
+		CoAPEndpoint batched = new CoAPEndpoint(batchedConnector, config);
+		ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+		batched.setExecutor(executor);
+		batched.setMessageDeliverer(new MessageDeliverer() {
+			
+			@Override
+			public void deliverResponse(Exchange exchange, Response response) {
+			}
+			
+			@Override
+			public void deliverRequest(Exchange exchange) {
+				latch.countDown();
+			}
+		});
+		
+		try {
+			batched.start();
+			for (int mid = 0; mid < count; mid++) {
+				Request request = new Request(Code.POST, Type.NON);
+				request.setMID(mid);
+				request.setToken(new byte[]{(byte) mid});
+				batchedConnector.receiveMessage(new RawData(serializer.serializeRequest(request),
+						new InetSocketAddress(CoAP.DEFAULT_COAP_PORT)));
+			}
+			assertTrue(latch.await(2, TimeUnit.SECONDS));
+		} finally {
+			batched.destroy();
+			executor.shutdown();
+		}
+	}
+
 	private byte[] getSerializedRequest() {
 		Request request = new Request(Code.POST, Type.NON);
 		request.setPayload("Hello World");
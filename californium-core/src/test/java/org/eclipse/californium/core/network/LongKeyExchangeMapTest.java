@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange.KeyMID;
+import org.eclipse.californium.core.network.Exchange.KeyToken;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.junit.Test;
+
+/**
+ * Compares the primitive exchange map with a regular hash map under random
+ * insertions and removals and checks that packed keys do not collide.
+ */
+public class LongKeyExchangeMapTest {
+
+	@Test
+	public void testRandomOperations() {
+		Random random = new Random(4711);
+		LongKeyExchangeMap map = new LongKeyExchangeMap();
+		Map<Long, Exchange> expected = new HashMap<Long, Exchange>();
+		Exchange[] exchanges = new Exchange[16];
+		for (int i = 0; i < exchanges.length; i++)
+			exchanges[i] = new Exchange(new Request(Code.GET), Origin.LOCAL);
+
+		for (int i = 0; i < 200000; i++) {
+			// small key range to provoke collisions and chains
+			long key = random.nextInt(5000);
+			Exchange exchange = exchanges[random.nextInt(exchanges.length)];
+			switch (random.nextInt(4)) {
+			case 0:
+				assertSame(expected.put(key, exchange), map.put(key, 7, exchange));
+				break;
+			case 1:
+				Exchange previous = expected.get(key);
+				if (previous == null)
+					expected.put(key, exchange);
+				assertSame(previous, map.putIfAbsent(key, 7, exchange));
+				break;
+			case 2:
+				assertSame(expected.remove(key), map.remove(key, 7));
+				break;
+			default:
+				assertSame(expected.get(key), map.get(key, 7));
+				assertNull(map.get(key, 8));
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Long, Exchange> entry:expected.entrySet())
+			assertSame(entry.getValue(), map.get(entry.getKey(), 7));
+
+		assertEquals(expected.size(), map.removeOlderThan(Long.MAX_VALUE));
+		assertEquals(0, map.size());
+	}
+
+	@Test
+	public void testReplaceKeepsTimestamp() {
+		LongKeyMap<Object> map = new LongKeyMap<Object>();
+		Exchange exchange = new Exchange(new Request(Code.GET), Origin.REMOTE);
+		byte[] reply = new byte[4];
+		assertNull(map.putIfAbsent(1, 0, exchange, 1000));
+		assertNull(map.putIfAbsent(2, 0, exchange, 3000));
+
+		assertFalse(map.replace(1, 0, new Object(), reply));
+		assertTrue(map.replace(1, 0, exchange, reply));
+		assertSame(reply, map.get(1, 0));
+		assertSame(reply, map.putIfAbsent(1, 0, exchange, 5000));
+
+		assertEquals(1, map.removeOlderThan(2000));
+		assertNull(map.get(1, 0));
+		assertSame(exchange, map.get(2, 0));
+	}
+
+	@Test
+	public void testPackedKeys() throws Exception {
+		InetAddress address = InetAddress.getByName("192.168.1.2");
+		long key = KeyMID.pack(0x1234, address, 5683);
+		assertEquals(0xC0A8010216331234L, key);
+		assertFalse(key == KeyMID.pack(0x1234, address, 5684));
+		assertFalse(key == KeyMID.pack(0x1234, null, 0));
+
+		assertEquals(0x0102L, KeyToken.pack(new byte[] {1, 2}));
+		assertEquals(KeyToken.pack(new byte[] {0, 1, 2}), KeyToken.pack(new byte[] {1, 2}));
+		assertEquals(0xFF00000000000001L, KeyToken.pack(new byte[] {-1, 0, 0, 0, 0, 0, 0, 1}));
+
+		// tokens with leading zeros are told apart by their length
+		LongKeyExchangeMap map = new LongKeyExchangeMap();
+		Exchange exchange = new Exchange(new Request(Code.GET), Origin.LOCAL);
+		map.put(KeyToken.pack(new byte[] {0, 1, 2}), 3, exchange);
+		assertNull(map.get(KeyToken.pack(new byte[] {1, 2}), 2));
+		assertSame(exchange, map.get(KeyToken.pack(new byte[] {0, 1, 2}), 3));
+	}
+}
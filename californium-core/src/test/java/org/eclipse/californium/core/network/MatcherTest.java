@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange.KeyMID;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.deduplication.Deduplicator;
+import org.eclipse.californium.core.network.deduplication.DeduplicatorFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the matcher works with a deduplicator that only implements the
+ * {@link Deduplicator} interface and thus gets no packed keys.
+ */
+public class MatcherTest {
+
+	private DeduplicatorFactory previousFactory;
+	private MapDeduplicator deduplicator;
+	private ScheduledExecutorService executor;
+	private Matcher matcher;
+
+	@Before
+	public void setUp() {
+		deduplicator = new MapDeduplicator();
+		previousFactory = DeduplicatorFactory.getDeduplicatorFactory();
+		DeduplicatorFactory.setDeduplicatorFactory(new DeduplicatorFactory() {
+			@Override
+			public Deduplicator createDeduplicator(NetworkConfig config) {
+				return deduplicator;
+			}
+		});
+		executor = Executors.newSingleThreadScheduledExecutor();
+		matcher = new Matcher(NetworkConfig.createStandardWithoutFile());
+		matcher.setExecutor(executor);
+		matcher.start();
+	}
+
+	@After
+	public void tearDown() {
+		DeduplicatorFactory.setDeduplicatorFactory(previousFactory);
+		matcher.stop();
+		executor.shutdown();
+	}
+
+	@Test
+	public void testAckWithPlainDeduplicator() throws Exception {
+		Request request = new Request(Code.GET);
+		request.setType(Type.CON);
+		request.setToken(new byte[] {1, 2, 3});
+		request.setDestination(InetAddress.getByName("127.0.0.1"));
+		request.setDestinationPort(5683);
+		Exchange exchange = new Exchange(request, Origin.LOCAL);
+		matcher.sendRequest(exchange, request);
+
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.ACK);
+		response.setMID(request.getMID());
+		response.setToken(request.getToken());
+		response.setSource(request.getDestination());
+		response.setSourcePort(5683);
+		assertSame(exchange, matcher.receiveResponse(response));
+		assertFalse(response.isDuplicate());
+
+		// ACKs are in the local namespace
+		assertEquals(1, deduplicator.exchanges.size());
+		assertSame(exchange, deduplicator.find(new KeyMID(request.getMID(), null, 0)));
+
+		Response duplicate = new Response(ResponseCode.CONTENT);
+		duplicate.setType(Type.ACK);
+		duplicate.setMID(response.getMID());
+		duplicate.setToken(response.getToken());
+		duplicate.setSource(response.getSource());
+		duplicate.setSourcePort(5683);
+		assertSame(exchange, matcher.receiveResponse(duplicate));
+		assertTrue(duplicate.isDuplicate());
+	}
+
+	/**
+	 * A deduplicator without packed keys that never forgets an exchange.
+	 */
+	private static class MapDeduplicator implements Deduplicator {
+
+		private final ConcurrentHashMap<KeyMID, Exchange> exchanges = new ConcurrentHashMap<KeyMID, Exchange>();
+
+		public void start() { }
+
+		public void stop() { }
+
+		public void setExecutor(ScheduledExecutorService executor) { }
+
+		public Exchange findPrevious(KeyMID key, Exchange exchange) {
+			return exchanges.putIfAbsent(key, exchange);
+		}
+
+		public Exchange find(KeyMID key) {
+			return exchanges.get(key);
+		}
+
+		public void clear() {
+			exchanges.clear();
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.junit.Test;
+
+/**
+ * Checks that the remote endpoint table distinguishes peers by address and
+ * port and that it evicts idle endpoints, but keeps those still in use.
+ */
+public class RemoteEndpointManagerTest {
+
+	private static final InetAddress ADDRESS;
+
+	static {
+		try {
+			ADDRESS = InetAddress.getByName("127.0.0.1");
+		} catch (UnknownHostException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Test
+	public void testKeyedByAddressAndPort() {
+		RemoteEndpointManager manager = new RemoteEndpointManager(newConfig(0, 0));
+		RemoteEndpoint first = manager.getRemoteEndpoint(ADDRESS, 5683);
+		RemoteEndpoint second = manager.getRemoteEndpoint(ADDRESS, 5684);
+		assertNotSame(first, second);
+		assertSame(first, manager.getRemoteEndpoint(ADDRESS, 5683));
+
+		// server-side exchanges use the source of the request
+		Request request = new Request(Code.GET);
+		request.setSource(ADDRESS);
+		request.setSourcePort(5684);
+		assertSame(second, manager.getRemoteEndpoint(new Exchange(request, Origin.REMOTE)));
+		
+		for (int i = 0; i < 5000; i++)
+			manager.getRemoteEndpoint(ADDRESS, 10000 + i);
+		assertEquals(5002, manager.size());
+	}
+
+	@Test
+	public void testSizeLimit() {
+		RemoteEndpointManager manager = new RemoteEndpointManager(newConfig(10, 0));
+		RemoteEndpoint busy = manager.getRemoteEndpoint(ADDRESS, 1);
+		busy.getConfirmableQueue().add(new Exchange(new Request(Code.GET), Origin.LOCAL));
+		RemoteEndpoint recent = manager.getRemoteEndpoint(ADDRESS, 2);
+		for (int i = 0; i < 100; i++) {
+			manager.getRemoteEndpoint(ADDRESS, 1000 + i);
+			manager.getRemoteEndpoint(ADDRESS, 2);
+		}
+		assertEquals(10, manager.size());
+		assertSame(busy, manager.getRemoteEndpoint(ADDRESS, 1));
+		assertSame(recent, manager.getRemoteEndpoint(ADDRESS, 2));
+	}
+
+	@Test
+	public void testSizeLimitWithBusyEndpoints() {
+		RemoteEndpointManager manager = new RemoteEndpointManager(newConfig(10, 0));
+		RemoteEndpoint[] busy = new RemoteEndpoint[100];
+		for (int i = 0; i < busy.length; i++) {
+			busy[i] = manager.getRemoteEndpoint(ADDRESS, 1000 + i);
+			busy[i].getConfirmableQueue().add(new Exchange(new Request(Code.GET), Origin.LOCAL));
+		}
+		// busy endpoints are kept beyond the limit
+		assertEquals(100, manager.size());
+		assertSame(busy[0], manager.getRemoteEndpoint(ADDRESS, 1000));
+
+		// once idle, they are removed as new endpoints are added
+		for (RemoteEndpoint endpoint:busy)
+			endpoint.getConfirmableQueue().clear();
+		for (int i = 0; i < 20; i++)
+			manager.getRemoteEndpoint(ADDRESS, 2000 + i);
+		assertEquals(10, manager.size());
+	}
+
+	@Test
+	public void testLifetime() {
+		RemoteEndpointManager manager = new RemoteEndpointManager(newConfig(100, 1000));
+		RemoteEndpoint busy = manager.getRemoteEndpoint(ADDRESS, 1, 0);
+		busy.getNonConfirmableQueue().add(new Exchange(new Request(Code.GET), Origin.LOCAL));
+		RemoteEndpoint idle = manager.getRemoteEndpoint(ADDRESS, 2, 0);
+		assertSame(idle, manager.getRemoteEndpoint(ADDRESS, 2, 999));
+		
+		manager.getRemoteEndpoint(ADDRESS, 3, 1998);
+		assertEquals(3, manager.size());
+		manager.getRemoteEndpoint(ADDRESS, 3, 1999);
+		assertEquals(2, manager.size());
+		assertNotSame(idle, manager.getRemoteEndpoint(ADDRESS, 2, 2000));
+		assertSame(busy, manager.getRemoteEndpoint(ADDRESS, 1, 2000));
+	}
+
+	private static NetworkConfig newConfig(int maxEndpoints, int lifetime) {
+		NetworkConfig config = new NetworkConfig();
+		config.setInt(NetworkConfig.Keys.MAX_REMOTE_ENDPOINTS, maxEndpoints);
+		config.setInt(NetworkConfig.Keys.REMOTE_ENDPOINT_LIFETIME, lifetime);
+		return config;
+	}
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the sharded matcher matches responses from many peers and
+ * responses that come from a different address than the request went to.
+ */
+public class ShardedMatcherTest {
+
+	private ScheduledExecutorService executor;
+	private ShardedMatcher matcher;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newSingleThreadScheduledExecutor();
+		matcher = new ShardedMatcher(NetworkConfig.createStandardWithoutFile(), 8);
+		matcher.setExecutor(executor);
+		matcher.start();
+	}
+
+	@After
+	public void tearDown() {
+		matcher.stop();
+		executor.shutdown();
+	}
+
+	@Test
+	public void testMatchesResponsesOfManyPeers() throws Exception {
+		Exchange[] exchanges = new Exchange[100];
+		for (int i = 0; i < exchanges.length; i++) {
+			Request request = newRequest(new byte[] {(byte) i}, address(i));
+			exchanges[i] = new Exchange(request, Origin.LOCAL);
+			matcher.sendRequest(exchanges[i], request);
+		}
+
+		for (int i = 0; i < exchanges.length; i++) {
+			Request request = exchanges[i].getCurrentRequest();
+			Response response = newResponse(request, address(i));
+			assertSame(exchanges[i], matcher.receiveResponse(response));
+			exchanges[i].setComplete();
+			assertFalse(matcher.hasExchange(request.getToken()));
+		}
+	}
+
+	@Test
+	public void testMatchesResponseFromOtherAddress() throws Exception {
+		Request request = newRequest(new byte[] {1, 2, 3}, InetAddress.getByName("224.0.1.187"));
+		request.setType(Type.NON);
+		Exchange exchange = new Exchange(request, Origin.LOCAL);
+		matcher.sendRequest(exchange, request);
+		assertTrue(matcher.hasExchange(request.getToken()));
+
+		for (int i = 0; i < 10; i++) {
+			Response response = newResponse(request, address(i));
+			response.setType(Type.NON);
+			response.setMID(i);
+			Exchange matched = matcher.receiveResponse(response);
+			assertNotNull(matched);
+			assertSame(exchange, matched);
+		}
+	}
+
+	private static InetAddress address(int i) throws Exception {
+		return InetAddress.getByAddress(new byte[] {10, 0, (byte) (i >> 8), (byte) i});
+	}
+
+	private static Request newRequest(byte[] token, InetAddress destination) {
+		Request request = new Request(Code.GET);
+		request.setType(Type.CON);
+		request.setToken(token);
+		request.setDestination(destination);
+		request.setDestinationPort(5683);
+		return request;
+	}
+
+	private static Response newResponse(Request request, InetAddress source) {
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.ACK);
+		response.setMID(request.getMID());
+		response.setToken(request.getToken());
+		response.setSource(source);
+		response.setSourcePort(5683);
+		return response;
+	}
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks that the striped executor processes the tasks of a peer in order on
+ * the same thread and keeps timers on that thread.
+ */
+public class StripedExecutorTest {
+
+	private final StripedExecutor executor = new StripedExecutor(4);
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testSamePeerSameThreadInOrder() throws Exception {
+		final int peers = 16;
+		final int tasks = 1000;
+		final List<List<Integer>> orders = new ArrayList<List<Integer>>();
+		final Thread[] threads = new Thread[peers];
+		final boolean[] affine = new boolean[] {true};
+		final CountDownLatch done = new CountDownLatch(peers * tasks);
+		for (int p = 0; p < peers; p++)
+			orders.add(Collections.synchronizedList(new ArrayList<Integer>()));
+
+		for (int i = 0; i < tasks; i++) {
+			for (int p = 0; p < peers; p++) {
+				final int peer = p;
+				final int number = i;
+				executor.execute(address(p), 5683, new Runnable() {
+					public void run() {
+						synchronized (threads) {
+							if (threads[peer] == null)
+								threads[peer] = Thread.currentThread();
+							else if (threads[peer] != Thread.currentThread())
+								affine[0] = false;
+						}
+						orders.get(peer).add(number);
+						done.countDown();
+					}
+				});
+			}
+		}
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertTrue("Tasks of a peer ran on different threads", affine[0]);
+		for (List<Integer> order:orders) {
+			assertEquals(tasks, order.size());
+			for (int i = 0; i < tasks; i++)
+				assertEquals(i, (int) order.get(i));
+		}
+	}
+
+	@Test
+	public void testTimerOnSameThread() throws Exception {
+		final Thread[] threads = new Thread[2];
+		final CountDownLatch done = new CountDownLatch(1);
+		executor.execute(address(1), 5683, new Runnable() {
+			public void run() {
+				threads[0] = Thread.currentThread();
+				executor.schedule(new Runnable() {
+					public void run() {
+						threads[1] = Thread.currentThread();
+						done.countDown();
+					}
+				}, 10, TimeUnit.MILLISECONDS);
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertSame(threads[0], threads[1]);
+	}
+
+	private static InetAddress address(int i) throws Exception {
+		return InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) i});
+	}
+}
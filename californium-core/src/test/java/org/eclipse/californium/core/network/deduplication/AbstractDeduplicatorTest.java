@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.deduplication;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.KeyMID;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.junit.Test;
+
+/**
+ * Checks that a deduplicator that only implements the {@link KeyMID} lookups
+ * finds the same exchanges with packed keys.
+ */
+public class AbstractDeduplicatorTest {
+
+	@Test
+	public void testUnpacksKeys() throws Exception {
+		final Map<KeyMID, Exchange> exchanges = new HashMap<KeyMID, Exchange>();
+		AbstractDeduplicator deduplicator = new AbstractDeduplicator() {
+			public void start() { }
+			public void stop() { }
+			public void setExecutor(ScheduledExecutorService executor) { }
+			public Exchange findPrevious(KeyMID key, Exchange exchange) {
+				Exchange previous = exchanges.get(key);
+				if (previous == null)
+					exchanges.put(key, exchange);
+				return previous;
+			}
+			public Exchange find(KeyMID key) {
+				return exchanges.get(key);
+			}
+			public void clear() {
+				exchanges.clear();
+			}
+		};
+
+		InetAddress address = InetAddress.getByName("192.168.0.254");
+		Exchange exchange = new Exchange(new Request(Code.GET), Origin.REMOTE);
+
+		assertNull(deduplicator.findPrevious(KeyMID.pack(65535, address, 61616), exchange));
+		assertSame(exchange, deduplicator.find(new KeyMID(65535, address.getAddress(), 61616)));
+		assertSame(exchange, deduplicator.find(KeyMID.pack(65535, address, 61616)));
+
+		assertNull(deduplicator.findPrevious(KeyMID.pack(7, null, 0), exchange));
+		assertSame(exchange, deduplicator.find(new KeyMID(7, null, 0)));
+	}
+}
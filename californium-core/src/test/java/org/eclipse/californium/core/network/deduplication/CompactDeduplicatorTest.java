@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.deduplication;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.EmptyMessage;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.KeyMID;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.eclipse.californium.core.network.Matcher;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.junit.Test;
+
+/**
+ * Checks that the compact deduplicator answers duplicates of completed
+ * exchanges with the cached reply and that the matcher does not keep the
+ * exchange of a resent reply.
+ */
+public class CompactDeduplicatorTest {
+
+	private final CompactDeduplicator deduplicator = new CompactDeduplicator(NetworkConfig.createStandardWithoutFile());
+
+	@Test
+	public void testResendsCachedResponse() throws Exception {
+		InetAddress source = InetAddress.getByName("10.0.0.1");
+		long key = KeyMID.pack(7, source, 5683);
+		Exchange exchange = new Exchange(newRequest(source), Origin.REMOTE);
+		assertNull(deduplicator.findPrevious(key, exchange));
+
+		// duplicates of active exchanges get the exchange itself
+		Exchange duplicate = new Exchange(newRequest(source), Origin.REMOTE);
+		assertSame(exchange, deduplicator.findPrevious(key, duplicate));
+
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.ACK);
+		response.setMID(7);
+		response.setToken(new byte[] {1, 2, 3});
+		response.setPayload("cached");
+		response.setDestination(source);
+		response.setDestinationPort(5683);
+		exchange.setCurrentResponse(response);
+		deduplicator.complete(exchange);
+		assertEquals(1, deduplicator.size());
+		assertNull(deduplicator.find(key));
+
+		duplicate = new Exchange(newRequest(source), Origin.REMOTE);
+		assertSame(duplicate, deduplicator.findPrevious(key, duplicate));
+		Response resent = duplicate.getCurrentResponse();
+		assertArrayEquals(response.getBytes(), resent.getBytes());
+		assertEquals(7, resent.getMID());
+		assertEquals(Type.ACK, resent.getType());
+		assertEquals(ResponseCode.CONTENT, resent.getCode());
+		assertArrayEquals(new byte[] {1, 2, 3}, resent.getToken());
+		assertTrue(resent.isDuplicate());
+		assertEquals(source, resent.getDestination());
+		assertEquals(5683, resent.getDestinationPort());
+	}
+
+	@Test
+	public void testResendsSeparateResponseWithoutAwaitingAck() throws Exception {
+		NetworkConfig config = NetworkConfig.createStandardWithoutFile()
+				.setString(NetworkConfig.Keys.DEDUPLICATOR, NetworkConfig.Keys.DEDUPLICATOR_COMPACT);
+		Matcher matcher = new Matcher(config);
+		InetAddress source = InetAddress.getByName("10.0.0.1");
+		Exchange exchange = matcher.receiveRequest(newRequest(source));
+
+		// the server accepts the request and later sends a CON response
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.CON);
+		response.setMID(100);
+		response.setToken(new byte[] {1, 2, 3});
+		response.setDestination(source);
+		response.setDestinationPort(5683);
+		exchange.setResponse(response);
+		exchange.setCurrentResponse(response);
+		matcher.sendResponse(exchange, response);
+		assertSame(exchange, matcher.receiveEmptyMessage(newAck(source, 100)));
+		exchange.setComplete();
+
+		// the duplicate gets the cached response, which is sent only once
+		Request request = newRequest(source);
+		Exchange duplicate = matcher.receiveRequest(request);
+		assertTrue(request.isDuplicate());
+		Response resent = duplicate.getCurrentResponse();
+		assertEquals(Type.CON, resent.getType());
+		assertEquals(100, resent.getMID());
+		assertArrayEquals(response.getBytes(), resent.getBytes());
+		matcher.sendResponse(duplicate, resent);
+		assertTrue(duplicate.isComplete());
+		assertNull(matcher.receiveEmptyMessage(newAck(source, 100)));
+	}
+
+	@Test
+	public void testRejectsAgain() throws Exception {
+		InetAddress source = InetAddress.getByName("fe80::1");
+		KeyMID key = new KeyMID(7, source.getAddress(), 5683);
+		Exchange exchange = new Exchange(newRequest(source), Origin.REMOTE);
+		assertNull(deduplicator.findPrevious(key, exchange));
+		exchange.getCurrentRequest().setRejected(true);
+		deduplicator.complete(exchange);
+
+		Exchange duplicate = new Exchange(newRequest(source), Origin.REMOTE);
+		assertSame(duplicate, deduplicator.findPrevious(key, duplicate));
+		assertTrue(duplicate.getCurrentRequest().isRejected());
+		assertNull(duplicate.getCurrentResponse());
+	}
+
+	private static EmptyMessage newAck(InetAddress source, int mid) {
+		EmptyMessage ack = new EmptyMessage(Type.ACK);
+		ack.setMID(mid);
+		ack.setSource(source);
+		ack.setSourcePort(5683);
+		return ack;
+	}
+
+	private static Request newRequest(InetAddress source) {
+		Request request = new Request(Code.GET);
+		request.setType(Type.CON);
+		request.setMID(7);
+		request.setToken(new byte[] {1, 2, 3});
+		request.setSource(source);
+		request.setSourcePort(5683);
+		return request;
+	}
+}
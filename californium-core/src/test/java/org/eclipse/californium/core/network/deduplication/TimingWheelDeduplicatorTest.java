@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.deduplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.KeyMID;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.junit.Test;
+
+/**
+ * Checks that the timing wheel deduplicator keeps messages for the exchange
+ * lifetime and removes them afterwards.
+ */
+public class TimingWheelDeduplicatorTest {
+
+	@Test
+	public void testExpiresAfterLifetime() throws Exception {
+		NetworkConfig config = NetworkConfig.createStandardWithoutFile()
+				.setString(NetworkConfig.Keys.DEDUPLICATOR, NetworkConfig.Keys.DEDUPLICATOR_TIMING_WHEEL)
+				.setLong(NetworkConfig.Keys.EXCHANGE_LIFETIME, 3000)
+				.setLong(NetworkConfig.Keys.TIMING_WHEEL_TICK, 1000);
+		Deduplicator created = DeduplicatorFactory.getDeduplicatorFactory().createDeduplicator(config);
+		assertTrue(created instanceof TimingWheelDeduplicator);
+		TimingWheelDeduplicator deduplicator = (TimingWheelDeduplicator) created;
+
+		InetAddress ipv4 = InetAddress.getByName("10.0.0.1");
+		byte[] ipv6 = InetAddress.getByName("fe80::1").getAddress();
+		Exchange first = new Exchange(new Request(Code.GET), Origin.REMOTE);
+		Exchange second = new Exchange(new Request(Code.GET), Origin.REMOTE);
+
+		assertNull(deduplicator.findPrevious(KeyMID.pack(1, ipv4, 5683), first));
+		assertNull(deduplicator.findPrevious(new KeyMID(1, ipv6, 5683), first));
+		assertSame(first, deduplicator.findPrevious(KeyMID.pack(1, ipv4, 5683), second));
+		assertSame(first, deduplicator.findPrevious(new KeyMID(1, ipv6, 5683), second));
+		deduplicator.advance();
+		assertNull(deduplicator.findPrevious(KeyMID.pack(2, ipv4, 5683), second));
+		assertEquals(3, deduplicator.size());
+
+		// three ticks cover the lifetime, the fourth expires the first slot
+		deduplicator.advance();
+		deduplicator.advance();
+		assertSame(first, deduplicator.find(KeyMID.pack(1, ipv4, 5683)));
+		deduplicator.advance();
+		assertNull(deduplicator.find(KeyMID.pack(1, ipv4, 5683)));
+		assertNull(deduplicator.find(new KeyMID(1, ipv6, 5683)));
+		assertSame(second, deduplicator.find(KeyMID.pack(2, ipv4, 5683)));
+		deduplicator.advance();
+		assertEquals(0, deduplicator.size());
+	}
+}
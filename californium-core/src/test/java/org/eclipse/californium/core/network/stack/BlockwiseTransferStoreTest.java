@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.stack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.logging.Level;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks that the blockwise transfer store limits the transfers, accounts
+ * for released bytes, and expires idle ones.
+ */
+public class BlockwiseTransferStoreTest {
+
+	private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testLimits() {
+		BlockwiseTransferStore store = new BlockwiseTransferStore(0, 2, 100, Level.FINEST);
+		Exchange first = newExchange();
+		Exchange second = newExchange();
+		assertTrue(store.start(first, 0, true));
+		assertTrue(store.start(second, 0, true));
+		assertFalse(store.start(newExchange(), 0, true));
+		assertEquals(1, store.getRejectedCount());
+
+		store.complete(second);
+		store.touch(first, 60);
+		assertTrue(store.start(second, 0, true));
+		store.touch(second, 40);
+		assertEquals(100, store.getBufferedBytes());
+		store.complete(first);
+		store.touch(second, 60);
+		assertEquals(1, store.getTransferCount());
+		assertTrue("Buffer limit must apply", store.isFull());
+		assertFalse(store.start(newExchange(), 0, true));
+		// transfers that do not buffer client data are not rejected
+		assertTrue(store.start(newExchange(), 0, false));
+
+		store.complete(second);
+		assertEquals(0, store.getBufferedBytes());
+		assertEquals(4, store.getStartedCount());
+		assertEquals(2, store.getRejectedCount());
+	}
+
+	@Test
+	public void testRelease() {
+		BlockwiseTransferStore store = new BlockwiseTransferStore(0, 0, 100, Level.FINEST);
+		Exchange exchange = newExchange();
+		assertTrue(store.start(exchange, 0, true));
+		store.touch(exchange, 100);
+		assertTrue(store.isFull());
+		// a restarted transfer releases its buffer
+		store.touch(exchange, -100);
+		assertEquals(0, store.getBufferedBytes());
+		store.touch(exchange, 30);
+		store.touch(exchange, -50);
+		assertEquals("Must not release more than buffered", 0, store.getBufferedBytes());
+		store.touch(exchange, 20);
+		store.complete(exchange);
+		assertEquals(0, store.getBufferedBytes());
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		BlockwiseTransferStore store = new BlockwiseTransferStore(100, 0, 0, Level.FINEST);
+		store.setExecutor(executor);
+		Exchange exchange = newExchange();
+		exchange.setRequestBlockStatus(new BlockwiseStatus(0));
+		store.start(exchange, 0, true);
+		store.touch(exchange, 32);
+
+		Thread.sleep(400);
+		assertEquals(0, store.getTransferCount());
+		assertEquals(0, store.getBufferedBytes());
+		assertEquals(1, store.getExpiredCount());
+		assertTrue(exchange.isComplete());
+		assertNull(exchange.getRequestBlockStatus());
+	}
+
+	@Test
+	public void testSingleSweepLoop() throws Exception {
+		BlockwiseTransferStore store = new BlockwiseTransferStore(200, 0, 0, Level.FINEST);
+		store.setExecutor(executor);
+		store.start(newExchange(), 0, true);
+		assertEquals(1, executor.getQueue().size());
+
+		// neither a new executor nor an explicit sweep starts another loop
+		store.setExecutor(executor);
+		store.sweep();
+		assertEquals(1, executor.getQueue().size());
+		// the first sweep has scheduled the next one
+		Thread.sleep(150);
+		assertEquals(1, executor.getQueue().size());
+	}
+
+	private static Exchange newExchange() {
+		Request request = new Request(Code.POST);
+		return new Exchange(request, Origin.REMOTE);
+	}
+}
@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.stack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.EmptyMessage;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.eclipse.californium.core.network.RemoteEndpoint;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.stack.congestioncontrol.Cocoa;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the congestion control layer enforces NSTART and paces
+ * non-confirmables per peer.
+ */
+public class CongestionControlLayerTest {
+
+	private static final InetAddress ADDRESS;
+
+	static {
+		try {
+			ADDRESS = InetAddress.getByName("127.0.0.1");
+		} catch (UnknownHostException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+	private final BlockingQueue<Request> sent = new LinkedBlockingQueue<Request>();
+	private Cocoa layer;
+
+	@Before
+	public void setUp() {
+		setUp(0);
+	}
+
+	private void setUp(int maxEndpoints) {
+		NetworkConfig config = new NetworkConfig();
+		config.setInt(NetworkConfig.Keys.NSTART, 1);
+		config.setInt(NetworkConfig.Keys.ACK_TIMEOUT, 1000);
+		config.setInt(NetworkConfig.Keys.MAX_REMOTE_ENDPOINTS, maxEndpoints);
+		layer = new Cocoa(config);
+		layer.setExecutor(executor);
+		layer.setUpperLayer(new AbstractLayer() { });
+		layer.setLowerLayer(new AbstractLayer() {
+			@Override
+			public void sendRequest(Exchange exchange, Request request) {
+				sent.add(request);
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testNSTART() throws Exception {
+		Exchange[] exchanges = new Exchange[3];
+		for (int i = 0; i < exchanges.length; i++) {
+			exchanges[i] = send(Type.CON, 5683);
+		}
+		Exchange other = send(Type.CON, 5684);
+		
+		assertSame(exchanges[0].getCurrentRequest(), sent.poll());
+		assertSame(other.getCurrentRequest(), sent.poll());
+		assertNull(sent.poll());
+		RemoteEndpoint endpoint = layer.getRemoteEndpoint(exchanges[0]);
+		assertEquals(1, endpoint.getNumberOfOngoingExchanges(exchanges[0]));
+		assertEquals(2, endpoint.getConfirmableQueueSize());
+
+		// the ACK completes the first exchange and admits the next one
+		layer.receiveEmptyMessage(exchanges[0], new EmptyMessage(Type.ACK));
+		assertSame(exchanges[1].getCurrentRequest(), sent.poll());
+		assertNull(sent.poll());
+		assertEquals(1, endpoint.getConfirmableQueueSize());
+		assertEquals(1, endpoint.getNumberOfOngoingExchanges(exchanges[1]));
+		assertEquals(0, endpoint.getExchangeTimestamp(exchanges[0]));
+		assertTrue(endpoint.getExchangeTimestamp(exchanges[1]) > 0);
+
+		// a late sweep of a completed exchange must not release another slot
+		assertFalse(endpoint.removeExchangeInfo(exchanges[0]));
+		assertEquals(1, endpoint.getNumberOfOngoingExchanges(exchanges[1]));
+	}
+
+	@Test
+	public void testQueuedConfirmableOfPeerBeyondLimit() throws Exception {
+		setUp(1);
+		Exchange first = send(Type.CON, 5683);
+		Exchange queued = send(Type.CON, 5683);
+		// the second peer exceeds the limit while the first one is busy
+		Exchange other = send(Type.CON, 5684);
+		assertSame(first.getCurrentRequest(), sent.poll());
+		assertSame(other.getCurrentRequest(), sent.poll());
+		assertNull(sent.poll());
+
+		// the ACK completes the first exchange and admits the queued one
+		layer.receiveEmptyMessage(first, new EmptyMessage(Type.ACK));
+		assertSame(queued.getCurrentRequest(), sent.poll());
+		RemoteEndpoint endpoint = layer.getRemoteEndpoint(queued);
+		assertEquals(1, endpoint.getNumberOfOngoingExchanges(queued));
+		assertEquals(0, endpoint.getConfirmableQueueSize());
+	}
+
+	@Test
+	public void testPacing() throws Exception {
+		// the first NON of a peer is sent right away
+		Exchange first = send(Type.NON, 5683);
+		assertSame(first.getCurrentRequest(), sent.poll(1, TimeUnit.SECONDS));
+
+		// CoCoA converts the next NON into a CON to measure the RTT
+		Exchange converted = send(Type.NON, 5683);
+		assertSame(converted.getCurrentRequest(), sent.poll());
+		assertEquals(Type.CON, converted.getCurrentRequest().getType());
+
+		// further NONs wait for an RTO after the previous one, other peers do not
+		Exchange next = send(Type.NON, 5683);
+		Exchange other = send(Type.NON, 5684);
+		assertSame(other.getCurrentRequest(), sent.poll(1, TimeUnit.SECONDS));
+		assertNull(sent.poll(200, TimeUnit.MILLISECONDS));
+		assertSame(next.getCurrentRequest(), sent.poll(3, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testQueueLimit() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			send(Type.NON, 5683);
+		}
+		// let the pacing loop send the first NON, the next is due after an RTO
+		Thread.sleep(100);
+		RemoteEndpoint endpoint = layer.getRemoteEndpoint(newExchange(Type.NON, 5683));
+		long dropped = layer.getDroppedNonConfirmableCount();
+		// after the first NON, CoCoA might convert the next one into a CON
+		// that is not queued
+		assertTrue(endpoint.getNonConfirmableQueueSize() <= 50);
+		assertEquals(100, dropped + endpoint.getNonConfirmableQueueSize() + sent.size());
+		assertEquals(dropped, endpoint.getDroppedNonConfirmableCount());
+		assertEquals(1, layer.getPacedEndpointCount());
+	}
+
+	private Exchange send(Type type, int port) {
+		Exchange exchange = newExchange(type, port);
+		layer.sendRequest(exchange, exchange.getCurrentRequest());
+		return exchange;
+	}
+
+	private static Exchange newExchange(Type type, int port) {
+		Request request = new Request(Code.GET);
+		request.setType(type);
+		request.setDestination(ADDRESS);
+		request.setDestinationPort(port);
+		return new Exchange(request, Origin.LOCAL);
+	}
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.stack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.core.network.StripedExecutor;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks that the timer wheel fires timers after their delay, also beyond one
+ * round of the wheel, that canceled timers do not fire, and that timers for a
+ * remote endpoint fire on its worker of a striped executor.
+ */
+public class HashedWheelTimerTest {
+
+	private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+
+	private final HashedWheelTimer timer = new HashedWheelTimer(executor, 5, 8);
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testFiresAfterDelay() throws Exception {
+		final CountDownLatch done = new CountDownLatch(3);
+		final long begin = System.nanoTime();
+		final long[] elapsed = new long[3];
+		long[] delays = new long[] {0, 20, 100}; // the last one exceeds a round
+		for (int i = 0; i < delays.length; i++) {
+			final int index = i;
+			timer.schedule(new Runnable() {
+				public void run() {
+					elapsed[index] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+					done.countDown();
+				}
+			}, delays[i], TimeUnit.MILLISECONDS);
+		}
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < delays.length; i++)
+			assertTrue("Timer "+i+" fired early after "+elapsed[i]+" ms", elapsed[i] >= delays[i]);
+		assertEquals(0, timer.size());
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final AtomicInteger fired = new AtomicInteger();
+		Runnable task = new Runnable() {
+			public void run() {
+				fired.incrementAndGet();
+			}
+		};
+		ScheduledFuture<?>[] futures = new ScheduledFuture<?>[1000];
+		for (int i = 0; i < futures.length; i++)
+			futures[i] = timer.schedule(task, 50 + i % 10, TimeUnit.MILLISECONDS);
+		assertEquals(futures.length, timer.size());
+		for (int i = 0; i < futures.length; i += 2)
+			assertTrue(futures[i].cancel(false));
+		assertEquals(futures.length / 2, timer.size());
+
+		futures[1].get(5, TimeUnit.SECONDS);
+		futures[futures.length - 1].get(5, TimeUnit.SECONDS);
+		Thread.sleep(50);
+		assertEquals(futures.length / 2, fired.get());
+		assertTrue(futures[0].isCancelled());
+		assertFalse(futures[1].cancel(false));
+		assertEquals(0, timer.size());
+	}
+
+	@Test
+	public void testFiresOnWorkerOfPeer() throws Exception {
+		StripedExecutor striped = new StripedExecutor(4);
+		try {
+			HashedWheelTimer stripedTimer = new HashedWheelTimer(striped, 5, 8);
+			final InetAddress address = InetAddress.getByName("10.0.0.7");
+			final Thread[] threads = new Thread[2];
+			final CountDownLatch done = new CountDownLatch(2);
+			striped.execute(address, 5683, new Runnable() {
+				public void run() {
+					threads[0] = Thread.currentThread();
+					done.countDown();
+				}
+			});
+			// scheduled from a thread that is not a worker
+			stripedTimer.schedule(new Runnable() {
+				public void run() {
+					threads[1] = Thread.currentThread();
+					done.countDown();
+				}
+			}, 20, TimeUnit.MILLISECONDS, address, 5683);
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+			assertSame(threads[0], threads[1]);
+		} finally {
+			striped.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Checks that the notification scheduler coalesces changes within the minimum
+ * period and notifies after the maximum period, and that postponed
+ * notifications are handed to the executor.
+ */
+public class NotificationSchedulerTest {
+
+	private final AtomicInteger notifications = new AtomicInteger();
+
+	private final Runnable notifier = new Runnable() {
+		public void run() {
+			notifications.incrementAndGet();
+		}
+	};
+
+	private final AtomicInteger handoffs = new AtomicInteger();
+
+	private final Executor executor = new Executor() {
+		public void execute(Runnable command) {
+			handoffs.incrementAndGet();
+			command.run();
+		}
+	};
+
+	@Test
+	public void testCoalesceChanges() throws Exception {
+		NotificationScheduler scheduler = new NotificationScheduler(notifier, executor, 200, 0);
+		for (int i = 0; i < 1000; i++)
+			scheduler.changed();
+		// the first change is notified at once
+		assertEquals(1, notifications.get());
+		assertEquals(0, handoffs.get());
+
+		Thread.sleep(400);
+		assertEquals(2, notifications.get());
+		assertEquals(1, handoffs.get());
+		scheduler.cancel();
+	}
+
+	@Test
+	public void testMaxPeriod() throws Exception {
+		NotificationScheduler scheduler = new NotificationScheduler(notifier, executor, 0, 50);
+		Thread.sleep(300);
+		scheduler.cancel();
+		int count = notifications.get();
+		assertTrue("Too few notifications: "+count, count >= 2);
+
+		Thread.sleep(200);
+		assertEquals(count, notifications.get());
+		// all notifications were periodic ones
+		assertEquals(count, handoffs.get());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIllegalPeriods() {
+		new NotificationScheduler(notifier, executor, 100, 50);
+	}
+}
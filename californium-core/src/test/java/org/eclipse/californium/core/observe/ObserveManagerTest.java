@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.junit.Test;
+
+/**
+ * Checks that observe relations are found by endpoint and token, that a
+ * replaced relation is canceled but does not remove its successor, and that
+ * notifications to an endpoint are paced.
+ */
+public class ObserveManagerTest {
+
+	private final ObserveManager manager = new ObserveManager();
+	private final CoapResource resource = new CoapResource("obs");
+
+	@Test
+	public void testFindByToken() throws Exception {
+		InetSocketAddress source = new InetSocketAddress(InetAddress.getByName("10.0.0.1"), 5683);
+		ObservingEndpoint remote = manager.findObservingEndpoint(source);
+		for (int i = 0; i < 1000; i++) {
+			ObserveRelation relation = newRelation(remote, new byte[] {(byte) (i >> 8), (byte) i});
+			remote.addObserveRelation(relation);
+		}
+		assertEquals(1000, remote.getObserveRelationCount());
+
+		ObserveRelation relation = manager.getRelation(source, new byte[] {2, 7});
+		assertTrue(relation != null);
+		assertEquals(source, relation.getSource());
+		assertNull(manager.getRelation(source, new byte[] {2}));
+		assertNull(manager.getRelation(new InetSocketAddress(source.getAddress(), 5684), new byte[] {2, 7}));
+
+		relation.cancel();
+		assertNull(manager.getRelation(source, new byte[] {2, 7}));
+		assertEquals(999, remote.getObserveRelationCount());
+	}
+
+	@Test
+	public void testReplacedRelation() throws Exception {
+		InetSocketAddress source = new InetSocketAddress(InetAddress.getByName("fe80::1"), 5683);
+		ObservingEndpoint remote = manager.findObservingEndpoint(source);
+		ObserveRelation first = newRelation(remote, new byte[] {1, 2, 3});
+		ObserveRelation second = newRelation(remote, new byte[] {1, 2, 3});
+		assertEquals(first.getKey(), second.getKey());
+
+		ObserveRelationContainer container = new ObserveRelationContainer();
+		remote.addObserveRelation(first);
+		assertFalse(container.add(first));
+		remote.addObserveRelation(second);
+		assertTrue(first.getExchange().isComplete());
+		assertTrue(container.add(second));
+
+		remote.removeObserveRelation(first);
+		assertFalse(container.remove(first));
+		assertSame(second, manager.getRelation(source, new byte[] {1, 2, 3}));
+		assertSame(second, container.iterator().next());
+		assertEquals(1, container.getSize());
+	}
+
+	@Test
+	public void testPaceNotifications() throws Exception {
+		InetSocketAddress source = new InetSocketAddress(InetAddress.getByName("10.0.0.1"), 5683);
+		ObservingEndpoint remote = manager.findObservingEndpoint(source);
+		long interval = TimeUnit.SECONDS.toNanos(10);
+		assertEquals(0, remote.reserveNotification(interval, 3));
+		assertEquals(0, remote.reserveNotification(interval, 3));
+		assertEquals(0, remote.reserveNotification(interval, 3));
+		long delay = remote.reserveNotification(interval, 3);
+		assertTrue(delay > interval / 2 && delay <= interval);
+		delay = remote.reserveNotification(interval, 3);
+		assertTrue(delay > interval * 3 / 2 && delay <= interval * 2);
+	}
+
+	private ObserveRelation newRelation(ObservingEndpoint remote, byte[] token) {
+		Request request = new Request(Code.GET);
+		request.setToken(token);
+		request.setSource(remote.getAddress().getAddress());
+		request.setSourcePort(remote.getAddress().getPort());
+		Exchange exchange = new Exchange(request, Origin.REMOTE);
+		exchange.setRequest(request);
+		return new ObserveRelation(remote, resource, exchange);
+	}
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.server;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.server.resources.Resource;
+import org.junit.Test;
+
+/**
+ * Checks that the resource trie resolves paths like the resource tree and
+ * follows changes of the tree.
+ */
+public class ResourceTrieTest {
+
+	private final CoapResource root = new CoapResource("");
+
+	@Test
+	public void testFind() {
+		CoapResource object = new CoapResource("3");
+		CoapResource instance = new CoapResource("0");
+		CoapResource manufacturer = new CoapResource("1");
+		CoapResource umlaut = new CoapResource("t\u00e4st");
+		root.add(object.add(instance.add(manufacturer)));
+		root.add(umlaut);
+		ResourceTrie trie = new ResourceTrie(root);
+
+		assertSame(root, trie.find(Collections.<String>emptyList()));
+		assertSame(manufacturer, trie.find(Arrays.asList("3", "0", "1")));
+		assertSame(instance, trie.find(Arrays.asList("3", "0")));
+		assertSame(umlaut, trie.find(Arrays.asList("t\u00e4st")));
+		assertNull(trie.find(Arrays.asList("3", "1")));
+		assertNull(trie.find(Arrays.asList("3", "0", "1", "2")));
+
+		OptionSet options = new OptionSet().setUriPath("/3/0/1");
+		assertSame(manufacturer, trie.find(options.toCompact()));
+		options.setUriPath("/t\u00e4st");
+		assertSame(umlaut, trie.find(options.toCompact()));
+		options.setUriPath("/3/4");
+		assertNull(trie.find(options.toCompact()));
+	}
+
+	@Test
+	public void testFollowsChanges() {
+		CoapResource object = new CoapResource("3");
+		root.add(object);
+		ResourceTrie trie = new ResourceTrie(root);
+
+		CoapResource instance = new CoapResource("0");
+		CoapResource other = new CoapResource("5");
+		object.add(instance);
+		object.add(other);
+		instance.add(new CoapResource("1"));
+		assertSame(instance, trie.find(Arrays.asList("3", "0")));
+		assertSame(other, trie.find(Arrays.asList("3", "5")));
+		assertSame(instance.getChild("1"), trie.find(Arrays.asList("3", "0", "1")));
+
+		instance.setName("7");
+		assertNull(trie.find(Arrays.asList("3", "0")));
+		assertSame(instance, trie.find(Arrays.asList("3", "7")));
+
+		instance.delete();
+		assertNull(trie.find(Arrays.asList("3", "7")));
+		assertSame(other, trie.find(Arrays.asList("3", "5")));
+
+		// the removed subtree is not tracked anymore
+		instance.add(new CoapResource("2"));
+		assertNull(trie.find(Arrays.asList("3", "7", "2")));
+
+		// removing a child by name updates the trie as well
+		assertSame(other, object.remove("5"));
+		assertNull(trie.find(Arrays.asList("3", "5")));
+		assertSame(object, trie.find(Arrays.asList("3")));
+	}
+
+	@Test
+	public void testFallsBackToGetChild() {
+		final CoapResource leaf = new CoapResource("any");
+		Resource wildcard = new CoapResource("devices") {
+			@Override
+			public Resource getChild(String name) {
+				return leaf;
+			}
+		};
+		root.add(wildcard);
+		ResourceTrie trie = new ResourceTrie(root);
+
+		assertSame(leaf, trie.find(Arrays.asList("devices", "42")));
+		assertSame(leaf, trie.find(new OptionSet().setUriPath("/devices/42").toCompact()));
+	}
+}
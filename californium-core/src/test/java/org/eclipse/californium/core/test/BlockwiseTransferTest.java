@@ -22,6 +22,8 @@ package org.eclipse.californium.core.test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -30,6 +32,7 @@ import org.eclipse.californium.core.CoapServer;
 import org.eclipse.californium.core.coap.BlockOption;
 import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.coap.EmptyMessage;
+import org.eclipse.californium.core.coap.MappedFileSource;
 import org.eclipse.californium.core.coap.OptionSet;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
@@ -62,8 +65,11 @@ public class BlockwiseTransferTest {
 	private static final String SHORT_GET_RESPONSE = SHORT_POST_RESPONSE.toLowerCase();
 	private static final String LONG_GET_RESPONSE  = LONG_POST_RESPONSE.toLowerCase();
 	
+	private static final int MAX_BODY_SIZE = 200;
+	
 	private boolean request_short = true;
 	private boolean respond_short = true;
+	private boolean respond_stream = false;
 	
 	private CoapServer server;
 	private ServerBlockwiseInterceptor interceptor = new ServerBlockwiseInterceptor();
@@ -108,6 +114,37 @@ public class BlockwiseTransferTest {
 		test_GET_long();
 	}
 	
+	@Test
+	public void test_GET_stream() throws Exception {
+		System.out.println("-- GET stream --");
+		respond_stream = true;
+		respond_short = true;
+		executeGETRequest();
+		respond_short = false;
+		executeGETRequest();
+		// repeat test to check ongoing clean-up
+		executeGETRequest();
+	}
+	
+	@Test
+	public void test_POST_too_large() throws Exception {
+		System.out.println("-- POST too large --");
+		Request request = new Request(CoAP.Code.POST);
+		request.setURI("coap://localhost:" + serverPort + "/toolarge");
+		request.setPayload(LONG_POST_REQUEST + LONG_POST_REQUEST);
+		clientEndpoint.sendRequest(request);
+		
+		Response response = request.waitForResponse(1000);
+		assertNotNull(response);
+		assertEquals(ResponseCode.REQUEST_ENTITY_TOO_LARGE, response.getCode());
+		assertEquals(MAX_BODY_SIZE, (int) response.getOptions().getSize1());
+		
+		// the server still accepts bodies within the limit
+		request_short = false;
+		respond_short = true;
+		executePOSTRequest();
+	}
+	
 	public void test_POST_short_short() throws Exception {
 		System.out.println("-- POST short short --");
 		request_short = true;
@@ -201,6 +238,7 @@ public class BlockwiseTransferTest {
 		NetworkConfig config = new NetworkConfig();
 		config.setInt(NetworkConfig.Keys.PREFERRED_BLOCK_SIZE, 32);
 		config.setInt(NetworkConfig.Keys.MAX_MESSAGE_SIZE, 32);
+		config.setInt(NetworkConfig.Keys.MAX_RESOURCE_BODY_SIZE, MAX_BODY_SIZE);
 		
 		CoAPEndpoint endpoind = new CoAPEndpoint(new InetSocketAddress(7777), config);
 		endpoind.addInterceptor(interceptor);
@@ -230,7 +268,9 @@ public class BlockwiseTransferTest {
 			private void processGET(Exchange exchange) {
 				System.out.println("Server received GET request");
 				Response response = new Response(ResponseCode.CONTENT);
-				if (respond_short)
+				if (respond_stream)
+					response.setBodySource(createSource(respond_short ? SHORT_GET_RESPONSE : LONG_GET_RESPONSE));
+				else if (respond_short)
 					response.setPayload(SHORT_GET_RESPONSE);
 				else response.setPayload(LONG_GET_RESPONSE);
 				exchange.sendResponse(response);
@@ -245,6 +285,22 @@ public class BlockwiseTransferTest {
 		return server;
 	}
 	
+	private static MappedFileSource createSource(String content) {
+		try {
+			File file = File.createTempFile("blockwise", ".txt");
+			file.deleteOnExit();
+			FileOutputStream out = new FileOutputStream(file);
+			try {
+				out.write(content.getBytes(CoAP.UTF8_CHARSET));
+			} finally {
+				out.close();
+			}
+			return new MappedFileSource(file);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
 	public static class ServerBlockwiseInterceptor implements MessageInterceptor {
 
 		private StringBuilder buffer = new StringBuilder();
@@ -19,13 +19,20 @@
  ******************************************************************************/
 package org.eclipse.californium.core.test;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 
 import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapFuture;
 import org.eclipse.californium.core.CoapHandler;
 import org.eclipse.californium.core.CoapObserveRelation;
 import org.eclipse.californium.core.CoapResource;
@@ -44,6 +51,7 @@ import org.junit.Test;
 public class ClientAsynchronousTest {
 
 	public static final String TARGET = "storage";
+	public static final String SLOW = "slow";
 	public static final String CONTENT_1 = "one";
 	public static final String CONTENT_2 = "two";
 	public static final String CONTENT_3 = "three";
@@ -62,6 +70,9 @@ public class ClientAsynchronousTest {
 	
 	private AtomicInteger notifications = new AtomicInteger();
 	
+	private AtomicInteger concurrent = new AtomicInteger();
+	private AtomicInteger maxConcurrent = new AtomicInteger();
+	
 	@Before
 	public void startupServer() {
 		System.out.println("\nStart "+getClass().getSimpleName());
@@ -180,6 +191,59 @@ public class ClientAsynchronousTest {
 		Assert.assertEquals(null, asyncThrowable);
 	}
 	
+	@Test
+	public void testFutures() throws Exception {
+		CoapClient client = new CoapClient("coap://localhost:"+serverPort+"/"+TARGET).setTimeout(1000);
+		
+		CoapFuture future = client.getAsync();
+		Assert.assertEquals(CONTENT_1, future.get(1, TimeUnit.SECONDS).getResponseText());
+		Assert.assertTrue(future.isDone());
+		
+		// listeners are invoked when the response arrives
+		final CountDownLatch latch = new CountDownLatch(1);
+		final List<String> texts = new CopyOnWriteArrayList<String>();
+		client.postAsync(CONTENT_2, MediaTypeRegistry.TEXT_PLAIN).addListener(new CoapFuture.Listener() {
+			public void onComplete(CoapFuture future) {
+				texts.add(future.getNow().getResponseText());
+				latch.countDown();
+			}
+		});
+		Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+		Assert.assertEquals(CONTENT_1, texts.get(0));
+		
+		// bounded number of requests in flight
+		client.setURI("coap://localhost:"+serverPort+"/"+SLOW).setMaxInFlight(2);
+		List<CoapFuture> futures = new ArrayList<CoapFuture>();
+		for (int i = 0; i < 10; i++)
+			futures.add(client.getAsync());
+		for (CoapFuture f:futures)
+			Assert.assertEquals(ResponseCode.CONTENT, f.get(2, TimeUnit.SECONDS).getCode());
+		Assert.assertTrue("Too many requests in flight: "+maxConcurrent.get(), maxConcurrent.get() <= 2);
+		
+		// timeouts fail the future without a waiting thread
+		client.setTimeout(10);
+		future = client.getAsync();
+		try {
+			future.get(1, TimeUnit.SECONDS);
+			Assert.fail("Future did not time out");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		Assert.assertTrue(future.getRequest().isCanceled());
+		
+		// cancellation propagates to the request
+		client.setTimeout(1000);
+		future = client.getAsync();
+		Assert.assertTrue(future.cancel(false));
+		Assert.assertTrue(future.getRequest().isCanceled());
+		try {
+			future.get();
+			Assert.fail("Future was not canceled");
+		} catch (CancellationException e) {
+			// expected
+		}
+	}
+	
 	private void assertEquals(Object expected, Object actual) {
 		try {
 			Assert.assertEquals(expected, actual);
@@ -196,6 +260,7 @@ public class ClientAsynchronousTest {
 		resource = new StorageResource(TARGET, CONTENT_1);
 		server = new CoapServer();
 		server.add(resource);
+		server.add(new SlowResource(SLOW));
 
 		server.addEndpoint(endpoint);
 		server.start();
@@ -232,6 +297,25 @@ public class ClientAsynchronousTest {
 		}
 	}
 	
+	private class SlowResource extends CoapResource {
+		
+		public SlowResource(String name) {
+			super(name);
+		}
+		
+		@Override
+		public void handleGET(CoapExchange exchange) {
+			int current = concurrent.incrementAndGet();
+			while (current > maxConcurrent.get())
+				maxConcurrent.set(current);
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) { }
+			concurrent.decrementAndGet();
+			exchange.respond(ResponseCode.CONTENT, SLOW);
+		}
+	}
+	
 	private abstract class TestHandler implements CoapHandler {
 		private String name;
 		private TestHandler(String name) { this.name = name; }
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.eclipse.californium.core.CoapBulkClient;
+import org.eclipse.californium.core.CoapBulkClient.Callback;
+import org.eclipse.californium.core.CoapBulkClient.Session;
+import org.eclipse.californium.core.CoapBulkClient.Statistics;
+import org.eclipse.californium.core.CoapBulkClient.Target;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.network.CoAPEndpoint;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the bulk client polls all targets within its window and
+ * reports the latencies.
+ */
+public class ClientBulkTest {
+
+	private CoapServer server;
+	private int serverPort;
+
+	private AtomicInteger concurrent = new AtomicInteger();
+	private AtomicInteger maxConcurrent = new AtomicInteger();
+
+	@Before
+	public void startupServer() {
+		System.out.println("\nStart "+getClass().getSimpleName());
+		CoAPEndpoint endpoint = new CoAPEndpoint(0);
+		server = new CoapServer();
+		server.add(new CoapResource("value") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				int current = concurrent.incrementAndGet();
+				while (current > maxConcurrent.get())
+					maxConcurrent.set(current);
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) { }
+				concurrent.decrementAndGet();
+				exchange.respond(ResponseCode.CONTENT, exchange.getRequestOptions().getUriPathString());
+			}
+		});
+		server.addEndpoint(endpoint);
+		server.start();
+		serverPort = endpoint.getAddress().getPort();
+	}
+
+	@After
+	public void shutdownServer() {
+		server.destroy();
+		System.out.println("End "+getClass().getSimpleName());
+	}
+
+	@Test
+	public void testPoll() throws Exception {
+		InetAddress localhost = InetAddress.getByName("localhost");
+		OptionSet template = new OptionSet().setUriPath("/value");
+		List<Target> targets = new ArrayList<Target>();
+		for (int i = 0; i < 40; i++)
+			targets.add(new Target(localhost, serverPort, template));
+		targets.add(new Target(localhost, serverPort, "/missing"));
+
+		final List<CoapResponse> responses = new CopyOnWriteArrayList<CoapResponse>();
+		final List<Target> failed = new CopyOnWriteArrayList<Target>();
+		Session session = new CoapBulkClient().setMaxInFlight(8).setMaxInFlightPerPeer(2)
+				.poll(targets.iterator(), new Callback() {
+					public void onResponse(Target target, CoapResponse response) {
+						responses.add(response);
+					}
+					public void onError(Target target, Throwable failure) {
+						failed.add(target);
+					}
+				});
+
+		Assert.assertTrue(session.await(10, TimeUnit.SECONDS));
+		Assert.assertTrue(failed.isEmpty());
+		Assert.assertEquals(41, responses.size());
+		Assert.assertTrue("Too many requests to one peer: "+maxConcurrent.get(), maxConcurrent.get() <= 2);
+		Assert.assertEquals(0, session.getInFlight());
+
+		int notFound = 0;
+		for (CoapResponse response:responses)
+			if (response.getCode() == ResponseCode.NOT_FOUND)
+				notFound++;
+		Assert.assertEquals(1, notFound);
+
+		Statistics statistics = session.getStatistics();
+		System.out.println(statistics);
+		Assert.assertEquals(41, statistics.getCount());
+		Assert.assertEquals(0, statistics.getErrors());
+		long p50 = statistics.getPercentile(50, TimeUnit.MICROSECONDS);
+		long p99 = statistics.getPercentile(99, TimeUnit.MICROSECONDS);
+		Assert.assertTrue(p50 > 0);
+		Assert.assertTrue(p50 <= p99);
+		Assert.assertTrue(p99 <= statistics.getMax(TimeUnit.MICROSECONDS));
+	}
+}
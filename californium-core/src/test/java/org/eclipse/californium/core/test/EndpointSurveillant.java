@@ -12,8 +12,8 @@ import junit.framework.Assert;
 import org.eclipse.californium.core.network.CoAPEndpoint;
 import org.eclipse.californium.core.network.Exchange;
 import org.eclipse.californium.core.network.Exchange.KeyMID;
-import org.eclipse.californium.core.network.Exchange.KeyToken;
 import org.eclipse.californium.core.network.Exchange.KeyUri;
+import org.eclipse.californium.core.network.LongKeyExchangeMap;
 import org.eclipse.californium.core.network.Matcher;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.core.network.deduplication.SweepDeduplicator;
@@ -24,10 +24,11 @@ public class EndpointSurveillant {
 	private String name;
 
 	// The HashMaps that have been extracted from the endpoint:
-	private ConcurrentHashMap<KeyMID, Exchange> exchangesByMID; // Outgoing to match with inc ACK/RST
-	private ConcurrentHashMap<KeyToken, Exchange> exchangesByToken; // Outgoing to match with inc responses
+	private LongKeyExchangeMap exchangesByMID; // Outgoing to match with inc ACK/RST
+	private LongKeyExchangeMap exchangesByToken; // Outgoing to match with inc responses
 	private ConcurrentHashMap<KeyUri, Exchange> ongoingExchanges; // for blockwise
 	private ConcurrentHashMap<KeyMID, Exchange> incommingMessages; // for deduplication
+	private LongKeyExchangeMap packedMessages; // for deduplication of IPv4
 
 	private int exchangeLifecycle;
 	private int sweepDuplicatorInterval;
@@ -50,6 +51,7 @@ public class EndpointSurveillant {
 
 		SweepDeduplicator deduplicator = extractField(matcher, "deduplicator");
 		incommingMessages = extractField(deduplicator, "incommingMessages");
+		packedMessages = extractField(deduplicator, "packedMessages");
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -81,6 +83,7 @@ public class EndpointSurveillant {
 			Assert.assertEquals(0, exchangesByToken.size());
 			Assert.assertEquals(0, ongoingExchanges.size());
 			Assert.assertEquals(0, incommingMessages.size());
+			Assert.assertEquals(0, packedMessages.size());
 			System.out.println("Assertion passed: all HashMaps of "+name+" are empty");
 		} catch (Error e) {
 			System.out.println("Assertion failed: some HashMaps of "+name+" are NOT empty:");
@@ -92,11 +95,9 @@ public class EndpointSurveillant {
 	public void printHashmaps() {
 		StringBuffer buffer = new StringBuffer("");
 		
-		buffer.append("exchangesByMID: ");
-		printContent(exchangesByMID, buffer);
+		buffer.append("exchangesByMID: ").append(exchangesByMID.size()).append(" elements");
 
-		buffer.append("\nexchangesByToken: ");
-		printContent(exchangesByToken, buffer);
+		buffer.append("\nexchangesByToken: ").append(exchangesByToken.size()).append(" elements");
 
 		buffer.append("\nongoingExchanges: ");
 		printContent(ongoingExchanges, buffer);
@@ -104,6 +105,8 @@ public class EndpointSurveillant {
 		buffer.append("\nincommingMessages: ");
 		printContent(incommingMessages, buffer);
 		
+		buffer.append("\npackedMessages: ").append(packedMessages.size()).append(" elements");
+		
 		System.out.println(buffer.toString());
 	}
 	
@@ -22,6 +22,7 @@ package org.eclipse.californium.core.test;
 import static org.junit.Assert.assertArrayEquals;
 import junit.framework.Assert;
 
+import org.eclipse.californium.core.coap.CompactOptionSet;
 import org.eclipse.californium.core.coap.Option;
 import org.eclipse.californium.core.coap.OptionSet;
 import org.eclipse.californium.core.coap.OptionNumberRegistry;
@@ -216,6 +217,43 @@ public class OptionTest {
 		Assert.assertFalse(options.hasOption(OptionNumberRegistry.ETAG));
 	}
 	
+	@Test
+	public void testCompactOptionSet() {
+		OptionSet options = new OptionSet();
+		options.setUriPath("/sensors/temp");
+		options.setUriQuery("unit=c&precision=2");
+		options.setObserve(0);
+		options.setMaxAge(70000);
+		options.addETag(new byte[] {1, 2, 3});
+		options.addOption(new Option(7, "a"));
+		options.setProxyScheme("coap");
+		options.setBlock1(2, true, 1);
+		options.setBlock2(2, false, 0);
+		options.setSize1(512);
+		options.setSize2(256);
+		
+		CompactOptionSet compact = options.toCompact();
+		Assert.assertEquals(options.asSortedList().size(), compact.size());
+		for (int i = 1; i < compact.size(); i++)
+			Assert.assertTrue(compact.getNumber(i - 1) <= compact.getNumber(i));
+		
+		Assert.assertTrue(compact.hasOption(OptionNumberRegistry.ETAG));
+		Assert.assertTrue(compact.hasOption(7));
+		Assert.assertFalse(compact.hasOption(OptionNumberRegistry.ACCEPT));
+		Assert.assertEquals(2, compact.getCount(OptionNumberRegistry.URI_PATH));
+		Assert.assertEquals("sensors/temp", compact.getUriPathString());
+		Assert.assertEquals("unit=c&precision=2", compact.getUriQueryString());
+		Assert.assertEquals(0, compact.getIntegerValue(compact.indexOf(OptionNumberRegistry.OBSERVE)));
+		Assert.assertEquals(70000L, compact.getLongValue(compact.indexOf(OptionNumberRegistry.MAX_AGE)));
+		
+		int index = compact.indexOf(OptionNumberRegistry.URI_PATH);
+		byte[] segment = "temp".getBytes();
+		Assert.assertFalse(compact.equals(index, segment, 0, segment.length));
+		Assert.assertTrue(compact.equals(index + 1, segment, 0, segment.length));
+		
+		Assert.assertEquals(options.asSortedList(), compact.toOptionSet().asSortedList());
+	}
+	
 	@Test
 	public void testToString() {
 		OptionSet options = new OptionSet();
@@ -23,6 +23,9 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.ByteBuffer;
+
+import org.eclipse.californium.core.coap.CompactOptionSet;
 import org.eclipse.californium.core.coap.Option;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
@@ -112,4 +115,76 @@ public class ParserTest {
 		assertEquals("ვეპხის=யாமறிந்த&⠊⠀⠉⠁⠝=⠑⠁⠞⠀⠛⠇⠁⠎⠎", response.getOptions().getLocationQueryString());
 		assertEquals("⠊⠀⠉⠁⠝⠀⠑⠁⠞⠀⠛⠇⠁⠎⠎⠀⠁⠝⠙⠀⠊⠞⠀⠙⠕⠑⠎⠝⠞⠀⠓⠥⠗⠞⠀⠍⠑", result.getPayloadString());
 	}
+	
+	@Test
+	public void testParsingFromSlice() {
+		Request request = new Request(Code.PUT);
+		request.setType(Type.CON);
+		request.setMID(4711);
+		request.setToken(new byte[] {1, 2, 3});
+		request.getOptions().setUriPath("3/0/1").setUriQuery("a=1&b=2").setContentFormat(0);
+		request.setPayload("slice payload");
+		
+		byte[] bytes = new DataSerializer().serializeRequest(request);
+		byte[] datagram = new byte[bytes.length + 10];
+		System.arraycopy(bytes, 0, datagram, 5, bytes.length);
+		
+		DataParser parser = new DataParser(datagram, 5, bytes.length);
+		assertTrue(parser.isRequest());
+		Request result = parser.parseRequest();
+		assertEquals(4711, result.getMID());
+		assertArrayEquals(request.getToken(), result.getToken());
+		assertEquals(request.getOptions().asSortedList(), result.getOptions().asSortedList());
+		assertEquals("slice payload".length(), result.getPayloadSize());
+		assertEquals("slice payload", result.getPayloadString());
+		assertArrayEquals(request.getPayload(), result.getPayload());
+		
+		ByteBuffer buffer = ByteBuffer.wrap(datagram, 5, bytes.length);
+		Request fromBuffer = new DataParser(buffer.slice()).parseRequest();
+		assertEquals(request.getOptions().asSortedList(), fromBuffer.getOptions().asSortedList());
+		assertArrayEquals(request.getPayload(), fromBuffer.getPayload());
+		
+		CompactOptionSet options = parser.parseOptions();
+		assertEquals("3/0/1", options.getUriPathString());
+		assertEquals("a=1&b=2", options.getUriQueryString());
+		assertEquals(request.getOptions().asSortedList(), options.toOptionSet().asSortedList());
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void testTruncatedOption() {
+		Request request = new Request(Code.GET);
+		request.setType(Type.CON);
+		request.setMID(1);
+		request.setToken(new byte[0]);
+		request.getOptions().setUriPath("truncated");
+		
+		byte[] bytes = new DataSerializer().serializeRequest(request);
+		new DataParser(bytes, 0, bytes.length - 2).parseRequest();
+	}
+	
+	@Test
+	public void testExtendedOptionFields() {
+		StringBuilder longValue = new StringBuilder();
+		for (int i = 0; i < 300; i++)
+			longValue.append((char) ('a' + i % 26));
+		
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.ACK);
+		response.setMID(65535);
+		response.setToken(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+		response.getOptions().setLocationPath(longValue.substring(0, 20))
+							.setContentFormat(50)
+							.addOption(new Option(1000, longValue.toString()))
+							.addOption(new Option(1000, ""));
+		response.setPayload(new byte[] {0, -1, 42});
+		
+		byte[] bytes = new DataSerializer().serializeResponse(response);
+		
+		Response result = new DataParser(bytes).parseResponse();
+		assertEquals(Type.ACK, result.getType());
+		assertEquals(65535, result.getMID());
+		assertArrayEquals(response.getToken(), result.getToken());
+		assertEquals(response.getOptions().asSortedList(), result.getOptions().asSortedList());
+		assertArrayEquals(response.getPayload(), result.getPayload());
+	}
 }
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.core.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapObserveRelation;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a resource with shared notifications renders a changed
+ * representation only once per variant and that all observers receive it.
+ */
+public class SharedNotificationTest {
+
+	private CoapServer server;
+	private SharedResource resource;
+	private String uri;
+
+	@Before
+	public void startupServer() {
+		resource = new SharedResource("shared");
+		server = new CoapServer(0);
+		server.add(resource);
+		server.start();
+		uri = "coap://localhost:"+server.getEndpoints().get(0).getAddress().getPort()+"/shared";
+	}
+
+	@After
+	public void shutdownServer() {
+		server.destroy();
+	}
+
+	@Test
+	public void testRenderOncePerVariant() throws Exception {
+		final CountDownLatch notified = new CountDownLatch(4);
+		final List<String> payloads = new ArrayList<String>();
+		CoapHandler handler = new CoapHandler() {
+			public void onLoad(CoapResponse response) {
+				if (response.getResponseText().equals("changed")) {
+					synchronized (payloads) {
+						payloads.add(response.getResponseText());
+					}
+					notified.countDown();
+				}
+			}
+			public void onError() { }
+		};
+
+		List<CoapObserveRelation> relations = new ArrayList<CoapObserveRelation>();
+		for (int i = 0; i < 3; i++)
+			relations.add(new CoapClient(uri).observeAndWait(handler));
+		relations.add(new CoapClient(uri).observeAndWait(handler, MediaTypeRegistry.TEXT_PLAIN));
+		assertEquals(4, resource.getObserverCount());
+		assertEquals(4, resource.renderings.get());
+
+		resource.representation = "changed";
+		resource.changed();
+		assertTrue(notified.await(2, TimeUnit.SECONDS));
+		assertEquals(4, payloads.size());
+		// once without and once with Accept option
+		assertEquals(6, resource.renderings.get());
+
+		for (CoapObserveRelation relation:relations)
+			relation.proactiveCancel();
+	}
+
+	private static class SharedResource extends CoapResource {
+
+		private final AtomicInteger renderings = new AtomicInteger();
+		private volatile String representation = "initial";
+
+		public SharedResource(String name) {
+			super(name);
+			setObservable(true);
+			setSharedNotifications(true);
+		}
+
+		@Override
+		public void handleGET(CoapExchange exchange) {
+			renderings.incrementAndGet();
+			exchange.respond(representation);
+		}
+	}
+}
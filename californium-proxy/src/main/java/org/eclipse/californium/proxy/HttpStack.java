@@ -21,10 +21,10 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Exchanger;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.http.HttpException;
@@ -37,6 +37,7 @@ import org.apache.http.HttpVersion;
 import org.apache.http.StatusLine;
 import org.apache.http.client.protocol.RequestAcceptEncoding;
 import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.concurrent.Cancellable;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.EnglishReasonPhraseCatalog;
@@ -68,21 +69,26 @@ import org.apache.http.protocol.ResponseContent;
 import org.apache.http.protocol.ResponseDate;
 import org.apache.http.protocol.ResponseServer;
 
+import org.eclipse.californium.core.Utils;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 
 
 /**
- * Class encapsulating the logic of a http server. The class create a receiver
- * thread that it is always blocked on the listen primitive. For each connection
- * this thread creates a new thread that handles the client/server dialog.
+ * Class encapsulating the logic of a http server. The class creates an I/O
+ * reactor that handles all connections. Incoming requests are translated and
+ * handed to the proxy without a thread of their own: the http response is
+ * submitted directly when the coap response arrives, or by a shared timer if
+ * it does not arrive within the gateway timeout. Hence, the number of
+ * concurrent requests is only limited by the number of connections.
  */
 public class HttpStack {
 	
 	private static final Logger LOGGER = Logger.getLogger(HttpStack.class.getCanonicalName());
 	
-	private static final Response Response_NULL = new Response(null); // instead of Response.NULL // TODO
+	/** The timer for the gateway timeouts of all pending requests */
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new Utils.DaemonThreadFactory());
 	
 	private static final int SOCKET_TIMEOUT = NetworkConfig.getStandard().getInt(
 			NetworkConfig.Keys.HTTP_SERVER_SOCKET_TIMEOUT);
@@ -107,7 +113,8 @@ public class HttpStack {
 	 */
 	public static final String LOCAL_RESOURCE_NAME = "local";
 
-	private final ConcurrentHashMap<Request, Exchanger<Response>> exchangeMap = new ConcurrentHashMap<Request, Exchanger<Response>>();
+	/** The http exchanges waiting for the response to their coap request */
+	private final ConcurrentHashMap<Request, PendingExchange> exchangeMap = new ConcurrentHashMap<Request, PendingExchange>();
 
 	private RequestHandler requestHandler;
 	
@@ -185,39 +192,32 @@ public class HttpStack {
 //		if (Bench_Help.DO_LOG) 
 			LOGGER.fine("Handling response for request: " + request);
 
-		// fill the exchanger with the incoming response
-		Exchanger<Response> exchanger = exchangeMap.get(request);
-		if (exchanger != null) {
-			try {
-				exchanger.exchange(response);
-//				if (Bench_Help.DO_LOG) 
-					LOGGER.info("Exchanged correctly");
-			} catch (InterruptedException e) {
-				LOGGER.log(Level.WARNING, "Exchange interrupted", e);
-
-				// remove the entry from the map
-				exchangeMap.remove(request);
-				return;
-			}
+		// only the first of response, timeout, or cancellation completes the
+		// http exchange, as it removes the entry from the map
+		PendingExchange pending = exchangeMap.remove(request);
+		if (pending != null) {
+			pending.cancelTimeout();
+			pending.complete(response);
 		} else {
-			LOGGER.warning("exchanger was null for request "+request+" with hash "+request.hashCode());
+			LOGGER.warning("No pending http exchange for request "+request+" with hash "+request.hashCode());
 		}
 	}
 
 	/**
-	 * The Class CoapResponseWorker. This thread waits a response from the lower
-	 * layers. It is the consumer of the producer/consumer pattern.
+	 * The http side of a request that is waiting for its coap response. It is
+	 * completed by {@link HttpStack#doSendResponse(Request, Response)}, by the
+	 * gateway timeout, or canceled together with the coap request when the
+	 * http client cancels.
 	 */
-	private final class CoapResponseWorker extends Thread {
+	private final class PendingExchange implements Runnable, Cancellable {
 		private final HttpAsyncExchange httpExchange;
 		private final HttpRequest httpRequest;
 		private final Request coapRequest;
+		private volatile ScheduledFuture<?> timeout;
 
 		/**
-		 * Instantiates a new coap response worker.
+		 * Instantiates a new pending exchange.
 		 * 
-		 * @param name
-		 *            the name
 		 * @param coapRequest
 		 *            the coap request
 		 * @param httpExchange
@@ -225,52 +225,50 @@ public class HttpStack {
 		 * @param httpRequest
 		 *            the http request
 		 */
-		public CoapResponseWorker(String name, Request coapRequest, HttpAsyncExchange httpExchange, HttpRequest httpRequest) {
-			super(name);
+		public PendingExchange(Request coapRequest, HttpAsyncExchange httpExchange, HttpRequest httpRequest) {
 			this.coapRequest = coapRequest;
 			this.httpExchange = httpExchange;
 			this.httpRequest = httpRequest;
 		}
 
+		private void scheduleTimeout() {
+			timeout = scheduler.schedule(this, GATEWAY_TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+
+		private void cancelTimeout() {
+			ScheduledFuture<?> future = timeout;
+			if (future != null) {
+				future.cancel(false);
+			}
+		}
+
 		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Thread#run()
+		 * The gateway timeout has expired.
 		 */
 		@Override
 		public void run() {
-			// get the exchanger
-			Exchanger<Response> exchanger = exchangeMap.get(coapRequest);
-
-			// if the map does not contain the key, send an error response
-			if (exchanger == null) {
-				LOGGER.warning("exchanger == null");
-				sendSimpleHttpResponse(httpExchange, HttpStatus.SC_INTERNAL_SERVER_ERROR);
-				return;
-			}
-
-			// get the response
-			Response coapResponse = null;
-			try {
-				coapResponse = exchanger.exchange(Response_NULL, GATEWAY_TIMEOUT, TimeUnit.MILLISECONDS);
-			} catch (TimeoutException e) {
+			if (exchangeMap.remove(coapRequest, this)) {
 				LOGGER.warning("Timeout occurred");
 				// send the timeout error message
 				sendSimpleHttpResponse(httpExchange, HttpTranslator.STATUS_TIMEOUT);
-				return;
-			} catch (InterruptedException e) {
-				// if the thread is interrupted, terminate
-				if (isInterrupted()) {
-					LOGGER.warning("Thread interrupted");
-					sendSimpleHttpResponse(httpExchange, HttpStatus.SC_INTERNAL_SERVER_ERROR);
-					return;
-				}
-			} finally {
-				// remove the entry from the map
-				exchangeMap.remove(coapRequest);
-//				if (Bench_Help.DO_LOG) 
-					LOGGER.finer("Entry removed from map");
 			}
+		}
+
+		/*
+		 * The http client has closed the connection. The coap request is
+		 * canceled as well, so that the proxy stops forwarding it.
+		 */
+		@Override
+		public boolean cancel() {
+			if (exchangeMap.remove(coapRequest, this)) {
+				cancelTimeout();
+				LOGGER.finer("Http exchange canceled by the client");
+				coapRequest.cancel();
+			}
+			return true;
+		}
 
+		private void complete(Response coapResponse) {
 			if (coapResponse == null) {
 				LOGGER.warning("No coap response");
 				sendSimpleHttpResponse(httpExchange, HttpTranslator.STATUS_NOT_FOUND);
@@ -292,7 +290,7 @@ public class HttpStack {
 				return;
 			}
 
-			// send the response
+			// send the response, the reactor writes it out
 			httpExchange.submitResponse();
 		}
 	}
@@ -433,21 +431,15 @@ public class HttpStack {
 //					if (Bench_Help.DO_LOG) 
 						LOGGER.info("Received HTTP request and translate to "+coapRequest);
 
-					// fill the maps
-					exchangeMap.put(coapRequest, new Exchanger<Response>());
+					// fill the map, the response might arrive before
+					// doReceiveMessage() returns
+					PendingExchange pending = new PendingExchange(coapRequest, httpExchange, httpRequest);
+					exchangeMap.put(coapRequest, pending);
+					httpExchange.setCallback(pending);
+					pending.scheduleTimeout();
 //					if (Bench_Help.DO_LOG) 
 						LOGGER.finer("Fill exchange with: " + coapRequest+" with hash="+coapRequest.hashCode());
 
-					// the new thread will wait for the completion of
-					// the coap request
-					Thread worker = new CoapResponseWorker("HttpStack Worker", coapRequest, httpExchange, httpRequest);
-
-					// starting the "consumer thread" that will sleep waiting
-					// for the producer
-					worker.start();
-//					if (Bench_Help.DO_LOG) 
-						LOGGER.finer("Started thread 'httpStack worker' to wait the response");
-
 					// send the coap request to the upper layers
 					doReceiveMessage(coapRequest);
 				} catch (InvalidMethodException e) {
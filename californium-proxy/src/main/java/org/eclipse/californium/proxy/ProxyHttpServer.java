@@ -87,6 +87,10 @@ public class ProxyHttpServer {
 		LOGGER.info("ProxyEndpoint handles request "+request);
 		
 		Exchange exchange = new Exchange(request, Origin.REMOTE) {
+			@Override public void sendAccept() {
+				// There is no CoAP endpoint to acknowledge to; the HttpStack
+				// keeps the http exchange open until the response is sent.
+			}
 			@Override public void sendResponse(Response response) {
 				// Redirect the response to the HttpStack instead of a normal
 				// CoAP endpoint.
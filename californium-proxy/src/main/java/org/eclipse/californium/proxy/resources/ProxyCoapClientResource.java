@@ -18,15 +18,18 @@
 package org.eclipse.californium.proxy.resources;
 
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange;
 import org.eclipse.californium.proxy.CoapTranslator;
 import org.eclipse.californium.proxy.TranslationException;
 
 
 /**
  * Resource that forwards a coap request with the proxy-uri option set to the
- * desired coap server.
+ * desired coap server. The response is sent as separate response when it
+ * arrives; no thread waits for it.
  */
 public class ProxyCoapClientResource extends ForwardingResource {
 	
@@ -41,41 +44,91 @@ public class ProxyCoapClientResource extends ForwardingResource {
 	}
 
 	@Override
-	public Response forwardRequest(Request request) {
-		LOGGER.info("ProxyCoAP2CoAP forwards "+request);
-		Request incomingRequest = request;
+	public void handleRequest(final Exchange exchange) {
+		// accept the request sending a separate response to avoid the
+		// timeout in the requesting client
+		exchange.sendAccept();
 
-		// check the invariant: the request must have the proxy-uri set
-		if (!incomingRequest.getOptions().hasProxyUri()) {
-			LOGGER.warning("Proxy-uri option not set.");
-			return new Response(ResponseCode.BAD_OPTION);
+		Request outgoingRequest;
+		try {
+			outgoingRequest = translateRequest(exchange.getRequest());
+		} catch (TranslationException e) {
+			LOGGER.warning("Proxy-uri option malformed: " + e.getMessage());
+			exchange.sendResponse(new Response(CoapTranslator.STATUS_FIELD_MALFORMED));
+			return;
+		}
+		if (outgoingRequest == null) {
+			exchange.sendResponse(new Response(ResponseCode.BAD_OPTION));
+			return;
 		}
 
-		// remove the fake uri-path
-		// FIXME: HACK // TODO: why? still necessary in new Cf?
-		incomingRequest.getOptions().clearUriPath();
+		outgoingRequest.addMessageObserver(new MessageObserverAdapter() {
+			@Override
+			public void onResponse(Response response) {
+				LOGGER.finer("Coap response received.");
+				// create the real response for the original request
+				exchange.sendResponse(CoapTranslator.getResponse(response));
+			}
+
+			@Override
+			public void onReject() {
+				respondTimeout();
+			}
+
+			@Override
+			public void onTimeout() {
+				respondTimeout();
+			}
+
+			@Override
+			public void onCancel() {
+				// nobody waits for the response of a canceled request
+				if (!exchange.getRequest().isCanceled())
+					respondTimeout();
+			}
+
+			private void respondTimeout() {
+				LOGGER.warning("No response received.");
+				exchange.sendResponse(new Response(CoapTranslator.STATUS_TIMEOUT));
+			}
+		});
+
+		// stop forwarding when the client cancels, e.g., closes its http connection
+		final Request forwarded = outgoingRequest;
+		exchange.getRequest().addMessageObserver(new MessageObserverAdapter() {
+			@Override
+			public void onCancel() {
+				forwarded.cancel();
+			}
+		});
+		if (exchange.getRequest().isCanceled())
+			return;
 
-		// create a new request to forward to the requested coap server
-		Request outgoingRequest = null;
 		try {
-			// create the new request from the original
-			outgoingRequest = CoapTranslator.getRequest(incomingRequest);
+			LOGGER.info("ProxyCoapClient received CoAP request and sends a copy to CoAP target");
+			outgoingRequest.send();
+		} catch (Exception e) {
+			LOGGER.warning("Failed to execute request: " + e.getMessage());
+			exchange.sendResponse(new Response(ResponseCode.INTERNAL_SERVER_ERROR));
+		}
+	}
 
-//			// enable response queue for blocking I/O
-//			outgoingRequest.enableResponseQueue(true);
+	@Override
+	public Response forwardRequest(Request request) {
+		LOGGER.info("ProxyCoAP2CoAP forwards "+request);
 
-			// get the token from the manager // TODO: necessary?
-//			outgoingRequest.setToken(TokenManager.getInstance().acquireToken());
+		// create a new request to forward to the requested coap server
+		Request outgoingRequest = null;
+		try {
+			outgoingRequest = translateRequest(request);
+			if (outgoingRequest == null) {
+				return new Response(ResponseCode.BAD_OPTION);
+			}
 
 			// execute the request
 			LOGGER.finer("Sending coap request.");
-//			outgoingRequest.execute();
 			LOGGER.info("ProxyCoapClient received CoAP request and sends a copy to CoAP target");
 			outgoingRequest.send();
-
-			// accept the request sending a separate response to avoid the
-			// timeout in the requesting client
-			LOGGER.finer("Acknowledge message sent");
 		} catch (TranslationException e) {
 			LOGGER.warning("Proxy-uri option malformed: " + e.getMessage());
 			return new Response(CoapTranslator.STATUS_FIELD_MALFORMED);
@@ -104,4 +157,23 @@ public class ProxyCoapClientResource extends ForwardingResource {
 			return new Response(ResponseCode.INTERNAL_SERVER_ERROR);
 		}
 	}
+
+	/*
+	 * Creates the request for the coap server from the incoming request or
+	 * returns null if the proxy-uri is missing.
+	 */
+	private Request translateRequest(Request incomingRequest) throws TranslationException {
+		// check the invariant: the request must have the proxy-uri set
+		if (!incomingRequest.getOptions().hasProxyUri()) {
+			LOGGER.warning("Proxy-uri option not set.");
+			return null;
+		}
+
+		// remove the fake uri-path
+		// FIXME: HACK // TODO: why? still necessary in new Cf?
+		incomingRequest.getOptions().clearUriPath();
+
+		// create the new request from the original
+		return CoapTranslator.getRequest(incomingRequest);
+	}
 }
@@ -19,45 +19,97 @@ package org.eclipse.californium.proxy.resources;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.protocol.RequestAcceptEncoding;
 import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.client.AbstractHttpClient;
 import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.nio.DefaultHttpClientIODispatch;
+import org.apache.http.impl.nio.pool.BasicNIOConnPool;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.protocol.BasicAsyncRequestProducer;
+import org.apache.http.nio.protocol.BasicAsyncResponseConsumer;
+import org.apache.http.nio.protocol.HttpAsyncRequestExecutor;
+import org.apache.http.nio.protocol.HttpAsyncRequester;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.SyncBasicHttpParams;
+import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.ImmutableHttpProcessor;
 import org.apache.http.protocol.RequestConnControl;
+import org.apache.http.protocol.RequestContent;
 import org.apache.http.protocol.RequestDate;
 import org.apache.http.protocol.RequestExpectContinue;
 import org.apache.http.protocol.RequestTargetHost;
 import org.apache.http.protocol.RequestUserAgent;
+import org.eclipse.californium.core.Utils;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.proxy.CoapTranslator;
 import org.eclipse.californium.proxy.HttpTranslator;
 import org.eclipse.californium.proxy.InvalidFieldException;
 import org.eclipse.californium.proxy.TranslationException;
 
 
+/**
+ * Resource that forwards a coap request with the proxy-uri option set to the
+ * desired http server. Plain http requests are executed by a non-blocking
+ * client on its own I/O reactor: the request is accepted and the separate
+ * response is sent from the completion callback, so that slow web servers do
+ * not hold the threads of the coap endpoint. The connections are pooled and
+ * kept alive, with a bounded number per host. Https requests are still
+ * executed with the blocking client.
+ */
 public class ProxyHttpClientResource extends ForwardingResource {
 	
 	private static final int KEEP_ALIVE = 5000;
 	// TODO: Properties.std.getInt("HTTP_CLIENT_KEEP_ALIVE");
 	
+	private static final int SOCKET_TIMEOUT = NetworkConfig.getStandard().getInt(
+			NetworkConfig.Keys.HTTP_CLIENT_SOCKET_TIMEOUT);
+	private static final int MAX_CONNECTIONS = NetworkConfig.getStandard().getInt(
+			NetworkConfig.Keys.HTTP_CLIENT_MAX_CONNECTIONS);
+	private static final int MAX_CONNECTIONS_PER_HOST = NetworkConfig.getStandard().getInt(
+			NetworkConfig.Keys.HTTP_CLIENT_MAX_CONNECTIONS_PER_HOST);
+	
 	/**
 	 * DefaultHttpClient is thread safe. It is recommended that the same
 	 * instance of this class is reused for multiple request executions.
 	 */
-	private static final AbstractHttpClient HTTP_CLIENT = new DefaultHttpClient();
+	private static final AbstractHttpClient HTTP_CLIENT = new DefaultHttpClient(new PoolingClientConnectionManager());
+	
+	/** The non-blocking client for plain http, null if its reactor could not be created */
+	private static final HttpAsyncRequester ASYNC_REQUESTER;
+	
+	/** The connections of the non-blocking client */
+	private static final BasicNIOConnPool CONNECTION_POOL;
 
 	// http client static configuration
 	static {
@@ -86,6 +138,59 @@ public class ProxyHttpClientResource extends ForwardingResource {
 			}
 
 		});
+		
+		PoolingClientConnectionManager connectionManager = (PoolingClientConnectionManager) HTTP_CLIENT.getConnectionManager();
+		connectionManager.setMaxTotal(MAX_CONNECTIONS);
+		connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_HOST);
+		
+		// non-blocking client with the same interceptors
+		HttpParams params = new SyncBasicHttpParams();
+		params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, SOCKET_TIMEOUT).setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, SOCKET_TIMEOUT).setBooleanParameter(CoreConnectionPNames.TCP_NODELAY, true);
+		
+		HttpRequestInterceptor[] requestInterceptors = new HttpRequestInterceptor[] { new RequestAcceptEncoding(), new RequestContent(), new RequestTargetHost(), new RequestConnControl(), new RequestDate(), new RequestUserAgent(), new RequestExpectContinue() };
+		HttpResponseInterceptor[] responseInterceptors = new HttpResponseInterceptor[] { new ResponseContentEncoding() };
+		
+		HttpAsyncRequester requester = null;
+		BasicNIOConnPool pool = null;
+		try {
+			final ConnectingIOReactor ioReactor = new DefaultConnectingIOReactor();
+			final IOEventDispatch ioEventDispatch = new DefaultHttpClientIODispatch(new HttpAsyncRequestExecutor(), params);
+			
+			pool = new BasicNIOConnPool(ioReactor, params);
+			pool.setMaxTotal(MAX_CONNECTIONS);
+			pool.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_HOST);
+			requester = new HttpAsyncRequester(new ImmutableHttpProcessor(requestInterceptors, responseInterceptors), new DefaultConnectionReuseStrategy(), params);
+			
+			Thread reactor = new Thread("ProxyHttpClient reactor") {
+				@Override
+				public void run() {
+					try {
+						ioReactor.execute(ioEventDispatch);
+					} catch (IOException e) {
+						LOGGER.severe("Http client reactor terminated: " + e.getMessage());
+					}
+				}
+			};
+			reactor.setDaemon(true);
+			reactor.start();
+			
+			// close kept-alive connections that have not been reused
+			final BasicNIOConnPool idlePool = pool;
+			ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new Utils.DaemonThreadFactory());
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					idlePool.closeExpired();
+					idlePool.closeIdle(KEEP_ALIVE, TimeUnit.MILLISECONDS);
+				}
+			}, KEEP_ALIVE, KEEP_ALIVE, TimeUnit.MILLISECONDS);
+		} catch (IOReactorException e) {
+			LOGGER.severe("Cannot create the http client reactor, forwarding with blocking requests: " + e.getMessage());
+			requester = null;
+			pool = null;
+		}
+		ASYNC_REQUESTER = requester;
+		CONNECTION_POOL = pool;
 	}
 
 	public ProxyHttpClientResource() {
@@ -101,41 +206,93 @@ public class ProxyHttpClientResource extends ForwardingResource {
 	}
 
 	@Override
-	public Response forwardRequest(Request request) {
-		final Request incomingCoapRequest = request;
-		
-		// check the invariant: the request must have the proxy-uri set
-		if (!incomingCoapRequest.getOptions().hasProxyUri()) {
-			LOGGER.warning("Proxy-uri option not set.");
-			return new Response(ResponseCode.BAD_OPTION);
+	public void handleRequest(final Exchange exchange) {
+		// accept the request sending a separate response to avoid the timeout
+		// in the requesting client
+		exchange.sendAccept();
+		LOGGER.finer("Acknowledge message sent");
+
+		final Request incomingCoapRequest = exchange.getRequest();
+		HttpForward forward = new HttpForward(incomingCoapRequest);
+		if (forward.error != null) {
+			exchange.sendResponse(forward.error);
+			return;
 		}
 
-		// remove the fake uri-path // TODO: why? still necessary in new Cf?
-		incomingCoapRequest.getOptions().clearUriPath();; // HACK
+		if (ASYNC_REQUESTER == null || !"http".equalsIgnoreCase(forward.httpHost.getSchemeName())) {
+			// no non-blocking transport for this request
+			exchange.sendResponse(forward.execute());
+			return;
+		}
 
-		// get the proxy-uri set in the incoming coap request
-		URI proxyUri;
-		try {
-			String proxyUriString = URLDecoder.decode(
-					incomingCoapRequest.getOptions().getProxyUri(), "UTF-8");
-			proxyUri = new URI(proxyUriString);
-		} catch (UnsupportedEncodingException e) {
-			LOGGER.warning("Proxy-uri option malformed: " + e.getMessage());
-			return new Response(CoapTranslator.STATUS_FIELD_MALFORMED);
-		} catch (URISyntaxException e) {
-			LOGGER.warning("Proxy-uri option malformed: " + e.getMessage());
-			return new Response(CoapTranslator.STATUS_FIELD_MALFORMED);
+		// the pool needs the port to resolve the address
+		HttpHost httpHost = forward.httpHost;
+		if (httpHost.getPort() == -1) {
+			httpHost = new HttpHost(httpHost.getHostName(), 80, httpHost.getSchemeName());
 		}
 
-		// get the requested host, if the port is not specified, the constructor
-		// sets it to -1
-		HttpHost httpHost = new HttpHost(proxyUri.getHost(), proxyUri.getPort(), proxyUri.getScheme());
+		final Future<HttpResponse> future = ASYNC_REQUESTER.execute(new BasicAsyncRequestProducer(httpHost, forward.httpRequest),
+				new BasicAsyncResponseConsumer(), CONNECTION_POOL, new BasicHttpContext(),
+				new FutureCallback<HttpResponse>() {
+			@Override
+			public void completed(HttpResponse httpResponse) {
+				exchange.sendResponse(translateResponse(httpResponse, incomingCoapRequest));
+			}
+
+			@Override
+			public void failed(Exception e) {
+				LOGGER.warning("Failed to get the http response: " + e.getMessage());
+				if (e instanceof SocketTimeoutException) {
+					exchange.sendResponse(new Response(CoapTranslator.STATUS_TIMEOUT));
+				} else {
+					exchange.sendResponse(new Response(ResponseCode.INTERNAL_SERVER_ERROR));
+				}
+			}
+
+			@Override
+			public void cancelled() {
+				LOGGER.warning("Http request cancelled");
+				// nobody waits for the response of a canceled request
+				if (!incomingCoapRequest.isCanceled())
+					exchange.sendResponse(new Response(CoapTranslator.STATUS_TIMEOUT));
+			}
+		});
 
-		HttpRequest httpRequest = null;
+		// stop forwarding when the client cancels, e.g., closes its http connection
+		incomingCoapRequest.addMessageObserver(new MessageObserverAdapter() {
+			@Override
+			public void onCancel() {
+				future.cancel(true);
+			}
+		});
+		if (incomingCoapRequest.isCanceled())
+			future.cancel(true);
+	}
+
+	@Override
+	public Response forwardRequest(Request request) {
+		HttpForward forward = new HttpForward(request);
+		if (forward.error != null) {
+			return forward.error;
+		}
+		return forward.execute();
+	}
+
+	/*
+	 * Translates the received http response in a coap response.
+	 */
+	private static Response translateResponse(HttpResponse httpResponse, Request incomingCoapRequest) {
+		long timestamp = System.nanoTime();
+		LOGGER.finer("Incoming http response: " + httpResponse.getStatusLine());
+		// the entity of the response, if non repeatable, could be
+		// consumed only one time, so do not debug it!
+		// System.out.println(EntityUtils.toString(httpResponse.getEntity()));
+
+		// translate the received http response in a coap response
 		try {
-			// get the mapping to http for the incoming coap request
-			httpRequest = HttpTranslator.getHttpRequest(incomingCoapRequest);
-			LOGGER.finer("Outgoing http request: " + httpRequest.getRequestLine());
+			Response coapResponse = HttpTranslator.getCoapResponse(httpResponse, incomingCoapRequest);
+			coapResponse.setTimestamp(timestamp);
+			return coapResponse;
 		} catch (InvalidFieldException e) {
 			LOGGER.warning("Problems during the http/coap translation: " + e.getMessage());
 			return new Response(CoapTranslator.STATUS_FIELD_MALFORMED);
@@ -143,44 +300,83 @@ public class ProxyHttpClientResource extends ForwardingResource {
 			LOGGER.warning("Problems during the http/coap translation: " + e.getMessage());
 			return new Response(CoapTranslator.STATUS_TRANSLATION_ERROR);
 		}
+	}
 
-		ResponseHandler<Response> httpResponseHandler = new ResponseHandler<Response>() {
-			@Override
-			public Response handleResponse(HttpResponse httpResponse) throws ClientProtocolException, IOException {
-				long timestamp = System.nanoTime();
-				LOGGER.finer("Incoming http response: " + httpResponse.getStatusLine());
-				// the entity of the response, if non repeatable, could be
-				// consumed only one time, so do not debug it!
-				// System.out.println(EntityUtils.toString(httpResponse.getEntity()));
-
-				// translate the received http response in a coap response
-				try {
-					Response coapResponse = HttpTranslator.getCoapResponse(httpResponse, incomingCoapRequest);
-					coapResponse.setTimestamp(timestamp);
-					return coapResponse;
-				} catch (InvalidFieldException e) {
-					LOGGER.warning("Problems during the http/coap translation: " + e.getMessage());
-					return new Response(CoapTranslator.STATUS_FIELD_MALFORMED);
-				} catch (TranslationException e) {
-					LOGGER.warning("Problems during the http/coap translation: " + e.getMessage());
-					return new Response(CoapTranslator.STATUS_TRANSLATION_ERROR);
-				}
+	/**
+	 * The http request for an incoming coap request, or the error response if
+	 * it cannot be translated.
+	 */
+	private static final class HttpForward {
+
+		private final Request incomingCoapRequest;
+		private HttpHost httpHost;
+		private HttpRequest httpRequest;
+		private Response error;
+
+		private HttpForward(Request incomingCoapRequest) {
+			this.incomingCoapRequest = incomingCoapRequest;
+
+			// check the invariant: the request must have the proxy-uri set
+			if (!incomingCoapRequest.getOptions().hasProxyUri()) {
+				LOGGER.warning("Proxy-uri option not set.");
+				error = new Response(ResponseCode.BAD_OPTION);
+				return;
 			}
-		};
 
-		// accept the request sending a separate response to avoid the timeout
-		// in the requesting client
-		LOGGER.finer("Acknowledge message sent");
+			// remove the fake uri-path // TODO: why? still necessary in new Cf?
+			incomingCoapRequest.getOptions().clearUriPath();; // HACK
 
-		Response coapResponse = null;
-		try {
-			// execute the request
-			coapResponse = HTTP_CLIENT.execute(httpHost, httpRequest, httpResponseHandler, null);
-		} catch (IOException e) {
-			LOGGER.warning("Failed to get the http response: " + e.getMessage());
-			return new Response(ResponseCode.INTERNAL_SERVER_ERROR);
+			// get the proxy-uri set in the incoming coap request
+			URI proxyUri;
+			try {
+				String proxyUriString = URLDecoder.decode(
+						incomingCoapRequest.getOptions().getProxyUri(), "UTF-8");
+				proxyUri = new URI(proxyUriString);
+			} catch (UnsupportedEncodingException e) {
+				LOGGER.warning("Proxy-uri option malformed: " + e.getMessage());
+				error = new Response(CoapTranslator.STATUS_FIELD_MALFORMED);
+				return;
+			} catch (URISyntaxException e) {
+				LOGGER.warning("Proxy-uri option malformed: " + e.getMessage());
+				error = new Response(CoapTranslator.STATUS_FIELD_MALFORMED);
+				return;
+			}
+
+			// get the requested host, if the port is not specified, the constructor
+			// sets it to -1
+			httpHost = new HttpHost(proxyUri.getHost(), proxyUri.getPort(), proxyUri.getScheme());
+
+			try {
+				// get the mapping to http for the incoming coap request
+				httpRequest = HttpTranslator.getHttpRequest(incomingCoapRequest);
+				LOGGER.finer("Outgoing http request: " + httpRequest.getRequestLine());
+			} catch (InvalidFieldException e) {
+				LOGGER.warning("Problems during the http/coap translation: " + e.getMessage());
+				error = new Response(CoapTranslator.STATUS_FIELD_MALFORMED);
+			} catch (TranslationException e) {
+				LOGGER.warning("Problems during the http/coap translation: " + e.getMessage());
+				error = new Response(CoapTranslator.STATUS_TRANSLATION_ERROR);
+			}
 		}
 
-		return coapResponse;
+		/*
+		 * Executes the request with the blocking client.
+		 */
+		private Response execute() {
+			ResponseHandler<Response> httpResponseHandler = new ResponseHandler<Response>() {
+				@Override
+				public Response handleResponse(HttpResponse httpResponse) throws ClientProtocolException, IOException {
+					return translateResponse(httpResponse, incomingCoapRequest);
+				}
+			};
+
+			try {
+				// execute the request
+				return HTTP_CLIENT.execute(httpHost, httpRequest, httpResponseHandler, null);
+			} catch (IOException e) {
+				LOGGER.warning("Failed to get the http response: " + e.getMessage());
+				return new Response(ResponseCode.INTERNAL_SERVER_ERROR);
+			}
+		}
 	}
 }
@@ -27,6 +27,7 @@ import org.eclipse.californium.core.CoapServer;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.CoAPEndpoint;
+import org.eclipse.californium.core.network.StripedExecutor;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.elements.UDPConnector;
 
@@ -66,6 +67,7 @@ public class BenchmarkServer {
 		int protocol_threads = DEFAULT_PROTOCOL_STAGE_THREAD_COUNT;
 		boolean verbose = false;
 		boolean use_workers = false;
+		boolean use_striped = false;
 		
 		// Parse input
 		if (args.length > 0) {
@@ -88,6 +90,8 @@ public class BenchmarkServer {
 					verbose = true;
 				} else if ("-use-workers".equals(arg)) {
 					use_workers = true;
+				} else if ("-use-striped".equals(arg)) {
+					use_striped = true;
 				} else {
 					System.err.println("Unknwon arg "+arg);
 					printUsage();
@@ -107,6 +111,9 @@ public class BenchmarkServer {
 		if (use_workers) {
 			System.out.println("Use queues with "+protocol_threads+" workers");
 			server.setExecutor(new WorkQueueExecutor(protocol_threads));
+		} else if (use_striped) {
+			System.out.println("Use per-peer striping with "+protocol_threads+" workers");
+			server.setExecutor(new StripedExecutor(protocol_threads));
 		} else {
 			System.out.println("Endpoint thread-pool size: "+protocol_threads);
 			server.setExecutor(Executors.newScheduledThreadPool(protocol_threads));
@@ -170,6 +177,8 @@ public class BenchmarkServer {
 		System.out.println("		The default is number of cores on Windows and 1 otherwise.");
 		System.out.println("    -use-workers");
 		System.out.println("        Use a specialized queue for incoming requests that reduces synchronization of threads.");
+		System.out.println("    -use-striped");
+		System.out.println("        Process all messages of a client on the same worker thread (including its timers).");
 		System.out.println("OPTIMIZATIONS");
 		System.out.println("	-Xms4096m -Xmx4096m");
 		System.out.println("		Set the Java heap size to 4 GiB.");
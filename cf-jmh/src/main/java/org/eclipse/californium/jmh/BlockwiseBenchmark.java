@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.jmh;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.stack.AbstractLayer;
+import org.eclipse.californium.core.network.stack.BlockwiseLayer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the server side of a Block1 transfer in the {@link BlockwiseLayer}
+ * alone. Each operation passes all blocks of a body through the layer, which
+ * acknowledges them and assembles the request. The client may announce the
+ * size of the body with Size1, which lets the layer allocate the body at
+ * once. Unlike the blockwise POST of {@link StackBenchmark}, no other layer,
+ * matcher, or serialization is involved.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockwiseBenchmark {
+
+	/** The block size (SZX 6) */
+	private static final int BLOCK_SIZE = 1024;
+	private static final int SZX = 6;
+
+	@Param({"4096", "65536", "1048576"})
+	public int size;
+
+	@Param({"false", "true"})
+	public boolean size1;
+
+	private BlockwiseLayer layer;
+	private Sink sink;
+	private InetAddress source;
+	private byte[][] blocks;
+
+	@Setup
+	public void setup() throws Exception {
+		NetworkConfig config = NetworkConfig.createStandardWithoutFile()
+				.setInt(NetworkConfig.Keys.MAX_RESOURCE_BODY_SIZE, 0)
+				.setInt(NetworkConfig.Keys.MAX_BLOCKWISE_BUFFER_SIZE, 0);
+		sink = new Sink();
+		layer = new BlockwiseLayer(config);
+		layer.setLowerLayer(sink);
+		layer.setUpperLayer(sink);
+		source = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+
+		int count = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		blocks = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			blocks[i] = new byte[Math.min(BLOCK_SIZE, size - i * BLOCK_SIZE)];
+			Arrays.fill(blocks[i], (byte) i);
+		}
+	}
+
+	@Benchmark
+	public Request block1() {
+		Exchange exchange = null;
+		for (int num = 0; num < blocks.length; num++) {
+			Request block = new Request(Code.POST);
+			block.setType(Type.CON);
+			block.setMID(num);
+			block.setToken(new byte[] {1});
+			block.setSource(source);
+			block.setSourcePort(5683);
+			block.getOptions().setUriPath("large");
+			block.getOptions().setContentFormat(MediaTypeRegistry.APPLICATION_OCTET_STREAM);
+			block.getOptions().setBlock1(SZX, num < blocks.length - 1, num);
+			if (num == 0 && size1)
+				block.getOptions().setSize1(size);
+			block.setPayload(blocks[num]);
+			if (exchange == null)
+				exchange = new Exchange(block, Origin.REMOTE);
+			layer.receiveRequest(exchange, block);
+		}
+		Request assembled = sink.request;
+		if (assembled == null || assembled.getPayloadSize() != size)
+			throw new IllegalStateException("Body not assembled");
+		sink.request = null;
+		return assembled;
+	}
+
+	/**
+	 * Drops the acknowledgements and keeps the assembled request.
+	 */
+	private static class Sink extends AbstractLayer {
+
+		private Request request;
+
+		@Override
+		public void sendResponse(Exchange exchange, Response response) { }
+
+		@Override
+		public void receiveRequest(Exchange exchange, Request request) {
+			this.request = request;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.serialization.DataParser;
+import org.eclipse.californium.core.network.serialization.DataSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link DataParser} and the {@link DataSerializer} with a
+ * typical request and response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	private final DataSerializer serializer = new DataSerializer();
+
+	private Request request;
+	private Response response;
+	private byte[] requestBytes;
+	private byte[] responseBytes;
+
+	@Setup
+	public void setup() {
+		request = new Request(Code.GET, Type.CON);
+		request.setMID(4711);
+		request.setToken(new byte[] {1, 2, 3, 4});
+		request.getOptions().setUriHost("sensor.example.com")
+				.setUriPath("/sensors/temperature/outdoor")
+				.setUriQuery("unit=celsius&precision=2")
+				.setAccept(MediaTypeRegistry.APPLICATION_JSON);
+		requestBytes = serializer.serializeRequest(request);
+
+		response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.ACK);
+		response.setMID(4711);
+		response.setToken(new byte[] {1, 2, 3, 4});
+		response.getOptions().setContentFormat(MediaTypeRegistry.APPLICATION_JSON)
+				.setMaxAge(30)
+				.addETag(new byte[] {5, 6, 7, 8});
+		response.setPayload("{\"temperature\":21.5,\"unit\":\"celsius\",\"timestamp\":1420070400}");
+		responseBytes = serializer.serializeResponse(response);
+	}
+
+	@Benchmark
+	public Request parseRequest() {
+		return new DataParser(requestBytes).parseRequest();
+	}
+
+	@Benchmark
+	public Response parseResponse() {
+		return new DataParser(responseBytes).parseResponse();
+	}
+
+	@Benchmark
+	public byte[] serializeRequest() {
+		return serializer.serializeRequest(request);
+	}
+
+	@Benchmark
+	public byte[] serializeResponse() {
+		return serializer.serializeResponse(response);
+	}
+}
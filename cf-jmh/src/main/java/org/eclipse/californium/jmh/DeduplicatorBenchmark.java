@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.jmh;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.deduplication.AbstractDeduplicator;
+import org.eclipse.californium.core.network.deduplication.Deduplicator;
+import org.eclipse.californium.core.network.deduplication.DeduplicatorFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures each {@link Deduplicator} with a steady stream of new messages
+ * from 65536 IPv4 peers and lookups of recent ones. The exchange lifetime is
+ * shortened, so that the maintenance task runs during the measurement and the
+ * number of stored messages stays bounded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeduplicatorBenchmark {
+
+	@Param({
+		NetworkConfig.Keys.DEDUPLICATOR_MARK_AND_SWEEP,
+		NetworkConfig.Keys.DEDUPLICATOR_CROP_ROTATION,
+		NetworkConfig.Keys.DEDUPLICATOR_TIMING_WHEEL,
+		NetworkConfig.Keys.DEDUPLICATOR_COMPACT
+	})
+	public String type;
+
+	private AbstractDeduplicator deduplicator;
+	private ScheduledExecutorService executor;
+	private Exchange exchange;
+	private int counter;
+
+	@Setup
+	public void setup() {
+		NetworkConfig config = NetworkConfig.createStandardWithoutFile()
+				.setString(NetworkConfig.Keys.DEDUPLICATOR, type)
+				.setLong(NetworkConfig.Keys.EXCHANGE_LIFETIME, 2000)
+				.setLong(NetworkConfig.Keys.MARK_AND_SWEEP_INTERVAL, 250)
+				.setInt(NetworkConfig.Keys.CROP_ROTATION_PERIOD, 1000)
+				.setLong(NetworkConfig.Keys.TIMING_WHEEL_TICK, 250);
+		executor = Executors.newSingleThreadScheduledExecutor();
+		// all built-in deduplicators support packed keys
+		deduplicator = (AbstractDeduplicator) DeduplicatorFactory.getDeduplicatorFactory().createDeduplicator(config);
+		deduplicator.setExecutor(executor);
+		deduplicator.start();
+		// one exchange for all messages keeps the heap small
+		exchange = new Exchange(new Request(Code.GET), Origin.REMOTE);
+	}
+
+	@TearDown
+	public void tearDown() {
+		deduplicator.stop();
+		executor.shutdown();
+	}
+
+	@Benchmark
+	public Exchange insert() {
+		return deduplicator.findPrevious(key(counter++), exchange);
+	}
+
+	@Benchmark
+	public Exchange lookup() {
+		int id = counter++;
+		deduplicator.findPrevious(key(id), exchange);
+		// a recent message that is still stored
+		return deduplicator.find(key(id - (id & 0x3FF)));
+	}
+
+	/**
+	 * Returns a packed key for a distinct IPv4 peer and MID.
+	 */
+	private static long key(int i) {
+		long address = 0x0A000000L | ((i >>> 16) & 0xFFFF);
+		return (address << 32) | (5683L << 16) | (i & 0xFFFF);
+	}
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.jmh;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.deduplication.AbstractDeduplicator;
+import org.eclipse.californium.core.network.deduplication.Deduplicator;
+import org.eclipse.californium.core.network.deduplication.DeduplicatorFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the maintenance cost of each {@link Deduplicator} with 10^5 up to
+ * 10^7 stored messages. Before each iteration, a new deduplicator is filled
+ * and its messages are left to expire. The iteration then runs the
+ * maintenance task of the deduplicator, i.e., the sweep, rotation, or tick,
+ * until the messages are gone. The task is not run by a timer, but captured
+ * from the executor, so that exactly the passes needed are timed. The
+ * rotation of the crop-rotation deduplicator includes its call to
+ * {@link System#gc()}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DeduplicatorMaintenanceBenchmark {
+
+	/** The exchange lifetime in ms */
+	private static final int LIFETIME = 100;
+
+	/** The sweep interval, rotation period, and wheel tick in ms */
+	private static final int INTERVAL = 50;
+
+	/** Stops runaway iterations if a deduplicator never expires the messages */
+	private static final int MAX_PASSES = 100;
+
+	@Param({
+		NetworkConfig.Keys.DEDUPLICATOR_MARK_AND_SWEEP,
+		NetworkConfig.Keys.DEDUPLICATOR_CROP_ROTATION,
+		NetworkConfig.Keys.DEDUPLICATOR_TIMING_WHEEL,
+		NetworkConfig.Keys.DEDUPLICATOR_COMPACT
+	})
+	public String type;
+
+	@Param({"100000", "1000000", "10000000"})
+	public int entries;
+
+	private AbstractDeduplicator deduplicator;
+	private CapturingExecutor executor;
+
+	@Setup(Level.Iteration)
+	public void fill() throws InterruptedException {
+		NetworkConfig config = NetworkConfig.createStandardWithoutFile()
+				.setString(NetworkConfig.Keys.DEDUPLICATOR, type)
+				.setLong(NetworkConfig.Keys.EXCHANGE_LIFETIME, LIFETIME)
+				.setLong(NetworkConfig.Keys.MARK_AND_SWEEP_INTERVAL, INTERVAL)
+				.setInt(NetworkConfig.Keys.CROP_ROTATION_PERIOD, INTERVAL)
+				.setLong(NetworkConfig.Keys.TIMING_WHEEL_TICK, INTERVAL);
+		executor = new CapturingExecutor();
+		// all built-in deduplicators support packed keys
+		deduplicator = (AbstractDeduplicator) DeduplicatorFactory.getDeduplicatorFactory().createDeduplicator(config);
+		deduplicator.setExecutor(executor);
+		deduplicator.start();
+
+		// one exchange for all messages keeps the heap small
+		Exchange exchange = new Exchange(new Request(Code.GET), Origin.REMOTE);
+		for (int i = 0; i < entries; i++)
+			deduplicator.findPrevious(key(i), exchange);
+		Thread.sleep(LIFETIME + 1);
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		deduplicator.stop();
+		executor.shutdownNow();
+		deduplicator = null;
+	}
+
+	@Benchmark
+	public int expire() {
+		int passes = 0;
+		do {
+			executor.runCaptured();
+			passes++;
+		} while (deduplicator.find(key(entries - 1)) != null && passes < MAX_PASSES);
+		return passes;
+	}
+
+	/**
+	 * Returns a packed key for a distinct IPv4 peer and MID.
+	 */
+	private static long key(int i) {
+		long address = 0x0A000000L | (i >>> 16);
+		return (address << 32) | (5683L << 16) | (i & 0xFFFF);
+	}
+
+	/**
+	 * An executor that keeps the task last scheduled by the deduplicator
+	 * instead of running it.
+	 */
+	private static class CapturingExecutor extends ScheduledThreadPoolExecutor {
+
+		private static final Runnable NOOP = new Runnable() {
+			public void run() { }
+		};
+
+		private Runnable task;
+
+		private CapturingExecutor() {
+			super(1);
+		}
+
+		@Override
+		public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+			task = command;
+			// a future the deduplicator can cancel, but which never runs
+			return super.schedule(NOOP, 1, TimeUnit.DAYS);
+		}
+
+		/**
+		 * Runs the captured task, which schedules itself again.
+		 */
+		private void runCaptured() {
+			task.run();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.jmh;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.eclipse.californium.elements.Connector;
+import org.eclipse.californium.elements.RawData;
+import org.eclipse.californium.elements.RawDataChannel;
+
+/**
+ * A connector that hands the sent data directly to the receiver of its peer
+ * connector in the same JVM. The stack benchmarks use it to measure the
+ * endpoints without the network.
+ */
+public class LoopbackConnector implements Connector {
+
+	private final InetSocketAddress address;
+
+	private LoopbackConnector peer;
+
+	private RawDataChannel receiver;
+
+	private volatile boolean running;
+
+	/**
+	 * Instantiates a new connector with the specified address.
+	 *
+	 * @param address the address of the connector
+	 */
+	public LoopbackConnector(InetSocketAddress address) {
+		this.address = address;
+	}
+
+	/**
+	 * Connects the two connectors with each other.
+	 *
+	 * @param one the one connector
+	 * @param other the other connector
+	 */
+	public static void connect(LoopbackConnector one, LoopbackConnector other) {
+		one.peer = other;
+		other.peer = one;
+	}
+
+	@Override
+	public void start() throws IOException {
+		running = true;
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+	}
+
+	@Override
+	public void destroy() {
+		stop();
+	}
+
+	@Override
+	public void send(RawData msg) {
+		LoopbackConnector peer = this.peer;
+		if (running && peer != null && peer.running && peer.receiver != null)
+			peer.receiver.receiveData(new RawData(msg.getBytes(), address.getAddress(), address.getPort()));
+	}
+
+	@Override
+	public void setRawDataReceiver(RawDataChannel receiver) {
+		this.receiver = receiver;
+	}
+
+	@Override
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+}
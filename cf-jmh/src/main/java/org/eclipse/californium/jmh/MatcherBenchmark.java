@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.jmh;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.eclipse.californium.core.network.ExchangeMatcher;
+import org.eclipse.californium.core.network.Matcher;
+import org.eclipse.californium.core.network.ShardedMatcher;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link Matcher} and the {@link ShardedMatcher} for a complete
+ * exchange as client, i.e., a sent request matched with a piggy-backed
+ * response, and as server, i.e., a received request that passes the
+ * deduplicator and is answered. All benchmark threads share one matcher and
+ * each thread plays its own peers, so that running with an increasing number
+ * of threads shows how well the exchange tables scale with the cores:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar MatcherBenchmark -t 4
+ * </pre>
+ *
+ * The exchange lifetime is shortened so that the deduplicator does not grow
+ * during the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatcherBenchmark {
+
+	/** The number of shards, where 0 means the plain {@link Matcher} */
+	@Param({"0", "16"})
+	public int shards;
+
+	private ExchangeMatcher matcher;
+	private ScheduledExecutorService executor;
+	private final AtomicInteger threads = new AtomicInteger();
+
+	@Setup
+	public void setup() {
+		NetworkConfig config = NetworkConfig.createStandardWithoutFile()
+				.setLong(NetworkConfig.Keys.EXCHANGE_LIFETIME, 2000)
+				.setLong(NetworkConfig.Keys.MARK_AND_SWEEP_INTERVAL, 500);
+		executor = Executors.newSingleThreadScheduledExecutor();
+		matcher = shards == 0 ? new Matcher(config) : new ShardedMatcher(config, shards);
+		matcher.setExecutor(executor);
+		matcher.start();
+	}
+
+	@TearDown
+	public void tearDown() {
+		matcher.stop();
+		executor.shutdown();
+	}
+
+	/**
+	 * The peers and the message counter of one benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class Peers {
+
+		private InetAddress[] peers;
+		private int thread;
+		private int counter;
+
+		@Setup
+		public void setup(MatcherBenchmark benchmark) throws UnknownHostException {
+			thread = benchmark.threads.getAndIncrement();
+			peers = new InetAddress[256];
+			for (int i = 0; i < peers.length; i++)
+				peers[i] = InetAddress.getByAddress(new byte[] {10, (byte) thread, 0, (byte) i});
+		}
+	}
+
+	@Benchmark
+	public Exchange clientExchange(Peers peers) {
+		int id = peers.counter++;
+		Request request = new Request(Code.GET, Type.CON);
+		request.setMID(id & 0xFFFF);
+		request.setToken(token(peers.thread, id));
+		request.setDestination(peers.peers[id & 0xFF]);
+		request.setDestinationPort(5683);
+		Exchange exchange = new Exchange(request, Origin.LOCAL);
+		matcher.sendRequest(exchange, request);
+
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.ACK);
+		response.setMID(request.getMID());
+		response.setToken(request.getToken());
+		response.setSource(request.getDestination());
+		response.setSourcePort(5683);
+		Exchange matched = matcher.receiveResponse(response);
+		matched.setComplete();
+		return matched;
+	}
+
+	@Benchmark
+	public Exchange serverExchange(Peers peers) {
+		int id = peers.counter++;
+		Request request = new Request(Code.GET, Type.CON);
+		request.setMID(id & 0xFFFF);
+		request.setToken(token(peers.thread, id));
+		// distinct MID, address, and port for each request within 2^32
+		request.setSource(peers.peers[(id >>> 16) & 0xFF]);
+		request.setSourcePort(5683 + (id >>> 24));
+		Exchange exchange = matcher.receiveRequest(request);
+
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.ACK);
+		response.setMID(request.getMID());
+		response.setToken(request.getToken());
+		response.setDestination(request.getSource());
+		response.setDestinationPort(request.getSourcePort());
+		exchange.setResponse(response);
+		matcher.sendResponse(exchange, response);
+		return exchange;
+	}
+
+	private static byte[] token(int thread, int id) {
+		return new byte[] {(byte) thread, (byte) (id >>> 24), (byte) (id >>> 16), (byte) (id >>> 8), (byte) id};
+	}
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.BlockOption;
+import org.eclipse.californium.core.coap.CompactOptionSet;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast an {@link OptionSet} is filled and converted into the
+ * sorted list of options or the {@link CompactOptionSet} that the serializer
+ * uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptionSetBenchmark {
+
+	private OptionSet options;
+
+	@Setup
+	public void setup() {
+		options = fill(new OptionSet());
+	}
+
+	@Benchmark
+	public OptionSet mutate() {
+		return fill(new OptionSet());
+	}
+
+	@Benchmark
+	public List<Option> asSortedList() {
+		return options.asSortedList();
+	}
+
+	@Benchmark
+	public CompactOptionSet toCompact() {
+		return options.toCompact();
+	}
+
+	@Benchmark
+	public boolean hasOption() {
+		return options.hasOption(OptionNumberRegistry.ETAG);
+	}
+
+	private static OptionSet fill(OptionSet options) {
+		return options.setUriHost("sensor.example.com")
+				.setUriPath("/sensors/temperature/outdoor")
+				.setUriQuery("unit=celsius&precision=2")
+				.setContentFormat(MediaTypeRegistry.APPLICATION_JSON)
+				.setAccept(MediaTypeRegistry.APPLICATION_JSON)
+				.setObserve(42)
+				.setBlock2(BlockOption.size2Szx(512), false, 3)
+				.addETag(new byte[] {5, 6, 7, 8});
+	}
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.jmh;
+
+import static org.eclipse.californium.core.coap.CoAP.MessageFormat.CODE_BITS;
+import static org.eclipse.californium.core.coap.CoAP.MessageFormat.MESSAGE_ID_BITS;
+import static org.eclipse.californium.core.coap.CoAP.MessageFormat.PAYLOAD_MARKER;
+import static org.eclipse.californium.core.coap.CoAP.MessageFormat.TOKEN_LENGTH_BITS;
+import static org.eclipse.californium.core.coap.CoAP.MessageFormat.TYPE_BITS;
+import static org.eclipse.californium.core.coap.CoAP.MessageFormat.VERSION_BITS;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.serialization.DataParser;
+import org.eclipse.californium.core.network.serialization.DataSerializer;
+import org.eclipse.californium.core.network.serialization.DatagramReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the in-place {@link DataParser} with the previous parser that read
+ * the datagram through a {@link DatagramReader} and copied every option value
+ * and the payload. Run with the GC profiler to compare the bytes allocated per
+ * message:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar ParserBenchmark -prof gc
+ * </pre>
+ *
+ * and look at <code>gc.alloc.rate.norm</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	private byte[] datagram;
+
+	@Setup
+	public void setup() {
+		Request request = new Request(Code.POST, Type.CON);
+		request.setMID(4711);
+		request.setToken(new byte[] {1, 2, 3, 4});
+		request.getOptions().setUriHost("sensor.example.com")
+				.setUriPath("/sensors/temperature/outdoor")
+				.setUriQuery("unit=celsius&precision=2")
+				.setContentFormat(MediaTypeRegistry.APPLICATION_JSON)
+				.setAccept(MediaTypeRegistry.APPLICATION_JSON);
+		request.setPayload("{\"temperature\":21.5,\"unit\":\"celsius\",\"timestamp\":1420070400}");
+		datagram = new DataSerializer().serializeRequest(request);
+	}
+
+	/*
+	 * The payload stays a slice of the datagram, e.g., for duplicates.
+	 */
+	@Benchmark
+	public Request parseInPlace() {
+		return new DataParser(datagram).parseRequest();
+	}
+
+	/*
+	 * The payload is copied out of the datagram by a layer reading it.
+	 */
+	@Benchmark
+	public byte[] parseInPlaceAndReadPayload() {
+		return new DataParser(datagram).parseRequest().getPayload();
+	}
+
+	@Benchmark
+	public Request parseWithDatagramReader() {
+		return parseWithDatagramReader(datagram);
+	}
+
+	/*
+	 * The parser before it worked in place.
+	 */
+	private static Request parseWithDatagramReader(byte[] bytes) {
+		DatagramReader reader = new DatagramReader(bytes);
+		reader.read(VERSION_BITS);
+		int type = reader.read(TYPE_BITS);
+		int tokenlength = reader.read(TOKEN_LENGTH_BITS);
+		int code = reader.read(CODE_BITS);
+		int mid = reader.read(MESSAGE_ID_BITS);
+
+		Request request = new Request(Code.valueOf(code));
+		request.setType(Type.valueOf(type));
+		request.setMID(mid);
+		if (tokenlength > 0) {
+			request.setToken(reader.readBytes(tokenlength));
+		} else {
+			request.setToken(new byte[0]);
+		}
+
+		int currentOption = 0;
+		byte nextByte = 0;
+		while (reader.bytesAvailable()) {
+			nextByte = reader.readNextByte();
+			if (nextByte != PAYLOAD_MARKER) {
+				currentOption += readOptionValueFromNibble(reader, (0xF0 & nextByte) >> 4);
+				int optionLength = readOptionValueFromNibble(reader, 0x0F & nextByte);
+				Option option = new Option(currentOption);
+				option.setValue(reader.readBytes(optionLength));
+				request.getOptions().addOption(option);
+			} else break;
+		}
+
+		if (nextByte == PAYLOAD_MARKER) {
+			request.setPayload(reader.readBytesLeft());
+		} else {
+			request.setPayload(new byte[0]);
+		}
+		return request;
+	}
+
+	private static int readOptionValueFromNibble(DatagramReader reader, int nibble) {
+		if (nibble <= 12) {
+			return nibble;
+		} else if (nibble == 13) {
+			return reader.read(8) + 13;
+		} else {
+			return reader.read(16) + 269;
+		}
+	}
+}
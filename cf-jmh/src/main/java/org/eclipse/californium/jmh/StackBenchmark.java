@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ ******************************************************************************/
+package org.eclipse.californium.jmh;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.CoAPEndpoint;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures complete round-trips through the CoAP stacks of a client and a
+ * server endpoint that are connected by a {@link LoopbackConnector}. Besides
+ * a simple GET, a 4 KiB resource is retrieved and updated, for which the
+ * BlockwiseLayer of the client and the server respectively assembles the
+ * blocks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StackBenchmark {
+
+	private static final int LARGE = 4096;
+
+	private CoapServer server;
+	private CoAPEndpoint client;
+	private InetSocketAddress serverAddress;
+	private byte[] payload;
+
+	@Setup
+	public void setup() throws IOException {
+		// short lifetime, since the client's MIDs wrap around quickly
+		NetworkConfig config = NetworkConfig.createStandardWithoutFile()
+				.setLong(NetworkConfig.Keys.EXCHANGE_LIFETIME, 500)
+				.setLong(NetworkConfig.Keys.MARK_AND_SWEEP_INTERVAL, 100);
+
+		InetAddress loopback = InetAddress.getByAddress(new byte[] {127, 0, 0, 1});
+		serverAddress = new InetSocketAddress(loopback, 5683);
+		LoopbackConnector serverConnector = new LoopbackConnector(serverAddress);
+		LoopbackConnector clientConnector = new LoopbackConnector(new InetSocketAddress(loopback, 5684));
+		LoopbackConnector.connect(serverConnector, clientConnector);
+
+		payload = new byte[LARGE];
+		Arrays.fill(payload, (byte) 'x');
+
+		server = new CoapServer(config);
+		server.addEndpoint(new CoAPEndpoint(serverConnector, config));
+		server.add(new CoapResource("small") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				exchange.respond("hello");
+			}
+		});
+		server.add(new CoapResource("large") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				exchange.respond(ResponseCode.CONTENT, payload);
+			}
+			@Override
+			public void handlePOST(CoapExchange exchange) {
+				exchange.respond(ResponseCode.CHANGED);
+			}
+		});
+		server.start();
+
+		client = new CoAPEndpoint(clientConnector, config);
+		client.start();
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.destroy();
+		server.destroy();
+	}
+
+	@Benchmark
+	public Response get() throws InterruptedException {
+		return roundTrip(new Request(Code.GET), "small");
+	}
+
+	@Benchmark
+	public Response blockwiseGet() throws InterruptedException {
+		return roundTrip(new Request(Code.GET), "large");
+	}
+
+	@Benchmark
+	public Response blockwisePost() throws InterruptedException {
+		Request request = new Request(Code.POST);
+		request.setPayload(payload);
+		return roundTrip(request, "large");
+	}
+
+	private Response roundTrip(Request request, String path) throws InterruptedException {
+		request.setDestination(serverAddress.getAddress());
+		request.setDestinationPort(serverAddress.getPort());
+		request.getOptions().setUriPath(path);
+		request.send(client);
+		Response response = request.waitForResponse(5000);
+		if (response == null)
+			throw new IllegalStateException("No response for "+path);
+		return response;
+	}
+}